@@ -0,0 +1,85 @@
+/*
+ * Copyright 2022 Dash Core Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.benchmarks;
+
+import org.bitcoinj.core.Context;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.crypto.BLSBatchVerifier;
+import org.bitcoinj.crypto.BLSPublicKey;
+import org.bitcoinj.crypto.BLSSecretKey;
+import org.bitcoinj.crypto.BLSSignature;
+import org.bitcoinj.params.MainNetParams;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link BLSBatchVerifier#verify()} on a batch of valid signatures, as received for the signature shares and
+ * votes of a quorum, on the calling thread and on the shared executor.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BLSBatchVerifierBenchmark {
+    private static final int SOURCES = 50;
+    private static final int MESSAGES_PER_SOURCE = 4;
+
+    @Param({"false", "true"})
+    public boolean secure;
+
+    @Param({"false", "true"})
+    public boolean parallel;
+
+    private final Sha256Hash[] msgIds = new Sha256Hash[SOURCES * MESSAGES_PER_SOURCE];
+    private final Sha256Hash[] msgHashes = new Sha256Hash[SOURCES * MESSAGES_PER_SOURCE];
+    private final BLSSignature[] signatures = new BLSSignature[SOURCES * MESSAGES_PER_SOURCE];
+    private final BLSPublicKey[] publicKeys = new BLSPublicKey[SOURCES];
+
+    @Setup
+    public void setUp() {
+        Context.propagate(new Context(MainNetParams.get()));
+        for (int source = 0; source < SOURCES; source++) {
+            BLSSecretKey sk = BLSSecretKey.fromSeed(Sha256Hash.of(new byte[] {(byte) source}).getBytes());
+            publicKeys[source] = sk.GetPublicKey();
+            for (int i = 0; i < MESSAGES_PER_SOURCE; i++) {
+                int index = source * MESSAGES_PER_SOURCE + i;
+                msgIds[index] = Sha256Hash.of(new byte[] {(byte) source, (byte) i});
+                msgHashes[index] = Sha256Hash.of(new byte[] {(byte) source, (byte) i, 1});
+                signatures[index] = sk.Sign(msgHashes[index]);
+            }
+        }
+    }
+
+    @Benchmark
+    public BLSBatchVerifier<Integer, Sha256Hash> verify() {
+        BLSBatchVerifier<Integer, Sha256Hash> verifier = parallel
+                ? new BLSBatchVerifier<Integer, Sha256Hash>(secure, true, 0, BLSBatchVerifier.getDefaultExecutor(),
+                        BLSBatchVerifier.getDefaultParallelism())
+                : new BLSBatchVerifier<Integer, Sha256Hash>(secure, true);
+        for (int index = 0; index < msgIds.length; index++) {
+            int source = index / MESSAGES_PER_SOURCE;
+            verifier.pushMessage(source, msgIds[index], msgHashes[index], signatures[index], publicKeys[source]);
+        }
+        verifier.verify();
+        if (!verifier.getBadMessages().isEmpty())
+            throw new IllegalStateException("valid messages failed to verify");
+        return verifier;
+    }
+}
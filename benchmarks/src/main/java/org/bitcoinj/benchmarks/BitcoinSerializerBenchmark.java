@@ -0,0 +1,78 @@
+/*
+ * Copyright 2022 Dash Core Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.benchmarks;
+
+import com.google.common.io.ByteStreams;
+import org.bitcoinj.core.BitcoinSerializer;
+import org.bitcoinj.core.Context;
+import org.bitcoinj.core.Message;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.params.MainNetParams;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link BitcoinSerializer#deserialize(ByteBuffer)} on recorded mainnet messages, including the message
+ * header, the checksum and the parsing of the payload.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BitcoinSerializerBenchmark {
+    private static final NetworkParameters PARAMS = MainNetParams.get();
+
+    /** The command of the message and the resource holding its payload. */
+    @Param({"block:/org/bitcoinj/core/block169482.dat", "mnlistdiff:/org/bitcoinj/evolution/ML1088640.dat"})
+    public String message;
+
+    private BitcoinSerializer serializer;
+    private byte[] bytes;
+
+    @Setup
+    public void setUp() throws IOException {
+        Context.propagate(new Context(PARAMS));
+        serializer = (BitcoinSerializer) PARAMS.getDefaultSerializer();
+        int separator = message.indexOf(':');
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        serializer.serialize(message.substring(0, separator), readResource(message.substring(separator + 1)), stream);
+        bytes = stream.toByteArray();
+    }
+
+    static byte[] readResource(String name) throws IOException {
+        InputStream stream = BitcoinSerializerBenchmark.class.getResourceAsStream(name);
+        if (stream == null)
+            throw new IOException("missing resource " + name);
+        try {
+            return ByteStreams.toByteArray(stream);
+        } finally {
+            stream.close();
+        }
+    }
+
+    @Benchmark
+    public Message deserialize() throws IOException {
+        return serializer.deserialize(ByteBuffer.wrap(bytes));
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2022 Dash Core Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.benchmarks;
+
+import org.bitcoinj.core.Block;
+import org.bitcoinj.core.Context;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.StoredBlock;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.params.UnitTestParams;
+import org.bitcoinj.store.BlockStoreException;
+import org.bitcoinj.store.SPVBlockStore;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link SPVBlockStore#get(Sha256Hash)} for headers spread over a full ring of the default capacity, with and
+ * without the hash index.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SPVBlockStoreBenchmark {
+    private static final NetworkParameters PARAMS = UnitTestParams.get();
+
+    @Param({"false", "true"})
+    public boolean useHashIndex;
+
+    private File file;
+    private SPVBlockStore store;
+    private Sha256Hash[] hashes;
+    private int next;
+
+    @Setup
+    public void setUp() throws BlockStoreException, IOException {
+        Context.propagate(new Context(PARAMS));
+        file = File.createTempFile("spvblockstore", null);
+        file.delete();
+        store = new SPVBlockStore(PARAMS, file, SPVBlockStore.DEFAULT_CAPACITY, true, useHashIndex);
+        StoredBlock block = store.getChainHead();
+        hashes = new Sha256Hash[SPVBlockStore.DEFAULT_CAPACITY];
+        for (int i = 0; i < hashes.length; i++) {
+            // headers are not checked by the store, so there is no need to solve them
+            Block header = new Block(PARAMS, Block.BLOCK_VERSION_GENESIS, block.getHeader().getHash(),
+                    Sha256Hash.of(Integer.toString(i).getBytes()), block.getHeader().getTimeSeconds() + 150,
+                    block.getHeader().getDifficultyTarget(), 0, new ArrayList<Transaction>());
+            block = block.build(header);
+            store.put(block);
+            hashes[i] = block.getHeader().getHash();
+        }
+        store.setChainHead(block);
+        // look the headers up in random order
+        Random random = new Random(1);
+        for (int i = hashes.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            Sha256Hash hash = hashes[i];
+            hashes[i] = hashes[j];
+            hashes[j] = hash;
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws BlockStoreException {
+        store.close();
+        file.delete();
+    }
+
+    @Benchmark
+    public StoredBlock get() throws BlockStoreException {
+        StoredBlock block = store.get(hashes[next]);
+        next = (next + 1) % hashes.length;
+        return block;
+    }
+}
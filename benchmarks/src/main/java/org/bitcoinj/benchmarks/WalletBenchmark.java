@@ -0,0 +1,97 @@
+/*
+ * Copyright 2022 Dash Core Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.benchmarks;
+
+import org.bitcoinj.core.Address;
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.Context;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.crypto.TransactionSignature;
+import org.bitcoinj.params.UnitTestParams;
+import org.bitcoinj.script.Script;
+import org.bitcoinj.script.ScriptBuilder;
+import org.bitcoinj.wallet.DeterministicSeed;
+import org.bitcoinj.wallet.Wallet;
+import org.openjdk.jmh.annotations.*;
+
+import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link Wallet#receivePending(Transaction, java.util.List)} for a payment to the wallet, with a wallet that
+ * already holds {@link #history} pending payments. Each measurement is a batch of {@link #BATCH_SIZE} payments
+ * received by a wallet that was built for that measurement alone.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, batchSize = WalletBenchmark.BATCH_SIZE)
+@Measurement(iterations = 20, batchSize = WalletBenchmark.BATCH_SIZE)
+@Fork(1)
+@State(Scope.Thread)
+public class WalletBenchmark {
+    private static final NetworkParameters PARAMS = UnitTestParams.get();
+    static final int BATCH_SIZE = 100;
+
+    @Param({"0", "1000"})
+    public int history;
+
+    private DeterministicSeed seed;
+    private Wallet wallet;
+    private Address address;
+    private Transaction[] batch;
+    private int next;
+    private long counter;
+
+    @Setup(Level.Trial)
+    public void setUpSeed() {
+        seed = new DeterministicSeed(new SecureRandom(), DeterministicSeed.DEFAULT_SEED_ENTROPY_BITS, "");
+    }
+
+    // The wallet has no way to drop a single pending transaction, so a new one is built for every batch, which keeps
+    // its size between history and history + BATCH_SIZE. The transactions and the context that tracks their
+    // confidence are new as well, so nothing the earlier wallets registered stays reachable.
+    @Setup(Level.Iteration)
+    public void setUpWallet() {
+        Context.propagate(new Context(PARAMS));
+        // the same seed gives the wallet the address the payments go to
+        wallet = Wallet.fromSeed(PARAMS, seed, Script.ScriptType.P2PKH);
+        address = wallet.freshReceiveAddress();
+        for (int i = 0; i < history; i++)
+            wallet.receivePending(payment(), null);
+        batch = new Transaction[BATCH_SIZE];
+        for (int i = 0; i < BATCH_SIZE; i++)
+            batch[i] = payment();
+        next = 0;
+    }
+
+    /** Returns a payment to the wallet that spends an output which is not in the wallet. */
+    private Transaction payment() {
+        Transaction payment = new Transaction(PARAMS);
+        payment.addOutput(Coin.CENT, address);
+        Sha256Hash prevTxHash = Sha256Hash.of(Long.toString(counter++).getBytes());
+        payment.addInput(prevTxHash, 0, ScriptBuilder.createInputScript(TransactionSignature.dummy()));
+        return payment;
+    }
+
+    @Benchmark
+    public Wallet receivePending() {
+        wallet.receivePending(batch[next++], null);
+        return wallet;
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2022 Dash Core Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.benchmarks;
+
+import com.hashengineering.crypto.X11;
+import com.hashengineering.crypto.X11Engine;
+import fr.cryptohash.*;
+import org.bitcoinj.core.Utils;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the ways of computing X11 over a block header: the thread local {@link X11Engine}, the previous pure Java
+ * path that created new digests for every call, and {@link X11#x11Digest(byte[])}, which uses the native library
+ * when it can be loaded from {@code java.library.path} and falls back to the engine otherwise.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class X11Benchmark {
+    private static final byte[] HEADER = Utils.HEX.decode("020000002cc0081be5039a54b686d24d5d8747ee9770d9973ec1ace02e5c0500000000008d7139724b11c52995db4370284c998b9114154b120ad3486f1a360a1d4253d310d40e55b8f70a1be8e32300");
+
+    private final byte[] out = new byte[X11Engine.DIGEST_LENGTH];
+
+    @Benchmark
+    public byte[] engine() {
+        X11Engine.get().digest(HEADER, 0, HEADER.length, out, 0);
+        return out;
+    }
+
+    @Benchmark
+    public byte[] freshDigests() {
+        Digest[] algorithms = new Digest[] {
+                new BLAKE512(),
+                new Groestl512(),
+                new CubeHash512(),
+                new SHAvite512(),
+                new ECHO512()
+        };
+        byte[] hash512 = HEADER;
+        for (Digest algorithm : algorithms) {
+            algorithm.update(hash512);
+            hash512 = algorithm.digest();
+        }
+        byte[] hash = new byte[32];
+        System.arraycopy(hash512, 0, hash, 0, 32);
+        return hash;
+    }
+
+    @Benchmark
+    public byte[] x11Digest() {
+        return X11.x11Digest(HEADER);
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2022 Dash Core Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.evolution;
+
+import com.google.common.io.ByteStreams;
+import org.bitcoinj.core.Context;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.Utils;
+import org.bitcoinj.params.MainNetParams;
+import org.bitcoinj.quorums.LLMQParameters;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures building the mainnet masternode list at height 1088640 from the recorded full diff and selecting quorum
+ * members from it. The benchmark lives in this package because {@link SimplifiedMasternodeList#calculateQuorum} is
+ * package private.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SimplifiedMasternodeListBenchmark {
+    private static final NetworkParameters PARAMS = MainNetParams.get();
+
+    private SimplifiedMasternodeListDiff diff;
+    private SimplifiedMasternodeList list;
+    private int quorumSize;
+    private Sha256Hash modifier;
+    private long counter;
+
+    @Setup
+    public void setUp() throws Exception {
+        Context.propagate(new Context(PARAMS));
+        InputStream stream = getClass().getResourceAsStream("/org/bitcoinj/evolution/ML1088640.dat");
+        if (stream == null)
+            throw new IOException("missing resource ML1088640.dat");
+        try {
+            diff = new SimplifiedMasternodeListDiff(PARAMS, ByteStreams.toByteArray(stream));
+        } finally {
+            stream.close();
+        }
+        list = new SimplifiedMasternodeList(PARAMS).applyDiff(diff);
+        quorumSize = PARAMS.getLlmqs().get(LLMQParameters.LLMQType.LLMQ_400_60).getSize();
+        modifier = Sha256Hash.of(new byte[] {1});
+    }
+
+    @Benchmark
+    public SimplifiedMasternodeList applyDiff() throws MasternodeListDiffException {
+        return new SimplifiedMasternodeList(PARAMS).applyDiff(diff);
+    }
+
+    /** Selects a quorum for a modifier that was not used before, so that every masternode is scored. */
+    @Benchmark
+    public ArrayList<Masternode> calculateQuorum() {
+        byte[] bytes = new byte[8];
+        Utils.int64ToByteArrayLE(counter++, bytes, 0);
+        return list.calculateQuorum(quorumSize, Sha256Hash.of(bytes));
+    }
+
+    /** Selects a quorum for the same modifier each time, which is served from the score cache of the list. */
+    @Benchmark
+    public ArrayList<Masternode> calculateQuorumCached() {
+        return list.calculateQuorum(quorumSize, modifier);
+    }
+}
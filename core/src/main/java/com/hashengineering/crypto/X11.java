@@ -72,22 +72,10 @@ public class X11 {
 
     static native byte [] x11_native(byte [] input, int offset, int length);
 
+    /**
+     * Computes X11 in Java on the calling thread's {@link X11Engine}, which reuses its digest objects across calls.
+     */
     public static byte [] x11(byte[] input, int offset, int length) {
-        Digest [] algorithms = initAlgorithms();
-        Digest algorithm = algorithms[0];
-        algorithm.reset();
-        algorithm.update(input, offset, length);
-        byte [] hash512 = algorithm.digest();
-        int count = 1;
-        while (count < 5) {
-            algorithm = algorithms[count];
-            algorithm.reset();
-            algorithm.update(hash512);
-            hash512 = algorithm.digest();
-            count++;
-        }
-        byte [] hash = new byte [32];
-        System.arraycopy(hash512, 0, hash, 0, 32);
-        return hash;
+        return X11Engine.get().digest(input, offset, length);
     }
 }
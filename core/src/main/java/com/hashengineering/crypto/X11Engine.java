@@ -0,0 +1,77 @@
+/*
+ * Copyright 2022 Dash Core Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hashengineering.crypto;
+
+import fr.cryptohash.Digest;
+
+import static com.google.common.base.Preconditions.checkPositionIndexes;
+
+/**
+ * A reusable pure Java X11 hasher. Each thread gets its own set of digest objects and intermediate buffer through
+ * {@link #get()}, so hashing does not allocate anything beyond what the caller passes in.
+ *
+ * <p>Instances are not thread safe, do not share the object returned by {@link #get()} with other threads.</p>
+ */
+public final class X11Engine {
+    public static final int DIGEST_LENGTH = 32;
+
+    private static final ThreadLocal<X11Engine> ENGINES = new ThreadLocal<X11Engine>() {
+        @Override
+        protected X11Engine initialValue() {
+            return new X11Engine();
+        }
+    };
+
+    private final Digest[] algorithms = X11.initAlgorithms();
+    private final byte[] hash512 = new byte[64];
+
+    private X11Engine() {
+    }
+
+    /** Returns the engine belonging to the calling thread. */
+    public static X11Engine get() {
+        return ENGINES.get();
+    }
+
+    /**
+     * Hashes {@code len} bytes of {@code in} starting at {@code off} and writes the 32 byte result to {@code out}
+     * starting at {@code outOff}.
+     */
+    public void digest(byte[] in, int off, int len, byte[] out, int outOff) {
+        checkPositionIndexes(off, off + len, in.length);
+        checkPositionIndexes(outOff, outOff + DIGEST_LENGTH, out.length);
+        Digest algorithm = algorithms[0];
+        algorithm.update(in, off, len);
+        algorithm.digest(hash512, 0, hash512.length);
+        final int last = algorithms.length - 1;
+        for (int i = 1; i < last; i++) {
+            algorithm = algorithms[i];
+            algorithm.update(hash512, 0, hash512.length);
+            algorithm.digest(hash512, 0, hash512.length);
+        }
+        // The final round is truncated to 256 bits straight into the output, digest() resets each algorithm.
+        algorithm = algorithms[last];
+        algorithm.update(hash512, 0, hash512.length);
+        algorithm.digest(out, outOff, DIGEST_LENGTH);
+    }
+
+    /** Hashes the given range and returns the result in a new 32 byte array. */
+    public byte[] digest(byte[] in, int off, int len) {
+        byte[] out = new byte[DIGEST_LENGTH];
+        digest(in, off, len, out, 0);
+        return out;
+    }
+}
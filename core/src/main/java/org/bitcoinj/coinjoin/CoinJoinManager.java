@@ -0,0 +1,347 @@
+/*
+ * Copyright 2022 Dash Core Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bitcoinj.coinjoin;
+
+import com.google.common.annotations.VisibleForTesting;
+import org.bitcoinj.core.Context;
+import org.bitcoinj.core.Message;
+import org.bitcoinj.core.Peer;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.TransactionOutPoint;
+import org.bitcoinj.core.Utils;
+import org.bitcoinj.crypto.BLSBatchVerifier;
+import org.bitcoinj.crypto.BLSPublicKey;
+import org.bitcoinj.crypto.BLSSignature;
+import org.bitcoinj.evolution.SimplifiedMasternodeList;
+import org.bitcoinj.evolution.SimplifiedMasternodeListEntry;
+import org.bitcoinj.utils.ContextPropagatingThreadFactory;
+import org.bitcoinj.utils.Metrics;
+import org.bitcoinj.utils.Threading;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * <p>Keeps track of the mixing queues (dsq) that masternodes announce and of the mixing transactions (dstx) they
+ * broadcast. The signatures of these messages are not checked on the network thread one at a time. The messages are
+ * collected and verified in batches with a {@link BLSBatchVerifier} against the operator keys of the current
+ * masternode list, on a thread of their own.</p>
+ *
+ * <p>The verified queues that are still open are kept per denomination, oldest first, with at most one queue per
+ * masternode. A queue expires {@link #QUEUE_TIMEOUT_SECONDS} after it was created, so {@link #getQueue(int)} can
+ * return a queue to join without looking at more than the expired queues in front of it.</p>
+ */
+public class CoinJoinManager {
+    private static final Logger log = LoggerFactory.getLogger(CoinJoinManager.class);
+    private static final Metrics.Counter unknownMasternodes = Metrics.get().counter("dashj_coinjoin_unknown_masternodes_total",
+            "Mixing messages ignored because the masternode list has no masternode registered by their collateral");
+
+    /** Seconds a queue stays open, and how far its time may differ from ours when it arrives. */
+    public static final int QUEUE_TIMEOUT_SECONDS = 30;
+    /** How many verified mixing transactions are kept. */
+    public static final int MAX_BROADCAST_TXS = 1000;
+    // how many messages are remembered to ignore those that were already received
+    private static final int MAX_SEEN_MESSAGES = 10000;
+    // how often messages of unknown masternodes are reported at warn level
+    private static final long UNKNOWN_MASTERNODE_WARN_INTERVAL_MILLIS = 60 * 1000;
+
+    private final Context context;
+    private final Executor executor;
+    @Nullable private final ExecutorService ownExecutor;
+
+    private final ReentrantLock lock = Threading.lock("CoinJoinManager");
+    // guarded by lock
+    // messages by the hash of their serialization, so that a copy with a bad signature does not hide the real one
+    private final LinkedHashMap<Sha256Hash, Message> pendingMessages = new LinkedHashMap<>();
+    private boolean verificationScheduled;
+    @SuppressWarnings("serial")
+    private final LinkedHashMap<Sha256Hash, Boolean> seenMessages = new LinkedHashMap<Sha256Hash, Boolean>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Sha256Hash, Boolean> eldest) {
+            return size() > MAX_SEEN_MESSAGES;
+        }
+    };
+    private final HashMap<Integer, LinkedHashMap<TransactionOutPoint, CoinJoinQueue>> queuesByDenomination = new HashMap<>();
+    @SuppressWarnings("serial")
+    private final LinkedHashMap<Sha256Hash, CoinJoinBroadcastTx> broadcastTxs = new LinkedHashMap<Sha256Hash, CoinJoinBroadcastTx>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Sha256Hash, CoinJoinBroadcastTx> eldest) {
+            return size() > MAX_BROADCAST_TXS;
+        }
+    };
+    // when messages of unknown masternodes were last reported at warn level, and how many were ignored since
+    // guarded by lock
+    private long lastUnknownMasternodeWarnMillis;
+    private int unknownMasternodesSinceWarn;
+
+    public CoinJoinManager(Context context) {
+        this.context = context;
+        this.ownExecutor = Executors.newSingleThreadExecutor(new ContextPropagatingThreadFactory("CoinJoin verification"));
+        this.executor = ownExecutor;
+    }
+
+    @VisibleForTesting
+    CoinJoinManager(Context context, Executor executor) {
+        this.context = context;
+        this.ownExecutor = null;
+        this.executor = executor;
+    }
+
+    public void close() {
+        if (ownExecutor != null)
+            ownExecutor.shutdownNow();
+    }
+
+    public void processQueue(@Nullable Peer peer, CoinJoinQueue queue) {
+        long now = Utils.currentTimeSeconds();
+        if (Math.abs(now - queue.getTime()) > QUEUE_TIMEOUT_SECONDS) {
+            log.debug("{}: ignoring {}, its time is out of bounds", peer, queue);
+            return;
+        }
+        addPending(queue);
+    }
+
+    public void processBroadcastTx(@Nullable Peer peer, CoinJoinBroadcastTx broadcastTx) {
+        addPending(broadcastTx);
+    }
+
+    private void addPending(Message message) {
+        Sha256Hash messageHash = Sha256Hash.twiceOf(message.bitcoinSerialize());
+        lock.lock();
+        try {
+            if (seenMessages.put(messageHash, Boolean.TRUE) != null)
+                return;
+            pendingMessages.put(messageHash, message);
+            if (verificationScheduled)
+                return;
+            verificationScheduled = true;
+        } finally {
+            lock.unlock();
+        }
+        executor.execute(this::verifyPendingMessages);
+    }
+
+    /**
+     * Returns the key that signs the messages of the masternode with the given collateral, or null if it is not in
+     * the masternode list. The simplified masternode list has no collateral outpoints, so only masternodes whose
+     * collateral is an output of their registration transaction are found, see
+     * {@link SimplifiedMasternodeList#getMNByRegistrationCollateral(TransactionOutPoint)}. The messages of the others
+     * are counted in dashj_coinjoin_unknown_masternodes_total and reported at most once a minute.
+     */
+    @Nullable
+    protected BLSPublicKey getOperatorKey(TransactionOutPoint masternodeOutpoint) {
+        if (context.masternodeListManager == null)
+            return null;
+        SimplifiedMasternodeList mnList = context.masternodeListManager.getMasternodeList();
+        SimplifiedMasternodeListEntry mn = mnList != null ? mnList.getMNByRegistrationCollateral(masternodeOutpoint) : null;
+        if (mn == null) {
+            unknownMasternode(masternodeOutpoint);
+            return null;
+        }
+        return mn.getPubKeyOperator();
+    }
+
+    private void unknownMasternode(TransactionOutPoint masternodeOutpoint) {
+        unknownMasternodes.inc();
+        long now = Utils.currentTimeMillis();
+        lock.lock();
+        try {
+            unknownMasternodesSinceWarn++;
+            if (now - lastUnknownMasternodeWarnMillis < UNKNOWN_MASTERNODE_WARN_INTERVAL_MILLIS) {
+                log.debug("no masternode registered by {}, it is unknown or its collateral is external", masternodeOutpoint);
+                return;
+            }
+            log.warn("ignored {} mixing messages of masternodes that are unknown or have an external collateral, the last from {}",
+                    unknownMasternodesSinceWarn, masternodeOutpoint);
+            lastUnknownMasternodeWarnMillis = now;
+            unknownMasternodesSinceWarn = 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void verifyPendingMessages() {
+        LinkedHashMap<Sha256Hash, Message> messages;
+        lock.lock();
+        try {
+            messages = new LinkedHashMap<>(pendingMessages);
+            pendingMessages.clear();
+            verificationScheduled = false;
+        } finally {
+            lock.unlock();
+        }
+
+        int parallelism = BLSBatchVerifier.getDefaultParallelism();
+        BLSBatchVerifier<TransactionOutPoint, Sha256Hash> batchVerifier = new BLSBatchVerifier<>(false, true,
+                8 * parallelism, BLSBatchVerifier.getDefaultExecutor(), parallelism);
+        LinkedHashMap<Sha256Hash, Message> verifiable = new LinkedHashMap<>();
+        for (Map.Entry<Sha256Hash, Message> entry : messages.entrySet()) {
+            Message message = entry.getValue();
+            TransactionOutPoint outpoint;
+            Sha256Hash signatureHash;
+            BLSSignature signature;
+            if (message instanceof CoinJoinQueue) {
+                CoinJoinQueue queue = (CoinJoinQueue) message;
+                outpoint = queue.getMasternodeOutpoint();
+                signatureHash = queue.getSignatureHash();
+                signature = new BLSSignature(queue.getSignature().getBytes());
+            } else {
+                CoinJoinBroadcastTx broadcastTx = (CoinJoinBroadcastTx) message;
+                outpoint = broadcastTx.getMasternodeOutpoint();
+                signatureHash = broadcastTx.getSignatureHash();
+                signature = new BLSSignature(broadcastTx.getSignature().getBytes());
+            }
+            BLSPublicKey pubKey = getOperatorKey(outpoint);
+            if (pubKey == null || !pubKey.isValid()) {
+                log.debug("ignoring {}, the masternode is unknown", message);
+                continue;
+            }
+            if (!signature.isValid()) {
+                log.info("ignoring {}, the signature is not valid", message);
+                continue;
+            }
+            batchVerifier.pushMessage(outpoint, entry.getKey(), signatureHash, signature, pubKey);
+            verifiable.put(entry.getKey(), message);
+        }
+        batchVerifier.verify();
+
+        lock.lock();
+        try {
+            for (Map.Entry<Sha256Hash, Message> entry : verifiable.entrySet()) {
+                Message message = entry.getValue();
+                if (batchVerifier.getBadMessages().contains(entry.getKey()))
+                    log.info("ignoring {}, the signature does not match the masternode", message);
+                else if (message instanceof CoinJoinQueue)
+                    addQueue((CoinJoinQueue) message);
+                else
+                    addBroadcastTx((CoinJoinBroadcastTx) message);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void addQueue(CoinJoinQueue queue) {
+        LinkedHashMap<TransactionOutPoint, CoinJoinQueue> queues = queuesByDenomination.get(queue.getDenomination());
+        if (queues == null) {
+            queues = new LinkedHashMap<>();
+            queuesByDenomination.put(queue.getDenomination(), queues);
+        }
+        CoinJoinQueue existing = queues.get(queue.getMasternodeOutpoint());
+        if (existing != null && existing.getTime() > queue.getTime())
+            return;
+        // a newer queue goes to the end, a ready one closes the queue of the masternode
+        queues.remove(queue.getMasternodeOutpoint());
+        if (!queue.isReady())
+            queues.put(queue.getMasternodeOutpoint(), queue);
+    }
+
+    private void addBroadcastTx(CoinJoinBroadcastTx broadcastTx) {
+        broadcastTxs.put(broadcastTx.getTx().getTxId(), broadcastTx);
+    }
+
+    private static boolean isExpired(CoinJoinQueue queue, long now) {
+        return now - queue.getTime() > QUEUE_TIMEOUT_SECONDS;
+    }
+
+    /** Returns the oldest open queue for the denomination, or null if there is none. */
+    @Nullable
+    public CoinJoinQueue getQueue(int denomination) {
+        lock.lock();
+        try {
+            LinkedHashMap<TransactionOutPoint, CoinJoinQueue> queues = queuesByDenomination.get(denomination);
+            if (queues == null)
+                return null;
+            long now = Utils.currentTimeSeconds();
+            Iterator<CoinJoinQueue> it = queues.values().iterator();
+            while (it.hasNext()) {
+                CoinJoinQueue queue = it.next();
+                if (!isExpired(queue, now))
+                    return queue;
+                it.remove();
+            }
+            return null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Returns the open queues for the denomination, oldest first. */
+    public List<CoinJoinQueue> getQueues(int denomination) {
+        lock.lock();
+        try {
+            List<CoinJoinQueue> result = new ArrayList<>();
+            LinkedHashMap<TransactionOutPoint, CoinJoinQueue> queues = queuesByDenomination.get(denomination);
+            if (queues == null)
+                return result;
+            long now = Utils.currentTimeSeconds();
+            Iterator<CoinJoinQueue> it = queues.values().iterator();
+            while (it.hasNext()) {
+                CoinJoinQueue queue = it.next();
+                if (isExpired(queue, now))
+                    it.remove();
+                else
+                    result.add(queue);
+            }
+            return result;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Returns the number of open queues of all denominations. */
+    public int getQueueCount() {
+        lock.lock();
+        try {
+            int count = 0;
+            for (int denomination : new ArrayList<>(queuesByDenomination.keySet()))
+                count += getQueues(denomination).size();
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean hasBroadcastTx(Sha256Hash txId) {
+        lock.lock();
+        try {
+            return broadcastTxs.containsKey(txId);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Nullable
+    public CoinJoinBroadcastTx getBroadcastTx(Sha256Hash txId) {
+        lock.lock();
+        try {
+            return broadcastTxs.get(txId);
+        } finally {
+            lock.unlock();
+        }
+    }
+}
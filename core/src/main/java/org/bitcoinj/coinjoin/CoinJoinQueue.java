@@ -71,7 +71,7 @@ public class CoinJoinQueue extends Message {
         masternodeOutpoint = new TransactionOutPoint(params, payload, cursor);
         cursor += masternodeOutpoint.getMessageSize();
         time = readInt64();
-        ready = readBytes(1)[0] == 1;
+        ready = readByte() == 1;
         signature = new MasternodeSignature(params, payload, cursor);
         cursor += signature.getMessageSize();
 
@@ -25,7 +25,7 @@ public class SendCoinJoinQueue extends Message {
 
     @Override
     protected void parse() throws ProtocolException {
-        send = readBytes(1)[0] == 1;
+        send = readByte() == 1;
         length = 1;
     }
 
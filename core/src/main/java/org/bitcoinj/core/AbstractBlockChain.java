@@ -82,6 +82,8 @@ import static com.google.common.base.Preconditions.*;
  */
 public abstract class AbstractBlockChain {
     private static final Logger log = LoggerFactory.getLogger(AbstractBlockChain.class);
+    private static final Metrics.Histogram addTime = Metrics.get().histogram("dashj_blockchain_add_seconds",
+            "Time to add a block or filtered block to a chain, including orphans it connects");
     protected final ReentrantLock lock = Threading.lock("blockchain");
 
     /** Keeps a map of block hashes to StoredBlocks. */
@@ -333,6 +335,7 @@ public abstract class AbstractBlockChain {
      * Accessing block's transactions in another thread while this method runs may result in undefined behavior.
      */
     public boolean add(Block block) throws VerificationException, PrunedException {
+        long startNanos = System.nanoTime();
         try {
             return add(block, true, null, null);
         } catch (BlockStoreException e) {
@@ -346,6 +349,8 @@ public abstract class AbstractBlockChain {
             }
             throw new VerificationException("Could not verify block:\n" +
                     block.toString(), e);
+        } finally {
+            addTime.observeNanos(System.nanoTime() - startNanos);
         }
     }
     
@@ -355,6 +360,7 @@ public abstract class AbstractBlockChain {
      * If the block can be connected to the chain, returns true.
      */
     public boolean add(FilteredBlock block) throws VerificationException, PrunedException {
+        long startNanos = System.nanoTime();
         try {
             // The block has a list of hashes of transactions that matched the Bloom filter, and a list of associated
             // Transaction objects. There may be fewer Transaction objects than hashes, this is expected. It can happen
@@ -375,6 +381,8 @@ public abstract class AbstractBlockChain {
             }
             throw new VerificationException("Could not verify block " + block.getHash().toString() + "\n" +
                     block.toString(), e);
+        } finally {
+            addTime.observeNanos(System.nanoTime() - startNanos);
         }
     }
     
@@ -3,6 +3,7 @@ package org.bitcoinj.core;
 
 import org.bitcoinj.manager.ManagerFiles;
 import org.bitcoinj.store.FlatDB;
+import org.bitcoinj.store.ManagerJournal;
 import org.bitcoinj.utils.Threading;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -22,6 +23,10 @@ import static com.google.common.base.Preconditions.checkState;
  * Base class for all Dash Manager objects.  Derived classes must implement
  * {@link #parse()} and {@link #bitcoinSerializeToStream(OutputStream)}
  * to serialize data to a file with FlatDB.
+ *
+ * Managers that return a handler from {@link #getJournalRecordHandler()} can be switched into journal mode with
+ * {@link #setJournalMode(boolean)}.  In journal mode, changes are appended to a {@link ManagerJournal}
+ * next to the file and the full file is only rewritten once the journal has grown as large as the file.
  */
 public abstract class AbstractManager extends Message {
 
@@ -32,6 +37,16 @@ public abstract class AbstractManager extends Message {
     private final ReentrantLock fileManagerLock = Threading.lock("abstract-manager-save-lock");
     protected volatile ManagerFiles vFileManager;
 
+    // Journal
+    /** The journal is compacted once it is larger than the snapshot file or this many bytes, whichever is more. */
+    public static final long JOURNAL_MIN_COMPACTION_SIZE = 1024 * 1024;
+    private volatile boolean journalMode;
+    // written with the fileManagerLock held
+    private volatile ManagerJournal journal;
+    private File snapshotFile;
+    private Sha256Hash snapshotChecksum;
+    private long snapshotSize;
+
     /**
      * The Context.
      */
@@ -323,6 +338,10 @@ public abstract class AbstractManager extends Message {
     public void saveToFile(File temp, File destFile) throws IOException {
         fileManagerLock.lock();
         try {
+            // records appended from here on may be missing from the snapshot and are kept by the compaction
+            ManagerJournal currentJournal = journal;
+            long journalMark = currentJournal != null ? currentJournal.size() : 0;
+
             FlatDB<AbstractManager> flatDB = new FlatDB<>(context, temp.getAbsolutePath(), true, magicMessage, getFormatVersion());
             flatDB.dump(AbstractManager.this);
 
@@ -331,12 +350,13 @@ public abstract class AbstractManager extends Message {
                 File canonical = destFile.getCanonicalFile();
                 if (canonical.exists() && !canonical.delete())
                     throw new IOException("Failed to delete canonical manager file for replacement with autosave");
-                if (temp.renameTo(canonical))
-                    return;  // else fall through.
-                throw new IOException("Failed to rename " + temp + " to " + canonical);
+                if (!temp.renameTo(canonical))
+                    throw new IOException("Failed to rename " + temp + " to " + canonical);
             } else if (!temp.renameTo(destFile)) {
                 throw new IOException("Failed to rename " + temp + " to " + destFile);
             }
+            if (flatDB.getChecksum() != null)
+                onSnapshotSaved(destFile, flatDB.getChecksum(), journalMark);
         } catch (RuntimeException e) {
             log.error("Failed whilst saving manager file", e);
             throw e;
@@ -347,4 +367,133 @@ public abstract class AbstractManager extends Message {
             }
         }
     }
+
+    /**
+     * Returns the handler that applies the records appended with {@link #appendToJournal(int, byte[])}, or null if
+     * this manager cannot write its changes to a journal.  The records are applied while the file is loaded, after
+     * {@link #parse()}.  A record may describe a change that the snapshot already contains, in which case it must
+     * be ignored.
+     */
+    @Nullable
+    protected ManagerJournal.RecordHandler getJournalRecordHandler() {
+        return null;
+    }
+
+    /**
+     * Switches journal mode on or off.  Without journal mode, a journal that is left over from an earlier
+     * run is still replayed when the file is loaded and is removed by the next save.
+     */
+    public void setJournalMode(boolean journalMode) {
+        checkState(!journalMode || getJournalRecordHandler() != null, "%s does not support journal mode", getClass().getSimpleName());
+        this.journalMode = journalMode;
+    }
+
+    public boolean isJournalMode() {
+        return journalMode;
+    }
+
+    /**
+     * Appends a record of a change that was already made to this manager to the journal, and schedules a
+     * compaction on the autosave thread once the journal has grown large.  Call this after the change was
+     * made, so that a snapshot that is written concurrently either contains the change or keeps the record.
+     *
+     * @return true if the record was appended, false if the manager is not in journal mode or has no snapshot
+     * for the journal to extend yet, in which case the caller should save the manager as usual
+     */
+    protected boolean appendToJournal(int type, byte[] record) {
+        if (!journalMode)
+            return false;
+        try {
+            ManagerJournal currentJournal = getOrCreateJournal();
+            if (currentJournal == null)
+                return false;
+            currentJournal.append(type, record);
+            if (currentJournal.size() > Math.max(JOURNAL_MIN_COMPACTION_SIZE, snapshotSize))
+                saveLater();
+            return true;
+        } catch (IOException x) {
+            log.warn("Failed to append to the journal, saving the whole manager instead", x);
+            return false;
+        }
+    }
+
+    @Nullable
+    private ManagerJournal getOrCreateJournal() throws IOException {
+        ManagerJournal currentJournal = journal;
+        if (currentJournal != null)
+            return currentJournal;
+        fileManagerLock.lock();
+        try {
+            if (journal == null && snapshotChecksum != null)
+                journal = ManagerJournal.create(ManagerJournal.getFile(snapshotFile), snapshotChecksum);
+            return journal;
+        } finally {
+            fileManagerLock.unlock();
+        }
+    }
+
+    /**
+     * Replays the journal of the snapshot that was just loaded from {@code file}, if there is one.  Called by
+     * {@link FlatDB} after the snapshot was parsed.
+     */
+    public void loadJournal(File file, Sha256Hash checksum) {
+        ManagerJournal.RecordHandler recordHandler = getJournalRecordHandler();
+        if (recordHandler == null)
+            return;
+        fileManagerLock.lock();
+        try {
+            closeJournal();
+            snapshotFile = file.getAbsoluteFile();
+            snapshotChecksum = checksum;
+            snapshotSize = file.length();
+            File journalFile = ManagerJournal.getFile(snapshotFile);
+            journal = ManagerJournal.open(journalFile, checksum, recordHandler);
+            if (journal == null && journalFile.exists() && !journalFile.delete())
+                log.warn("Failed to delete the outdated journal {}", journalFile);
+            // the payload read from the file no longer matches the state
+            if (journal != null)
+                unCache();
+        } catch (IOException x) {
+            log.warn("Failed to load the journal of {}", file, x);
+        } finally {
+            fileManagerLock.unlock();
+        }
+    }
+
+    private void onSnapshotSaved(File destFile, Sha256Hash checksum, long journalMark) throws IOException {
+        if (getJournalRecordHandler() == null)
+            return;
+        File file = destFile.getAbsoluteFile();
+        File journalFile = ManagerJournal.getFile(file);
+        ManagerJournal currentJournal = journal;
+        if (currentJournal != null && !currentJournal.getFile().equals(journalFile))
+            return; // a copy saved elsewhere, the journal stays with the current snapshot
+        if (currentJournal == null && filename != null && !file.equals(new File(filename).getAbsoluteFile()))
+            return;
+
+        if (currentJournal != null && (journalMode || currentJournal.size() > journalMark)) {
+            // records that were appended while the snapshot was written are kept, even if journal mode was switched off
+            currentJournal.compact(checksum, journalMark);
+        } else {
+            // without journal mode the snapshot is complete, and otherwise the journal is created on the first append
+            closeJournal();
+            if (journalFile.exists() && !journalFile.delete())
+                log.warn("Failed to delete the outdated journal {}", journalFile);
+        }
+        snapshotFile = file;
+        snapshotChecksum = checksum;
+        snapshotSize = file.length();
+    }
+
+    private void closeJournal() {
+        ManagerJournal currentJournal = journal;
+        journal = null;
+        if (currentJournal != null) {
+            try {
+                currentJournal.close();
+            } catch (IOException x) {
+                log.warn("Failed to close the journal {}", currentJournal.getFile(), x);
+            }
+        }
+    }
 }
@@ -17,6 +17,7 @@
 
 package org.bitcoinj.core;
 
+import com.google.common.annotations.VisibleForTesting;
 import org.bitcoinj.coinjoin.*;
 import org.bitcoinj.evolution.CreditFundingTransaction;
 import org.bitcoinj.evolution.GetSimplifiedMasternodeListDiff;
@@ -37,9 +38,10 @@ import java.io.OutputStream;
 import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static org.bitcoinj.core.Utils.*;
 
 /**
@@ -49,8 +51,9 @@ import static org.bitcoinj.core.Utils.*;
  * <p>To be able to serialize and deserialize new Message subclasses the following criteria needs to be met.</p>
  *
  * <ul>
- * <li>The proper Class instance needs to be mapped to its message name in the names variable below</li>
- * <li>There needs to be a constructor matching: NetworkParameters context, byte[] payload</li>
+ * <li>The proper Class instance needs to be mapped to its message name in the names variable below, or be
+ * registered with {@link #registerMessage(String, Class, MessageFactory)}</li>
+ * <li>There needs to be a factory for its message name that creates it from the payload</li>
  * <li>Message.bitcoinSerializeToStream() needs to be properly subclassed</li>
  * </ul>
  */
@@ -61,7 +64,17 @@ public class BitcoinSerializer extends MessageSerializer {
     private final NetworkParameters params;
     private final boolean parseRetain;
 
-    private static final Map<Class<? extends Message>, String> names = new HashMap<>();
+    /**
+     * Creates the message for a command from the payload of a network message. The serializer is passed in so that
+     * factories can use its network parameters and its extension points such as {@link #makeBlock(byte[], int)}.
+     */
+    public interface MessageFactory {
+        Message makeMessage(BitcoinSerializer serializer, byte[] payloadBytes, int length, byte[] hash)
+                throws ProtocolException;
+    }
+
+    private static final Map<Class<? extends Message>, String> names = new ConcurrentHashMap<>();
+    private static final Map<String, MessageFactory> factories = new ConcurrentHashMap<>();
 
     static {
         names.put(VersionMessage.class, "version");
@@ -113,6 +126,72 @@ public class BitcoinSerializer extends MessageSerializer {
         names.put(SendCoinJoinQueue.class, "senddsq");
         names.put(CoinJoinSignedInputs.class, "dss");
         names.put(CoinJoinStatusUpdate.class, "dssu");
+
+        factories.put("version", (serializer, payload, length, hash) -> new VersionMessage(serializer.params, payload));
+        factories.put("inv", (serializer, payload, length, hash) -> serializer.makeInventoryMessage(payload, length));
+        factories.put("block", (serializer, payload, length, hash) -> serializer.makeBlock(payload, length));
+        factories.put("merkleblock", (serializer, payload, length, hash) -> serializer.makeFilteredBlock(payload));
+        factories.put("getdata", (serializer, payload, length, hash) -> new GetDataMessage(serializer.params, payload, serializer, length));
+        factories.put("getblocks", (serializer, payload, length, hash) -> new GetBlocksMessage(serializer.params, payload));
+        factories.put("getheaders", (serializer, payload, length, hash) -> new GetHeadersMessage(serializer.params, payload));
+        factories.put("tx", (serializer, payload, length, hash) -> serializer.makeTransaction(payload, 0, length, hash));
+        factories.put("addr", (serializer, payload, length, hash) -> serializer.makeAddressMessage(payload, length));
+        factories.put("ping", (serializer, payload, length, hash) -> new Ping(serializer.params, payload));
+        factories.put("pong", (serializer, payload, length, hash) -> new Pong(serializer.params, payload));
+        factories.put("verack", (serializer, payload, length, hash) -> new VersionAck(serializer.params, payload));
+        factories.put("headers", (serializer, payload, length, hash) -> new HeadersMessage(serializer.params, payload));
+        factories.put("alert", (serializer, payload, length, hash) -> serializer.makeAlertMessage(payload));
+        factories.put("filterload", (serializer, payload, length, hash) -> serializer.makeBloomFilter(payload));
+        factories.put("notfound", (serializer, payload, length, hash) -> new NotFoundMessage(serializer.params, payload));
+        factories.put("mempool", (serializer, payload, length, hash) -> new MemoryPoolMessage());
+        factories.put("reject", (serializer, payload, length, hash) -> new RejectMessage(serializer.params, payload));
+        factories.put("utxos", (serializer, payload, length, hash) -> new UTXOsMessage(serializer.params, payload));
+        factories.put("getutxos", (serializer, payload, length, hash) -> new GetUTXOsMessage(serializer.params, payload));
+        // keep ix for backward compatibility
+        factories.put("ix", (serializer, payload, length, hash) -> new Transaction(serializer.params, payload));
+
+        //Dash specific messages
+        factories.put("spork", (serializer, payload, length, hash) -> new SporkMessage(serializer.params, payload, 0));
+        factories.put("ssc", (serializer, payload, length, hash) -> new SyncStatusCount(serializer.params, payload));
+        factories.put("sendaddrv2", (serializer, payload, length, hash) -> new SendAddressMessageV2(serializer.params, payload));
+        factories.put("sendheaders", (serializer, payload, length, hash) -> new SendHeadersMessage(serializer.params, payload));
+        factories.put("sendcmpct", (serializer, payload, length, hash) -> new SendCompactBlocksMessage(serializer.params));
+        factories.put("getsporks", (serializer, payload, length, hash) -> new GetSporksMessage(serializer.params));
+        factories.put("govsync", (serializer, payload, length, hash) -> new GovernanceSyncMessage(serializer.params));
+        factories.put("govobj", (serializer, payload, length, hash) -> new GovernanceObject(serializer.params, payload));
+        factories.put("govobjvote", (serializer, payload, length, hash) -> new GovernanceVote(serializer.params, payload, 0));
+        factories.put("getmnlistd", (serializer, payload, length, hash) -> new GetSimplifiedMasternodeListDiff(serializer.params, payload));
+        factories.put("mnlistdiff", (serializer, payload, length, hash) -> new SimplifiedMasternodeListDiff(serializer.params, payload));
+        factories.put("senddsq", (serializer, payload, length, hash) -> new SendCoinJoinQueue(serializer.params, payload));
+        factories.put("qsendrecsigs", (serializer, payload, length, hash) -> new QuorumSendRecoveredSignatures(serializer.params));
+        factories.put("islock", (serializer, payload, length, hash) -> new InstantSendLock(serializer.params, payload, InstantSendLock.ISLOCK_VERSION));
+        factories.put("isdlock", (serializer, payload, length, hash) -> new InstantSendLock(serializer.params, payload, InstantSendLock.ISDLOCK_VERSION));
+        factories.put("clsig", (serializer, payload, length, hash) -> new ChainLockSignature(serializer.params, payload));
+        factories.put("qrinfo", (serializer, payload, length, hash) -> new QuorumRotationInfo(serializer.params, payload));
+        // CoinJoin
+        factories.put("dssu", (serializer, payload, length, hash) -> new CoinJoinStatusUpdate(serializer.params, payload));
+        factories.put("dsq", (serializer, payload, length, hash) -> new CoinJoinQueue(serializer.params, payload));
+        factories.put("dsf", (serializer, payload, length, hash) -> new CoinJoinFinalTransaction(serializer.params, payload));
+        factories.put("dsc", (serializer, payload, length, hash) -> new CoinJoinComplete(serializer.params, payload));
+        factories.put("dstx", (serializer, payload, length, hash) -> new CoinJoinBroadcastTx(serializer.params, payload));
+    }
+
+    /**
+     * Registers a message type, so that all serializers can send it and create it from incoming messages with the
+     * given command. A type that is registered for a command that already has a factory replaces it. Received
+     * messages of the new type can be handled with a {@link org.bitcoinj.core.listeners.PreMessageReceivedEventListener}.
+     */
+    public static void registerMessage(String command, Class<? extends Message> messageClass, MessageFactory factory) {
+        checkArgument(command.length() <= COMMAND_LEN, "command longer than %s characters: %s", COMMAND_LEN, command);
+        names.put(messageClass, command);
+        factories.put(command, factory);
+    }
+
+    /** Removes a message type that was registered with {@link #registerMessage(String, Class, MessageFactory)}. */
+    @VisibleForTesting
+    static void unregisterMessage(String command, Class<? extends Message> messageClass) {
+        names.remove(messageClass);
+        factories.remove(command);
     }
 
     /**
@@ -151,6 +230,11 @@ public class BitcoinSerializer extends MessageSerializer {
             log.debug("Sending {} message: {}", name, HEX.encode(header) + HEX.encode(message));
     }
 
+    /** Returns the command that messages of the given class are sent with, or null if this serializer does not know it. */
+    public static String getCommand(Class<? extends Message> messageClass) {
+        return names.get(messageClass);
+    }
+
     /**
      * Writes message to to the output stream.
      */
@@ -229,99 +313,13 @@ public class BitcoinSerializer extends MessageSerializer {
     }
 
     private Message makeMessage(String command, int length, byte[] payloadBytes, byte[] hash, byte[] checksum) throws ProtocolException {
-        // We use an if ladder rather than reflection because reflection is very slow on Android.
-        Message message;
-        if (command.equals("version")) {
-            return new VersionMessage(params, payloadBytes);
-        } else if (command.equals("inv")) {
-            message = makeInventoryMessage(payloadBytes, length);
-        } else if (command.equals("block")) {
-            message = makeBlock(payloadBytes, length);
-        } else if (command.equals("merkleblock")) {
-            message = makeFilteredBlock(payloadBytes);
-        } else if (command.equals("getdata")) {
-            message = new GetDataMessage(params, payloadBytes, this, length);
-        } else if (command.equals("getblocks")) {
-            message = new GetBlocksMessage(params, payloadBytes);
-        } else if (command.equals("getheaders")) {
-            message = new GetHeadersMessage(params, payloadBytes);
-        } else if (command.equals("tx")) {
-            message = makeTransaction(payloadBytes, 0, length, hash);
-        } else if (command.equals("addr")) {
-            message = makeAddressMessage(payloadBytes, length);
-        } else if (command.equals("ping")) {
-            message = new Ping(params, payloadBytes);
-        } else if (command.equals("pong")) {
-            message = new Pong(params, payloadBytes);
-        } else if (command.equals("verack")) {
-            return new VersionAck(params, payloadBytes);
-        } else if (command.equals("headers")) {
-            return new HeadersMessage(params, payloadBytes);
-        } else if (command.equals("alert")) {
-            return makeAlertMessage(payloadBytes);
-        } else if (command.equals("filterload")) {
-            return makeBloomFilter(payloadBytes);
-        } else if (command.equals("notfound")) {
-            return new NotFoundMessage(params, payloadBytes);
-        } else if (command.equals("mempool")) {
-            return new MemoryPoolMessage();
-        } else if (command.equals("reject")) {
-            return new RejectMessage(params, payloadBytes);
-        } else if (command.equals("utxos")) {
-            return new UTXOsMessage(params, payloadBytes);
-        } else if (command.equals("getutxos")) {
-            return new GetUTXOsMessage(params, payloadBytes);
-        } else if (command.equals("ix")) {
-            return new Transaction(params, payloadBytes); // keep ix for backward compatibility
-        } else if (command.equals("spork")) {
-            return new SporkMessage(params, payloadBytes, 0);
-        } else if(command.equals("ssc")) {
-            return new SyncStatusCount(params, payloadBytes);
-        } else if(command.equals("sendaddrv2")) {
-            return new SendAddressMessageV2(params, payloadBytes);
-        } else if(command.equals("sendheaders")) {
-            return new SendHeadersMessage(params, payloadBytes);
-        } else if(command.equals("sendcmpct")) {
-            return new SendCompactBlocksMessage(params);
-        } else if(command.equals("getsporks")) {
-            return new GetSporksMessage(params);
-        } else if(command.equals("govsync")) {
-            return new GovernanceSyncMessage(params);
-        } else if(command.equals("govobj")) {
-            return new GovernanceObject(params, payloadBytes);
-        } else if(command.equals("govobjvote")) {
-            return new GovernanceVote(params, payloadBytes, 0);
-        } else if(command.equals("getmnlistd")) {
-            return new GetSimplifiedMasternodeListDiff(params, payloadBytes);
-        } else if(command.equals("mnlistdiff")) {
-            return new SimplifiedMasternodeListDiff(params, payloadBytes);
-        } else if(command.equals("senddsq")) {
-            return new SendCoinJoinQueue(params, payloadBytes);
-        } else if(command.equals("qsendrecsigs")) {
-            return new QuorumSendRecoveredSignatures(params);
-        } else if(command.equals("islock")) {
-            return new InstantSendLock(params, payloadBytes, InstantSendLock.ISLOCK_VERSION);
-        } else if(command.equals("isdlock")) {
-            return new InstantSendLock(params, payloadBytes, InstantSendLock.ISDLOCK_VERSION);
-        } else if(command.equals("clsig")) {
-            return new ChainLockSignature(params, payloadBytes);
-        } else if(command.equals("qrinfo")) {
-            return new QuorumRotationInfo(params, payloadBytes);
-        } else if(command.equals("dssu")) {
-            return new CoinJoinStatusUpdate(params, payloadBytes);
-        } else if (command.equals("dsq")) {
-            return new CoinJoinQueue(params, payloadBytes);
-        } else if (command.equals("dsf")) {
-            return new CoinJoinFinalTransaction(params, payloadBytes);
-        } else if (command.equals("dsc")) {
-            return new CoinJoinComplete(params, payloadBytes);
-        } else if (command.equals("dstx")) {
-            return new CoinJoinFinalTransaction(params, payloadBytes);
-        } else {
+        // We use a table of factories rather than reflection because reflection is very slow on Android.
+        MessageFactory factory = factories.get(command);
+        if (factory == null) {
             log.warn("No support for deserializing message with name {}", command);
             return new UnknownMessage(params, command, payloadBytes);
         }
-        return message;
+        return factory.makeMessage(this, payloadBytes, length, hash);
     }
 
     /**
@@ -299,7 +299,9 @@ public class Block extends Message {
         time = readUint32();
         difficultyTarget = readUint32();
         nonce = readUint32();
-        hash = Sha256Hash.wrapReversed(X11.x11Digest(payload, offset, cursor - offset));
+        // The hash is computed on first use rather than here, so that BlockHeaderVerifier can hash the headers of a
+        // HeadersMessage in parallel instead of on the network thread while parsing.
+        hash = null;
         headerBytesValid = serializer.isParseRetainMode();
 
         // transactions
@@ -441,6 +443,8 @@ public class Block extends Message {
      * resulting bytes.
      */
     private Sha256Hash calculateHash() {
+        if (headerBytesValid && payload != null && payload.length >= offset + HEADER_SIZE)
+            return Sha256Hash.wrapReversed(X11.x11Digest(payload, offset, HEADER_SIZE));
         try {
             ByteArrayOutputStream bos = new UnsafeByteArrayOutputStream(HEADER_SIZE);
             writeHeader(bos);
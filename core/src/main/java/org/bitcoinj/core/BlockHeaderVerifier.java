@@ -0,0 +1,124 @@
+/*
+ * Copyright 2022 Dash Core Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.core;
+
+import javax.annotation.Nullable;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveTask;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * <p>Runs the context free header checks of {@link Block#verifyHeader()} (X11 proof of work and timestamp) for a
+ * batch of headers on a bounded fork/join pool. During headers first sync a {@link HeadersMessage} carries up to
+ * 2000 headers, and hashing them one at a time on the peer thread dominates the time it takes to process it.</p>
+ *
+ * <p>The hashes computed here are cached in the {@link Block} objects, so connecting the headers to the chain, which
+ * stays sequential, does not hash them again.</p>
+ */
+public class BlockHeaderVerifier {
+    // Smallest range that is verified by a single task, below this splitting costs more than it saves.
+    private static final int CHUNK_SIZE = 64;
+
+    private static BlockHeaderVerifier defaultVerifier;
+
+    private final ForkJoinPool pool;
+
+    /** Creates a verifier that uses one thread per available processor. */
+    public BlockHeaderVerifier() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /** Creates a verifier that uses at most the given number of threads. */
+    public BlockHeaderVerifier(int parallelism) {
+        checkArgument(parallelism > 0);
+        pool = new ForkJoinPool(parallelism, new ForkJoinPool.ForkJoinWorkerThreadFactory() {
+            @Override
+            public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+                ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                thread.setName("Header verification " + thread.getPoolIndex());
+                thread.setDaemon(true);
+                return thread;
+            }
+        }, null, false);
+    }
+
+    /**
+     * Returns the verifier shared by all peers. Its threads are only started once there is work for them.
+     */
+    public static synchronized BlockHeaderVerifier getDefault() {
+        if (defaultVerifier == null)
+            defaultVerifier = new BlockHeaderVerifier();
+        return defaultVerifier;
+    }
+
+    /**
+     * Hashes the given headers and runs {@link Block#verifyHeader()} on each of them, spreading the work over the
+     * pool. Blocks until all of them are done.
+     *
+     * @throws VerificationException the failure of the first header that is not valid, as verifying the headers one
+     *                               at a time would have thrown it
+     */
+    public void verify(List<Block> headers) throws VerificationException {
+        VerifyTask task = new VerifyTask(headers, 0, headers.size());
+        VerificationException failure = headers.size() <= CHUNK_SIZE ? task.compute() : pool.invoke(task);
+        if (failure != null)
+            throw failure;
+    }
+
+    /** Stops the pool threads. Headers can not be verified after this. */
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    @SuppressWarnings("serial")
+    private static class VerifyTask extends RecursiveTask<VerificationException> {
+        private final List<Block> headers;
+        private final int from;
+        private final int to;
+
+        VerifyTask(List<Block> headers, int from, int to) {
+            this.headers = headers;
+            this.from = from;
+            this.to = to;
+        }
+
+        // Returns the failure of the first header in the range that is not valid, or null if they all are.
+        @Override
+        @Nullable
+        protected VerificationException compute() {
+            if (to - from <= CHUNK_SIZE) {
+                for (int i = from; i < to; i++) {
+                    try {
+                        headers.get(i).verifyHeader();
+                    } catch (VerificationException e) {
+                        return e;
+                    }
+                }
+                return null;
+            }
+            int middle = (from + to) >>> 1;
+            VerifyTask left = new VerifyTask(headers, from, middle);
+            left.fork();
+            VerificationException rightResult = new VerifyTask(headers, middle, to).compute();
+            VerificationException leftResult = left.join();
+            return leftResult != null ? leftResult : rightResult;
+        }
+    }
+}
@@ -148,7 +148,7 @@ public class BloomFilter extends Message {
         if (hashFuncs > MAX_HASH_FUNCS)
             throw new ProtocolException("Bloom filter hash function count out of range");
         nTweak = readUint32();
-        nFlags = readBytes(1)[0];
+        nFlags = readByte();
         length = cursor - offset;
     }
     
@@ -40,7 +40,11 @@ import java.nio.ByteOrder;
 import java.nio.charset.StandardCharsets;
 import java.security.DigestInputStream;
 import java.security.MessageDigest;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
 
@@ -205,6 +209,21 @@ public class CheckpointManager {
         }
     }
 
+    /** Returns the checkpoints above the given height, ordered by height. */
+    public List<StoredBlock> getCheckpointsAfter(int height) {
+        List<StoredBlock> result = new ArrayList<>();
+        for (StoredBlock checkpoint : checkpoints.values())
+            if (checkpoint.getHeight() > height)
+                result.add(checkpoint);
+        Collections.sort(result, new Comparator<StoredBlock>() {
+            @Override
+            public int compare(StoredBlock a, StoredBlock b) {
+                return Integer.compare(a.getHeight(), b.getHeight());
+            }
+        });
+        return result;
+    }
+
     /** Returns the number of checkpoints that were loaded. */
     public int numCheckpoints() {
         return checkpoints.size();
@@ -16,6 +16,7 @@
 
 package org.bitcoinj.core;
 
+import org.bitcoinj.coinjoin.CoinJoinManager;
 import org.bitcoinj.evolution.MasternodeMetaDataManager;
 import org.bitcoinj.utils.ContextPropagatingThreadFactory;
 import javax.annotation.Nullable;
@@ -96,6 +97,7 @@ public class Context {
     public ChainLocksHandler chainLockHandler;
     private LLMQBackgroundThread llmqBackgroundThread;
     public MasternodeMetaDataManager masternodeMetaDataManager;
+    public CoinJoinManager coinJoinManager;
     private final ScheduledExecutorService scheduledExecutorService;
     private ScheduledFuture<?> scheduledMasternodeSync;
     private ScheduledFuture<?> scheduledNetFulfilled;
@@ -276,6 +278,7 @@ public class Context {
         chainLockHandler = new ChainLocksHandler(this);
         llmqBackgroundThread = new LLMQBackgroundThread(this);
         masternodeMetaDataManager = new MasternodeMetaDataManager(this);
+        coinJoinManager = new CoinJoinManager(this);
 
         BLS.Init();
         initializedObjects = true;
@@ -296,6 +299,7 @@ public class Context {
         initializedObjects = false;
         governanceManager = null;
         masternodeListManager = null;
+        coinJoinManager = null;
     }
 
     public boolean initDashSync(final String directory) {
@@ -381,6 +385,8 @@ public class Context {
             signingManager.close();
             chainLockHandler.close();
             quorumManager.close();
+            governanceManager.close();
+            coinJoinManager.close();
             if(masternodeSync.hasSyncFlag(MasternodeSync.SYNC_FLAGS.SYNC_INSTANTSENDLOCKS))
                 llmqBackgroundThread.interrupt();
             blockChain.removeNewBestBlockListener(newBestBlockListener);
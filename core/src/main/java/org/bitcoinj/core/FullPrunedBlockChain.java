@@ -34,10 +34,9 @@ import java.io.File;
 import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.ListIterator;
 import java.util.Set;
-import java.util.concurrent.*;
 
+import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
 
 /**
@@ -150,36 +149,13 @@ public class FullPrunedBlockChain extends AbstractBlockChain {
     // TODO: Remove lots of duplicated code in the two connectTransactions
 
     // TODO: execute in order of largest transaction (by input count) first
-    ExecutorService scriptVerificationExecutor = Executors.newFixedThreadPool(
-            Runtime.getRuntime().availableProcessors(), new ContextPropagatingThreadFactory("Script verification"));
+    private ScriptVerificationEngine scriptVerificationEngine = ScriptVerificationEngine.getDefault();
 
     /**
-     * A job submitted to the executor which verifies signatures.
+     * Sets the engine that runs the scripts of connected blocks. By default the engine shared by all chains is used.
      */
-    private static class Verifier implements Callable<VerificationException> {
-        final Transaction tx;
-        final List<Script> prevOutScripts;
-        final Set<VerifyFlag> verifyFlags;
-
-        public Verifier(final Transaction tx, final List<Script> prevOutScripts, final Set<VerifyFlag> verifyFlags) {
-            this.tx = tx;
-            this.prevOutScripts = prevOutScripts;
-            this.verifyFlags = verifyFlags;
-        }
-
-        @Nullable
-        @Override
-        public VerificationException call() throws Exception {
-            try {
-                ListIterator<Script> prevOutIt = prevOutScripts.listIterator();
-                for (int index = 0; index < tx.getInputs().size(); index++) {
-                    tx.getInputs().get(index).getScriptSig().correctlySpends(tx, index, prevOutIt.next(), verifyFlags);
-                }
-            } catch (VerificationException e) {
-                return e;
-            }
-            return null;
-        }
+    public void setScriptVerificationEngine(ScriptVerificationEngine engine) {
+        this.scriptVerificationEngine = checkNotNull(engine);
     }
 
     /**
@@ -225,10 +201,7 @@ public class FullPrunedBlockChain extends AbstractBlockChain {
         LinkedList<UTXO> txOutsCreated = new LinkedList<>();
         long sigOps = 0;
 
-        if (scriptVerificationExecutor.isShutdown())
-            scriptVerificationExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
-
-        List<Future<VerificationException>> listScriptVerificationResults = new ArrayList<>(block.transactions.size());
+        ScriptVerificationEngine.Batch scriptVerification = scriptVerificationEngine.newBatch();
         try {
             if (!params.isCheckpoint(height)) {
                 // BIP30 violator blocks are ones that contain a duplicated transaction. They are all in the
@@ -312,9 +285,7 @@ public class FullPrunedBlockChain extends AbstractBlockChain {
 
                 if (!isCoinBase && runScripts) {
                     // Because correctlySpends modifies transactions, this must come after we are done with tx
-                    FutureTask<VerificationException> future = new FutureTask<>(new Verifier(tx, prevOutScripts, verifyFlags));
-                    scriptVerificationExecutor.execute(future);
-                    listScriptVerificationResults.add(future);
+                    scriptVerification.add(tx, prevOutScripts, verifyFlags);
                 }
             }
             boolean feesDontMatch = block.getBlockInflation(height, storedPrev.getHeader().getDifficultyTarget(), false).add(totalFees).compareTo(coinbaseValue) < 0;
@@ -322,25 +293,13 @@ public class FullPrunedBlockChain extends AbstractBlockChain {
                 if(feesDontMatch && !Superblock.isValidBudgetBlockHeight(params, height))
                     throw new VerificationException("Transaction fees out of range");
             }
-            for (Future<VerificationException> future : listScriptVerificationResults) {
-                VerificationException e;
-                try {
-                    e = future.get();
-                } catch (InterruptedException thrownE) {
-                    throw new RuntimeException(thrownE); // Shouldn't happen
-                } catch (ExecutionException thrownE) {
-                    log.error("Script.correctlySpends threw a non-normal exception: " + thrownE.getCause());
-                    throw new VerificationException("Bug in Script.correctlySpends, likely script malformed in some new and interesting way.", thrownE);
-                }
-                if (e != null)
-                    throw e;
-            }
+            scriptVerification.verify();
         } catch (VerificationException e) {
-            scriptVerificationExecutor.shutdownNow();
+            scriptVerification.cancel();
             blockStore.abortDatabaseBatchWrite();
             throw e;
         } catch (BlockStoreException e) {
-            scriptVerificationExecutor.shutdownNow();
+            scriptVerification.cancel();
             blockStore.abortDatabaseBatchWrite();
             throw e;
         }
@@ -365,6 +324,7 @@ public class FullPrunedBlockChain extends AbstractBlockChain {
             throw new PrunedException(newBlock.getHeader().getHash());
         }
         TransactionOutputChanges txOutChanges;
+        ScriptVerificationEngine.Batch scriptVerificationToCancel = null;
         try {
             List<Transaction> transactions = block.getTransactions();
             if (transactions != null) {
@@ -382,9 +342,8 @@ public class FullPrunedBlockChain extends AbstractBlockChain {
                 Coin totalFees = Coin.ZERO;
                 Coin coinbaseValue = null;
 
-                if (scriptVerificationExecutor.isShutdown())
-                    scriptVerificationExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
-                List<Future<VerificationException>> listScriptVerificationResults = new ArrayList<>(transactions.size());
+                ScriptVerificationEngine.Batch scriptVerification = scriptVerificationEngine.newBatch();
+                scriptVerificationToCancel = scriptVerification;
                 for (final Transaction tx : transactions) {
                     final Set<VerifyFlag> verifyFlags =
                         params.getTransactionVerificationFlags(newBlock.getHeader(), tx, getVersionTally(), Integer.SIZE);
@@ -446,9 +405,7 @@ public class FullPrunedBlockChain extends AbstractBlockChain {
 
                     if (!isCoinBase) {
                         // Because correctlySpends modifies transactions, this must come after we are done with tx
-                        FutureTask<VerificationException> future = new FutureTask<>(new Verifier(tx, prevOutScripts, verifyFlags));
-                        scriptVerificationExecutor.execute(future);
-                        listScriptVerificationResults.add(future);
+                        scriptVerification.add(tx, prevOutScripts, verifyFlags);
                     }
                 }
 
@@ -458,19 +415,7 @@ public class FullPrunedBlockChain extends AbstractBlockChain {
                         throw new VerificationException("Transaction fees out of range");
                 }
                 txOutChanges = new TransactionOutputChanges(txOutsCreated, txOutsSpent);
-                for (Future<VerificationException> future : listScriptVerificationResults) {
-                    VerificationException e;
-                    try {
-                        e = future.get();
-                    } catch (InterruptedException thrownE) {
-                        throw new RuntimeException(thrownE); // Shouldn't happen
-                    } catch (ExecutionException thrownE) {
-                        log.error("Script.correctlySpends threw a non-normal exception: " + thrownE.getCause());
-                        throw new VerificationException("Bug in Script.correctlySpends, likely script malformed in some new and interesting way.", thrownE);
-                    }
-                    if (e != null)
-                        throw e;
-                }
+                scriptVerification.verify();
             } else {
                 txOutChanges = block.getTxOutChanges();
                 if (!params.isCheckpoint(newBlock.getHeight()))
@@ -485,11 +430,13 @@ public class FullPrunedBlockChain extends AbstractBlockChain {
                     blockStore.removeUnspentTransactionOutput(out);
             }
         } catch (VerificationException e) {
-            scriptVerificationExecutor.shutdownNow();
+            if (scriptVerificationToCancel != null)
+                scriptVerificationToCancel.cancel();
             blockStore.abortDatabaseBatchWrite();
             throw e;
         } catch (BlockStoreException e) {
-            scriptVerificationExecutor.shutdownNow();
+            if (scriptVerificationToCancel != null)
+                scriptVerificationToCancel.cancel();
             blockStore.abortDatabaseBatchWrite();
             throw e;
         }
@@ -0,0 +1,309 @@
+/*
+ * Copyright 2022 Dash Core Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.core;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import org.bitcoinj.core.listeners.HeadersDownloadedEventListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * <p>Downloads the headers up to a list of checkpoints from several peers at once. The headers are split into ranges
+ * that end at a checkpoint, whose hash is known, so a getheaders message can ask for exactly one range and the headers
+ * that come back can be checked against it. Each peer works on one range at a time, asking for up to
+ * {@link HeadersMessage#MAX_HEADERS} headers per message until it reaches the checkpoint. Ranges that are complete
+ * early are held back and added to the header chain in order.</p>
+ *
+ * <p>A peer that does not answer within {@link #STALL_TIMEOUT_SECONDS}, that sends headers which do not lead to the
+ * checkpoint, or that disconnects loses its range, which is then downloaded again from another peer. Only that range is
+ * downloaded again, the rest of the sync goes on. If no connected peer can provide a range, the download fails and the
+ * caller continues from the header chain as it is.</p>
+ *
+ * <p>The future returned by {@link #getFuture()} completes with the head of the header chain once all ranges were
+ * added. The headers after the last checkpoint are then downloaded the usual way. Instances are safe for use by
+ * multiple threads.</p>
+ */
+public class HeadersDownloadScheduler {
+    private static final Logger log = LoggerFactory.getLogger(HeadersDownloadScheduler.class);
+
+    /** Seconds a peer has to answer a getheaders message before its range is given to another peer. */
+    public static final int STALL_TIMEOUT_SECONDS = 20;
+    /** How many ranges past the next one to add may be downloaded, which bounds the headers held in memory. */
+    public static final int MAX_RANGES_AHEAD = 16;
+
+    private final AbstractBlockChain headerChain;
+    private final Executor executor;
+    @Nullable private final HeadersDownloadedEventListener progressListener;
+    private final SettableFuture<StoredBlock> future = SettableFuture.create();
+
+    // guarded by this
+    private final List<Range> ranges = new ArrayList<>();
+    private int nextToAdd;
+    private final List<Peer> peers = new ArrayList<>();
+    private final Map<Peer, Range> assignments = new HashMap<>();
+
+    private static class Range {
+        final StoredBlock start;
+        final StoredBlock end;
+        final List<Block> headers = new ArrayList<>();
+        // peers that stalled or sent bad headers for this range
+        final Set<Peer> failedPeers = new HashSet<>();
+        @Nullable Peer peer;
+        // the reply the peer is expected to send next
+        @Nullable ListenableFuture<HeadersMessage> reply;
+        long requestTimeMillis;
+        boolean complete;
+
+        Range(StoredBlock start, StoredBlock end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        // Forgets the peer and the headers it sent. The reply it still owes is cancelled, so the peer handles it
+        // like any other headers message if it comes late.
+        void unassign() {
+            peer = null;
+            if (reply != null)
+                reply.cancel(false);
+            reply = null;
+            headers.clear();
+        }
+
+        Sha256Hash lastHash() {
+            return headers.isEmpty() ? start.getHeader().getHash() : headers.get(headers.size() - 1).getHash();
+        }
+
+        @Override
+        public String toString() {
+            return "headers " + (start.getHeight() + 1) + " to " + end.getHeight();
+        }
+    }
+
+    /**
+     * @param headerChain the chain the headers are added to, from its current head on
+     * @param checkpoints the checkpoints above the head of the header chain, ordered by height, see
+     *                    {@link CheckpointManager#getCheckpointsAfter(int)}
+     * @param executor runs the handling of the replies
+     * @param progressListener told about every batch of headers that was downloaded, or null
+     */
+    public HeadersDownloadScheduler(AbstractBlockChain headerChain, List<StoredBlock> checkpoints, Executor executor,
+                                    @Nullable HeadersDownloadedEventListener progressListener) {
+        this.headerChain = headerChain;
+        this.executor = executor;
+        this.progressListener = progressListener;
+        StoredBlock start = headerChain.getChainHead();
+        for (StoredBlock checkpoint : checkpoints) {
+            checkArgument(checkpoint.getHeight() > start.getHeight(), "checkpoints must be ordered by height");
+            ranges.add(new Range(start, checkpoint));
+            start = checkpoint;
+        }
+        if (ranges.isEmpty())
+            future.set(headerChain.getChainHead());
+    }
+
+    /** Returns the number of ranges the headers are split into. */
+    public int getRangeCount() {
+        return ranges.size();
+    }
+
+    /** Returns a future that completes with the head of the header chain once the headers of all ranges were added. */
+    public ListenableFuture<StoredBlock> getFuture() {
+        return future;
+    }
+
+    /** Lets the peer download ranges that end below its best height. */
+    public synchronized void addPeer(Peer peer) {
+        if (future.isDone() || peers.contains(peer))
+            return;
+        peers.add(peer);
+        assignWork();
+    }
+
+    /** Gives the range of a peer that disconnected to another peer. */
+    public synchronized void removePeer(Peer peer) {
+        peers.remove(peer);
+        Range range = assignments.remove(peer);
+        if (range != null && !future.isDone()) {
+            log.info("{}: disconnected while downloading {}", peer, range);
+            range.unassign();
+            if (!failIfNoPeerCanProvide(range))
+                assignWork();
+        }
+    }
+
+    /** Gives the ranges of peers that did not answer in time to other peers. Call this regularly. */
+    public synchronized void checkStalls() {
+        if (future.isDone())
+            return;
+        long now = Utils.currentTimeMillis();
+        for (Range range : new ArrayList<>(assignments.values())) {
+            if (range.peer != null && now - range.requestTimeMillis > STALL_TIMEOUT_SECONDS * 1000L)
+                fail(range, range.peer, "stalled");
+        }
+    }
+
+    /** Stops the download. Headers that were already added stay in the header chain. */
+    public synchronized void cancel() {
+        future.cancel(false);
+        for (Range range : assignments.values())
+            range.unassign();
+        assignments.clear();
+        peers.clear();
+    }
+
+    private void assignWork() {
+        if (future.isDone())
+            return;
+        for (Peer peer : peers) {
+            if (assignments.containsKey(peer))
+                continue;
+            Range range = findRange(peer);
+            if (range == null)
+                continue;
+            log.info("{}: downloading {}", peer, range);
+            range.peer = peer;
+            assignments.put(peer, range);
+            request(range);
+        }
+    }
+
+    @Nullable
+    private Range findRange(Peer peer) {
+        int limit = Math.min(ranges.size(), nextToAdd + MAX_RANGES_AHEAD);
+        for (int i = nextToAdd; i < limit; i++) {
+            Range range = ranges.get(i);
+            if (!range.complete && range.peer == null && !range.failedPeers.contains(peer) &&
+                    peer.getBestHeight() >= range.end.getHeight())
+                return range;
+        }
+        return null;
+    }
+
+    private void request(final Range range) {
+        final Peer peer = range.peer;
+        range.requestTimeMillis = Utils.currentTimeMillis();
+        BlockLocator locator = new BlockLocator().add(range.lastHash());
+        range.reply = peer.getHeaders(locator, range.end.getHeader().getHash());
+        Futures.addCallback(range.reply, new FutureCallback<HeadersMessage>() {
+            @Override
+            public void onSuccess(HeadersMessage message) {
+                onHeaders(range, peer, message);
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                synchronized (HeadersDownloadScheduler.this) {
+                    if (range.peer == peer)
+                        fail(range, peer, t.toString());
+                }
+            }
+        }, executor);
+    }
+
+    private synchronized void onHeaders(Range range, Peer peer, HeadersMessage message) {
+        // the range may have been given to another peer in the meantime
+        if (future.isDone() || range.peer != peer)
+            return;
+        List<Block> headers = message.getBlockHeaders();
+        Sha256Hash endHash = range.end.getHeader().getHash();
+        int maxHeaders = range.end.getHeight() - range.start.getHeight();
+        Sha256Hash prevHash = range.lastHash();
+        for (Block header : headers) {
+            if (!header.getPrevBlockHash().equals(prevHash) || range.headers.size() >= maxHeaders) {
+                fail(range, peer, "headers do not connect");
+                return;
+            }
+            range.headers.add(header);
+            prevHash = header.getHash();
+            if (prevHash.equals(endHash))
+                break;
+        }
+        if (progressListener != null && !headers.isEmpty())
+            progressListener.onHeadersDownloaded(peer, headers.get(headers.size() - 1),
+                    ranges.get(ranges.size() - 1).end.getHeight() - range.start.getHeight() - range.headers.size());
+
+        if (prevHash.equals(endHash)) {
+            // the headers lead to the checkpoint, so they are the right ones
+            range.complete = true;
+            range.peer = null;
+            range.reply = null;
+            assignments.remove(peer);
+            addCompleteRanges();
+            assignWork();
+        } else if (headers.size() < HeadersMessage.MAX_HEADERS) {
+            fail(range, peer, "headers end before the checkpoint");
+        } else {
+            request(range);
+        }
+    }
+
+    private void fail(Range range, Peer peer, String reason) {
+        log.info("{}: downloading {} failed, trying another peer: {}", peer, range, reason);
+        range.failedPeers.add(peer);
+        range.unassign();
+        assignments.remove(peer);
+        if (!failIfNoPeerCanProvide(range))
+            assignWork();
+    }
+
+    // Waits for new peers while there are none, but gives up if the connected peers have all failed the range or
+    // are behind it.
+    private boolean failIfNoPeerCanProvide(Range range) {
+        if (peers.isEmpty())
+            return false;
+        for (Peer peer : peers) {
+            if (!range.failedPeers.contains(peer) && peer.getBestHeight() >= range.end.getHeight())
+                return false;
+        }
+        future.setException(new VerificationException("No peer can provide " + range));
+        return true;
+    }
+
+    private void addCompleteRanges() {
+        while (nextToAdd < ranges.size() && ranges.get(nextToAdd).complete) {
+            Range range = ranges.get(nextToAdd);
+            try {
+                for (Block header : range.headers) {
+                    if (!headerChain.add(header))
+                        throw new VerificationException("Header " + header.getHash() + " does not connect to the header chain");
+                }
+            } catch (VerificationException | PrunedException e) {
+                log.warn("Adding " + range + " failed", e);
+                future.setException(e);
+                return;
+            }
+            range.headers.clear();
+            nextToAdd++;
+        }
+        if (nextToAdd == ranges.size())
+            future.set(headerChain.getChainHead());
+    }
+}
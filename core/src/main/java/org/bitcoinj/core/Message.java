@@ -24,6 +24,7 @@ import org.slf4j.LoggerFactory;
 
 import java.io.*;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -355,6 +356,26 @@ public abstract class Message {
         }
     }
     
+    /** Reads a single byte, without the array that {@code readBytes(1)} allocates. */
+    protected byte readByte() throws ProtocolException {
+        if (cursor >= payload.length)
+            throw new ProtocolException("Attempted to read past the end of the message");
+        return payload[cursor++];
+    }
+
+    /**
+     * Returns a read only view of the next {@code length} bytes of the payload and moves past them. The view shares
+     * the payload, so it is only valid for as long as the payload is not modified and should not be kept after parsing.
+     */
+    protected ByteBuffer readView(int length) throws ProtocolException {
+        if ((length > MAX_SIZE) || (length < 0) || (cursor + length > payload.length)) {
+            throw new ProtocolException("Claimed value length too large: " + length);
+        }
+        ByteBuffer view = ByteBuffer.wrap(payload, cursor, length).slice().asReadOnlyBuffer();
+        cursor += length;
+        return view;
+    }
+
     protected byte[] readByteArray() throws ProtocolException {
         long len = readVarInt();
         return readBytes((int)len);
@@ -366,9 +387,15 @@ public abstract class Message {
     }
 
     protected Sha256Hash readHash() throws ProtocolException {
-        // We have to flip it around, as it's been read off the wire in little endian.
-        // Not the most efficient way to do this but the clearest.
-        return Sha256Hash.wrapReversed(readBytes(32));
+        // We have to flip it around, as it's been read off the wire in little endian. Reversing straight out of the
+        // payload saves the intermediate copy that readBytes would make.
+        if (cursor + Sha256Hash.LENGTH > payload.length)
+            throw new ProtocolException("Attempted to read past the end of the message");
+        byte[] hash = new byte[Sha256Hash.LENGTH];
+        for (int i = 0; i < Sha256Hash.LENGTH; i++)
+            hash[i] = payload[cursor + Sha256Hash.LENGTH - 1 - i];
+        cursor += Sha256Hash.LENGTH;
+        return Sha256Hash.wrap(hash);
     }
 
     protected boolean hasMoreBytes() {
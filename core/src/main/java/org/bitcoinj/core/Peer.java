@@ -19,6 +19,7 @@ package org.bitcoinj.core;
 import com.google.common.base.Objects;
 import com.google.common.collect.Lists;
 
+import org.bitcoinj.coinjoin.CoinJoinBroadcastTx;
 import org.bitcoinj.coinjoin.CoinJoinQueue;
 import org.bitcoinj.core.listeners.*;
 import org.bitcoinj.evolution.SimplifiedMasternodeListDiff;
@@ -58,6 +59,7 @@ import org.slf4j.LoggerFactory;
 import javax.annotation.Nullable;
 import java.net.SocketAddress;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CopyOnWriteArraySet;
 import java.util.concurrent.Executor;
@@ -114,6 +116,8 @@ public class Peer extends PeerSocketHandler {
     private volatile boolean vDownloadData;
 
     private volatile boolean vDownloadHeaders;
+    // Hashes and checks the headers of each HeadersMessage in parallel before they are connected, null to disable.
+    @Nullable private volatile BlockHeaderVerifier vHeaderVerifier = BlockHeaderVerifier.getDefault();
     //private StoredBlock previousBlockHeader = null;
     // The version data to announce to the other side of the connections we make: useful for setting our "user agent"
     // equivalent and other things.
@@ -170,9 +174,19 @@ public class Peer extends PeerSocketHandler {
         final Sha256Hash hash;
         final SettableFuture future;
     }
+    // A getheaders request made with getHeaders(), which is answered by the headers that follow one of its hashes.
+    private static class GetHeadersRequest {
+        GetHeadersRequest(BlockLocator locator, SettableFuture<HeadersMessage> future) {
+            this.locator = locator;
+            this.future = future;
+        }
+        final BlockLocator locator;
+        final SettableFuture<HeadersMessage> future;
+    }
     // TODO: The types/locking should be rationalised a bit.
     private final CopyOnWriteArrayList<GetDataRequest> getDataFutures;
     @GuardedBy("getAddrFutures") private final LinkedList<SettableFuture<AddressMessage>> getAddrFutures;
+    @GuardedBy("getHeadersFutures") private final LinkedList<GetHeadersRequest> getHeadersFutures;
     @Nullable @GuardedBy("lock") private LinkedList<SettableFuture<UTXOsMessage>> getutxoFutures;
 
     // Outstanding pings against this peer and how long the last one took to complete.
@@ -263,6 +277,7 @@ public class Peer extends PeerSocketHandler {
         this.vDownloadData = chain != null;
         this.getDataFutures = new CopyOnWriteArrayList<>();
         this.getAddrFutures = new LinkedList<>();
+        this.getHeadersFutures = new LinkedList<>();
         this.fastCatchupTimeSecs = params.getGenesisBlock().getTimeSeconds();
         this.pendingPings = new CopyOnWriteArrayList<>();
         this.vMinProtocolVersion = params.getProtocolVersionNum(NetworkParameters.ProtocolVersion.PONG);
@@ -466,6 +481,7 @@ public class Peer extends PeerSocketHandler {
 
     @Override
     public void connectionClosed() {
+        removeMetrics();
         for (final ListenerRegistration<PeerDisconnectedEventListener> registration : disconnectedEventListeners) {
             registration.executor.execute(new Runnable() {
                 @Override
@@ -545,72 +561,89 @@ public class Peer extends PeerSocketHandler {
             throw new ProtocolException(
                     "Received " + m.getClass().getSimpleName() + " before version handshake is complete.");
 
-        if (m instanceof Ping) {
-            processPing((Ping) m);
-        } else if (m instanceof Pong) {
-            processPong((Pong) m);
-        } else if (m instanceof NotFoundMessage) {
-            // This is sent to us when we did a getdata on some transactions that aren't in the peers memory pool.
-            // Because NotFoundMessage is a subclass of InventoryMessage, the test for it must come before the next.
-            processNotFoundMessage((NotFoundMessage) m);
-        } else if (m instanceof InventoryMessage) {
-            processInv((InventoryMessage) m);
-        } else if (m instanceof Block) {
-            processBlock((Block) m);
-        } else if (m instanceof FilteredBlock) {
-            startFilteredBlock((FilteredBlock) m);
-        } else if (m instanceof Transaction) {
-            processTransaction((Transaction) m);
-        } else if (m instanceof GetDataMessage) {
-            processGetData((GetDataMessage) m);
-        } else if (m instanceof AddressMessage) {
-            // We don't care about addresses of the network right now. But in future,
-            // we should save them in the wallet so we don't put too much load on the seed nodes and can
-            // properly explore the network.
-            processAddressMessage((AddressMessage) m);
-        } else if (m instanceof HeadersMessage) {
-            processHeaders((HeadersMessage) m);
-        } else if (m instanceof AlertMessage) {
-            processAlert((AlertMessage) m);
-        } else if (m instanceof VersionMessage) {
-            processVersionMessage((VersionMessage) m);
-        } else if (m instanceof VersionAck) {
-            processVersionAck((VersionAck) m);
-        } else if (m instanceof UTXOsMessage) {
-            processUTXOMessage((UTXOsMessage) m);
-        } else if (m instanceof RejectMessage) {
-            log.error("{} {}: Received {}", this, getPeerVersionMessage().subVer, m);
-        } else if(m instanceof CoinJoinQueue) {
-            //do nothing
-        }
-        else if(m instanceof SporkMessage)
-        {
-            context.sporkManager.processSpork(this, (SporkMessage)m);
-        }
-        else if(m instanceof SyncStatusCount) {
-            context.masternodeSync.processSyncStatusCount(this, (SyncStatusCount)m);
-        }
-        else if(m instanceof GovernanceSyncMessage) {
-            //swallow for now
-        } else if(m instanceof GovernanceObject) {
-            context.governanceManager.processGovernanceObject(this, (GovernanceObject)m);
-        } else if(m instanceof GovernanceVote) {
-            context.governanceManager.processGovernanceObjectVote(this, (GovernanceVote)m);
-        } else if (m instanceof SimplifiedMasternodeListDiff) {
-            context.masternodeListManager.processMasternodeListDiff(this, (SimplifiedMasternodeListDiff) m);
-        } else if(m instanceof InstantSendLock) {
-            context.instantSendManager.processInstantSendLock(this, (InstantSendLock) m);
-        } else if(m instanceof ChainLockSignature) {
-            context.chainLockHandler.processChainLockSignature(this, (ChainLockSignature)m);
-        } else if (m instanceof SendHeadersMessage) {
-            // We ignore this message, because we don't announce new blocks.
-        } else if (m instanceof SendAddressMessageV2) {
-            // We ignore this message, because we don't reply to sendaddrv2 message.
-        } else if (m instanceof QuorumRotationInfo) {
-            context.masternodeListManager.processQuorumRotationInfo(this, (QuorumRotationInfo) m, false);
-        } else {
-            log.warn("{}: Received unhandled message: {}", this, m);
+        getMessageHandler(m.getClass()).handle(this, m);
+    }
+
+    /** Processes a message that {@link #processMessage(Message)} received from the remote peer. */
+    private interface MessageHandler {
+        void handle(Peer peer, Message m) throws Exception;
+    }
+
+    private static final MessageHandler IGNORE = (peer, m) -> { };
+    private static final MessageHandler UNHANDLED =
+            (peer, m) -> log.warn("{}: Received unhandled message: {}", peer, m);
+
+    // the handlers by message class, which also caches the handler found for a subclass of one of the classes
+    private static final Map<Class<?>, MessageHandler> messageHandlers = new ConcurrentHashMap<>();
+
+    static {
+        messageHandlers.put(Ping.class, (peer, m) -> peer.processPing((Ping) m));
+        messageHandlers.put(Pong.class, (peer, m) -> peer.processPong((Pong) m));
+        // This is sent to us when we did a getdata on some transactions that aren't in the peers memory pool.
+        messageHandlers.put(NotFoundMessage.class, (peer, m) -> peer.processNotFoundMessage((NotFoundMessage) m));
+        messageHandlers.put(InventoryMessage.class, (peer, m) -> peer.processInv((InventoryMessage) m));
+        messageHandlers.put(Block.class, (peer, m) -> peer.processBlock((Block) m));
+        messageHandlers.put(FilteredBlock.class, (peer, m) -> peer.startFilteredBlock((FilteredBlock) m));
+        messageHandlers.put(Transaction.class, (peer, m) -> peer.processTransaction((Transaction) m));
+        messageHandlers.put(GetDataMessage.class, (peer, m) -> peer.processGetData((GetDataMessage) m));
+        // We don't care about addresses of the network right now. But in future,
+        // we should save them in the wallet so we don't put too much load on the seed nodes and can
+        // properly explore the network.
+        messageHandlers.put(AddressMessage.class, (peer, m) -> peer.processAddressMessage((AddressMessage) m));
+        messageHandlers.put(HeadersMessage.class, (peer, m) -> peer.processHeaders((HeadersMessage) m));
+        messageHandlers.put(AlertMessage.class, (peer, m) -> peer.processAlert((AlertMessage) m));
+        messageHandlers.put(VersionMessage.class, (peer, m) -> peer.processVersionMessage((VersionMessage) m));
+        messageHandlers.put(VersionAck.class, (peer, m) -> peer.processVersionAck((VersionAck) m));
+        messageHandlers.put(UTXOsMessage.class, (peer, m) -> peer.processUTXOMessage((UTXOsMessage) m));
+        messageHandlers.put(RejectMessage.class,
+                (peer, m) -> log.error("{} {}: Received {}", peer, peer.getPeerVersionMessage().subVer, m));
+        messageHandlers.put(CoinJoinQueue.class, (peer, m) -> {
+            if (peer.context.coinJoinManager != null)
+                peer.context.coinJoinManager.processQueue(peer, (CoinJoinQueue) m);
+        });
+        messageHandlers.put(CoinJoinBroadcastTx.class, (peer, m) -> {
+            if (peer.context.coinJoinManager != null)
+                peer.context.coinJoinManager.processBroadcastTx(peer, (CoinJoinBroadcastTx) m);
+        });
+        messageHandlers.put(SporkMessage.class,
+                (peer, m) -> peer.context.sporkManager.processSpork(peer, (SporkMessage) m));
+        messageHandlers.put(SyncStatusCount.class,
+                (peer, m) -> peer.context.masternodeSync.processSyncStatusCount(peer, (SyncStatusCount) m));
+        //swallow for now
+        messageHandlers.put(GovernanceSyncMessage.class, IGNORE);
+        messageHandlers.put(GovernanceObject.class,
+                (peer, m) -> peer.context.governanceManager.processGovernanceObject(peer, (GovernanceObject) m));
+        messageHandlers.put(GovernanceVote.class,
+                (peer, m) -> peer.context.governanceManager.processGovernanceObjectVote(peer, (GovernanceVote) m));
+        messageHandlers.put(SimplifiedMasternodeListDiff.class,
+                (peer, m) -> peer.context.masternodeListManager.processMasternodeListDiff(peer, (SimplifiedMasternodeListDiff) m));
+        messageHandlers.put(InstantSendLock.class,
+                (peer, m) -> peer.context.instantSendManager.processInstantSendLock(peer, (InstantSendLock) m));
+        messageHandlers.put(ChainLockSignature.class,
+                (peer, m) -> peer.context.chainLockHandler.processChainLockSignature(peer, (ChainLockSignature) m));
+        // We ignore this message, because we don't announce new blocks.
+        messageHandlers.put(SendHeadersMessage.class, IGNORE);
+        // We ignore this message, because we don't reply to sendaddrv2 message.
+        messageHandlers.put(SendAddressMessageV2.class, IGNORE);
+        messageHandlers.put(QuorumRotationInfo.class,
+                (peer, m) -> peer.context.masternodeListManager.processQuorumRotationInfo(peer, (QuorumRotationInfo) m, false));
+    }
+
+    /** Returns the handler of the class or of its closest superclass that has one. */
+    private static MessageHandler getMessageHandler(Class<?> messageClass) {
+        MessageHandler handler = messageHandlers.get(messageClass);
+        if (handler != null)
+            return handler;
+        handler = UNHANDLED;
+        for (Class<?> c = messageClass.getSuperclass(); c != null; c = c.getSuperclass()) {
+            MessageHandler superHandler = messageHandlers.get(c);
+            if (superHandler != null) {
+                handler = superHandler;
+                break;
+            }
         }
+        messageHandlers.put(messageClass, handler);
+        return handler;
     }
 
     protected void processInstantSendLock(InstantSendLock islock) {
@@ -787,6 +820,24 @@ public class Peer extends PeerSocketHandler {
             lock.unlock();
         }
 
+        // Do the expensive part of header verification, X11 hashing, for the whole batch at once across all cores.
+        // Connecting the headers below stays sequential and finds the hashes already cached.
+        BlockHeaderVerifier headerVerifier = vHeaderVerifier;
+        if (headerVerifier != null) {
+            try {
+                headerVerifier.verify(m.getBlockHeaders());
+            } catch (VerificationException e) {
+                // the same as when connecting the headers below finds an invalid one
+                log.warn("Block header verification failed", e);
+                return;
+            }
+        }
+
+        // Headers that were asked for with getHeaders() go to the caller instead of the header chain.
+        GetHeadersRequest headersRequest = removeGetHeadersRequest(m);
+        if (headersRequest != null && headersRequest.future.set(m))
+            return;
+
         if (vDownloadHeaders && headerChain != null) {
             try {
                 for (int i = 0; i < m.getBlockHeaders().size(); i++) {
@@ -1654,6 +1705,42 @@ public class Peer extends PeerSocketHandler {
         return future;
     }
 
+    /**
+     * Sends a getheaders request for the headers after the locator up to the stop hash, and returns a future that
+     * completes with the answer once the peer has replied. The headers are not added to the header chain. This is
+     * used to download parts of the header chain from several peers at once, see {@link HeadersDownloadScheduler}.
+     */
+    public ListenableFuture<HeadersMessage> getHeaders(BlockLocator locator, Sha256Hash stopHash) {
+        SettableFuture<HeadersMessage> future = SettableFuture.create();
+        synchronized (getHeadersFutures) {
+            getHeadersFutures.add(new GetHeadersRequest(locator, future));
+        }
+        sendMessage(new GetHeadersMessage(params, locator, stopHash));
+        return future;
+    }
+
+    // Finds the oldest getHeaders() request that the headers answer, which are the headers that follow one of the
+    // hashes of its locator, and forgets it along with the requests that were cancelled. An empty message answers the
+    // oldest request. Returns null if the headers answer no request, for example because it was cancelled after the
+    // peer stalled and the reply came late.
+    @Nullable
+    private GetHeadersRequest removeGetHeadersRequest(HeadersMessage m) {
+        Sha256Hash prevHash = m.getBlockHeaders().isEmpty() ? null : m.getBlockHeaders().get(0).getPrevBlockHash();
+        synchronized (getHeadersFutures) {
+            Iterator<GetHeadersRequest> it = getHeadersFutures.iterator();
+            while (it.hasNext()) {
+                GetHeadersRequest request = it.next();
+                if (request.future.isDone()) {
+                    it.remove();
+                } else if (prevHash == null || request.locator.getHashes().contains(prevHash)) {
+                    it.remove();
+                    return request;
+                }
+            }
+            return null;
+        }
+    }
+
     /**
      * When downloading the block chain, the bodies will be skipped for blocks created before the given date. Any
      * transactions relevant to the wallet will therefore not be found, but if you know your wallet has no such
@@ -2265,6 +2352,15 @@ public class Peer extends PeerSocketHandler {
         return vDownloadTxDependencyDepth > 0;
     }
 
+    /**
+     * Sets the verifier used to hash and check the headers of each {@link HeadersMessage} in parallel before they are
+     * connected to the chain one at a time. Pass null to do all of the work on the network thread instead. Defaults to
+     * {@link BlockHeaderVerifier#getDefault()}.
+     */
+    public void setHeaderVerifier(@Nullable BlockHeaderVerifier verifier) {
+        vHeaderVerifier = verifier;
+    }
+
     /**
      * Sets if this peer will use getdata/notfound messages to walk backwards through transaction dependencies
      * before handing the transaction off to the wallet. The wallet can do risk analysis on pending/recent transactions
@@ -102,6 +102,9 @@ public class PeerGroup implements TransactionBroadcaster, GovernanceVoteBroadcas
     protected final Context context;
     @Nullable protected final AbstractBlockChain chain;
     @Nullable protected AbstractBlockChain headerChain;
+    // Checkpoints that split the headers first download between several peers, and the download while it runs.
+    @GuardedBy("lock") @Nullable private CheckpointManager headersCheckpoints;
+    @GuardedBy("lock") @Nullable private HeadersDownloadScheduler headersDownload;
 
     // This executor is used to queue up jobs: it's used when we don't want to use locks for mutual exclusion,
     // typically because the job might call in to user provided code that needs/wants the freedom to use the API
@@ -1694,6 +1697,8 @@ public class PeerGroup implements TransactionBroadcaster, GovernanceVoteBroadcas
             // TODO: The peer should calculate the fast catchup time from the added wallets here.
             for (Wallet wallet : wallets)
                 peer.addWallet(wallet);
+            if (headersDownload != null)
+                headersDownload.addPeer(peer);
             if (downloadPeer == null && newSize > maxConnections / 2) {
                 Peer newDownloadPeer = selectDownloadPeer(peers);
                 if (newDownloadPeer != null) {
@@ -1782,6 +1787,11 @@ public class PeerGroup implements TransactionBroadcaster, GovernanceVoteBroadcas
         try {
             if (downloadPeer == peer)
                 return;
+            // the parallel headers download stops with its download peer, a new one starts over from the header chain
+            if (headersDownload != null) {
+                headersDownload.cancel();
+                headersDownload = null;
+            }
             if (downloadPeer != null) {
                 log.info("Unsetting download peer: {}", downloadPeer);
                 if (downloadListener != null) {
@@ -1828,6 +1838,20 @@ public class PeerGroup implements TransactionBroadcaster, GovernanceVoteBroadcas
         }
     }
 
+    /**
+     * Downloads the headers up to the last of the given checkpoints from all connected peers at once during the headers
+     * first sync, see {@link HeadersDownloadScheduler}. The headers after the last checkpoint, and the blocks, still
+     * come from the download peer. Pass null to download all headers from the download peer, which is the default.
+     */
+    public void setHeadersCheckpoints(@Nullable CheckpointManager checkpoints) {
+        lock.lock();
+        try {
+            headersCheckpoints = checkpoints;
+        } finally {
+            lock.unlock();
+        }
+    }
+
     /**
      * Returns the current fast catchup time. The contents of blocks before this time won't be downloaded as they
      * cannot contain any interesting transactions. If you use {@link PeerGroup#addWallet(Wallet)} this just returns
@@ -1854,6 +1878,8 @@ public class PeerGroup implements TransactionBroadcaster, GovernanceVoteBroadcas
         try {
             pendingPeers.remove(peer);
             peers.remove(peer);
+            if (headersDownload != null)
+                headersDownload.removePeer(peer);
 
             PeerAddress address = peer.getAddress();
 
@@ -1976,18 +2002,42 @@ public class PeerGroup implements TransactionBroadcaster, GovernanceVoteBroadcas
 
         private final Logger log = LoggerFactory.getLogger(ChainDownloadSpeedCalculator.class);
 
+        // The same numbers for dashboards, which calculate the rates themselves.
+        private final Metrics.Counter blocksDownloaded = Metrics.get().counter("dashj_sync_blocks_total",
+                "Blocks and filtered blocks downloaded");
+        private final Metrics.Counter txnsDownloaded = Metrics.get().counter("dashj_sync_transactions_total",
+                "Transactions downloaded with blocks");
+        private final Metrics.Counter origTxnsDownloaded = Metrics.get().counter("dashj_sync_prefiltered_transactions_total",
+                "Transactions in filtered blocks before filtering");
+        private final Metrics.Counter headersDownloaded = Metrics.get().counter("dashj_sync_headers_total",
+                "Block headers downloaded, estimated");
+        private final Metrics.Counter masternodeListsDownloaded = Metrics.get().counter("dashj_sync_mnlistdiffs_total",
+                "mnlistdiff messages downloaded");
+        private final Metrics.Counter stalls = Metrics.get().counter("dashj_sync_stalls_total",
+                "Times the chain download was slower than the stall threshold");
+        private final Metrics.Gauge chainHeightGauge = Metrics.get().gauge("dashj_sync_chain_height",
+                "Height of the block chain");
+        private final Metrics.Gauge commonHeightGauge = Metrics.get().gauge("dashj_sync_common_height",
+                "Most common chain height of the connected peers");
+        private final Metrics.Gauge averageSpeed = Metrics.get().gauge("dashj_sync_average_bytes_per_second",
+                "Moving average of the chain download speed");
+
         @Override
         public synchronized void onBlocksDownloaded(Peer peer, Block block, @Nullable FilteredBlock filteredBlock, int blocksLeft) {
             waitForPreBlockDownload = false;
             blocksInLastSecond++;
+            blocksDownloaded.inc();
             bytesInLastSecond += Block.HEADER_SIZE;
             List<Transaction> blockTransactions = block.getTransactions();
             // This whole area of the type hierarchy is a mess.
             int txCount = (blockTransactions != null ? countAndMeasureSize(blockTransactions) : 0) +
                           (filteredBlock != null ? countAndMeasureSize(filteredBlock.getAssociatedTransactions().values()) : 0);
             txnsInLastSecond = txnsInLastSecond + txCount;
-            if (filteredBlock != null)
+            txnsDownloaded.inc(txCount);
+            if (filteredBlock != null) {
                 origTxnsInLastSecond += filteredBlock.getTransactionCount();
+                origTxnsDownloaded.inc(filteredBlock.getTransactionCount());
+            }
         }
 
         private int countAndMeasureSize(Collection<Transaction> transactions) {
@@ -2027,6 +2077,8 @@ public class PeerGroup implements TransactionBroadcaster, GovernanceVoteBroadcas
 
                 int chainHeight = chain != null ? chain.getBestChainHeight() : -1;
                 int mostCommonChainHeight = getMostCommonChainHeight();
+                chainHeightGauge.set(chainHeight);
+                commonHeightGauge.set(mostCommonChainHeight);
                 if (!syncDone && mostCommonChainHeight > 0 && chainHeight >= mostCommonChainHeight) {
                     log.info("End of sync detected at height {}.", chainHeight);
                     syncDone = true;
@@ -2039,6 +2091,7 @@ public class PeerGroup implements TransactionBroadcaster, GovernanceVoteBroadcas
                     long average = 0;
                     for (long sample : samples) average += sample;
                     average /= samples.length;
+                    averageSpeed.set(average);
 
                     String statsString = String.format(Locale.US,
                             "%d blocks/sec, %d tx/sec, %d pre-filtered tx/sec, %d headers/sec, %d mnlistdiff/sec, avg/last %.2f/%.2f kilobytes per sec, chain/common height %d/%d",
@@ -2056,6 +2109,7 @@ public class PeerGroup implements TransactionBroadcaster, GovernanceVoteBroadcas
                                     + String.format(Locale.US, " (warming up %d more seconds)", warmupSeconds));
                     } else if (average < minSpeedBytesPerSec && !waitForPreBlockDownload) {
                         log.info(statsString + ", STALLED " + thresholdString);
+                        stalls.inc();
                         maxStalls--;
                         if (maxStalls == 0) {
                             // We could consider starting to drop the Bloom filtering FP rate at this point, because
@@ -2094,6 +2148,7 @@ public class PeerGroup implements TransactionBroadcaster, GovernanceVoteBroadcas
         @Override
         public void onHeadersDownloaded(Peer peer, Block block, int blocksLeft) {
             headersInLastSecond += 2000; // this will be correct most of the time
+            headersDownloaded.inc(2000);
             bytesInLastSecond += Block.HEADER_SIZE * 2000;
         }
 
@@ -2106,6 +2161,7 @@ public class PeerGroup implements TransactionBroadcaster, GovernanceVoteBroadcas
         public void onMasterNodeListDiffDownloaded(Stage stage, SimplifiedMasternodeListDiff mnlistdiff) {
             if (stage == Stage.Finished) {
                 masternodeListsInLastSecond++;
+                masternodeListsDownloaded.inc();
                 bytesInLastSecond += mnlistdiff.getMessageSize();
             }
         }
@@ -2274,7 +2330,8 @@ public class PeerGroup implements TransactionBroadcaster, GovernanceVoteBroadcas
                         Futures.addCallback(preBlockDownloadFuture, preBlocksDownloadCallback, executor);
                     }
                     setSyncStage(SyncStage.HEADERS);
-                    peer.startBlockChainHeaderDownload();
+                    if (!startParallelHeadersDownload())
+                        peer.startBlockChainHeaderDownload();
                 } else if (syncStage.value == SyncStage.MNLIST.value) {
                     peer.startMasternodeListDownload();
                 } else {
@@ -2310,6 +2367,66 @@ public class PeerGroup implements TransactionBroadcaster, GovernanceVoteBroadcas
         }
     }
 
+    /**
+     * Starts downloading the headers up to the last checkpoint below the best height of the download peer from all
+     * peers, after which the download peer continues. Returns false if there are not enough checkpoints ahead to split
+     * the download, and true if it was started or is already running.
+     */
+    @GuardedBy("lock")
+    private boolean startParallelHeadersDownload() {
+        if (headersDownload != null)
+            return true; // it continues with the download peer once it is done
+        if (headersCheckpoints == null || headerChain == null)
+            return false;
+        List<StoredBlock> checkpoints = new ArrayList<>();
+        for (StoredBlock checkpoint : headersCheckpoints.getCheckpointsAfter(headerChain.getBestChainHeight())) {
+            if (checkpoint.getHeight() <= downloadPeer.getBestHeight())
+                checkpoints.add(checkpoint);
+        }
+        if (checkpoints.size() < 2)
+            return false;
+        final HeadersDownloadScheduler scheduler = new HeadersDownloadScheduler(headerChain, checkpoints, executor,
+                chainDownloadSpeedCalculator);
+        log.info("Downloading headers up to height {} from all peers", checkpoints.get(checkpoints.size() - 1).getHeight());
+        headersDownload = scheduler;
+        for (Peer peer : peers)
+            scheduler.addPeer(peer);
+        final ScheduledFuture<?> stallCheck = executor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                scheduler.checkStalls();
+            }
+        }, 1, 1, TimeUnit.SECONDS);
+        Futures.addCallback(scheduler.getFuture(), new FutureCallback<StoredBlock>() {
+            @Override
+            public void onSuccess(StoredBlock head) {
+                log.info("Downloaded headers up to height {} from all peers", head.getHeight());
+                continueFromDownloadPeer();
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                log.warn("Downloading headers from all peers failed, continuing with the download peer", t);
+                continueFromDownloadPeer();
+            }
+
+            private void continueFromDownloadPeer() {
+                stallCheck.cancel(false);
+                lock.lock();
+                try {
+                    if (headersDownload != scheduler)
+                        return;
+                    headersDownload = null;
+                    if (downloadPeer != null && syncStage == SyncStage.HEADERS)
+                        downloadPeer.startBlockChainHeaderDownload();
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }, executor);
+        return true;
+    }
+
     /**
      * Returns a future that is triggered when the number of connected peers is equal to the given number of
      * peers. By using this with {@link PeerGroup#getMaxConnections()} you can wait until the
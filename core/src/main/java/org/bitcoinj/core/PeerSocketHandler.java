@@ -23,6 +23,7 @@ import org.bitcoinj.net.MessageWriteTarget;
 import org.bitcoinj.net.NioClient;
 import org.bitcoinj.net.NioClientManager;
 import org.bitcoinj.net.StreamConnection;
+import org.bitcoinj.utils.Metrics;
 import org.bitcoinj.utils.Threading;
 import com.google.common.annotations.VisibleForTesting;
 import org.slf4j.Logger;
@@ -45,6 +46,8 @@ import static com.google.common.base.Preconditions.*;
  */
 public abstract class PeerSocketHandler extends AbstractTimeoutHandler implements StreamConnection {
     private static final Logger log = LoggerFactory.getLogger(PeerSocketHandler.class);
+    private static final Metrics.Histogram decodeTime = Metrics.get().histogram("dashj_message_decode_seconds",
+            "Time to deserialize a message received from a peer");
 
     private final MessageSerializer serializer;
     protected PeerAddress peerAddress;
@@ -62,16 +65,38 @@ public abstract class PeerSocketHandler extends AbstractTimeoutHandler implement
 
     private Lock lock = Threading.lock("PeerSocketHandler");
 
+    private final Metrics.Counter bytesReceived;
+    private final Metrics.Counter bytesSent;
+
     public PeerSocketHandler(NetworkParameters params, InetSocketAddress remoteIp) {
-        checkNotNull(params);
-        serializer = params.getDefaultSerializer();
-        this.peerAddress = new PeerAddress(params, remoteIp);
+        this(params, new PeerAddress(params, remoteIp));
     }
 
     public PeerSocketHandler(NetworkParameters params, PeerAddress peerAddress) {
         checkNotNull(params);
         serializer = params.getDefaultSerializer();
         this.peerAddress = checkNotNull(peerAddress);
+        this.bytesReceived = Metrics.get().counter("dashj_peer_received_bytes_total",
+                "Bytes of messages received from a peer", "peer", peerAddress.toString());
+        this.bytesSent = Metrics.get().counter("dashj_peer_sent_bytes_total",
+                "Bytes of messages sent to a peer", "peer", peerAddress.toString());
+    }
+
+    private static String command(Message message) {
+        String command = BitcoinSerializer.getCommand(message.getClass());
+        return command != null ? command : "unknown";
+    }
+
+    private void messageReceived(Message message, int size, long decodeNanos) {
+        decodeTime.observeNanos(decodeNanos);
+        bytesReceived.inc(size);
+        Metrics.get().counter("dashj_messages_received_total", "Messages received from all peers",
+                "command", command(message)).inc();
+    }
+
+    /** Forgets the metrics of this peer, once it disconnected. */
+    protected void removeMetrics() {
+        Metrics.get().removeAll("peer", peerAddress.toString());
     }
 
     /**
@@ -91,6 +116,9 @@ public abstract class PeerSocketHandler extends AbstractTimeoutHandler implement
         ByteArrayOutputStream out = new ByteArrayOutputStream();
         try {
             serializer.serialize(message, out);
+            bytesSent.inc(out.size());
+            Metrics.get().counter("dashj_messages_sent_total", "Messages sent to all peers",
+                    "command", command(message)).inc();
             return writeTarget.writeBytes(out.toByteArray());
         } catch (IOException e) {
             exceptionCaught(e);
@@ -144,7 +172,12 @@ public abstract class PeerSocketHandler extends AbstractTimeoutHandler implement
                     // Check the largeReadBuffer's status
                     if (largeReadBufferPos == largeReadBuffer.length) {
                         // ...processing a message if one is available
-                        processMessage(serializer.deserializePayload(header, ByteBuffer.wrap(largeReadBuffer)));
+                        long startNanos = System.nanoTime();
+                        Message message = serializer.deserializePayload(header, ByteBuffer.wrap(largeReadBuffer));
+                        // the magic bytes, the header and the payload
+                        messageReceived(message, 4 + BitcoinSerializer.BitcoinPacketHeader.HEADER_LENGTH + header.size,
+                                System.nanoTime() - startNanos);
+                        processMessage(message);
                         largeReadBuffer = null;
                         header = null;
                         firstMessage = false;
@@ -154,6 +187,7 @@ public abstract class PeerSocketHandler extends AbstractTimeoutHandler implement
                 // Now try to deserialize any messages left in buff
                 Message message;
                 int preSerializePosition = buff.position();
+                long startNanos = System.nanoTime();
                 try {
                     message = serializer.deserialize(buff);
                 } catch (BufferUnderflowException e) {
@@ -184,6 +218,7 @@ public abstract class PeerSocketHandler extends AbstractTimeoutHandler implement
                     return buff.position();
                 }
                 // Process our freshly deserialized message
+                messageReceived(message, buff.position() - preSerializePosition, System.nanoTime() - startNanos);
                 processMessage(message);
                 firstMessage = false;
             }
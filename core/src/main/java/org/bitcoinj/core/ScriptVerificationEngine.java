@@ -0,0 +1,274 @@
+/*
+ * Copyright 2022 Dash Core Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.core;
+
+import org.bitcoinj.script.Script;
+import org.bitcoinj.script.Script.VerifyFlag;
+import org.bitcoinj.utils.Metrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * <p>Runs the scripts of the transactions in a block on a long lived pool of worker threads. The transactions of a block
+ * are added to a {@link Batch}, which groups small transactions into tasks of at least {@link #MIN_INPUTS_PER_TASK}
+ * inputs. The tasks are run on a work stealing pool, so that threads that finish early take over queued tasks of the
+ * others. As soon as one script fails, the rest of the batch is skipped.</p>
+ *
+ * <p>A transaction is never split between tasks, because computing the signature hash of an input serializes the
+ * whole transaction. The number of tasks waiting to run is bounded: adding to a batch blocks while the queue is full,
+ * which keeps a large block from queueing all of its transactions at once.</p>
+ *
+ * <p>The engine keeps the depth of its queue and the time it took to verify the scripts of each batch, see
+ * {@link #getQueueDepth()} and {@link #getLastBatchTimeMillis()}. Both are recorded in {@link Metrics} as well, summed
+ * over all engines. Instances are safe for use by multiple threads.</p>
+ */
+public class ScriptVerificationEngine {
+    private static final Logger log = LoggerFactory.getLogger(ScriptVerificationEngine.class);
+    private static final Metrics.Gauge queueDepthGauge = Metrics.get().gauge("dashj_script_verification_queue_depth",
+            "Script verification tasks that are queued or running");
+    private static final Metrics.Histogram batchTime = Metrics.get().histogram("dashj_script_verification_batch_seconds",
+            "Time from the start of a script verification batch until all its scripts were checked");
+
+    /** Transactions are grouped into a task until it holds at least this many inputs. */
+    public static final int MIN_INPUTS_PER_TASK = 16;
+    /** The number of tasks per thread that may wait to run before adding to a batch blocks. */
+    public static final int MAX_QUEUED_TASKS_PER_THREAD = 64;
+
+    private static ScriptVerificationEngine defaultEngine;
+
+    private final ForkJoinPool pool;
+    private final Semaphore queueSlots;
+
+    private final AtomicInteger queueDepth = new AtomicInteger();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong batchTimeNanos = new AtomicLong();
+    private volatile long lastBatchTimeNanos;
+    // the context that was last propagated to each worker thread
+    private final ThreadLocal<Context> workerContext = new ThreadLocal<>();
+
+    /**
+     * @param threads the number of worker threads
+     */
+    public ScriptVerificationEngine(int threads) {
+        checkArgument(threads > 0, "threads must be positive: %s", threads);
+        this.pool = new ForkJoinPool(threads, new ForkJoinPool.ForkJoinWorkerThreadFactory() {
+            @Override
+            public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+                ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                thread.setName("Script verification " + thread.getPoolIndex());
+                thread.setDaemon(true);
+                return thread;
+            }
+        }, null, true);
+        this.queueSlots = new Semaphore(threads * MAX_QUEUED_TASKS_PER_THREAD);
+    }
+
+    /** Returns an engine with a thread per available processor, which is shared by all block chains. */
+    public static synchronized ScriptVerificationEngine getDefault() {
+        if (defaultEngine == null)
+            defaultEngine = new ScriptVerificationEngine(Runtime.getRuntime().availableProcessors());
+        return defaultEngine;
+    }
+
+    /** Starts a batch, usually for the transactions of one block. */
+    public Batch newBatch() {
+        return new Batch();
+    }
+
+    /** Returns the number of tasks that are queued or running. */
+    public int getQueueDepth() {
+        return queueDepth.get();
+    }
+
+    /** Returns the number of batches that were verified. */
+    public long getBatchCount() {
+        return batches.get();
+    }
+
+    /** Returns the time from the start of the last verified batch until all its scripts were checked. */
+    public long getLastBatchTimeMillis() {
+        return lastBatchTimeNanos / 1000000;
+    }
+
+    /** Returns the total time that batches took until all their scripts were checked. */
+    public long getTotalBatchTimeMillis() {
+        return batchTimeNanos.get() / 1000000;
+    }
+
+    /** Stops the worker threads. Batches that are still running are cancelled. */
+    public void shutdown() {
+        pool.shutdownNow();
+    }
+
+    private static class Item {
+        final Transaction tx;
+        final List<Script> prevOutScripts;
+        final Set<VerifyFlag> verifyFlags;
+
+        Item(Transaction tx, List<Script> prevOutScripts, Set<VerifyFlag> verifyFlags) {
+            this.tx = tx;
+            this.prevOutScripts = prevOutScripts;
+            this.verifyFlags = verifyFlags;
+        }
+    }
+
+    /**
+     * The scripts of a group of transactions, which are verified together. Add the transactions with
+     * {@link #add(Transaction, List, Set)}, then call {@link #verify()}, or {@link #cancel()} to give up.
+     * A batch is meant to be filled and verified by a single thread.
+     */
+    public class Batch {
+        private final long startNanos = System.nanoTime();
+        private final Context context = Context.get();
+        private List<Item> pendingItems = new ArrayList<>();
+        private int pendingInputs;
+
+        // guarded by this
+        private int runningTasks;
+        @Nullable private VerificationException failure;
+        private volatile boolean cancelled;
+
+        private Batch() {
+        }
+
+        /**
+         * Adds a transaction, whose inputs spend outputs with the given scripts in order. The scripts may already be
+         * run when this returns, so the transaction must not be changed afterwards. Once a script of the batch failed,
+         * the transaction is ignored and {@link #verify()} reports the failure.
+         */
+        public void add(Transaction tx, List<Script> prevOutScripts, Set<VerifyFlag> verifyFlags) {
+            if (cancelled)
+                return;
+            pendingItems.add(new Item(tx, prevOutScripts, verifyFlags));
+            pendingInputs += tx.getInputs().size();
+            if (pendingInputs >= MIN_INPUTS_PER_TASK)
+                flush();
+        }
+
+        private void flush() {
+            if (pendingItems.isEmpty())
+                return;
+            final List<Item> items = pendingItems;
+            pendingItems = new ArrayList<>();
+            pendingInputs = 0;
+            queueSlots.acquireUninterruptibly();
+            synchronized (this) {
+                runningTasks++;
+            }
+            queueDepth.incrementAndGet();
+            queueDepthGauge.add(1);
+            try {
+                pool.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        runTask(items);
+                    }
+                });
+            } catch (RuntimeException x) {
+                queueDepth.decrementAndGet();
+                queueDepthGauge.add(-1);
+                queueSlots.release();
+                taskDone(new VerificationException("Script verification engine is shut down", x));
+            }
+        }
+
+        private void runTask(List<Item> items) {
+            VerificationException taskFailure = null;
+            try {
+                if (workerContext.get() != context) {
+                    Context.propagate(context);
+                    workerContext.set(context);
+                }
+                for (Item item : items) {
+                    if (cancelled)
+                        break;
+                    Iterator<Script> prevOutIt = item.prevOutScripts.iterator();
+                    for (int index = 0; index < item.tx.getInputs().size(); index++) {
+                        Script scriptSig = item.tx.getInputs().get(index).getScriptSig();
+                        scriptSig.correctlySpends(item.tx, index, prevOutIt.next(), item.verifyFlags);
+                    }
+                }
+            } catch (VerificationException e) {
+                taskFailure = e;
+            } catch (Throwable e) {
+                // an Error must fail the batch too, otherwise the rest of the task would count as verified
+                log.error("Script.correctlySpends threw a non-normal exception: " + e);
+                taskFailure = new VerificationException("Bug in Script.correctlySpends, likely script malformed in some new and interesting way.", e);
+            } finally {
+                // free the slot before waking up verify(), so the queue depth is exact once it returns
+                queueDepth.decrementAndGet();
+                queueDepthGauge.add(-1);
+                queueSlots.release();
+                taskDone(taskFailure);
+            }
+        }
+
+        private synchronized void taskDone(@Nullable VerificationException taskFailure) {
+            runningTasks--;
+            if (taskFailure != null && failure == null) {
+                failure = taskFailure;
+                // the other tasks of the batch skip their remaining transactions
+                cancelled = true;
+            }
+            notifyAll();
+        }
+
+        /**
+         * Waits until all scripts of the batch were verified, or one of them failed.
+         *
+         * @throws VerificationException the first failure, after which the rest of the batch is skipped
+         */
+        public void verify() throws VerificationException {
+            flush();
+            synchronized (this) {
+                try {
+                    while (runningTasks > 0 && failure == null)
+                        wait();
+                } catch (InterruptedException e) {
+                    cancelled = true;
+                    throw new RuntimeException(e); // Shouldn't happen
+                }
+                if (failure != null)
+                    throw failure;
+            }
+            long nanos = System.nanoTime() - startNanos;
+            lastBatchTimeNanos = nanos;
+            batchTimeNanos.addAndGet(nanos);
+            batches.incrementAndGet();
+            batchTime.observeNanos(nanos);
+        }
+
+        /** Skips the scripts of the batch that were not verified yet. */
+        public void cancel() {
+            cancelled = true;
+            pendingItems.clear();
+        }
+    }
+}
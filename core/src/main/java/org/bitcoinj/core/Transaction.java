@@ -50,6 +50,7 @@ import static org.bitcoinj.core.Utils.*;
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkState;
 import java.math.BigInteger;
+import java.security.MessageDigest;
 
 /**
  * <p>A transaction represents the movement of coins from some addresses to some other addresses. It can also represent
@@ -204,6 +205,9 @@ public class Transaction extends ChildMessage {
     // This is an in memory helpers only. It contains the transaction hash.
     private Sha256Hash cachedTxId;
 
+    // In memory only: the serialized outputs, which are part of the signature hash of every input.
+    @Nullable private transient volatile SigHashOutputs sigHashOutputs;
+
     // Data about how confirmed this tx is. Serialized, may be null.
     @Nullable private TransactionConfidence confidence;
 
@@ -341,6 +345,10 @@ public class Transaction extends ChildMessage {
      * via outpoints.
      */
     public Sha256Hash getTxId() {
+        if (cachedTxId == null && payload != null && length != UNKNOWN_LENGTH) {
+            // still backed by the bytes it was parsed from, so hash them in place instead of serializing again
+            cachedTxId = Sha256Hash.wrapReversed(Sha256Hash.hashTwice(payload, offset, length));
+        }
         if (cachedTxId == null) {
             ByteArrayOutputStream stream = new UnsafeByteArrayOutputStream(length < 32 ? 32 : length + 32);
             try {
@@ -599,6 +607,7 @@ public class Transaction extends ChildMessage {
     protected void unCache() {
         super.unCache();
         cachedTxId = null;
+        sigHashOutputs = null;
     }
 
     protected static int calcLength(byte[] buf, int offset) {
@@ -1165,83 +1174,153 @@ public class Transaction extends ChildMessage {
         //
         //   https://en.bitcoin.it/wiki/Contracts
 
-        try {
-            // Create a copy of this transaction to operate upon because we need make changes to the inputs and outputs.
-            // It would not be thread-safe to change the attributes of the transaction object itself.
-            Transaction tx = this.params.getDefaultSerializer().makeTransaction(this.bitcoinSerialize());
-
-            // Clear input scripts in preparation for signing. If we're signing a fresh
-            // transaction that step isn't very helpful, but it doesn't add much cost relative to the actual
-            // EC math so we'll do it anyway.
-            for (int i = 0; i < tx.inputs.size(); i++) {
-                tx.inputs.get(i).clearScriptBytes();
-            }
-
-            // This step has no purpose beyond being synchronized with Dash Core's bugs. OP_CODESEPARATOR
-            // is a legacy holdover from a previous, broken design of executing scripts that shipped in Bitcoin 0.1.
-            // It was seriously flawed and would have let anyone take anyone elses money. Later versions switched to
-            // the design we use today where scripts are executed independently but share a stack. This left the
-            // OP_CODESEPARATOR instruction having no purpose as it was only meant to be used internally, not actually
-            // ever put into scripts. Deleting OP_CODESEPARATOR is a step that should never be required but if we don't
-            // do it, we could split off the best chain.
-            connectedScript = Script.removeAllInstancesOfOp(connectedScript, ScriptOpCodes.OP_CODESEPARATOR);
-
-            // Set the input to the script of its output. Dash Core does this but the step has no obvious purpose as
-            // the signature covers the hash of the prevout transaction which obviously includes the output script
-            // already. Perhaps it felt safer to him in some way, or is another leftover from how the code was written.
-            TransactionInput input = tx.inputs.get(inputIndex);
-            input.setScriptBytes(connectedScript);
-
-            if ((sigHashType & 0x1f) == SigHash.NONE.value) {
-                // SIGHASH_NONE means no outputs are signed at all - the signature is effectively for a "blank cheque".
-                tx.outputs = new ArrayList<>(0);
-                // The signature isn't broken by new versions of the transaction issued by other parties.
-                for (int i = 0; i < tx.inputs.size(); i++)
-                    if (i != inputIndex)
-                        tx.inputs.get(i).setSequenceNumber(0);
-            } else if ((sigHashType & 0x1f) == SigHash.SINGLE.value) {
-                // SIGHASH_SINGLE means only sign the output at the same index as the input (ie, my output).
-                if (inputIndex >= tx.outputs.size()) {
-                    // The input index is beyond the number of outputs, it's a buggy signature made by a broken
-                    // Bitcoin implementation. Dash Core also contains a bug in handling this case:
-                    // any transaction output that is signed in this case will result in both the signed output
-                    // and any future outputs to this public key being steal-able by anyone who has
-                    // the resulting signature and the public key (both of which are part of the signed tx input).
-
-                    // Dash Core's bug is that SignatureHash was supposed to return a hash and on this codepath it
-                    // actually returns the constant "1" to indicate an error, which is never checked for. Oops.
-                    return Sha256Hash.wrap("0100000000000000000000000000000000000000000000000000000000000000");
+        // Dash Core hashes a copy of the transaction with the input scripts cleared and some parts removed. Instead
+        // of making that copy, which would cost as much as the whole transaction for every input, the simplified form
+        // is written straight into the digest. The outputs are serialized only once for all inputs.
+        TransactionInput input = inputs.get(inputIndex);
+
+        // This step has no purpose beyond being synchronized with Dash Core's bugs. OP_CODESEPARATOR
+        // is a legacy holdover from a previous, broken design of executing scripts that shipped in Bitcoin 0.1.
+        // It was seriously flawed and would have let anyone take anyone elses money. Later versions switched to
+        // the design we use today where scripts are executed independently but share a stack. This left the
+        // OP_CODESEPARATOR instruction having no purpose as it was only meant to be used internally, not actually
+        // ever put into scripts. Deleting OP_CODESEPARATOR is a step that should never be required but if we don't
+        // do it, we could split off the best chain.
+        connectedScript = Script.removeAllInstancesOfOp(connectedScript, ScriptOpCodes.OP_CODESEPARATOR);
+
+        int baseType = sigHashType & 0x1f;
+        if (baseType == SigHash.SINGLE.value && inputIndex >= outputs.size()) {
+            // The input index is beyond the number of outputs, it's a buggy signature made by a broken
+            // Bitcoin implementation. Dash Core also contains a bug in handling this case:
+            // any transaction output that is signed in this case will result in both the signed output
+            // and any future outputs to this public key being steal-able by anyone who has
+            // the resulting signature and the public key (both of which are part of the signed tx input).
+
+            // Dash Core's bug is that SignatureHash was supposed to return a hash and on this codepath it
+            // actually returns the constant "1" to indicate an error, which is never checked for. Oops.
+            return Sha256Hash.wrap("0100000000000000000000000000000000000000000000000000000000000000");
+        }
+        // With SIGHASH_NONE and SIGHASH_SINGLE the signature isn't broken by new versions of the transaction issued
+        // by other parties, so the sequence numbers of the other inputs are set to zero.
+        boolean otherSequencesZero = baseType == SigHash.NONE.value || baseType == SigHash.SINGLE.value;
+
+        MessageDigest digest = Sha256Hash.newDigest();
+        byte[] buf = new byte[SIGHASH_INPUT_SIZE];
+        uint32ToByteArrayLE(version, buf, 0);
+        digest.update(buf, 0, 4);
+
+        if ((sigHashType & SigHash.ANYONECANPAY.value) == SigHash.ANYONECANPAY.value) {
+            // SIGHASH_ANYONECANPAY means the signature in the input is not broken by changes/additions/removals
+            // of other inputs. For example, this is useful for building assurance contracts.
+            digest.update((byte) 1);
+            writeSigHashInput(digest, buf, input, connectedScript, input.getSequenceNumber());
+        } else {
+            digest.update(new VarInt(inputs.size()).encode());
+            for (int i = 0; i < inputs.size(); i++) {
+                TransactionInput in = inputs.get(i);
+                if (i == inputIndex) {
+                    // Set the input to the script of its output. Dash Core does this but the step has no obvious
+                    // purpose as the signature covers the hash of the prevout transaction which obviously includes
+                    // the output script already. Perhaps it felt safer to him in some way, or is another leftover
+                    // from how the code was written.
+                    writeSigHashInput(digest, buf, in, connectedScript, in.getSequenceNumber());
+                } else {
+                    // The other input scripts are cleared.
+                    writeSigHashInput(digest, buf, in, null, otherSequencesZero ? 0 : in.getSequenceNumber());
                 }
-                // In SIGHASH_SINGLE the outputs after the matching input index are deleted, and the outputs before
-                // that position are "nulled out". Unintuitively, the value in a "null" transaction is set to -1.
-                tx.outputs = new ArrayList<>(tx.outputs.subList(0, inputIndex + 1));
-                for (int i = 0; i < inputIndex; i++)
-                    tx.outputs.set(i, new TransactionOutput(tx.params, tx, Coin.NEGATIVE_SATOSHI, new byte[] {}));
-                // The signature isn't broken by new versions of the transaction issued by other parties.
-                for (int i = 0; i < tx.inputs.size(); i++)
-                    if (i != inputIndex)
-                        tx.inputs.get(i).setSequenceNumber(0);
             }
+        }
 
-            if ((sigHashType & SigHash.ANYONECANPAY.value) == SigHash.ANYONECANPAY.value) {
-                // SIGHASH_ANYONECANPAY means the signature in the input is not broken by changes/additions/removals
-                // of other inputs. For example, this is useful for building assurance contracts.
-                tx.inputs = new ArrayList<>();
-                tx.inputs.add(input);
-            }
+        if (baseType == SigHash.NONE.value) {
+            // SIGHASH_NONE means no outputs are signed at all - the signature is effectively for a "blank cheque".
+            digest.update((byte) 0);
+        } else if (baseType == SigHash.SINGLE.value) {
+            // SIGHASH_SINGLE means only sign the output at the same index as the input (ie, my output).
+            // In SIGHASH_SINGLE the outputs after the matching input index are deleted, and the outputs before
+            // that position are "nulled out". Unintuitively, the value in a "null" transaction is set to -1.
+            digest.update(new VarInt(inputIndex + 1).encode());
+            for (int i = 0; i < inputIndex; i++)
+                digest.update(SIGHASH_NULL_OUTPUT);
+            SigHashOutputs serializedOutputs = getSigHashOutputs();
+            int start = serializedOutputs.offsets[inputIndex];
+            digest.update(serializedOutputs.bytes, start, serializedOutputs.offsets[inputIndex + 1] - start);
+        } else {
+            SigHashOutputs serializedOutputs = getSigHashOutputs();
+            digest.update(serializedOutputs.bytes, 0, serializedOutputs.offsets[outputs.size()]);
+        }
+
+        uint32ToByteArrayLE(lockTime, buf, 0);
+        digest.update(buf, 0, 4);
+        if (getVersionShort() >= SPECIAL_VERSION && getType() != Type.TRANSACTION_NORMAL) {
+            digest.update(new VarInt(extraPayload.length).encode());
+            digest.update(extraPayload);
+        }
+        // We also have to write a hash type (sigHashType is actually an unsigned char)
+        uint32ToByteArrayLE(0x000000ff & sigHashType, buf, 0);
+        digest.update(buf, 0, 4);
+        // Note that this is NOT reversed to ensure it will be signed correctly. If it were to be printed out
+        // however then we would expect that it is IS reversed.
+        return Sha256Hash.wrap(digest.digest(digest.digest()));
+    }
+
+    // An input with an empty script: the outpoint, a zero script length and the sequence number.
+    private static final int SIGHASH_INPUT_SIZE = 36 + 1 + 4;
+    // An output with a value of -1 and an empty script.
+    private static final byte[] SIGHASH_NULL_OUTPUT = {-1, -1, -1, -1, -1, -1, -1, -1, 0};
+
+    /**
+     * Writes an input as it appears in the simplified transaction of a signature hash, with the given script or
+     * with an empty one if it is null.
+     */
+    private static void writeSigHashInput(MessageDigest digest, byte[] buf, TransactionInput input,
+                                          @Nullable byte[] script, long sequence) {
+        TransactionOutPoint outpoint = input.getOutpoint();
+        byte[] hash = outpoint.getHash().getBytes();
+        for (int i = 0; i < 32; i++)
+            buf[i] = hash[31 - i];
+        uint32ToByteArrayLE(outpoint.getIndex(), buf, 32);
+        if (script == null) {
+            buf[36] = 0;
+            uint32ToByteArrayLE(sequence, buf, 37);
+            digest.update(buf, 0, SIGHASH_INPUT_SIZE);
+        } else {
+            digest.update(buf, 0, 36);
+            digest.update(new VarInt(script.length).encode());
+            digest.update(script);
+            uint32ToByteArrayLE(sequence, buf, 0);
+            digest.update(buf, 0, 4);
+        }
+    }
+
+    private SigHashOutputs getSigHashOutputs() {
+        SigHashOutputs result = sigHashOutputs;
+        if (result == null || result.offsets.length != outputs.size() + 1) {
+            result = new SigHashOutputs(outputs);
+            sigHashOutputs = result;
+        }
+        return result;
+    }
+
+    /** The serialized outputs with their count, as they appear in the signature hash of every input. */
+    private static class SigHashOutputs {
+        final byte[] bytes;
+        // where each output starts, followed by the end of the last one
+        final int[] offsets;
 
-            ByteArrayOutputStream bos = new UnsafeByteArrayOutputStream(tx.length == UNKNOWN_LENGTH ? 256 : tx.length + 4);
-            tx.bitcoinSerialize(bos);
-            // We also have to write a hash type (sigHashType is actually an unsigned char)
-            uint32ToByteStreamLE(0x000000ff & sigHashType, bos);
-            // Note that this is NOT reversed to ensure it will be signed correctly. If it were to be printed out
-            // however then we would expect that it is IS reversed.
-            Sha256Hash hash = Sha256Hash.twiceOf(bos.toByteArray());
-            bos.close();
-
-            return hash;
-        } catch (IOException e) {
-            throw new RuntimeException(e);  // Cannot happen.
+        SigHashOutputs(List<TransactionOutput> outputs) {
+            try {
+                UnsafeByteArrayOutputStream bos = new UnsafeByteArrayOutputStream();
+                offsets = new int[outputs.size() + 1];
+                bos.write(new VarInt(outputs.size()).encode());
+                for (int i = 0; i < outputs.size(); i++) {
+                    offsets[i] = bos.size();
+                    outputs.get(i).bitcoinSerialize(bos);
+                }
+                offsets[outputs.size()] = bos.size();
+                bytes = bos.toByteArray();
+            } catch (IOException e) {
+                throw new RuntimeException(e);  // Cannot happen.
+            }
         }
     }
 
@@ -1372,6 +1451,7 @@ public class Transaction extends ChildMessage {
 
     /** Randomly re-orders the transaction outputs: good for privacy */
     public void shuffleOutputs() {
+        unCache();
         Collections.shuffle(outputs);
     }
 
@@ -1402,10 +1482,12 @@ public class Transaction extends ChildMessage {
 
     /** Sorts transaction outputs according to BIP69 first by amount, then by scriptPubKey **/
     public void sortOutputs() {
+        unCache();
         Collections.sort(outputs, compareTransactionOutputs);
     }
 
     public void sortInputs() {
+        unCache();
         Collections.sort(inputs, compareTransactionInputs);
     }
 
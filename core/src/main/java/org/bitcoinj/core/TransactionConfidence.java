@@ -33,8 +33,6 @@ import java.util.concurrent.*;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
 
-// TODO: Modify the getDepthInBlocks method to require the chain height to be specified, in preparation for ceasing to touch every tx on every block.
-
 /**
  * <p>A TransactionConfidence object tracks data you can use to make a confidence decision about a transaction.
  * It also contains some pre-canned rules for common scenarios: if you aren't really sure what level of confidence
@@ -59,8 +57,9 @@ import static com.google.common.base.Preconditions.checkState;
  * <p>Alternatively, you may know that the transaction is "dead", that is, one or more of its inputs have
  * been double spent and will never confirm unless there is another re-org.</p>
  *
- * <p>TransactionConfidence is updated via the {@link TransactionConfidence#incrementDepthInBlocks()}
- * method to ensure the block depth is up to date.</p>
+ * <p>The depth of a transaction in the best chain is either set explicitly or, once its owner calls
+ * {@link TransactionConfidence#trackDepth(DepthTracker, int)}, derived from the height of a {@link DepthTracker} when
+ * it is read, so nothing needs to touch the confidence when a block arrives.</p>
  * To make a copy that won't be changed, use {@link TransactionConfidence#duplicate()}.
  */
 public class TransactionConfidence {
@@ -91,8 +90,49 @@ public class TransactionConfidence {
     };
 
 
-    // The depth of the transaction on the best chain in blocks. An unconfirmed block has depth 0.
+    // The depth of the transaction on the best chain in blocks. An unconfirmed block has depth 0. If a depth tracker
+    // is set, this is the depth at the tracker height trackedFromHeight.
     private int depth;
+    @Nullable private DepthTracker depthTracker;
+    private int trackedFromHeight;
+    // The greatest depth that a future returned by getDepthFuture has waited for.
+    private int awaitedDepth;
+
+    /**
+     * <p>Counts the blocks that the owner of a set of confidence objects, usually a {@link Wallet}, has seen on top of
+     * the best chain. The confidences that track it derive their depth from how far its height moved since their depth
+     * was recorded. The height starts at zero and only the difference between two heights is meaningful.</p>
+     *
+     * <p>The tracker also holds the confidences that still want to hear about new blocks, so that the owner only
+     * needs to visit those, and not every transaction it knows, when a block arrives.</p>
+     */
+    public static class DepthTracker {
+        private volatile int height;
+        private final Set<TransactionConfidence> watched = new LinkedHashSet<>();
+
+        public int getHeight() {
+            return height;
+        }
+
+        /** Moves the height up by one block. */
+        public void advance() {
+            height++;
+        }
+
+        /** Adds a confidence to the set that wants to hear about new blocks. */
+        public synchronized void watch(TransactionConfidence confidence) {
+            watched.add(confidence);
+        }
+
+        public synchronized void unwatch(TransactionConfidence confidence) {
+            watched.remove(confidence);
+        }
+
+        /** Returns a snapshot of the confidences that want to hear about new blocks. */
+        public synchronized List<TransactionConfidence> getWatched() {
+            return new ArrayList<>(watched);
+        }
+    }
 
     /** Describes the state of the transaction in general terms. Properties can be read to learn specifics. */
     public enum ConfidenceType {
@@ -291,8 +331,8 @@ public class TransactionConfidence {
         if (appearedAtChainHeight < 0)
             throw new IllegalArgumentException("appearedAtChainHeight out of range");
         this.appearedAtChainHeight = appearedAtChainHeight;
-        this.depth = 1;
-            setConfidenceType(ConfidenceType.BUILDING);
+        setConfidenceType(ConfidenceType.BUILDING);
+        setDepthInBlocks(1);
     }
 
     /**
@@ -309,6 +349,12 @@ public class TransactionConfidence {
     public synchronized void setConfidenceType(ConfidenceType confidenceType) {
         if (confidenceType == this.confidenceType)
             return;
+        if (depthTracker != null) {
+            // only a transaction in the best chain gets deeper
+            depth = getDepthInBlocks();
+            depthTracker.unwatch(this);
+            depthTracker = null;
+        }
         this.confidenceType = confidenceType;
         if (confidenceType != ConfidenceType.DEAD) {
             overridingTransaction = null;
@@ -448,13 +494,37 @@ public class TransactionConfidence {
     }
 
     /**
-     * Called by the wallet when the tx appears on the best chain and a new block is added to the top. Updates the
-     * internal counter that tracks how deeply buried the block is.
+     * Called when the tx appears on the best chain and a new block is added to the top. Updates the internal counter
+     * that tracks how deeply buried the block is. Not needed while the depth is tracked by a {@link DepthTracker}.
      *
      * @return the new depth
      */
     public synchronized int incrementDepthInBlocks() {
-        return ++this.depth;
+        if (depthTracker != null)
+            trackedFromHeight--;
+        else
+            depth++;
+        return getDepthInBlocks();
+    }
+
+    /**
+     * Called by the owner of a BUILDING transaction, usually a {@link Wallet}, to derive the depth from the height of
+     * {@code tracker} from now on. The current depth becomes the depth at tracker height {@code height}, so passing
+     * the height the tracker will have after the next block means that block does not add to the depth.
+     */
+    public synchronized void trackDepth(DepthTracker tracker, int height) {
+        checkState(confidenceType == ConfidenceType.BUILDING, "Confidence type is %s, not BUILDING", confidenceType);
+        depth = getDepthInBlocks();
+        if (depthTracker != null && depthTracker != tracker)
+            depthTracker.unwatch(this);
+        depthTracker = checkNotNull(tracker);
+        trackedFromHeight = height;
+    }
+
+    /** Returns the tracker the depth is derived from, or null if the depth is only changed explicitly. */
+    @Nullable
+    public synchronized DepthTracker getDepthTracker() {
+        return depthTracker;
     }
 
     /**
@@ -468,14 +538,20 @@ public class TransactionConfidence {
      * the depth is zero.</p>
      */
     public synchronized int getDepthInBlocks() {
-        return depth;
+        if (depthTracker == null)
+            return depth;
+        // A transaction that appeared in a block which was not yet announced to the tracker is still one block deep.
+        return Math.max(1, depth + depthTracker.getHeight() - trackedFromHeight);
     }
 
     /*
-     * Set the depth in blocks. Having one block confirmation is a depth of one.
+     * Set the depth in blocks. Having one block confirmation is a depth of one. A tracked depth keeps following its
+     * tracker from the given depth.
      */
     public synchronized void setDepthInBlocks(int depth) {
         this.depth = depth;
+        if (depthTracker != null)
+            trackedFromHeight = depthTracker.getHeight();
     }
 
     /**
@@ -567,12 +643,17 @@ public class TransactionConfidence {
     /**
      * Returns a future that completes when the transaction has been confirmed by "depth" blocks. For instance setting
      * depth to one will wait until it appears in a block on the best chain, and zero will wait until it has been seen
-     * on the network.
+     * on the network. The depth is also registered with the {@link DepthTracker} of the transaction, if any, so
+     * that the owner keeps announcing blocks to it until the depth is reached.
      */
     public synchronized ListenableFuture<TransactionConfidence> getDepthFuture(final int depth, Executor executor) {
         final SettableFuture<TransactionConfidence> result = SettableFuture.create();
         if (getDepthInBlocks() >= depth) {
             result.set(this);
+        } else {
+            awaitedDepth = Math.max(awaitedDepth, depth);
+            if (depthTracker != null)
+                depthTracker.watch(this);
         }
         addEventListener(executor, new Listener() {
             @Override public void onConfidenceChanged(TransactionConfidence confidence, ChangeReason reason) {
@@ -589,6 +670,11 @@ public class TransactionConfidence {
         return getDepthFuture(depth, Threading.USER_THREAD);
     }
 
+    /** Returns the greatest depth that a future from {@link #getDepthFuture(int)} has waited for, or zero. */
+    public synchronized int getAwaitedDepth() {
+        return awaitedDepth;
+    }
+
     public Sha256Hash getTransactionHash() {
         return hash;
     }
@@ -1,21 +1,40 @@
 package org.bitcoinj.crypto;
 
 
+import com.google.common.base.Throwables;
 import org.bitcoinj.core.Sha256Hash;
-import org.bitcoinj.utils.Pair;
+import org.bitcoinj.utils.ContextPropagatingThreadFactory;
 
+import javax.annotation.Nullable;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkState;
 
+/**
+ * Collects BLS signatures from several sources and verifies them with as few pairings as possible. When the aggregate
+ * check fails, the sources (and optionally the messages) responsible for the failure are recorded in
+ * {@link #getBadSources()} and {@link #getBadMessages()}.
+ *
+ * <p>If an executor is passed to the constructor, {@link #verify()} splits the messages into sub-batches that are checked
+ * concurrently. The sources of the messages in failing sub-batches are bisected until the bad sources and messages are
+ * isolated. Without an
+ * executor everything is verified on the calling thread.</p>
+ */
 public class BLSBatchVerifier<SourceId, MessageId>
 {
+    private static ExecutorService defaultExecutor;
+
     private class Message {
-        MessageId msgId;
-        Sha256Hash msgHash;
-        BLSSignature sig;
-        BLSPublicKey pubKey;
+        final MessageId msgId;
+        final Sha256Hash msgHash;
+        final BLSSignature sig;
+        final BLSPublicKey pubKey;
         Message(MessageId msgId, Sha256Hash msgHash, BLSSignature sig, BLSPublicKey pubKey) {
           this.msgId = msgId;
           this.msgHash = msgHash;
@@ -27,28 +46,58 @@ public class BLSBatchVerifier<SourceId, MessageId>
     boolean secureVerification;
     boolean perMessageFallback;
     int subBatchSize;
+    @Nullable ExecutorService executor;
+    int parallelism;
 
     HashMap<MessageId, Message> messages;
-    HashMap<SourceId, Vector<Pair<MessageId, Message>>> messagesBySource;
+    HashMap<SourceId, ArrayList<Message>> messagesBySource;
 
 
     HashSet<SourceId> badSources;
     HashSet<MessageId> badMessages;
 
-    public BLSBatchVerifier(boolean _secureVerification, boolean _perMessageFallback, int _subBatchSize) {
+    /**
+     * @param executor if not null, sub-batches are verified on this executor
+     * @param parallelism the number of sub-batches the initial batch is split into when an executor is used
+     */
+    public BLSBatchVerifier(boolean _secureVerification, boolean _perMessageFallback, int _subBatchSize,
+                            @Nullable ExecutorService executor, int parallelism) {
+        checkArgument(parallelism > 0);
         this.secureVerification = (_secureVerification);
         perMessageFallback = (_perMessageFallback);
         subBatchSize = (_subBatchSize);
+        this.executor = executor;
+        this.parallelism = parallelism;
         messages = new HashMap<MessageId, Message>();
-        messagesBySource = new HashMap<SourceId, Vector<Pair<MessageId, Message>>>();
+        messagesBySource = new HashMap<SourceId, ArrayList<Message>>();
         badSources = new HashSet<SourceId>();
         badMessages = new HashSet<MessageId>();
     }
 
+    public BLSBatchVerifier(boolean _secureVerification, boolean _perMessageFallback, int _subBatchSize) {
+        this(_secureVerification, _perMessageFallback, _subBatchSize, null, 1);
+    }
+
     public BLSBatchVerifier(boolean secureVerification, boolean perMessageFallback) {
         this(secureVerification, perMessageFallback, 0);
     }
 
+    /**
+     * Returns a shared executor with one daemon thread per available processor, suitable for passing to the
+     * constructor.
+     */
+    public static synchronized ExecutorService getDefaultExecutor() {
+        if (defaultExecutor == null)
+            defaultExecutor = Executors.newFixedThreadPool(getDefaultParallelism(),
+                    new ContextPropagatingThreadFactory("BLS batch verifier"));
+        return defaultExecutor;
+    }
+
+    /** Returns the number of sub-batches used with {@link #getDefaultExecutor()}. */
+    public static int getDefaultParallelism() {
+        return Runtime.getRuntime().availableProcessors();
+    }
+
     public HashSet<SourceId> getBadSources() {
         return badSources;
     }
@@ -63,13 +112,12 @@ public class BLSBatchVerifier<SourceId, MessageId>
 
         Message newMessage = new Message(msgId, msgHash, sig, pubKey);
         messages.put(msgId, newMessage);
-        if(messagesBySource.containsKey(sourceId)) {
-            messagesBySource.get(sourceId).add(new Pair(msgId, newMessage));
-        } else {
-            Vector<Pair<MessageId, Message>> vector = new Vector<Pair<MessageId, Message>>();
-            vector.add(new Pair(msgId, newMessage));
-            messagesBySource.put(sourceId, vector);
+        ArrayList<Message> sourceMessages = messagesBySource.get(sourceId);
+        if (sourceMessages == null) {
+            sourceMessages = new ArrayList<Message>();
+            messagesBySource.put(sourceId, sourceMessages);
         }
+        sourceMessages.add(newMessage);
         if (subBatchSize != 0 && messages.size() >= subBatchSize) {
             verify();
             clearMessages();
@@ -84,36 +132,25 @@ public class BLSBatchVerifier<SourceId, MessageId>
 
     public void verify()
     {
-        HashMap<Sha256Hash, Vector<Pair<MessageId, Message>>> byMessageHash = new HashMap<Sha256Hash, Vector<Pair<MessageId, Message>>>();
-
-        for (Map.Entry<MessageId, Message> entry : messages.entrySet()) {
-
-            if(byMessageHash.containsKey(entry.getValue().msgHash)) {
-                byMessageHash.get(entry.getValue().msgHash).add(new Pair(entry.getValue().msgId, entry.getValue()));
-            } else {
-                Vector<Pair<MessageId, Message>> vector = new Vector<Pair<MessageId, Message>>();
-                vector.add(new Pair(entry.getValue().msgId, entry.getValue()));
-                byMessageHash.put(entry.getValue().msgHash, vector);
-            }
+        if (messages.isEmpty())
+            return;
+        if (executor != null) {
+            verifyParallel();
+            return;
         }
 
-        if (verifyBatch(byMessageHash)) {
+        if (verifyBatch(messages.values())) {
             // full batch is valid
             return;
         }
 
         // revert to per-source verification
-        for (Map.Entry<SourceId, Vector<Pair<MessageId, Message>>> p : messagesBySource.entrySet()) {
+        for (Map.Entry<SourceId, ArrayList<Message>> p : messagesBySource.entrySet()) {
             boolean batchValid = false;
 
             // no need to verify it again if there was just one source
             if (messagesBySource.size() != 1) {
-                byMessageHash.clear();
-                for (Pair<MessageId, Message> it : p.getValue()) {
-
-                    byMessageHash.put(it.getSecond().msgHash, p.getValue());
-                }
-                batchValid = verifyBatch(byMessageHash);
+                batchValid = verifyBatch(p.getValue());
             }
             if (!batchValid) {
                 badSources.add(p.getKey());
@@ -122,15 +159,14 @@ public class BLSBatchVerifier<SourceId, MessageId>
                     // revert to per-message verification
                     if (p.getValue().size() == 1) {
                         // no need to re-verify a single message
-                        badMessages.add(p.getValue().get(0).getSecond().msgId);
+                        badMessages.add(p.getValue().get(0).msgId);
                     } else {
-                        for (Pair<MessageId, Message> msgIt : p.getValue()) {
-                            if (badMessages.contains(msgIt.getFirst())) {
+                        for (Message msg : p.getValue()) {
+                            if (badMessages.contains(msg.msgId)) {
                                 // same message might be invalid from different source, so no need to re-verify it
                                 continue;
                             }
 
-                            Message msg = msgIt.getSecond();
                             if (!msg.sig.verifyInsecure(msg.pubKey, msg.msgHash)) {
                                 badMessages.add(msg.msgId);
                             }
@@ -141,68 +177,192 @@ public class BLSBatchVerifier<SourceId, MessageId>
         }
     }
 
-    // All Verify methods take ownership of the passed byMessageHash map and thus might modify the map. This is to avoid
-    // unnecessary copies
-
-    private boolean verifyBatch(HashMap<Sha256Hash, Vector<Pair<MessageId, Message>>> byMessageHash)
+    private void verifyParallel()
     {
-        if (secureVerification) {
-            return verifyBatchSecure(byMessageHash);
+        // the first round spreads the messages evenly over the workers, whichever sources they came from, so that
+        // a batch from a single source is checked concurrently as well
+        ArrayList<Message> allMessages = new ArrayList<Message>(messages.values());
+        List<List<Message>> chunks = new ArrayList<List<Message>>();
+        int chunkSize = (allMessages.size() + parallelism - 1) / parallelism;
+        for (int i = 0; i < allMessages.size(); i += chunkSize)
+            chunks.add(allMessages.subList(i, Math.min(i + chunkSize, allMessages.size())));
+        boolean[] chunkValid = verifyConcurrently(chunks);
+        HashSet<MessageId> suspectMessages = new HashSet<MessageId>();
+        for (int i = 0; i < chunks.size(); i++) {
+            if (!chunkValid[i]) {
+                for (Message msg : chunks.get(i))
+                    suspectMessages.add(msg.msgId);
+            }
+        }
+        if (suspectMessages.isEmpty()) {
+            // full batch is valid
+            return;
+        }
+
+        // only the sources of the messages in failed chunks are bisected
+        ArrayList<SourceId> suspectSources = new ArrayList<SourceId>();
+        for (Map.Entry<SourceId, ArrayList<Message>> p : messagesBySource.entrySet()) {
+            for (Message msg : p.getValue()) {
+                if (suspectMessages.contains(msg.msgId)) {
+                    suspectSources.add(p.getKey());
+                    break;
+                }
+            }
+        }
+        ArrayList<SourceId> failedSources;
+        if (suspectSources.size() == 1) {
+            // no need to verify it again if the failed chunks only had messages of one source
+            failedSources = suspectSources;
         } else {
-            return verifyBatchInsecure(byMessageHash);
+            failedSources = bisect(suspectSources, messagesBySource);
         }
+        badSources.addAll(failedSources);
+        if (!perMessageFallback || failedSources.isEmpty())
+            return;
+
+        // revert to per-message verification, but only for the messages of the failed sources
+        LinkedHashMap<MessageId, List<Message>> suspects = new LinkedHashMap<MessageId, List<Message>>();
+        for (SourceId sourceId : failedSources) {
+            ArrayList<Message> sourceMessages = messagesBySource.get(sourceId);
+            if (sourceMessages.size() == 1) {
+                // no need to re-verify a single message
+                badMessages.add(sourceMessages.get(0).msgId);
+                suspects.remove(sourceMessages.get(0).msgId);
+                continue;
+            }
+            for (Message msg : sourceMessages) {
+                if (!badMessages.contains(msg.msgId) && !suspects.containsKey(msg.msgId))
+                    suspects.put(msg.msgId, Collections.singletonList(msg));
+            }
+        }
+        if (!suspects.isEmpty())
+            badMessages.addAll(bisect(new ArrayList<MessageId>(suspects.keySet()), suspects));
     }
 
-    private boolean verifyBatchInsecure(HashMap<Sha256Hash, Vector<Pair<MessageId, Message>>> byMessageHash)
+    /**
+     * Verifies the messages belonging to the given keys on the executor and returns the keys whose messages fail
+     * verification. The keys are split into {@link #parallelism} groups, every failing group is split in half and
+     * checked again until the failing keys are isolated. Each round is submitted from the calling thread, so the
+     * executor never waits on its own tasks.
+     */
+    private <K> ArrayList<K> bisect(List<K> keys, final Map<K, ? extends List<Message>> messagesByKey)
     {
-        BLSSignature aggSig = new BLSSignature();
-        ArrayList<Sha256Hash> msgHashes = new ArrayList<Sha256Hash>(messages.size());
-        ArrayList<BLSPublicKey> pubKeys = new ArrayList<BLSPublicKey>(messages.size());
-        HashSet<MessageId> dups = new HashSet<MessageId>();
-
-
-        for (Map.Entry<Sha256Hash, Vector<Pair<MessageId, Message>>> p : byMessageHash.entrySet()) {
-            Sha256Hash msgHash = p.getKey();
-
-            BLSPublicKey aggPubKey = new BLSPublicKey();
-
-            for (Pair<MessageId, Message> msgIt : p.getValue()) {
-                Message msg = msgIt.getSecond();
+        ArrayList<K> failed = new ArrayList<K>();
+        List<List<K>> round = new ArrayList<List<K>>();
+        int groupSize = (keys.size() + parallelism - 1) / parallelism;
+        for (int i = 0; i < keys.size(); i += groupSize)
+            round.add(keys.subList(i, Math.min(i + groupSize, keys.size())));
+
+        while (!round.isEmpty()) {
+            List<List<Message>> batches = new ArrayList<List<Message>>(round.size());
+            for (List<K> group : round) {
+                ArrayList<Message> groupMessages = new ArrayList<Message>();
+                for (K key : group)
+                    groupMessages.addAll(messagesByKey.get(key));
+                batches.add(groupMessages);
+            }
+            boolean[] valid = verifyConcurrently(batches);
 
-                if (!dups.add(msg.msgId)) {
+            List<List<K>> nextRound = new ArrayList<List<K>>();
+            for (int i = 0; i < round.size(); i++) {
+                if (valid[i])
                     continue;
-                }
-
-                if (!aggSig.isValid()) {
-                    aggSig = msg.sig;
+                List<K> group = round.get(i);
+                if (group.size() == 1) {
+                    failed.add(group.get(0));
                 } else {
-                    aggSig.aggregateInsecure(msg.sig);
+                    int half = group.size() / 2;
+                    nextRound.add(group.subList(0, half));
+                    nextRound.add(group.subList(half, group.size()));
                 }
+            }
+            round = nextRound;
+        }
+        return failed;
+    }
 
-                if (!aggPubKey.isValid()) {
-                    aggPubKey = msg.pubKey;
-                } else {
-                    aggPubKey.aggregateInsecure(msg.pubKey);
+    /** Verifies each of the batches as one aggregate on the executor and returns which of them are valid. */
+    private boolean[] verifyConcurrently(List<? extends List<Message>> batches)
+    {
+        List<Future<Boolean>> results = new ArrayList<Future<Boolean>>(batches.size());
+        for (final List<Message> batch : batches) {
+            results.add(executor.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() {
+                    return verifyBatch(batch);
                 }
-            }
+            }));
+        }
+        boolean[] valid = new boolean[batches.size()];
+        for (int i = 0; i < valid.length; i++)
+            valid[i] = getResult(results.get(i));
+        return valid;
+    }
 
-            if (!aggPubKey.isValid()) {
-                // only duplicates for this msgHash
+    private static boolean getResult(Future<Boolean> result)
+    {
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            Throwables.throwIfUnchecked(e.getCause());
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    private boolean verifyBatch(Collection<Message> batch)
+    {
+        // group by message hash, a message that was pushed by several sources is only counted once
+        LinkedHashMap<Sha256Hash, ArrayList<Message>> byMessageHash = new LinkedHashMap<Sha256Hash, ArrayList<Message>>();
+        HashSet<MessageId> dups = new HashSet<MessageId>();
+        for (Message msg : batch) {
+            if (!dups.add(msg.msgId))
                 continue;
+            ArrayList<Message> sameHash = byMessageHash.get(msg.msgHash);
+            if (sameHash == null) {
+                sameHash = new ArrayList<Message>();
+                byMessageHash.put(msg.msgHash, sameHash);
             }
-
-            msgHashes.add(msgHash);
-            pubKeys.add(aggPubKey);
+            sameHash.add(msg);
         }
 
-        if (msgHashes.isEmpty()) {
+        if (byMessageHash.isEmpty()) {
             return true;
         }
 
-        return aggSig.verifyInsecureAggregated(pubKeys, msgHashes);
+        if (secureVerification) {
+            return verifyBatchSecure(byMessageHash);
+        } else {
+            return verifyBatchInsecure(byMessageHash);
+        }
+    }
+
+    // The verify methods below take ownership of the passed byMessageHash map and might modify it. They only create
+    // new aggregates, the signatures and public keys of the pushed messages are never changed.
+
+    private boolean verifyBatchInsecure(LinkedHashMap<Sha256Hash, ArrayList<Message>> byMessageHash)
+    {
+        ArrayList<BLSSignature> sigs = new ArrayList<BLSSignature>();
+        ArrayList<Sha256Hash> msgHashes = new ArrayList<Sha256Hash>(byMessageHash.size());
+        ArrayList<BLSPublicKey> pubKeys = new ArrayList<BLSPublicKey>(byMessageHash.size());
+
+        for (Map.Entry<Sha256Hash, ArrayList<Message>> p : byMessageHash.entrySet()) {
+            ArrayList<BLSPublicKey> samePubKeys = new ArrayList<BLSPublicKey>(p.getValue().size());
+            for (Message msg : p.getValue()) {
+                sigs.add(msg.sig);
+                samePubKeys.add(msg.pubKey);
+            }
+
+            msgHashes.add(p.getKey());
+            pubKeys.add(samePubKeys.size() == 1 ? samePubKeys.get(0) : BLSPublicKey.aggregateInsecure(samePubKeys));
+        }
+
+        return aggregate(sigs).verifyInsecureAggregated(pubKeys, msgHashes);
     }
 
-    private boolean verifyBatchSecure(HashMap<Sha256Hash, Vector<Pair<MessageId, Message>>> byMessageHash)
+    private boolean verifyBatchSecure(LinkedHashMap<Sha256Hash, ArrayList<Message>> byMessageHash)
     {
         // Loop until the byMessageHash map is empty, which means that all messages were verified
         // The secure form of verification will only aggregate one message for the same message hash, even if multiple
@@ -216,42 +376,39 @@ public class BLSBatchVerifier<SourceId, MessageId>
         return true;
     }
 
-    boolean verifyBatchSecureStep(HashMap<Sha256Hash, Vector<Pair<MessageId, Message>>> byMessageHash)
+    private boolean verifyBatchSecureStep(LinkedHashMap<Sha256Hash, ArrayList<Message>> byMessageHash)
     {
-        BLSSignature aggSig = new BLSSignature();
-        ArrayList<Sha256Hash> msgHashes = new ArrayList<Sha256Hash>(messages.size());
-        ArrayList<BLSPublicKey> pubKeys = new ArrayList<BLSPublicKey>(messages.size());
-        HashSet<MessageId> dups = new HashSet<MessageId>();
-
-        for (Map.Entry<Sha256Hash, Vector<Pair<MessageId, Message>>> it : byMessageHash.entrySet()) {
-            Sha256Hash msgHash = it.getKey();
-            Vector<Pair<MessageId, Message>> messageIts = it.getValue();
-            Message msg = messageIts.elementAt(messageIts.size()-1).getSecond();
-
-            if (dups.add(msg.msgId)) {
-                msgHashes.add(msgHash);
-                pubKeys.add(msg.pubKey);
-
-                if (!aggSig.isValid()) {
-                    aggSig = msg.sig;
-                } else {
-                    aggSig.aggregateInsecure(msg.sig);
-                }
-            }
-
-            messageIts.removeElementAt(messageIts.size()-1);
-            if (messageIts.isEmpty()) {
-                byMessageHash.remove(it.getKey());
+        ArrayList<BLSSignature> sigs = new ArrayList<BLSSignature>(byMessageHash.size());
+        ArrayList<Sha256Hash> msgHashes = new ArrayList<Sha256Hash>(byMessageHash.size());
+        ArrayList<BLSPublicKey> pubKeys = new ArrayList<BLSPublicKey>(byMessageHash.size());
+
+        Iterator<Map.Entry<Sha256Hash, ArrayList<Message>>> it = byMessageHash.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Sha256Hash, ArrayList<Message>> entry = it.next();
+            ArrayList<Message> sameHash = entry.getValue();
+            Message msg = sameHash.remove(sameHash.size() - 1);
+
+            msgHashes.add(entry.getKey());
+            pubKeys.add(msg.pubKey);
+            sigs.add(msg.sig);
+
+            if (sameHash.isEmpty()) {
+                it.remove();
             }
         }
 
         checkState(!msgHashes.isEmpty());
 
-        return aggSig.verifyInsecureAggregated(pubKeys, msgHashes);
+        return aggregate(sigs).verifyInsecureAggregated(pubKeys, msgHashes);
+    }
+
+    private static BLSSignature aggregate(ArrayList<BLSSignature> sigs)
+    {
+        return sigs.size() == 1 ? sigs.get(0) : BLSSignature.aggregateInsecure(sigs);
     }
 
     public int getUniqueSourceCount() {
         return messagesBySource.size();
     }
 
-}
\ No newline at end of file
+}
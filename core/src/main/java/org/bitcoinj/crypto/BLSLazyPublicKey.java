@@ -19,6 +19,7 @@ import org.bitcoinj.core.*;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 /**
  * BLSPublicKey uses 152 bytes of native memory + java overhead,
@@ -27,14 +28,16 @@ import java.io.OutputStream;
  * BLSLazyPublicKey will keep the public key stored as the 48 bytes until it needs to be used
  * to perform an operation that requires BLSPublicKey
  *
- * Unlike BLSLazySignature, this class is Immutable
+ * Like BLSLazySignature, this class is immutable apart from decoding, which replaces the bytes with the public key
+ * using a compare and set, so instances need no lock and can be shared between copies of a masternode list entry.
  */
 
 public class BLSLazyPublicKey extends ChildMessage {
+    private static final AtomicReferenceFieldUpdater<BLSLazyPublicKey, Object> VALUE =
+            AtomicReferenceFieldUpdater.newUpdater(BLSLazyPublicKey.class, Object.class, "value");
 
-    byte [] buffer;
-    BLSPublicKey publicKey;
-    boolean isPublicKeyInitialized;
+    // the serialized public key as a byte[] until it is decoded, then the BLSPublicKey, or null if neither was given
+    private volatile Object value;
 
     public BLSLazyPublicKey(NetworkParameters params) {
         super(params);
@@ -42,16 +45,12 @@ public class BLSLazyPublicKey extends ChildMessage {
 
     public BLSLazyPublicKey(BLSLazyPublicKey publicKey) {
         super(publicKey.params);
-        this.buffer = publicKey.buffer;
-        this.publicKey = publicKey.publicKey;
-        this.isPublicKeyInitialized = publicKey.isPublicKeyInitialized;
+        this.value = publicKey.value;
     }
 
     public BLSLazyPublicKey(BLSPublicKey publicKey) {
         super(Context.get().getParams());
-        this.buffer = null;
-        this.publicKey = publicKey;
-        this.isPublicKeyInitialized = true;
+        this.value = publicKey;
     }
 
     public BLSLazyPublicKey(NetworkParameters params, byte [] payload, int offset) {
@@ -60,42 +59,47 @@ public class BLSLazyPublicKey extends ChildMessage {
 
     @Override
     protected void parse() throws ProtocolException {
-        buffer = readBytes(BLSPublicKey.BLS_CURVE_PUBKEY_SIZE);
-        isPublicKeyInitialized = false;
+        value = readBytes(BLSPublicKey.BLS_CURVE_PUBKEY_SIZE);
         length = cursor - offset;
     }
 
     @Override
     protected void bitcoinSerializeToStream(OutputStream stream) throws IOException {
-        if (!isPublicKeyInitialized && buffer == null) {
+        Object value = this.value;
+        if (value == null) {
             throw new IOException("public key and buffer are not initialized");
         }
-        if (buffer == null) {
-            stream.write(publicKey.getBuffer(BLSPublicKey.BLS_CURVE_PUBKEY_SIZE));
+        if (value instanceof byte[]) {
+            stream.write((byte[]) value);
         } else {
-            stream.write(buffer);
+            stream.write(((BLSPublicKey) value).getBuffer(BLSPublicKey.BLS_CURVE_PUBKEY_SIZE));
         }
     }
 
     public static BLSPublicKey invalidSignature = new BLSPublicKey();
 
     public BLSPublicKey getPublicKey() {
-        if(buffer == null && !isPublicKeyInitialized)
+        Object value = this.value;
+        if (value == null)
             return invalidSignature;
-        if(!isPublicKeyInitialized) {
-            publicKey = new BLSPublicKey(params, buffer, 0);
-            buffer = null;  //save memory
-            isPublicKeyInitialized = true;
-        }
+        if (value instanceof BLSPublicKey)
+            return (BLSPublicKey) value;
+        // the buffer is dropped to save memory, a thread that loses the race uses the key of the winner
+        BLSPublicKey publicKey = new BLSPublicKey(params, (byte[]) value, 0);
+        if (!VALUE.compareAndSet(this, value, publicKey))
+            return (BLSPublicKey) this.value;
         return publicKey;
     }
 
     @Override
     public String toString() {
-        return isPublicKeyInitialized ? publicKey.toString() : (buffer == null ? invalidSignature.toString() : Utils.HEX.encode(buffer));
+        Object value = this.value;
+        if (value == null)
+            return invalidSignature.toString();
+        return value instanceof byte[] ? Utils.HEX.encode((byte[]) value) : value.toString();
     }
 
     public boolean isPublicKeyInitialized() {
-        return isPublicKeyInitialized;
+        return value instanceof BLSPublicKey;
     }
 }
@@ -4,21 +4,27 @@ import org.bitcoinj.core.ChildMessage;
 import org.bitcoinj.core.NetworkParameters;
 import org.bitcoinj.core.ProtocolException;
 import org.bitcoinj.core.Utils;
-import org.bitcoinj.utils.Threading;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.io.OutputStream;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
+/**
+ * BLSLazySignature keeps a signature as its 96 serialized bytes until it is needed as a {@link BLSSignature}.
+ *
+ * The state is held in a single field that is replaced as a whole, so instances need no lock: decoding swaps the
+ * bytes for the signature with a compare and set, and two threads that decode at the same time produce equal
+ * signatures.
+ */
 public class BLSLazySignature extends ChildMessage {
-    ReentrantLock lock = Threading.lock("BLSLazySignature");
-    Logger log = LoggerFactory.getLogger(BLSLazySignature.class);
+    private static final Logger log = LoggerFactory.getLogger(BLSLazySignature.class);
+    private static final AtomicReferenceFieldUpdater<BLSLazySignature, Object> VALUE =
+            AtomicReferenceFieldUpdater.newUpdater(BLSLazySignature.class, Object.class, "value");
 
-    byte [] buffer;
-    BLSSignature signature;
-    boolean isSingatureInitialized;
+    // the serialized signature as a byte[] until it is decoded, then the BLSSignature, or null if neither was given
+    private volatile Object value;
 
     public BLSLazySignature() {
     }
@@ -29,8 +35,7 @@ public class BLSLazySignature extends ChildMessage {
 
     public BLSLazySignature(BLSLazySignature signature) {
         super(signature.params);
-        this.signature = signature.signature;
-        this.isSingatureInitialized = signature.isSingatureInitialized;
+        this.value = signature.value;
     }
 
     public BLSLazySignature(NetworkParameters params, byte [] payload, int offset) {
@@ -39,83 +44,57 @@ public class BLSLazySignature extends ChildMessage {
 
     @Override
     protected void parse() throws ProtocolException {
-        buffer = readBytes(BLSSignature.BLS_CURVE_SIG_SIZE);
-        isSingatureInitialized = false;
+        value = readBytes(BLSSignature.BLS_CURVE_SIG_SIZE);
         length = cursor - offset;
     }
 
     @Override
     protected void bitcoinSerializeToStream(OutputStream stream) throws IOException {
-        lock.lock();
-        try {
-            if (!isSingatureInitialized && buffer == null) {
-                log.warn("signature and buffer are not initialized");
-                buffer = invalidSignature.getBuffer();
-            }
-            if (buffer == null) {
-                buffer = signature.getBuffer(BLSSignature.BLS_CURVE_SIG_SIZE);
-            }
-            stream.write(buffer);
-        } finally {
-            lock.unlock();
+        Object value = this.value;
+        if (value == null) {
+            log.warn("signature and buffer are not initialized");
+            value = invalidSignature;
         }
+        if (value instanceof byte[])
+            stream.write((byte[]) value);
+        else
+            stream.write(((BLSSignature) value).getBuffer(BLSSignature.BLS_CURVE_SIG_SIZE));
     }
 
     public BLSLazySignature assign(BLSLazySignature blsLazySignature) {
-        lock.lock();
-        try {
-            buffer = new byte[BLSSignature.BLS_CURVE_SIG_SIZE];
-            if(blsLazySignature.buffer != null) {
-                System.arraycopy(blsLazySignature.buffer, 0, buffer, 0, BLSSignature.BLS_CURVE_SIG_SIZE);
-            }
-            isSingatureInitialized = blsLazySignature.isSingatureInitialized;
-            if(isSingatureInitialized) {
-                signature = blsLazySignature.signature;
-            } else {
-                signature.reset();
-            }
-        } finally {
-            lock.unlock();
-        }
+        // the serialized bytes are never modified, so they can be shared
+        value = blsLazySignature.value;
         return this;
     }
 
     public static BLSSignature invalidSignature = new BLSSignature();
 
     public void setSignature(BLSSignature signature) {
-        lock.lock();
-        try {
-            buffer = null;
-            isSingatureInitialized = true;
-            this.signature = signature;
-        } finally {
-            lock.unlock();
-        }
+        value = signature;
     }
 
     public BLSSignature getSignature() {
-        lock.lock();
-        try {
-            if(buffer == null && !isSingatureInitialized)
-                return invalidSignature;
-            if(!isSingatureInitialized) {
-                signature = new BLSSignature(buffer);
-                if(!signature.checkMalleable(buffer, BLSSignature.BLS_CURVE_SIG_SIZE)) {
-                    buffer = null;
-                    isSingatureInitialized = false;
-                    signature = invalidSignature;
-                } else {
-                    isSingatureInitialized = true;
-                }
-            }
-            return signature;
-        } finally {
-            lock.unlock();
-        }
+        Object value = this.value;
+        if (value == null)
+            return invalidSignature;
+        if (value instanceof BLSSignature)
+            return (BLSSignature) value;
+
+        byte[] buffer = (byte[]) value;
+        BLSSignature signature = new BLSSignature(buffer);
+        if (!signature.checkMalleable(buffer, BLSSignature.BLS_CURVE_SIG_SIZE))
+            signature = invalidSignature;
+        // if another thread decoded or replaced the signature first, use its value
+        if (!VALUE.compareAndSet(this, value, signature))
+            return getSignature();
+        return signature;
     }
 
     @Override
     public String toString() {
-        return isSingatureInitialized ? signature.toString() : (buffer == null ? invalidSignature.toString() : Utils.HEX.encode(buffer));
+        Object value = this.value;
+        if (value == null)
+            return invalidSignature.toString();
+        return value instanceof byte[] ? Utils.HEX.encode((byte[]) value) : value.toString();
     }
 }
@@ -4,12 +4,21 @@ import com.google.common.base.Preconditions;
 import org.bitcoinj.core.NetworkParameters;
 import org.bitcoinj.core.ProtocolException;
 import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.utils.Metrics;
 import org.dashj.bls.*;
 
 import java.util.ArrayList;
 import java.util.Arrays;
 
 public class BLSSignature extends BLSAbstractObject {
+    private static final String VERIFY_TIME = "dashj_bls_verify_seconds";
+    private static final String VERIFY_TIME_HELP = "Time to verify a BLS signature";
+    private static final Metrics.Histogram verifyTime =
+            Metrics.get().histogram(VERIFY_TIME, VERIFY_TIME_HELP, "method", "insecure");
+    private static final Metrics.Histogram verifyAggregatedTime =
+            Metrics.get().histogram(VERIFY_TIME, VERIFY_TIME_HELP, "method", "insecure_aggregated");
+    private static final Metrics.Histogram verifySecureAggregatedTime =
+            Metrics.get().histogram(VERIFY_TIME, VERIFY_TIME_HELP, "method", "secure_aggregated");
 
     public static int BLS_CURVE_SIG_SIZE   = 96;
     static byte [] emptySignatureBytes = new byte[BLS_CURVE_SIG_SIZE];
@@ -108,11 +117,14 @@ public class BLSSignature extends BLSAbstractObject {
         if(!valid || !pubKey.valid)
             return false;
 
+        long startNanos = System.nanoTime();
         try {
             return signatureImpl.Verify(hash.getBytes(), pubKey.publicKeyImpl);
         } catch (Exception x) {
             log.error("signature verification error: ", x);
             return false;
+        } finally {
+            verifyTime.observeNanos(System.nanoTime() - startNanos);
         }
     }
 
@@ -136,11 +148,14 @@ public class BLSSignature extends BLSAbstractObject {
             hashes2.push_back(hashes.get(i).getBytes());
         }
 
+        long startNanos = System.nanoTime();
         try {
             return signatureImpl.Verify(hashes2, pubKeyVec);
         } catch (Exception x) {
             log.error("signature verification error: ", x);
             return false;
+        } finally {
+            verifyAggregatedTime.observeNanos(System.nanoTime() - startNanos);
         }
     }
 
@@ -157,9 +172,14 @@ public class BLSSignature extends BLSAbstractObject {
             v.push_back(aggInfo);
         }
 
-        AggregationInfo aggInfo = AggregationInfo.MergeInfos(v);
-        Signature aggSig = Signature.FromInsecureSig(signatureImpl, aggInfo);
-        return aggSig.Verify();
+        long startNanos = System.nanoTime();
+        try {
+            AggregationInfo aggInfo = AggregationInfo.MergeInfos(v);
+            Signature aggSig = Signature.FromInsecureSig(signatureImpl, aggInfo);
+            return aggSig.Verify();
+        } finally {
+            verifySecureAggregatedTime.observeNanos(System.nanoTime() - startNanos);
+        }
     }
 
     /* Dash Core only
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2022 Dash Core Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.evolution;
+
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.Utils;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static java.lang.Math.min;
+import static org.bitcoinj.core.Sha256Hash.hashTwice;
+
+/**
+ * <p>The merkle tree that the coinbase of a block commits to for the masternode list and the quorum list. All levels
+ * of the tree are kept, so that a tree for the next version of a list can be built from the previous one: an inner
+ * node is only hashed again if one of its children differs from the node in the same position of the previous tree.
+ * Changing an entry in place costs O(log n) hashes, inserting or removing one rehashes the nodes to its right.</p>
+ *
+ * <p>The tree is built like the transaction merkle tree of a block:</p>
+ *
+ * <pre>
+ *         root
+ *        /     \
+ *       1        5
+ *     /   \     / \
+ *    2     3    4  4
+ *  / \   / \   / \
+ * t1 t2 t3 t4 t5 t5
+ * </pre>
+ *
+ * <p>Each inner node is the double SHA-256 of the concatenation of its children, and the last node of a level is
+ * paired with itself if the level has an odd number of nodes. Instances are immutable.</p>
+ */
+public final class IncrementalMerkleTree {
+    // levels[0] are the leaves and the last level holds the root, each node in the byte order of Sha256Hash.getBytes()
+    private final byte[][][] levels;
+
+    private IncrementalMerkleTree(byte[][][] levels) {
+        this.levels = levels;
+    }
+
+    /**
+     * Builds the tree over {@code leaves} in the given order, reusing the inner nodes of {@code previous} where both
+     * children are unchanged.
+     */
+    public static IncrementalMerkleTree build(List<Sha256Hash> leaves, @Nullable IncrementalMerkleTree previous) {
+        ArrayList<byte[][]> levels = new ArrayList<byte[][]>();
+        byte[][] level = new byte[leaves.size()][];
+        for (int i = 0; i < level.length; i++) {
+            level[i] = leaves.get(i).getBytes();
+        }
+        levels.add(level);
+
+        for (int depth = 0; level.length > 1; depth++) {
+            byte[][] oldLevel = previous != null && depth + 1 < previous.levels.length ? previous.levels[depth] : null;
+            byte[][] oldParents = oldLevel != null ? previous.levels[depth + 1] : null;
+            byte[][] parents = new byte[(level.length + 1) / 2][];
+            for (int i = 0; i < parents.length; i++) {
+                int left = 2 * i;
+                // The right hand node can be the same as the left hand, in the case where we don't have enough leaves.
+                int right = min(left + 1, level.length - 1);
+                if (oldParents != null && i < oldParents.length &&
+                        sameNode(level[left], oldLevel[left]) &&
+                        sameNode(level[right], oldLevel[min(left + 1, oldLevel.length - 1)])) {
+                    parents[i] = oldParents[i];
+                } else {
+                    byte[] leftBytes = Utils.reverseBytes(level[left]);
+                    byte[] rightBytes = Utils.reverseBytes(level[right]);
+                    parents[i] = Utils.reverseBytes(hashTwice(leftBytes, 0, 32, rightBytes, 0, 32));
+                }
+            }
+            levels.add(parents);
+            level = parents;
+        }
+        return new IncrementalMerkleTree(levels.toArray(new byte[levels.size()][][]));
+    }
+
+    private static boolean sameNode(byte[] a, byte[] b) {
+        return a == b || Arrays.equals(a, b);
+    }
+
+    /** Returns the number of leaves. */
+    public int size() {
+        return levels[0].length;
+    }
+
+    /** Returns the merkle root, or {@link Sha256Hash#ZERO_HASH} if the tree has no leaves. */
+    public Sha256Hash getRoot() {
+        byte[][] top = levels[levels.length - 1];
+        return top.length == 0 ? Sha256Hash.ZERO_HASH : Sha256Hash.wrap(top[0]);
+    }
+}
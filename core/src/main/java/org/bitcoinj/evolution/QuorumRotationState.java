@@ -707,8 +707,8 @@ public class QuorumRotationState extends AbstractQuorumState<GetQuorumRotationIn
                 }
             });
 
-            ArrayList<Masternode> sortedMnsUsedAtH = MnsUsedAtH.calculateQuorum(MnsUsedAtH.getAllMNsCount(), modifier);
-            ArrayList<Masternode> sortedMnsNotUsedAtH = MnsNotUsedAtH.calculateQuorum(MnsNotUsedAtH.getAllMNsCount(), modifier);
+            ArrayList<Masternode> sortedMnsUsedAtH = MnsUsedAtH.calculateQuorum(MnsUsedAtH.getAllMNsCount(), modifier, allMns);
+            ArrayList<Masternode> sortedMnsNotUsedAtH = MnsNotUsedAtH.calculateQuorum(MnsNotUsedAtH.getAllMNsCount(), modifier, allMns);
             ArrayList<Masternode> sortedCombinedMnsList = new ArrayList<>(sortedMnsNotUsedAtH);
             sortedCombinedMnsList.addAll(sortedMnsUsedAtH);
 
@@ -862,18 +862,13 @@ public class QuorumRotationState extends AbstractQuorumState<GetQuorumRotationIn
             Pair<SimplifiedMasternodeList, SimplifiedMasternodeList> result = getMNUsageBySnapshot(llmqParameters.getType(), quorumBaseBlock, snapshot);
             SimplifiedMasternodeList mnsUsedAtH = result.getFirst();
             SimplifiedMasternodeList mnsNotUsedAtH = result.getSecond();
+            // both lists were split from this list and scored with the same modifier
+            SimplifiedMasternodeList allMns = getListForBlock(workBlock.getHeader().getHash());
 
-            ArrayList<Masternode> sortedMnsUsedAtH = mnsUsedAtH.calculateQuorum(mnsUsedAtH.getAllMNsCount(), modifier);
+            ArrayList<Masternode> sortedMnsUsedAtH = mnsUsedAtH.calculateQuorum(mnsUsedAtH.getAllMNsCount(), modifier, allMns);
 
-            ArrayList<Masternode> sortedMnsNotUsedAtH = mnsNotUsedAtH.calculateQuorum(mnsNotUsedAtH.getAllMNsCount(), modifier);
+            ArrayList<Masternode> sortedMnsNotUsedAtH = mnsNotUsedAtH.calculateQuorum(mnsNotUsedAtH.getAllMNsCount(), modifier, allMns);
             ArrayList<Masternode> sortedCombinedMnsList = new ArrayList<>(sortedMnsNotUsedAtH);
-            for (Masternode m1 : sortedMnsUsedAtH) {
-                for (Masternode m2 : sortedMnsNotUsedAtH) {
-                    if (m1.equals(m2)) {
-                        log.info("{} is in both lists", m1);
-                    }
-                }
-            }
             sortedCombinedMnsList.addAll(sortedMnsUsedAtH);
 
             //Mode 0: No skipping
@@ -4,8 +4,10 @@ import com.google.common.collect.Lists;
 import org.bitcoinj.core.*;
 import org.bitcoinj.quorums.LLMQUtils;
 import org.bitcoinj.utils.Pair;
+import org.bitcoinj.utils.PersistentHashMap;
 import org.bitcoinj.utils.Threading;
 
+import javax.annotation.Nullable;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.math.BigInteger;
@@ -20,12 +22,27 @@ public class SimplifiedMasternodeList extends Message {
 
     private ReentrantLock lock = Threading.lock("SimplifiedMasternodeList");
 
+    // sorted score vectors keyed by (list block hash, quorum modifier), shared by all lists
+    private static final int SCORE_CACHE_SIZE = 64;
+    @SuppressWarnings("serial")
+    private static final LinkedHashMap<Pair<Sha256Hash, Sha256Hash>, List<Pair<Sha256Hash, Masternode>>> scoreCache =
+            new LinkedHashMap<Pair<Sha256Hash, Sha256Hash>, List<Pair<Sha256Hash, Masternode>>>(SCORE_CACHE_SIZE, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Pair<Sha256Hash, Sha256Hash>, List<Pair<Sha256Hash, Masternode>>> eldest) {
+                    return size() > SCORE_CACHE_SIZE;
+                }
+            };
+
     private Sha256Hash blockHash;
     private long height;
     private StoredBlock storedBlock;
     private boolean storedBlockMatchesRequest;
-    HashMap<Sha256Hash, SimplifiedMasternodeListEntry> mnMap;
-    HashMap<Sha256Hash, Pair<Sha256Hash, Integer>> mnUniquePropertyMap;
+    // persistent maps, lists created by applyDiff share every entry that the diff does not touch
+    PersistentHashMap<Sha256Hash, SimplifiedMasternodeListEntry> mnMap;
+    PersistentHashMap<Sha256Hash, Pair<Sha256Hash, Integer>> mnUniquePropertyMap;
+    // merkle tree of the current entries, built on demand from the tree of the list this one was derived from
+    private IncrementalMerkleTree merkleTree;
+    private IncrementalMerkleTree previousMerkleTree;
 
     private CoinbaseTx coinbaseTxPayload;
 
@@ -33,8 +50,8 @@ public class SimplifiedMasternodeList extends Message {
         super(params);
         blockHash = params.getGenesisBlock().getHash();
         height = -1;
-        mnMap = new HashMap<Sha256Hash, SimplifiedMasternodeListEntry>(5000);
-        mnUniquePropertyMap = new HashMap<Sha256Hash, Pair<Sha256Hash, Integer>>(5000);
+        mnMap = PersistentHashMap.empty();
+        mnUniquePropertyMap = PersistentHashMap.empty();
         storedBlock = new StoredBlock(params.getGenesisBlock(), BigInteger.ZERO, 0);
     }
 
@@ -46,8 +63,10 @@ public class SimplifiedMasternodeList extends Message {
         super(other.params);
         this.blockHash = other.blockHash;
         this.height = other.height;
-        mnMap = new HashMap<Sha256Hash, SimplifiedMasternodeListEntry>(other.mnMap);
-        mnUniquePropertyMap = new HashMap<Sha256Hash, Pair<Sha256Hash, Integer>>(other.mnUniquePropertyMap);
+        mnMap = other.mnMap;
+        mnUniquePropertyMap = other.mnUniquePropertyMap;
+        merkleTree = other.merkleTree;
+        previousMerkleTree = other.previousMerkleTree;
         this.storedBlock = other.storedBlock;
     }
 
@@ -55,8 +74,8 @@ public class SimplifiedMasternodeList extends Message {
         super(params);
         this.blockHash = params.getGenesisBlock().getHash();
         this.height = -1;
-        mnUniquePropertyMap = new HashMap<Sha256Hash, Pair<Sha256Hash, Integer>>();
-        mnMap = new HashMap<Sha256Hash, SimplifiedMasternodeListEntry>(entries.size());
+        mnUniquePropertyMap = PersistentHashMap.empty();
+        mnMap = PersistentHashMap.empty();
         for(SimplifiedMasternodeListEntry entry : entries)
             addMN(entry);
         storedBlock = new StoredBlock(params.getGenesisBlock(), BigInteger.ZERO, 0);
@@ -68,28 +87,26 @@ public class SimplifiedMasternodeList extends Message {
         blockHash = readHash();
         height = (int)readUint32();
         int size = (int)readVarInt();
-        mnMap = new HashMap<Sha256Hash, SimplifiedMasternodeListEntry>(size);
+        mnMap = PersistentHashMap.empty();
         for(int i = 0; i < size; ++i)
         {
             Sha256Hash hash = readHash();
             SimplifiedMasternodeListEntry mn = new SimplifiedMasternodeListEntry(params, payload, cursor);
             cursor += mn.getMessageSize();
-            mnMap.put(hash, mn);
+            mnMap = mnMap.plus(hash, mn);
         }
 
         size = (int)readVarInt();
-        mnUniquePropertyMap = new HashMap<Sha256Hash, Pair<Sha256Hash, Integer>>(size);
+        mnUniquePropertyMap = PersistentHashMap.empty();
         for(long i = 0; i < size; ++i)
         {
             Sha256Hash hash = readHash();
             Sha256Hash first = readHash();
             int second = (int)readUint32();
-            mnUniquePropertyMap.put(hash, new Pair<Sha256Hash, Integer>(first, second));
+            mnUniquePropertyMap = mnUniquePropertyMap.plus(hash, new Pair<Sha256Hash, Integer>(first, second));
         }
         if(Context.get().masternodeListManager.getFormatVersion() >= 2) {
-            ByteBuffer buffer = ByteBuffer.allocate(StoredBlock.COMPACT_SERIALIZED_SIZE);
-            buffer.put(readBytes(StoredBlock.COMPACT_SERIALIZED_SIZE));
-            buffer.rewind();
+            ByteBuffer buffer = readView(StoredBlock.COMPACT_SERIALIZED_SIZE);
             storedBlock = StoredBlock.deserializeCompact(params, buffer);
             storedBlockMatchesRequest = false;
         } else {
@@ -154,7 +171,8 @@ public class SimplifiedMasternodeList extends Message {
     {
         lock.lock();
         try {
-            mnMap.put(dmn.proRegTxHash, dmn);
+            mnMap = mnMap.plus(dmn.proRegTxHash, dmn);
+            invalidateMerkleTree();
         } finally {
             lock.unlock();
         }
@@ -163,10 +181,8 @@ public class SimplifiedMasternodeList extends Message {
     void removeMN(Sha256Hash proTxHash) {
         lock.lock();
         try {
-            SimplifiedMasternodeListEntry dmn = getMN(proTxHash);
-            if (dmn != null) {
-                mnMap.remove(proTxHash);
-            }
+            mnMap = mnMap.minus(proTxHash);
+            invalidateMerkleTree();
         } finally {
             lock.unlock();
         }
@@ -199,7 +215,7 @@ public class SimplifiedMasternodeList extends Message {
                 i = oldEntry.getSecond() + 1;
             Pair<Sha256Hash, Integer> newEntry = new Pair(dmn.proRegTxHash, i);
 
-            mnUniquePropertyMap.put(hash, newEntry);
+            mnUniquePropertyMap = mnUniquePropertyMap.plus(hash, newEntry);
         } finally {
             lock.unlock();
         }
@@ -213,9 +229,9 @@ public class SimplifiedMasternodeList extends Message {
             Pair<Sha256Hash, Integer> p = mnUniquePropertyMap.get(oldHash);
             //assert(p != null && p.getFirst() == dmn.proRegTxHash);
             if (p.getSecond() == 1) {
-                mnUniquePropertyMap.remove(oldHash);
+                mnUniquePropertyMap = mnUniquePropertyMap.minus(oldHash);
             } else {
-                mnUniquePropertyMap.put(oldHash, new Pair<Sha256Hash, Integer>(dmn.proRegTxHash, p.getSecond() - 1));
+                mnUniquePropertyMap = mnUniquePropertyMap.plus(oldHash, new Pair<Sha256Hash, Integer>(dmn.proRegTxHash, p.getSecond() - 1));
             }
         } finally {
             lock.unlock();
@@ -239,26 +255,10 @@ public class SimplifiedMasternodeList extends Message {
 
         lock.lock();
         try {
-            ArrayList<Sha256Hash> proTxHashes = new ArrayList<Sha256Hash>(mnMap.size());
-            for (Map.Entry<Sha256Hash, SimplifiedMasternodeListEntry> entry : mnMap.entrySet()) {
-                proTxHashes.add(entry.getValue().proRegTxHash);
-            }
-            Collections.sort(proTxHashes, new Comparator<Sha256Hash>() {
-                @Override
-                public int compare(Sha256Hash o1, Sha256Hash o2) {
-                    return o1.compareTo(o2);
-                }
-            });
-
-            ArrayList<Sha256Hash> smnlHashes = new ArrayList<Sha256Hash>(mnMap.size());
-            for (Sha256Hash hash : proTxHashes) {
-                smnlHashes.add(mnMap.get(hash).getHash());
-            }
-
-            if (smnlHashes.size() == 0)
+            if (mnMap.size() == 0)
                 return true;
 
-            if (!cbtx.merkleRootMasternodeList.equals(calculateMerkleRoot(smnlHashes)))
+            if (!cbtx.merkleRootMasternodeList.equals(getMerkleTree().getRoot()))
                 throw new VerificationException("MerkleRoot of masternode list does not match coinbaseTx");
             return true;
         } finally {
@@ -269,87 +269,33 @@ public class SimplifiedMasternodeList extends Message {
     public Sha256Hash calculateMerkleRoot() {
         lock.lock();
         try {
-            ArrayList<Sha256Hash> proTxHashes = new ArrayList<Sha256Hash>(mnMap.size());
-            for (Map.Entry<Sha256Hash, SimplifiedMasternodeListEntry> entry : mnMap.entrySet()) {
-                proTxHashes.add(entry.getValue().proRegTxHash);
-            }
-
-            Collections.sort(proTxHashes, new Comparator<Sha256Hash>() {
-                @Override
-                public int compare(Sha256Hash o1, Sha256Hash o2) {
-                    return o1.compareTo(o2);
-                }
-            });
-            ArrayList<Sha256Hash> smnlHashes = new ArrayList<Sha256Hash>(mnMap.size());
-            for (Sha256Hash hash : proTxHashes) {
-                for (Map.Entry<Sha256Hash, SimplifiedMasternodeListEntry> entry : mnMap.entrySet())
-                    if (entry.getValue().proRegTxHash.equals(hash))
-                        smnlHashes.add(entry.getValue().getHash());
-            }
-
-            return calculateMerkleRoot(smnlHashes);
+            return getMerkleTree().getRoot();
         } finally {
             lock.unlock();
         }
     }
 
-    private Sha256Hash calculateMerkleRoot(List<Sha256Hash> hashes) {
-        List<byte[]> tree = buildMerkleTree(hashes);
-        return Sha256Hash.wrap(tree.get(tree.size() - 1));
-    }
-
-    private List<byte[]> buildMerkleTree(List<Sha256Hash> hashes) {
-        // The Merkle root is based on a tree of hashes calculated from the masternode list proRegHash:
-        //
-        //     root
-        //      / \
-        //   A      B
-        //  / \    / \
-        // t1 t2 t3 t4
-        //
-        // The tree is represented as a list: t1,t2,t3,t4,A,B,root where each
-        // entry is a hash.
-        //
-        // The hashing algorithm is double SHA-256. The leaves are a hash of the serialized contents of the transaction.
-        // The interior nodes are hashes of the concenation of the two child hashes.
-        //
-        // This structure allows the creation of proof that a transaction was included into a block without having to
-        // provide the full block contents. Instead, you can provide only a Merkle branch. For example to prove tx2 was
-        // in a block you can just provide tx2, the hash(tx1) and B. Now the other party has everything they need to
-        // derive the root, which can be checked against the block header. These proofs aren't used right now but
-        // will be helpful later when we want to download partial block contents.
-        //
-        // Note that if the number of transactions is not even the last tx is repeated to make it so (see
-        // tx3 above). A tree with 5 transactions would look like this:
-        //
-        //         root
-        //        /     \
-        //       1        5
-        //     /   \     / \
-        //    2     3    4  4
-        //  / \   / \   / \
-        // t1 t2 t3 t4 t5 t5
-        ArrayList<byte[]> tree = new ArrayList<byte[]>();
-        // Start by adding all the hashes of the transactions as leaves of the tree.
-        for (Sha256Hash hash : hashes) {
-            tree.add(hash.getBytes());
+    private void invalidateMerkleTree() {
+        if (merkleTree != null) {
+            previousMerkleTree = merkleTree;
+            merkleTree = null;
         }
-        int levelOffset = 0; // Offset in the list where the currently processed level starts.
-        // Step through each level, stopping when we reach the root (levelSize == 1).
-        for (int levelSize = hashes.size(); levelSize > 1; levelSize = (levelSize + 1) / 2) {
-            // For each pair of nodes on that level:
-            for (int left = 0; left < levelSize; left += 2) {
-                // The right hand node can be the same as the left hand, in the case where we don't have enough
-                // transactions.
-                int right = min(left + 1, levelSize - 1);
-                byte[] leftBytes = Utils.reverseBytes(tree.get(levelOffset + left));
-                byte[] rightBytes = Utils.reverseBytes(tree.get(levelOffset + right));
-                tree.add(Utils.reverseBytes(hashTwice(leftBytes, 0, 32, rightBytes, 0, 32)));
+    }
+
+    /** Returns the merkle tree over the entry hashes sorted by proRegTxHash. Must be called with the lock held. */
+    private IncrementalMerkleTree getMerkleTree() {
+        if (merkleTree == null) {
+            ArrayList<Sha256Hash> proTxHashes = new ArrayList<Sha256Hash>(mnMap.keySet());
+            Collections.sort(proTxHashes);
+
+            ArrayList<Sha256Hash> smnlHashes = new ArrayList<Sha256Hash>(proTxHashes.size());
+            for (Sha256Hash hash : proTxHashes) {
+                smnlHashes.add(mnMap.get(hash).getHash());
             }
-            // Move to the next level.
-            levelOffset += levelSize;
+            merkleTree = IncrementalMerkleTree.build(smnlHashes, previousMerkleTree);
+            previousMerkleTree = null;
         }
-        return tree;
+        return merkleTree;
     }
 
     public boolean containsMN(Sha256Hash proTxHash) {
@@ -419,11 +365,19 @@ public class SimplifiedMasternodeList extends Message {
 
     ArrayList<Pair<Sha256Hash, Masternode>> calculateScores(final Sha256Hash modifier)
     {
-        final ArrayList<Pair<Sha256Hash, Masternode>> scores = new ArrayList<Pair<Sha256Hash, Masternode>>(getAllMNsCount());
+        return calculateScores(modifier, Collections.<Sha256Hash>emptySet());
+    }
+
+    private ArrayList<Pair<Sha256Hash, Masternode>> calculateScores(final Sha256Hash modifier, final Set<Sha256Hash> skip)
+    {
+        final ArrayList<Pair<Sha256Hash, Masternode>> scores = new ArrayList<Pair<Sha256Hash, Masternode>>(getAllMNsCount() - skip.size());
 
         forEachMN(true, new ForeachMNCallback() {
             @Override
             public void processMN(SimplifiedMasternodeListEntry mn) {
+                if(skip.contains(mn.getProTxHash())) {
+                    return;
+                }
                 if(mn.getConfirmedHash().isZero()) {
                     // we only take confirmed MNs into account to avoid hash grinding on the ProRegTxHash to sneak MNs into a
                     // future quorums
@@ -474,12 +428,10 @@ public class SimplifiedMasternodeList extends Message {
         lock.lock();
         try {
 
-            ArrayList<Pair<Sha256Hash, Masternode>> vecMasternodeScores = calculateScores(quorumModifierHash);
+            List<Pair<Sha256Hash, Masternode>> vecMasternodeScores = getSortedScores(quorumModifierHash);
             if (vecMasternodeScores.isEmpty())
                 return -1;
 
-            Collections.sort(vecMasternodeScores, Collections.reverseOrder(new CompareScoreMN()));
-
 
             rank = 0;
             for (Pair<Sha256Hash, Masternode> scorePair : vecMasternodeScores) {
@@ -508,17 +460,119 @@ public class SimplifiedMasternodeList extends Message {
 
     ArrayList<Masternode> calculateQuorum(int maxSize, Sha256Hash modifier)
     {
-        ArrayList<Pair<Sha256Hash, Masternode>> scores = calculateScores(modifier);
+        if (isScoreCacheable()) {
+            // take top maxSize entries of the cached vector, which is in descending order
+            List<Pair<Sha256Hash, Masternode>> scores = getSortedScores(modifier);
+            int size = min(scores.size(), maxSize);
+            ArrayList<Masternode> result = new ArrayList<Masternode>(size);
+            for (int i = 0; i < size; i++) {
+                result.add(scores.get(i).getSecond());
+            }
+            return result;
+        }
+        return selectTopScores(calculateScores(modifier), maxSize);
+    }
 
-        // sort is descending order
-        Collections.sort(scores, Collections.reverseOrder(new CompareScoreMN()));
+    /**
+     * Same as {@link #calculateQuorum(int, Sha256Hash)}, but takes the scores of the entries that this list shares with
+     * {@code scoredList} from the score vector of that list instead of hashing them again. When every entry is shared,
+     * the result is read off in order without sorting.
+     */
+    ArrayList<Masternode> calculateQuorum(int maxSize, Sha256Hash modifier, SimplifiedMasternodeList scoredList)
+    {
+        List<Pair<Sha256Hash, Masternode>> sharedScores = scoredList.getSortedScores(modifier);
+        lock.lock();
+        try {
+            ArrayList<Pair<Sha256Hash, Masternode>> scores = new ArrayList<Pair<Sha256Hash, Masternode>>(getAllMNsCount());
+            HashSet<Sha256Hash> scored = new HashSet<Sha256Hash>();
+            for (Pair<Sha256Hash, Masternode> score : sharedScores) {
+                SimplifiedMasternodeListEntry mn = mnMap.get(score.getSecond().getProTxHash());
+                if (mn != null && isMNValid(mn) &&
+                        mn.getConfirmedHashWithProRegTxHash().equals(score.getSecond().getConfirmedHashWithProRegTxHash())) {
+                    scores.add(new Pair<Sha256Hash, Masternode>(score.getFirst(), mn));
+                    scored.add(mn.getProTxHash());
+                }
+            }
+
+            boolean sorted = true;
+            for (Pair<Sha256Hash, Masternode> score : calculateScores(modifier, scored)) {
+                scores.add(score);
+                sorted = false;
+            }
+            if (sorted) {
+                int size = min(scores.size(), maxSize);
+                ArrayList<Masternode> result = new ArrayList<Masternode>(size);
+                for (int i = 0; i < size; i++) {
+                    result.add(scores.get(i).getSecond());
+                }
+                return result;
+            }
+            return selectTopScores(scores, maxSize);
+        } finally {
+            lock.unlock();
+        }
+    }
 
-        // take top maxSize entries and return it
+    /**
+     * Returns the {@code maxSize} highest scoring masternodes in descending order. Only the selected entries are
+     * sorted, the rest of the list is filtered through a heap of size {@code maxSize}.
+     */
+    static ArrayList<Masternode> selectTopScores(List<Pair<Sha256Hash, Masternode>> scores, int maxSize)
+    {
+        CompareScoreMN<Pair<Sha256Hash, Masternode>> comparator = new CompareScoreMN<Pair<Sha256Hash, Masternode>>();
         int size = min(scores.size(), maxSize);
+        ArrayList<Pair<Sha256Hash, Masternode>> top;
+        if (size == scores.size()) {
+            top = new ArrayList<Pair<Sha256Hash, Masternode>>(scores);
+        } else {
+            // the heap keeps the lowest of the selected scores on top, so it can be replaced by a higher one
+            PriorityQueue<Pair<Sha256Hash, Masternode>> heap = new PriorityQueue<Pair<Sha256Hash, Masternode>>(size + 1, comparator);
+            for (Pair<Sha256Hash, Masternode> score : scores) {
+                if (heap.size() < size) {
+                    heap.add(score);
+                } else if (size > 0 && comparator.compare(score, heap.peek()) > 0) {
+                    heap.poll();
+                    heap.add(score);
+                }
+            }
+            top = new ArrayList<Pair<Sha256Hash, Masternode>>(heap);
+        }
+        Collections.sort(top, Collections.reverseOrder(comparator));
+
         ArrayList<Masternode> result = new ArrayList<Masternode>(size);
-        if (scores.size() > 0) {
-            for (int i = 0; i < size; i++) {
-                result.add(scores.get(i).getSecond());
+        for (Pair<Sha256Hash, Masternode> score : top) {
+            result.add(score.getSecond());
+        }
+        return result;
+    }
+
+    /**
+     * Lists received for a block never change once they are built, so their score vectors can be shared through
+     * {@link #scoreCache}. Lists that are still being assembled have no height.
+     */
+    private boolean isScoreCacheable() {
+        return height >= 0;
+    }
+
+    /** Returns the scores of all valid, confirmed entries in descending order. The returned list must not be modified. */
+    List<Pair<Sha256Hash, Masternode>> getSortedScores(Sha256Hash modifier)
+    {
+        Pair<Sha256Hash, Sha256Hash> key = null;
+        if (isScoreCacheable()) {
+            key = new Pair<Sha256Hash, Sha256Hash>(blockHash, modifier);
+            synchronized (scoreCache) {
+                List<Pair<Sha256Hash, Masternode>> scores = scoreCache.get(key);
+                if (scores != null)
+                    return scores;
+            }
+        }
+
+        ArrayList<Pair<Sha256Hash, Masternode>> scores = calculateScores(modifier);
+        Collections.sort(scores, Collections.reverseOrder(new CompareScoreMN<Pair<Sha256Hash, Masternode>>()));
+        List<Pair<Sha256Hash, Masternode>> result = Collections.unmodifiableList(scores);
+        if (key != null) {
+            synchronized (scoreCache) {
+                scoreCache.put(key, result);
             }
         }
         return result;
@@ -537,6 +591,16 @@ public class SimplifiedMasternodeList extends Message {
         throw new UnsupportedOperationException("SimplifiedMasternodeEntries do not have an outpoint");
     }
 
+    /**
+     * Returns the masternode that was registered with the given collateral, as far as this list can tell. The entries
+     * do not record their collateral, so this only finds masternodes whose collateral is an output of their
+     * registration transaction, by the hash of that transaction. For an external collateral it returns null.
+     */
+    @Nullable
+    public SimplifiedMasternodeListEntry getMNByRegistrationCollateral(TransactionOutPoint outPoint) {
+        return getMN(outPoint.getHash());
+    }
+
     public int countEnabled() {
         return size();
     }
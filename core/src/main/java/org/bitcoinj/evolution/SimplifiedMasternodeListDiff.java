@@ -84,7 +84,7 @@ public class SimplifiedMasternodeListDiff extends AbstractDiffMessage {
             size = (int)readVarInt();
             deletedQuorums = new ArrayList<Pair<Integer, Sha256Hash>>(size);
             for(int i = 0; i < size; ++i) {
-                deletedQuorums.add(new Pair<>((int)readBytes(1)[0], readHash()));
+                deletedQuorums.add(new Pair<>((int)readByte(), readHash()));
             }
 
             size = (int)readVarInt();
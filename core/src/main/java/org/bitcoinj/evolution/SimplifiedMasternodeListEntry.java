@@ -17,6 +17,7 @@ public class SimplifiedMasternodeListEntry extends Masternode {
     static int MESSAGE_SIZE = 151;
     //In Memory
     Sha256Hash confirmedHashWithProRegTxHash;
+    private Sha256Hash hash;
 
     public SimplifiedMasternodeListEntry(NetworkParameters params) {
         super(params);
@@ -36,7 +37,7 @@ public class SimplifiedMasternodeListEntry extends Masternode {
         this.confirmedHash = confirmedHash;
         this.service = service.duplicate();
         this.keyIdVoting = keyIdVoting;
-        this.pubKeyOperator = new BLSLazyPublicKey(pubKeyOperator);
+        this.pubKeyOperator = pubKeyOperator;
         this.isValid = isValid;
         updateConfirmedHashWithProRegTxHash();
         length = MESSAGE_SIZE;
@@ -48,7 +49,8 @@ public class SimplifiedMasternodeListEntry extends Masternode {
         confirmedHash = other.confirmedHash;
         service = other.service.duplicate();
         keyIdVoting = other.keyIdVoting;
-        pubKeyOperator = new BLSLazyPublicKey(other.pubKeyOperator);
+        // lazy public keys are immutable, so the copies share the key and decode it only once
+        pubKeyOperator = other.pubKeyOperator;
         updateConfirmedHashWithProRegTxHash();
         length = MESSAGE_SIZE;
     }
@@ -63,7 +65,7 @@ public class SimplifiedMasternodeListEntry extends Masternode {
         cursor += pubKeyOperator.getMessageSize();
         keyIdVoting = new KeyId(params, payload, cursor);
         cursor += keyIdVoting.getMessageSize();
-        isValid = readBytes(1)[0] == 1;
+        isValid = readByte() == 1;
 
         updateConfirmedHashWithProRegTxHash();
 
@@ -84,15 +86,19 @@ public class SimplifiedMasternodeListEntry extends Masternode {
         return getHash();
     }
 
+    /** Returns the hash that is committed to by the masternode list merkle root, it is computed once. */
     @Override
     public Sha256Hash getHash() {
-        try {
-            UnsafeByteArrayOutputStream bos = new UnsafeByteArrayOutputStream(getMessageSize());
-            bitcoinSerializeToStream(bos);
-            return Sha256Hash.wrapReversed(Sha256Hash.hashTwice(bos.toByteArray()));
-        } catch (IOException x) {
-            throw new RuntimeException(x);
+        if (hash == null) {
+            try {
+                UnsafeByteArrayOutputStream bos = new UnsafeByteArrayOutputStream(getMessageSize());
+                bitcoinSerializeToStream(bos);
+                hash = Sha256Hash.wrapReversed(Sha256Hash.hashTwice(bos.toByteArray()));
+            } catch (IOException x) {
+                throw new RuntimeException(x);
+            }
         }
+        return hash;
     }
 
     public String toString() {
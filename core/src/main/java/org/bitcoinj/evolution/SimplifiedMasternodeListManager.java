@@ -23,6 +23,8 @@ import org.bitcoinj.quorums.QuorumSnapshotManager;
 import org.bitcoinj.quorums.SigningManager;
 import org.bitcoinj.quorums.SimplifiedQuorumList;
 import org.bitcoinj.store.BlockStoreException;
+import org.bitcoinj.store.ManagerJournal;
+import org.bitcoinj.utils.Metrics;
 import org.bitcoinj.utils.Threading;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -44,6 +46,10 @@ import java.util.concurrent.locks.ReentrantLock;
 
 public class SimplifiedMasternodeListManager extends AbstractManager implements QuorumStateManager {
     private static final Logger log = LoggerFactory.getLogger(SimplifiedMasternodeListManager.class);
+    private static final Metrics.Histogram mnListDiffApplyTime = Metrics.get().histogram("dashj_mnlistdiff_apply_seconds",
+            "Time to apply an mnlistdiff message to the masternode list and quorums");
+    private static final Metrics.Histogram qrInfoApplyTime = Metrics.get().histogram("dashj_qrinfo_apply_seconds",
+            "Time to apply a qrinfo message to the rotated quorums");
     private final ReentrantLock lock = Threading.lock("SimplifiedMasternodeListManager");
 
     public static final int DMN_FORMAT_VERSION = 1;
@@ -53,6 +59,10 @@ public class SimplifiedMasternodeListManager extends AbstractManager implements
     public static int MAX_CACHE_SIZE = 10;
     public static int MIN_CACHE_SIZE = 1;
 
+    // journal record types
+    static final int JOURNAL_MNLISTDIFF = 1;
+    static final int JOURNAL_QRINFO = 2;
+
     public List<Quorum> getAllQuorums(LLMQParameters.LLMQType llmqType) {
         ArrayList<Quorum> list = Lists.newArrayList();
 
@@ -119,6 +129,10 @@ public class SimplifiedMasternodeListManager extends AbstractManager implements
     QuorumState quorumState; //before DIP24
     QuorumRotationState quorumRotationState; //DIP24
 
+    // diffs read from the journal, applied once the block chain is set
+    private final ArrayList<AbstractDiffMessage> journalDiffs = new ArrayList<>();
+    private boolean replayingJournal;
+
     public SimplifiedMasternodeListManager(Context context) {
         super(context);
         tipBlockHash = params.getGenesisBlock().getHash();
@@ -182,15 +196,11 @@ public class SimplifiedMasternodeListManager extends AbstractManager implements
 
     private <T extends AbstractQuorumRequest, D extends AbstractDiffMessage> void parsePendingBlocks(AbstractQuorumState<T, D> state) {
         int size = (int)readVarInt();
-        ByteBuffer buffer = ByteBuffer.allocate(StoredBlock.COMPACT_SERIALIZED_SIZE);
         for(int i = 0; i < size; ++i) {
-            buffer.put(readBytes(StoredBlock.COMPACT_SERIALIZED_SIZE));
-            buffer.rewind();
-            StoredBlock block = StoredBlock.deserializeCompact(params, buffer);
+            StoredBlock block = StoredBlock.deserializeCompact(params, readView(StoredBlock.COMPACT_SERIALIZED_SIZE));
             if(block.getHeight() != 0 && state.syncOptions != MasternodeListSyncOptions.SYNC_MINIMUM) {
                 state.pushPendingBlock(block);
             }
-            buffer.rewind();
         }
     }
 
@@ -267,6 +277,7 @@ public class SimplifiedMasternodeListManager extends AbstractManager implements
     }
 
     public void processMasternodeListDiff(@Nullable Peer peer, SimplifiedMasternodeListDiff mnlistdiff, boolean isLoadingBootStrap) {
+        long startNanos = System.nanoTime();
         try {
             quorumState.processDiff(peer, mnlistdiff, headersChain, blockChain, isLoadingBootStrap);
 
@@ -275,13 +286,14 @@ public class SimplifiedMasternodeListManager extends AbstractManager implements
             unCache();
             if (mnlistdiff.coinBaseTx.getExtraPayloadObject().getVersion() >= LLMQ_FORMAT_VERSION && quorumState.quorumList.size() > 0)
                 setFormatVersion(LLMQ_FORMAT_VERSION);
-            if (mnlistdiff.hasChanges() || quorumState.getPendingBlocks().size() < MAX_CACHE_SIZE || saveOptions == SaveOptions.SAVE_EVERY_BLOCK)
+            if (!replayingJournal && !appendAppliedDiff(JOURNAL_MNLISTDIFF, mnlistdiff, mnlistdiff.blockHash, quorumState.getMnList()) &&
+                    (mnlistdiff.hasChanges() || quorumState.getPendingBlocks().size() < MAX_CACHE_SIZE || saveOptions == SaveOptions.SAVE_EVERY_BLOCK))
                 save();
 
             // if DIP24 is not activated, then trigger a getqrinfo
             completeQuorumState(peer);
         } finally {
-            // TODO: do we need this finally block?
+            mnListDiffApplyTime.observeNanos(System.nanoTime() - startNanos);
         }
     }
 
@@ -300,15 +312,17 @@ public class SimplifiedMasternodeListManager extends AbstractManager implements
     }
 
     public void processQuorumRotationInfo(@Nullable Peer peer, QuorumRotationInfo quorumRotationInfo, boolean isLoadingBootStrap) {
+        long startNanos = System.nanoTime();
         try {
             quorumRotationState.processDiff(peer, quorumRotationInfo, headersChain, blockChain, isLoadingBootStrap);
 
             setFormatVersion(QUORUM_ROTATION_FORMAT_VERSION);
             unCache();
-            if (quorumRotationInfo.hasChanges() || quorumRotationState.getPendingBlocks().size() < MAX_CACHE_SIZE || saveOptions == SimplifiedMasternodeListManager.SaveOptions.SAVE_EVERY_BLOCK)
+            if (!replayingJournal && !appendAppliedDiff(JOURNAL_QRINFO, quorumRotationInfo, quorumRotationInfo.getMnListDiffTip().blockHash, quorumRotationState.getMnListTip()) &&
+                    (quorumRotationInfo.hasChanges() || quorumRotationState.getPendingBlocks().size() < MAX_CACHE_SIZE || saveOptions == SimplifiedMasternodeListManager.SaveOptions.SAVE_EVERY_BLOCK))
                 save();
         } finally {
-            // TODO: do we need a finally?
+            qrInfoApplyTime.observeNanos(System.nanoTime() - startNanos);
         }
     }
 
@@ -364,6 +378,64 @@ public class SimplifiedMasternodeListManager extends AbstractManager implements
                 quorumRotationState.addEventListeners(blockChain, peerGroup);
             //}
         }
+        replayJournalDiffs();
+    }
+
+    @Override
+    protected ManagerJournal.RecordHandler getJournalRecordHandler() {
+        return this::applyJournalRecord;
+    }
+
+    private void applyJournalRecord(int type, byte[] payload, int offset, int length) {
+        byte[] record = Arrays.copyOfRange(payload, offset, offset + length);
+        switch (type) {
+            case JOURNAL_MNLISTDIFF:
+                journalDiffs.add(new SimplifiedMasternodeListDiff(params, record));
+                break;
+            case JOURNAL_QRINFO:
+                journalDiffs.add(new QuorumRotationInfo(params, record));
+                break;
+            default:
+                throw new ProtocolException("unknown journal record type: " + type);
+        }
+    }
+
+    /**
+     * Appends a diff to the journal if it was applied, which is the case when the list at the tip is now at its block.
+     * Returns false if the manager should be saved instead.
+     */
+    private boolean appendAppliedDiff(int type, AbstractDiffMessage diff, Sha256Hash blockHash, SimplifiedMasternodeList tip) {
+        return tip.getBlockHash().equals(blockHash) && appendToJournal(type, diff.bitcoinSerialize());
+    }
+
+    /**
+     * Applies the diffs that were read from the journal in the same way as a bootstrap file, because
+     * applying a diff needs the headers of the block chain.  Diffs that the snapshot already contains are skipped.
+     */
+    private void replayJournalDiffs() {
+        if (journalDiffs.isEmpty())
+            return;
+        log.info("applying {} diffs from the journal", journalDiffs.size());
+        replayingJournal = true;
+        try {
+            for (AbstractDiffMessage diff : journalDiffs) {
+                if (diff instanceof SimplifiedMasternodeListDiff) {
+                    SimplifiedMasternodeListDiff mnlistdiff = (SimplifiedMasternodeListDiff) diff;
+                    if (!quorumState.getMasternodeListCache().containsKey(mnlistdiff.blockHash))
+                        processMasternodeListDiff(null, mnlistdiff, true);
+                } else {
+                    QuorumRotationInfo qrinfo = (QuorumRotationInfo) diff;
+                    if (!quorumRotationState.getMasternodeListCache().containsKey(qrinfo.getMnListDiffTip().blockHash))
+                        processQuorumRotationInfo(null, qrinfo, true);
+                }
+            }
+        } catch (RuntimeException x) {
+            // the following diffs are requested from the network again
+            log.warn("failed to apply the diffs from the journal", x);
+        } finally {
+            replayingJournal = false;
+            journalDiffs.clear();
+        }
     }
 
     @Override
@@ -3,16 +3,23 @@ package org.bitcoinj.governance;
 import org.bitcoinj.core.*;
 import org.bitcoinj.governance.listeners.GovernanceObjectAddedEventListener;
 import org.bitcoinj.governance.listeners.GovernanceVoteConfidenceEventListener;
+import org.bitcoinj.store.ManagerJournal;
 import org.bitcoinj.utils.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.math.BigInteger;
 import java.net.InetAddress;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.ReentrantLock;
 
 import static com.google.common.base.Preconditions.checkState;
@@ -25,6 +32,8 @@ import static org.bitcoinj.governance.GovernanceObject.*;
  */
 public class GovernanceManager extends AbstractManager {
     private static final Logger log = LoggerFactory.getLogger(GovernanceManager.class);
+    private static final Metrics.Counter rejectedVotes = Metrics.get().counter("dashj_governance_votes_rejected_total",
+            "Governance votes that were received and rejected");
     // critical section to protect the inner data structures
     ReentrantLock lock = Threading.lock("GovernanceManager");
 
@@ -41,6 +50,10 @@ public class GovernanceManager extends AbstractManager {
 
     private static final int MAX_CACHE_SIZE = 1000000;
 
+    // journal record types
+    static final int JOURNAL_OBJECT = 1;
+    static final int JOURNAL_VOTE = 2;
+
     private long nTimeLastDiff;
 
     // keep track of current block height
@@ -80,6 +93,16 @@ public class GovernanceManager extends AbstractManager {
 
     private boolean fRateChecksEnabled;
 
+    // votes waiting to be processed beyond this make the network thread that receives more votes process them itself
+    private static final int INGEST_QUEUE_SIZE = 10000;
+
+    // votes are verified and processed on these threads, so that a governance sync does not hold up the network
+    // thread of the peer, or on the thread that received them if this is null or rejects them
+    @Nullable private Executor ingestExecutor;
+    private boolean ingestExecutorSet;
+    // the default pool, if it was created and is not shut down yet
+    @Nullable private ThreadPoolExecutor defaultIngestExecutor;
+
     public GovernanceManager(Context context) {
         super(context);
         this.nTimeLastDiff = 0;
@@ -225,6 +248,38 @@ public class GovernanceManager extends AbstractManager {
         }
     }
 
+    @Override
+    protected ManagerJournal.RecordHandler getJournalRecordHandler() {
+        return this::applyJournalRecord;
+    }
+
+    private void applyJournalRecord(int type, byte[] payload, int offset, int length) {
+        lock.lock();
+        try {
+            switch (type) {
+                case JOURNAL_OBJECT:
+                    GovernanceObject govobj = new GovernanceObject(params, payload, offset);
+                    Sha256Hash nHash = govobj.getHash();
+                    if (!mapObjects.containsKey(nHash) && !mapErasedGovernanceObjects.containsKey(nHash)) {
+                        mapObjects.put(nHash, govobj);
+                        if (govobj.getObjectType() == GOVERNANCE_OBJECT_WATCHDOG)
+                            mapWatchdogObjects.put(nHash, govobj.getCreationTime() + GOVERNANCE_WATCHDOG_EXPIRATION_TIME);
+                    }
+                    break;
+                case JOURNAL_VOTE:
+                    GovernanceVote vote = new GovernanceVote(params, payload, offset);
+                    GovernanceObject parent = mapObjects.get(vote.getParentHash());
+                    if (parent != null)
+                        parent.restoreVote(vote);
+                    break;
+                default:
+                    throw new ProtocolException("unknown journal record type: " + type);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
     public void clear() {
         lock.lock();
         try {
@@ -333,7 +388,7 @@ public class GovernanceManager extends AbstractManager {
         }
     }
 
-    public void processGovernanceObjectVote(Peer peer, GovernanceVote vote) {
+    public void processGovernanceObjectVote(final Peer peer, final GovernanceVote vote) {
         Sha256Hash nHash = vote.getHash();
 
         peer.setAskFor.remove(nHash);
@@ -353,13 +408,45 @@ public class GovernanceManager extends AbstractManager {
             return;
         }
 
+        Executor executor = getIngestExecutor();
+        if (executor == null) {
+            ingestVote(peer, vote);
+        } else {
+            try {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        ingestVote(peer, vote);
+                    }
+                });
+            } catch (RejectedExecutionException x) {
+                // the queue is full or the executor is shutting down, either way the vote is not dropped
+                ingestVote(peer, vote);
+            }
+        }
+    }
+
+    private void ingestVote(Peer peer, GovernanceVote vote) {
+        String strHash = vote.getHash().toString();
         GovernanceException exception = new GovernanceException();
-        if (processVote(peer, vote, exception)) {
+        boolean accepted;
+        try {
+            // check the signature before taking the lock, so that votes are verified in parallel
+            vote.verifyVotingSignature();
+            accepted = processVote(peer, vote, exception);
+        } catch (RuntimeException x) {
+            // on a pool thread nobody else would see this
+            log.warn("gobject--MNGOVERNANCEOBJECTVOTE -- Rejected vote {}, processing it failed", strHash, x);
+            rejectedVotes.inc();
+            return;
+        }
+        if (accepted) {
             log.info("gobject--MNGOVERNANCEOBJECTVOTE -- {} new", strHash);
             context.masternodeSync.bumpAssetLastTime("processGovernanceObjectVote");
             vote.relay();
         } else {
             log.info("gobject--MNGOVERNANCEOBJECTVOTE -- Rejected vote, error = {}", exception.getMessage());
+            rejectedVotes.inc();
             if ((exception.getNodePenalty() != 0) && context.masternodeSync.isSynced()) {
                 //Misbehaving(pfrom.GetId(), exception.GetNodePenalty());
             }
@@ -404,6 +491,9 @@ public class GovernanceManager extends AbstractManager {
             boolean fOk = govobj.processVote(pfrom, vote, exception);
             if (fOk) {
                 mapVoteToObject.insert(nHashVote, govobj);
+                unCache();
+                if (isJournalMode())
+                    appendToJournal(JOURNAL_VOTE, vote.bitcoinSerialize());
 
                 /* TODO:  Fix Governance Objects
                 if (govobj.getObjectType() == GOVERNANCE_OBJECT_WATCHDOG) {
@@ -702,6 +792,8 @@ public class GovernanceManager extends AbstractManager {
 
             // INSERT INTO OUR GOVERNANCE OBJECT MEMORY
             mapObjects.put(nHash, govobj);
+            if (isJournalMode())
+                appendToJournal(JOURNAL_OBJECT, govobj.bitcoinSerialize());
             queueOnGovernanceObjectAdded(nHash, govobj);
             unCache();
 
@@ -1624,8 +1716,45 @@ public class GovernanceManager extends AbstractManager {
         }
     }
 
+    /**
+     * Sets the executor that received votes are verified and processed on, or null to process them on the network
+     * thread that received them. Votes that the executor rejects are processed on the network thread as well. By
+     * default a pool with a thread per processor and a bounded queue is used, until {@link #close()}.
+     */
+    public synchronized void setIngestExecutor(@Nullable Executor executor) {
+        this.ingestExecutor = executor;
+        this.ingestExecutorSet = true;
+    }
+
+    @Nullable
+    private synchronized Executor getIngestExecutor() {
+        if (!ingestExecutorSet) {
+            int threads = Runtime.getRuntime().availableProcessors();
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<Runnable>(INGEST_QUEUE_SIZE),
+                    new ContextPropagatingThreadFactory("GovernanceManager ingest"));
+            executor.allowCoreThreadTimeOut(true);
+            defaultIngestExecutor = executor;
+            ingestExecutor = executor;
+            ingestExecutorSet = true;
+        }
+        return ingestExecutor;
+    }
+
+    /**
+     * Shuts the default pool down. The votes that are still queued are processed before its threads end, and the
+     * votes received afterwards are processed on the network thread, the pool is not created again.
+     */
     @Override
     public void close() {
-
+        synchronized (this) {
+            if (defaultIngestExecutor != null) {
+                defaultIngestExecutor.shutdown();
+                if (ingestExecutor == defaultIngestExecutor)
+                    ingestExecutor = null;
+                defaultIngestExecutor = null;
+            }
+            ingestExecutorSet = true;
+        }
     }
 }
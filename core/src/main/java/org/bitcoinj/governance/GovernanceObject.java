@@ -248,7 +248,7 @@ public class GovernanceObject extends Message implements Serializable {
     }
     void parseFromDisk() {
         nDeletionTime = readInt64();
-        fExpired = readBytes(1)[0] == 0 ? false : true;
+        fExpired = readByte() == 0 ? false : true;
         int size = (int)readVarInt();
         mapCurrentMNVotes = new HashMap<TransactionOutPoint, VoteRecord>();
         for(int i = 0; i < size; ++i) {
@@ -665,7 +665,7 @@ public class GovernanceObject extends Message implements Serializable {
 
     public boolean processVote(Peer pfrom, GovernanceVote vote, GovernanceException exception) {
         if (context.masternodeSync.syncFlags.contains(MasternodeSync.SYNC_FLAGS.SYNC_MASTERNODE_LIST) &&
-                context.masternodeListManager.getListAtChainTip().getMNByCollateral(vote.getMasternodeOutpoint()) == null) {
+                context.masternodeListManager.getListAtChainTip().getMNByRegistrationCollateral(vote.getMasternodeOutpoint()) == null) {
             String message = "CGovernanceObject::ProcessVote -- Masternode index not found";
             exception.setException(message, GOVERNANCE_EXCEPTION_WARNING);
             if (mapOrphanVotes.put(vote.getMasternodeOutpoint(), new Pair<Integer, GovernanceVote>((int)(Utils.currentTimeSeconds() + GOVERNANCE_ORPHAN_EXPIRATION_TIME), vote))) {
@@ -741,6 +741,7 @@ public class GovernanceObject extends Message implements Serializable {
             return false;
         }
         voteInstance = new VoteInstance(params, vote.getOutcome(), nVoteTimeUpdate, vote.getTimestamp());
+        recVote.mapInstances.put(eSignal.getValue(), voteInstance);
         if (!fileVotes.hasVote(vote.getHash())) {
             fileVotes.addVote(vote);
         }
@@ -748,6 +749,27 @@ public class GovernanceObject extends Message implements Serializable {
         return true;
     }
 
+    /**
+     * Records a vote that {@link #processVote(Peer, GovernanceVote, GovernanceException)} accepted before,
+     * without checking it again.  Used to replay the journal of the {@link GovernanceManager}.
+     */
+    void restoreVote(GovernanceVote vote) {
+        VoteRecord recVote = mapCurrentMNVotes.get(vote.getMasternodeOutpoint());
+        if (recVote == null) {
+            recVote = new VoteRecord(params);
+            mapCurrentMNVotes.put(vote.getMasternodeOutpoint(), recVote);
+        }
+        VoteInstance voteInstance = recVote.mapInstances.get(vote.getSignal().getValue());
+        // the journal is replayed in order, but keep a newer vote of the masternode if one was restored before
+        if (voteInstance == null || voteInstance.nCreationTime <= vote.getTimestamp())
+            recVote.mapInstances.put(vote.getSignal().getValue(),
+                    new VoteInstance(params, vote.getOutcome(), vote.getTimestamp(), vote.getTimestamp()));
+        if (!fileVotes.hasVote(vote.getHash())) {
+            fileVotes.addVote(vote);
+        }
+        fDirtyCache = true;
+    }
+
     public JSONObject getJSONObject() {
         JSONTokener parser = new JSONTokener(getDataAsPlainString());
         JSONObject jsonObject = new JSONObject(parser);
@@ -154,6 +154,8 @@ public class GovernanceVote extends ChildMessage implements Serializable {
     private int nVoteOutcome; // see VOTE_OUTCOMES above
     private long nTime;
     private MasternodeSignature vchSig;
+    // the voting key that the signature was last verified with, so that checking it again is free
+    private volatile KeyId verifiedVotingKey;
 
     /* memory only */
     Sha256Hash hash;
@@ -358,7 +360,7 @@ public class GovernanceVote extends ChildMessage implements Serializable {
         }
 
         if(context.masternodeSync.syncFlags.contains(MasternodeSync.SYNC_FLAGS.SYNC_MASTERNODE_LIST)) {
-            Masternode dmn = context.masternodeListManager.getListAtChainTip().getMNByCollateral(masternodeOutpoint);
+            Masternode dmn = context.masternodeListManager.getListAtChainTip().getMNByRegistrationCollateral(masternodeOutpoint);
             if (dmn == null) {
                 log.info("gobject--CGovernanceVote::IsValid -- Unknown Masternode - {}", masternodeOutpoint.toStringShort());
                 return false;
@@ -419,6 +421,8 @@ public class GovernanceVote extends ChildMessage implements Serializable {
     }
 
     public boolean checkSignature(KeyId pubKeyMasternode) {
+        if (pubKeyMasternode.equals(verifiedVotingKey))
+            return true;
         StringBuilder strError = new StringBuilder();
 
         String strMessage = masternodeOutpoint.toStringShort() + "|" + nParentHash.toString() + "|" + nVoteSignal + "|" + nVoteOutcome + "|" + nTime;
@@ -428,9 +432,26 @@ public class GovernanceVote extends ChildMessage implements Serializable {
             return false;
         }
 
+        verifiedVotingKey = pubKeyMasternode;
         return true;
     }
 
+    /**
+     * Verifies the signature with the voting key of the masternode, if it is known. This is the expensive part of
+     * {@link #isValid(boolean)}, which it makes free afterwards, so it can be done before taking the lock of the
+     * {@link GovernanceManager}. Masternodes with an external collateral are not found, see
+     * {@link org.bitcoinj.evolution.SimplifiedMasternodeList#getMNByRegistrationCollateral}, and nothing is
+     * verified for them.
+     */
+    @SuppressWarnings("deprecation") // the same masternode list check as isValid
+    void verifyVotingSignature() {
+        if (!context.masternodeSync.syncFlags.contains(MasternodeSync.SYNC_FLAGS.SYNC_MASTERNODE_LIST))
+            return;
+        Masternode dmn = context.masternodeListManager.getListAtChainTip().getMNByRegistrationCollateral(masternodeOutpoint);
+        if (dmn != null)
+            checkSignature(dmn.getKeyIdVoting());
+    }
+
     public boolean checkSignature(BLSPublicKey pubKey)
     {
         Sha256Hash hash = getSignatureHash();
@@ -35,7 +35,7 @@ public class LastObjectRecord extends ChildMessage {
         cursor += triggerBuffer.getMessageSize();
         watchdogBuffer = new RateCheckBuffer(params, payload, offset);
         cursor += watchdogBuffer.getMessageSize();
-        fStatusOK = readBytes(1)[0] == 0 ? false : true;
+        fStatusOK = readByte() == 0 ? false : true;
         length = cursor - offset;
     }
 
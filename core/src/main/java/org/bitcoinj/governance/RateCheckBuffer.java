@@ -110,7 +110,7 @@ public class RateCheckBuffer extends ChildMessage {
         }
         nDataStart = (int)readUint32();
         nDataEnd = (int)readUint32();
-        fBufferEmpty = readBytes(1)[0] != 0 ? true : false;
+        fBufferEmpty = readByte() != 0 ? true : false;
 
         length = cursor - offset;
     }
@@ -545,9 +545,7 @@ public class ChainLocksHandler extends AbstractManager implements RecoveredSigna
     @Override
     protected void parse() throws ProtocolException {
         if(payload.length > 0) {
-            ByteBuffer buffer = ByteBuffer.allocate(StoredBlock.COMPACT_SERIALIZED_SIZE);
-            buffer.put(readBytes(StoredBlock.COMPACT_SERIALIZED_SIZE));
-            buffer.rewind();
+            ByteBuffer buffer = readView(StoredBlock.COMPACT_SERIALIZED_SIZE);
             bestChainLockBlock = StoredBlock.deserializeCompact(params, buffer);
             bestChainLockHash = bestChainLockBlock.getHeader().getHash();
         }
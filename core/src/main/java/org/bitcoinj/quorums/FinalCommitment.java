@@ -93,7 +93,7 @@ public class FinalCommitment extends SpecialTxPayload {
     protected void parse() throws ProtocolException {
         super.parse();
 
-        llmqType = readBytes(1)[0];
+        llmqType = readByte();
         quorumHash = readHash();
         if (version >= INDEXED_QUORUM_VERSION) {
             quorumIndex = readUint16();
@@ -57,7 +57,7 @@ public class GetQuorumRotationInfo extends AbstractQuorumRequest {
             baseBlockHashes.add(readHash());
         }
         blockRequestHash = readHash();
-        extraShare = readBytes(1)[0] == 1;
+        extraShare = readByte() == 1;
     }
 
     @Override
@@ -66,7 +66,7 @@ public class InstantSendLock extends Message {
     @Override
     protected void parse() throws ProtocolException {
         if (protocolVersion >= params.getProtocolVersionNum(NetworkParameters.ProtocolVersion.ISDLOCK)) {
-            version = readBytes(1)[0];
+            version = readByte();
         }
         int countInputs = (int)readVarInt();
         inputs = new ArrayList<>(countInputs);
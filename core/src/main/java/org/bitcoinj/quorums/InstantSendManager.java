@@ -484,7 +484,10 @@ public class InstantSendManager implements RecoveredSignatureListener {
         tipHeight = blockChain.getBestChainHeight();
         HashSet<Sha256Hash> badISLocks = new HashSet<>(pend.size());
 
-        BLSBatchVerifier<Long, Sha256Hash> batchVerifier = new BLSBatchVerifier<Long, Sha256Hash>(false, true, 8);
+        // each worker gets a sub-batch of about 8 locks, the size Dash Core verifies at once
+        int parallelism = BLSBatchVerifier.getDefaultParallelism();
+        BLSBatchVerifier<Long, Sha256Hash> batchVerifier = new BLSBatchVerifier<Long, Sha256Hash>(false, true,
+                8 * parallelism, BLSBatchVerifier.getDefaultExecutor(), parallelism);
         HashMap<Sha256Hash, Pair<Quorum, RecoveredSignature>> recSigs = new HashMap<Sha256Hash, Pair<Quorum, RecoveredSignature>>();
 
         int verifyCount = 0;
@@ -87,7 +87,7 @@ public class QuorumRotationInfo extends AbstractDiffMessage {
         cursor += mnListDiffAtHMinus3C.getMessageSize();
 
         // extra share?
-        extraShare = readBytes(1)[0] == 1;
+        extraShare = readByte() == 1;
         if (extraShare) {
             quorumSnapshotAtHMinus4C = new QuorumSnapshot(params, payload, cursor);
             cursor += quorumSnapshotAtHMinus4C.getMessageSize();
@@ -35,7 +35,7 @@ public class RecoveredSignature extends Message {
     @Override
     protected void parse() throws ProtocolException {
 
-        llmqType = readBytes(1)[0];
+        llmqType = readByte();
         quorumHash = readHash();
         id = readHash();
         msgHash = readHash();
@@ -31,6 +31,9 @@ public class SimplifiedQuorumList extends Message {
     HashMap<Pair<Integer, Sha256Hash>, Sha256Hash> minableCommitmentsByQuorum;
     LinkedHashMap<Sha256Hash, FinalCommitment> minableCommitments;
     private CoinbaseTx coinbaseTxPayload;
+    // merkle tree of the current commitments, built on demand from the tree of the list this one was derived from
+    private IncrementalMerkleTree merkleTree;
+    private IncrementalMerkleTree previousMerkleTree;
 
     public SimplifiedQuorumList(NetworkParameters params) {
         super(params);
@@ -52,6 +55,8 @@ public class SimplifiedQuorumList extends Message {
         minableCommitmentsByQuorum = new HashMap<Pair<Integer, Sha256Hash>, Sha256Hash>(other.minableCommitmentsByQuorum);
         minableCommitments = new LinkedHashMap<Sha256Hash, FinalCommitment>(other.minableCommitments);
         this.isFirstQuorumCheck = other.isFirstQuorumCheck;
+        merkleTree = other.merkleTree;
+        previousMerkleTree = other.previousMerkleTree;
     }
 
     @Override
@@ -62,7 +67,7 @@ public class SimplifiedQuorumList extends Message {
         minableCommitmentsByQuorum = new HashMap<Pair<Integer, Sha256Hash>, Sha256Hash>(size);
         for(int i = 0; i < size; ++i)
         {
-            int type = readBytes(1)[0];
+            int type = readByte();
             Sha256Hash hash = readHash();
             Sha256Hash hash2 = readHash();
             minableCommitmentsByQuorum.put(new Pair<>(type, hash), hash2);
@@ -194,6 +199,7 @@ public class SimplifiedQuorumList extends Message {
             Pair<Integer, Sha256Hash> pair = new Pair(commitment.llmqType, commitment.quorumHash);
             minableCommitmentsByQuorum.put(pair, commitmentHash);
             minableCommitments.put(commitmentHash, commitment);
+            invalidateMerkleTree();
         } finally {
             lock.unlock();
         }
@@ -208,6 +214,7 @@ public class SimplifiedQuorumList extends Message {
                 Sha256Hash commitmentHash = minableCommitmentsByQuorum.get(quorum);
                 minableCommitments.remove(commitmentHash);
                 minableCommitmentsByQuorum.remove(quorum);
+                invalidateMerkleTree();
             }
         } finally {
             lock.unlock();
@@ -264,23 +271,10 @@ public class SimplifiedQuorumList extends Message {
                     return true;
             }
 
-            ArrayList<Sha256Hash> commitmentHashes = new ArrayList<Sha256Hash>();
-
-            for (FinalCommitment commitment : minableCommitments.values()) {
-                commitmentHashes.add(commitment.getHash());
-            }
-
-            commitmentHashes.sort(new Comparator<Sha256Hash>() {
-                @Override
-                public int compare(Sha256Hash o1, Sha256Hash o2) {
-                    return o1.compareTo(o2);
-                }
-            });
-
             if (!cbtx.getMerkleRootQuorums().isZero() &&
-                    !commitmentHashes.isEmpty() &&
-                    !cbtx.getMerkleRootQuorums().equals(calculateMerkleRoot(commitmentHashes)))
-                throw new VerificationException("MerkleRoot of quorum list does not match coinbaseTx - " + commitmentHashes.size());
+                    !minableCommitments.isEmpty() &&
+                    !cbtx.getMerkleRootQuorums().equals(getMerkleTree().getRoot()))
+                throw new VerificationException("MerkleRoot of quorum list does not match coinbaseTx - " + minableCommitments.size());
 
             return true;
         } finally {
@@ -314,82 +308,35 @@ public class SimplifiedQuorumList extends Message {
     public Sha256Hash calculateMerkleRoot() {
         lock.lock();
         try {
-            ArrayList<Sha256Hash> commitmentHashes = new ArrayList<Sha256Hash>();
-
-            for(FinalCommitment commitment : minableCommitments.values()) {
-                commitmentHashes.add(commitment.getHash());
-            }
-
-            Collections.sort(commitmentHashes, new Comparator<Sha256Hash>() {
-                @Override
-                public int compare(Sha256Hash o1, Sha256Hash o2) {
-                    return o1.compareTo(o2);
-                }
-            });
-
-            return calculateMerkleRoot(commitmentHashes);
+            return getMerkleTree().getRoot();
         } finally {
             lock.unlock();
         }
     }
 
-    public static Sha256Hash calculateMerkleRoot(List<Sha256Hash> hashes) {
-        List<byte[]> tree = buildMerkleTree(hashes);
-        return Sha256Hash.wrap(tree.get(tree.size() - 1));
-    }
-
-    private static List<byte[]> buildMerkleTree(List<Sha256Hash> hashes) {
-        // The Merkle root is based on a tree of hashes calculated from the masternode list proRegHash:
-        //
-        //     root
-        //      / \
-        //   A      B
-        //  / \    / \
-        // t1 t2 t3 t4
-        //
-        // The tree is represented as a list: t1,t2,t3,t4,A,B,root where each
-        // entry is a hash.
-        //
-        // The hashing algorithm is double SHA-256. The leaves are a hash of the serialized contents of the transaction.
-        // The interior nodes are hashes of the concenation of the two child hashes.
-        //
-        // This structure allows the creation of proof that a transaction was included into a block without having to
-        // provide the full block contents. Instead, you can provide only a Merkle branch. For example to prove tx2 was
-        // in a block you can just provide tx2, the hash(tx1) and B. Now the other party has everything they need to
-        // derive the root, which can be checked against the block header. These proofs aren't used right now but
-        // will be helpful later when we want to download partial block contents.
-        //
-        // Note that if the number of transactions is not even the last tx is repeated to make it so (see
-        // tx3 above). A tree with 5 transactions would look like this:
-        //
-        //         root
-        //        /     \
-        //       1        5
-        //     /   \     / \
-        //    2     3    4  4
-        //  / \   / \   / \
-        // t1 t2 t3 t4 t5 t5
-        ArrayList<byte[]> tree = new ArrayList<byte[]>();
-        // Start by adding all the hashes of the transactions as leaves of the tree.
-        for (Sha256Hash hash : hashes) {
-            tree.add(hash.getBytes());
+    private void invalidateMerkleTree() {
+        if (merkleTree != null) {
+            previousMerkleTree = merkleTree;
+            merkleTree = null;
         }
-        int levelOffset = 0; // Offset in the list where the currently processed level starts.
-        // Step through each level, stopping when we reach the root (levelSize == 1).
-        for (int levelSize = hashes.size(); levelSize > 1; levelSize = (levelSize + 1) / 2) {
-            // For each pair of nodes on that level:
-            for (int left = 0; left < levelSize; left += 2) {
-                // The right hand node can be the same as the left hand, in the case where we don't have enough
-                // transactions.
-                int right = Math.min(left + 1, levelSize - 1);
-                byte[] leftBytes = Utils.reverseBytes(tree.get(levelOffset + left));
-                byte[] rightBytes = Utils.reverseBytes(tree.get(levelOffset + right));
-                tree.add(Utils.reverseBytes(hashTwice(leftBytes, 0, 32, rightBytes, 0, 32)));
-            }
-            // Move to the next level.
-            levelOffset += levelSize;
+    }
+
+    /**
+     * Returns the merkle tree over the sorted commitment hashes, which are the keys of minableCommitments. Must be
+     * called with the lock held.
+     */
+    private IncrementalMerkleTree getMerkleTree() {
+        if (merkleTree == null) {
+            ArrayList<Sha256Hash> commitmentHashes = new ArrayList<Sha256Hash>(minableCommitments.keySet());
+            Collections.sort(commitmentHashes);
+            merkleTree = IncrementalMerkleTree.build(commitmentHashes, previousMerkleTree);
+            previousMerkleTree = null;
         }
-        return tree;
+        return merkleTree;
+    }
+
+    public static Sha256Hash calculateMerkleRoot(List<Sha256Hash> hashes) {
+        return IncrementalMerkleTree.build(hashes, null).getRoot();
     }
 
     public void addQuorum(Quorum quorum) {
@@ -1423,7 +1423,7 @@ public class Script {
 
             // TODO: Should check hash type is known
             Sha256Hash hash = txContainingThis.hashForSignature(index, connectedScript, (byte) sig.sighashFlags);
-            sigValid = ECKey.verify(hash.getBytes(), sig, pubKey);
+            sigValid = verifySignature(hash, sig, sigBytes, pubKey);
         } catch (SignatureDecodeException e) {
             // This exception occurs when signing as we run partial/invalid scripts to see if they need more
             // signing work to be done inside LocalTransactionSigner.signInputs.
@@ -1443,6 +1443,14 @@ public class Script {
                 throw new ScriptException(ScriptError.SCRIPT_ERR_CHECKSIGVERIFY, "Script failed OP_CHECKSIGVERIFY");
     }
 
+    /** Verifies a signature, skipping the check if the {@link SignatureCache} has seen it pass before. */
+    private static boolean verifySignature(Sha256Hash hash, TransactionSignature sig, byte[] sigBytes, byte[] pubKey) {
+        SignatureCache cache = SignatureCache.getDefault();
+        if (cache == null)
+            return ECKey.verify(hash.getBytes(), sig, pubKey);
+        return cache.verify(hash, sig, sigBytes, pubKey);
+    }
+
     private static int executeMultiSig(Transaction txContainingThis, int index, Script script, LinkedList<byte[]> stack,
                                        int opCount, int lastCodeSepLocation, int opcode, 
                                        Set<VerifyFlag> verifyFlags) throws ScriptException {
@@ -1499,7 +1507,7 @@ public class Script {
             try {
                 TransactionSignature sig = TransactionSignature.decodeFromBitcoin(sigs.getFirst(), requireCanonical, false);
                 Sha256Hash hash = txContainingThis.hashForSignature(index, connectedScript, (byte) sig.sighashFlags);
-                if (ECKey.verify(hash.getBytes(), sig, pubKey))
+                if (verifySignature(hash, sig, sigs.getFirst(), pubKey))
                     sigs.pollFirst();
             } catch (Exception e) {
                 // There is (at least) one exception that could be hit here (EOFException, if the sig is too short)
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2022 Dash Core Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.script;
+
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.core.Sha256Hash;
+
+import javax.annotation.Nullable;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * <p>Remembers the ECDSA signatures that passed verification, like the signature cache of Dash Core, so that a script
+ * that is checked again, for example when a block with transactions that were already verified is connected or when a
+ * reorganize replays blocks, skips the expensive part.</p>
+ *
+ * <p>Entries are keyed by a salted SHA-256 of the signature hash, the public key and the signature, so only the key is
+ * kept in memory. Failed verifications are not cached. The entries are kept in two generations of up to half the
+ * maximum size each: when the newer generation is full, the older one is dropped, which evicts the signatures that were
+ * not used for the longest time in bulk. Instances are safe for use by multiple threads.</p>
+ */
+public class SignatureCache {
+    public static final int DEFAULT_MAX_ENTRIES = 100000;
+
+    @Nullable private static volatile SignatureCache defaultCache = new SignatureCache(DEFAULT_MAX_ENTRIES);
+
+    private final int generationSize;
+    // signatures added or used since the last rotation, and those from the generation before
+    private volatile Set<Sha256Hash> current;
+    private volatile Set<Sha256Hash> previous;
+    // keeps anyone from choosing signatures that collide in the cache
+    private final byte[] salt = new byte[32];
+
+    public SignatureCache(int maxEntries) {
+        checkArgument(maxEntries > 0, "maxEntries must be positive: %s", maxEntries);
+        this.generationSize = Math.max(1, maxEntries / 2);
+        this.current = ConcurrentHashMap.newKeySet();
+        this.previous = ConcurrentHashMap.newKeySet();
+        new SecureRandom().nextBytes(salt);
+    }
+
+    /** Returns the cache that script verification uses, or null if signatures are always verified. */
+    @Nullable
+    public static SignatureCache getDefault() {
+        return defaultCache;
+    }
+
+    /** Sets the cache that script verification uses. Pass null to verify every signature. */
+    public static void setDefault(@Nullable SignatureCache cache) {
+        defaultCache = cache;
+    }
+
+    /**
+     * Verifies a signature like {@link ECKey#verify(byte[], ECKey.ECDSASignature, byte[])}, but returns at once if the
+     * same signature of the same hash by the same key was verified before.
+     *
+     * @param hash the signature hash
+     * @param signature the decoded signature
+     * @param signatureBytes the signature as it appears in the script
+     * @param pubKey the public key
+     */
+    public boolean verify(Sha256Hash hash, ECKey.ECDSASignature signature, byte[] signatureBytes, byte[] pubKey) {
+        Sha256Hash key = key(hash, signatureBytes, pubKey);
+        if (current.contains(key))
+            return true;
+        if (previous.contains(key)) {
+            // keep a signature that is still used from being dropped with its generation
+            add(key);
+            return true;
+        }
+        boolean valid = ECKey.verify(hash.getBytes(), signature, pubKey);
+        // fake signatures are only valid while the flag is set, so they must not be remembered
+        if (valid && !ECKey.FAKE_SIGNATURES)
+            add(key);
+        return valid;
+    }
+
+    private Sha256Hash key(Sha256Hash hash, byte[] signatureBytes, byte[] pubKey) {
+        MessageDigest digest = Sha256Hash.newDigest();
+        digest.update(salt);
+        digest.update(hash.getBytes());
+        digest.update((byte) pubKey.length);
+        digest.update(pubKey);
+        digest.update(signatureBytes);
+        return Sha256Hash.wrap(digest.digest());
+    }
+
+    private void add(Sha256Hash key) {
+        Set<Sha256Hash> generation = current;
+        generation.add(key);
+        if (generation.size() >= generationSize) {
+            synchronized (this) {
+                if (current == generation) {
+                    previous = generation;
+                    current = ConcurrentHashMap.newKeySet();
+                }
+            }
+        }
+    }
+
+    /** Returns the number of remembered signatures, which may count a signature twice. */
+    public int size() {
+        return current.size() + previous.size();
+    }
+
+    public synchronized void clear() {
+        current = ConcurrentHashMap.newKeySet();
+        previous = ConcurrentHashMap.newKeySet();
+    }
+}
@@ -36,6 +36,7 @@ public class FlatDB<Type extends AbstractManager> {
     }
 
     ReadResult lastReadResult = ReadResult.NoResult;
+    private Sha256Hash checksum;
 
     Context context;
 
@@ -121,6 +122,7 @@ public class FlatDB<Type extends AbstractManager> {
             fileStream.write(stream.toByteArray());
 
             fileStream.close();
+            checksum = hash;
 
             log.info("Written info to {}  {}ms", pathDB, watch.elapsed(TimeUnit.MILLISECONDS));
             log.info("  {}", object);
@@ -240,6 +242,10 @@ public class FlatDB<Type extends AbstractManager> {
                 // de-serialize data into CMasternodeMan object
 
                 object.load(vchData, magicMessage.length()+ 4, fileVersion);
+                checksum = hashTmp;
+
+                // apply the changes that were appended to the journal after this snapshot was written
+                object.loadJournal(file, hashTmp);
 
             } catch (Exception e){
                 object.clear();
@@ -263,6 +269,11 @@ public class FlatDB<Type extends AbstractManager> {
         }
     }
 
+    /** Returns the checksum of the file that was last written or successfully read, or null if there is none. */
+    public Sha256Hash getChecksum() {
+        return checksum;
+    }
+
     ReadResult read(Type object) {
         lastReadResult = read(object, false);
         return lastReadResult;
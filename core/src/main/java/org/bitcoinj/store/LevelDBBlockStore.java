@@ -21,15 +21,21 @@ import org.iq80.leveldb.*;
 import javax.annotation.*;
 import java.io.*;
 import java.nio.*;
+import java.util.Arrays;
 
 /**
  * An SPV block store that writes every header it sees to a <a href="https://github.com/fusesource/leveldbjni">LevelDB</a>.
  * This allows for fast lookup of block headers by block hash at the expense of more costly inserts and higher disk
  * usage than the {@link SPVBlockStore}. If all you want is a regular wallet you don't need this class: it exists for
- * specialised applications where you need to quickly verify a standalone SPV proof.
+ * specialised applications where you need to quickly verify a standalone SPV proof.<p>
+ *
+ * Besides the headers the store keeps an index from height to header hash for the best chain, which is maintained
+ * by {@link #setChainHead(StoredBlock)} and makes {@link #get(int)} a single lookup.
  */
 public class LevelDBBlockStore implements BlockStore {
     private static final byte[] CHAIN_HEAD_KEY = "chainhead".getBytes();
+    // Height index keys are the prefix followed by the big endian height, which can't collide with 32 byte hashes.
+    private static final byte HEIGHT_KEY_PREFIX = 'h';
 
     private final Context context;
     private DB db;
@@ -96,7 +102,50 @@ public class LevelDBBlockStore implements BlockStore {
 
     @Override
     public synchronized void setChainHead(StoredBlock chainHead) throws BlockStoreException {
-        db.put(CHAIN_HEAD_KEY, chainHead.getHeader().getHash().getBytes());
+        try {
+            WriteBatch batch = db.createWriteBatch();
+            try {
+                indexBestChain(batch, chainHead);
+                batch.put(CHAIN_HEAD_KEY, chainHead.getHeader().getHash().getBytes());
+                db.write(batch);
+            } finally {
+                batch.close();
+            }
+        } catch (IOException e) {
+            throw new BlockStoreException(e);
+        }
+    }
+
+    private static byte[] heightKey(int height) {
+        return ByteBuffer.allocate(5).put(HEIGHT_KEY_PREFIX).putInt(height).array();
+    }
+
+    /**
+     * Adds the height index entries for the chain ending in the given head to the batch. Entries are rewritten from
+     * the head back to the point where the new chain joins the indexed one, and heights above the head that were
+     * left behind by a re-org are removed. A store created before the index existed is indexed completely the first
+     * time this is called.
+     */
+    private void indexBestChain(WriteBatch batch, StoredBlock chainHead) throws BlockStoreException {
+        byte[] oldHeadHash = db.get(CHAIN_HEAD_KEY);
+        if (oldHeadHash != null) {
+            StoredBlock oldHead = get(Sha256Hash.wrap(oldHeadHash));
+            if (oldHead != null) {
+                for (int height = oldHead.getHeight(); height > chainHead.getHeight(); height--)
+                    batch.delete(heightKey(height));
+            }
+        }
+        StoredBlock cursor = chainHead;
+        while (cursor != null) {
+            byte[] key = heightKey(cursor.getHeight());
+            byte[] hash = cursor.getHeader().getHash().getBytes();
+            if (Arrays.equals(db.get(key), hash))
+                break;
+            batch.put(key, hash);
+            if (cursor.getHeight() == 0)
+                break;
+            cursor = get(cursor.getHeader().getPrevBlockHash());
+        }
     }
 
     @Override
@@ -142,12 +191,19 @@ public class LevelDBBlockStore implements BlockStore {
 
     @Nullable
     public synchronized StoredBlock get(int blockHeight) throws BlockStoreException {
+        byte[] hash = db.get(heightKey(blockHeight));
+        if (hash != null)
+            return get(Sha256Hash.wrap(hash));
 
         StoredBlock cursor = getChainHead();
 
         if(cursor.getHeight() < blockHeight)
             return null;
 
+        // Only stores that have not been indexed yet need to walk the chain.
+        if (db.get(heightKey(cursor.getHeight())) != null)
+            return null;
+
 
         while (cursor != null) {
             if(cursor.getHeight() == blockHeight)
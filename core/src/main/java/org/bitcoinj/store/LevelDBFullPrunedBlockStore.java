@@ -16,14 +16,15 @@
 
 package org.bitcoinj.store;
 
-import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.concurrent.TimeUnit;
 import java.io.*;
 import java.nio.ByteBuffer;
@@ -62,6 +63,14 @@ import javax.annotation.Nullable;
  * <p>
  * Includes number of caches to optimise the initial blockchain download.
  * </p>
+ *
+ * <p>
+ * Committed blocks are kept in a write-back cache and written to leveldb together, once the cache reaches
+ * {@link #setWriteBackCache(long, long) its size} or after a while, as well as on {@link #close()}. All changes of a
+ * flush are written in a single leveldb batch, so the unspent outputs in the database always match the chain head and
+ * the undo blocks stored with it: after a crash the store is back at the last flushed block and the chain downloads
+ * the rest again.
+ * </p>
  */
 
 public class LevelDBFullPrunedBlockStore implements FullPrunedBlockStore {
@@ -107,9 +116,22 @@ public class LevelDBFullPrunedBlockStore implements FullPrunedBlockStore {
 
     // Datastructures to allow us to search for uncommited inserts/deletes.
     // leveldb does not support dirty reads so we have to
-    // do it ourselves.
+    // do it ourselves. A deleted key maps to DELETED.
     Map<ByteBuffer, byte[]> uncommited;
-    Set<ByteBuffer> uncommitedDeletes;
+
+    // Write-back cache of the changes of committed blocks, which are not
+    // in leveldb yet. Sorted so that the index scans can merge it with the
+    // database. A deleted key maps to DELETED.
+    TreeMap<ByteBuffer, byte[]> writeBack = new TreeMap<>();
+    long writeBackBytes;
+    long lastFlushTime = Utils.currentTimeMillis();
+    protected long writeBackCacheSize = WRITEBACK_CACHE_DEFAULT;
+    protected long writeBackInterval = WRITEBACK_INTERVAL_DEFAULT;
+    // Marks a deleted key, compared by identity.
+    static final byte[] DELETED = new byte[0];
+    // Rough memory used by an entry of the write-back cache besides the key
+    // and value bytes.
+    static final int WRITEBACK_ENTRY_OVERHEAD = 128;
 
     // Sizes of leveldb caches.
     protected long leveldbReadCache;
@@ -124,6 +146,8 @@ public class LevelDBFullPrunedBlockStore implements FullPrunedBlockStore {
     static final long LEVELDB_READ_CACHE_DEFAULT = 100 * 1048576; // 100 meg
     static final int LEVELDB_WRITE_CACHE_DEFAULT = 10 * 1048576; // 10 meg
     static final int OPENOUT_CACHE_DEFAULT = 100000;
+    static final long WRITEBACK_CACHE_DEFAULT = 100 * 1048576; // 100 meg
+    static final long WRITEBACK_INTERVAL_DEFAULT = TimeUnit.MINUTES.toMillis(10);
 
     // LRUCache
     public class LRUCache extends LinkedHashMap<ByteBuffer, UTXO> {
@@ -280,6 +304,18 @@ public class LevelDBFullPrunedBlockStore implements FullPrunedBlockStore {
         totalStopwatch = Stopwatch.createStarted();
     }
 
+    /**
+     * Sets how much the write-back cache may hold before the committed blocks are written to leveldb, and how long
+     * they may stay in memory. A size of zero writes every block when it is committed.
+     *
+     * @param maxBytes the size of the cache in bytes
+     * @param maxAgeMillis the time after which the cache is written even if it is not full
+     */
+    public void setWriteBackCache(long maxBytes, long maxAgeMillis) {
+        this.writeBackCacheSize = maxBytes;
+        this.writeBackInterval = maxAgeMillis;
+    }
+
     private void openDB() {
         Options options = new Options();
         options.createIfMissing(true);
@@ -411,6 +447,7 @@ public class LevelDBFullPrunedBlockStore implements FullPrunedBlockStore {
     @Override
     public void close() throws BlockStoreException {
         try {
+            flush();
             db.close();
         } catch (IOException e) {
             throw new BlockStoreException("Could not close db", e);
@@ -440,15 +477,26 @@ public class LevelDBFullPrunedBlockStore implements FullPrunedBlockStore {
 
             // Scanning over iterator very fast
 
+            Set<ByteBuffer> addressKeys = new LinkedHashSet<>();
             DBIterator iterator = db.iterator(ro);
             for (iterator.seek(bb.array()); iterator.hasNext(); iterator.next()) {
-                ByteBuffer bbKey = ByteBuffer.wrap(iterator.peekNext().getKey());
-                bbKey.get(); // remove the address_hashindex byte.
-                byte[] addressKey = new byte[20];
-                bbKey.get(addressKey);
-                if (!Arrays.equals(addressKey, key.getPubKeyHash())) {
+                byte[] addressKey = iterator.peekNext().getKey();
+                if (!startsWith(addressKey, bb.array()))
                     break;
-                }
+                // skip the outputs that were spent since the last flush
+                if (writeBack.get(ByteBuffer.wrap(addressKey)) != DELETED)
+                    addressKeys.add(ByteBuffer.wrap(addressKey));
+            }
+            // and add those that are not flushed yet
+            for (Map.Entry<ByteBuffer, byte[]> entry : writeBack.tailMap(ByteBuffer.wrap(bb.array())).entrySet()) {
+                if (!startsWith(entry.getKey().array(), bb.array()))
+                    break;
+                if (entry.getValue() != DELETED)
+                    addressKeys.add(entry.getKey());
+            }
+            for (ByteBuffer addressKey : addressKeys) {
+                ByteBuffer bbKey = addressKey.duplicate();
+                bbKey.position(21); // skip the address_hashindex byte and the address.
                 byte[] hashBytes = new byte[32];
                 bbKey.get(hashBytes);
                 int index = bbKey.getInt();
@@ -816,29 +864,33 @@ public class LevelDBFullPrunedBlockStore implements FullPrunedBlockStore {
 
     private void batchPut(byte[] key, byte[] value) {
         if (autoCommit) {
-            db.put(key, value);
+            writeBackPut(ByteBuffer.wrap(key), value);
+            maybeFlush();
         } else {
             // Add this so we can get at uncommitted inserts which
             // leveldb does not support
             uncommited.put(ByteBuffer.wrap(key), value);
-            batch.put(key, value);
         }
     }
 
-    private byte[] batchGet(byte[] key) {
-        ByteBuffer bbKey = ByteBuffer.wrap(key);
-
-        // This is needed to cope with deletes that are not yet committed to db.
-        if (!autoCommit && uncommitedDeletes != null && uncommitedDeletes.contains(bbKey))
-            return null;
-
-        byte[] value = null;
-        // And this to handle uncommitted inserts (dirty reads)
+    // Returns the value of a key that is not in leveldb yet, DELETED if it
+    // was deleted, or null if it is unchanged since the last flush.
+    @Nullable
+    private byte[] pendingGet(ByteBuffer key) {
         if (!autoCommit && uncommited != null) {
-            value = uncommited.get(bbKey);
+            byte[] value = uncommited.get(key);
             if (value != null)
                 return value;
         }
+        return writeBack.get(key);
+    }
+
+    private byte[] batchGet(byte[] key) {
+        // This is needed to cope with inserts and deletes that are not yet
+        // written to db (dirty reads).
+        byte[] value = pendingGet(ByteBuffer.wrap(key));
+        if (value != null)
+            return value == DELETED ? null : value;
         try {
             value = db.get(key);
         } catch (DBException e) {
@@ -854,12 +906,58 @@ public class LevelDBFullPrunedBlockStore implements FullPrunedBlockStore {
 
     private void batchDelete(byte[] key) {
         if (!autoCommit) {
-            batch.delete(key);
-            uncommited.remove(ByteBuffer.wrap(key));
-            uncommitedDeletes.add(ByteBuffer.wrap(key));
+            uncommited.put(ByteBuffer.wrap(key), DELETED);
         } else {
-            db.delete(key);
+            writeBackPut(ByteBuffer.wrap(key), DELETED);
+            maybeFlush();
+        }
+    }
+
+    private void writeBackPut(ByteBuffer key, byte[] value) {
+        byte[] previous = writeBack.put(key, value);
+        if (previous == null)
+            writeBackBytes += key.capacity() + WRITEBACK_ENTRY_OVERHEAD;
+        else
+            writeBackBytes -= previous.length;
+        writeBackBytes += value.length;
+    }
+
+    private void maybeFlush() {
+        if (writeBackBytes >= writeBackCacheSize
+                || Utils.currentTimeMillis() - lastFlushTime >= writeBackInterval)
+            flush();
+    }
+
+    /**
+     * Writes the blocks that were committed since the last flush to leveldb in a single batch. This happens by itself
+     * when the write-back cache is full or old, and when the store is closed.
+     */
+    public void flush() {
+        if (writeBack.isEmpty())
+            return;
+        if (instrument)
+            beginMethod("flush");
+        WriteBatch batch = db.createWriteBatch();
+        try {
+            for (Map.Entry<ByteBuffer, byte[]> entry : writeBack.entrySet()) {
+                if (entry.getValue() == DELETED)
+                    batch.delete(entry.getKey().array());
+                else
+                    batch.put(entry.getKey().array(), entry.getValue());
+            }
+            db.write(batch);
+        } finally {
+            try {
+                batch.close();
+            } catch (IOException e) {
+                log.error("Error closing batch", e);
+            }
         }
+        writeBack.clear();
+        writeBackBytes = 0;
+        lastFlushTime = Utils.currentTimeMillis();
+        if (instrument)
+            endMethod("flush");
     }
 
     @Override
@@ -934,50 +1032,38 @@ public class LevelDBFullPrunedBlockStore implements FullPrunedBlockStore {
         }
         // no index is fine as will find any entry with any index...
 
-        // first check the uncommitted cache
-        int foundInCache = 0;
-        for(int i = 0; i < numOutputs; ++i) {
-            byte[] key = getTxKey(KeyType.OPENOUT_ALL, hash, i);
-            if (utxoUncommittedDeletedCache.contains(ByteBuffer.wrap(key))) {
-                // has been deleted so return false;
-                foundInCache++;
+        // first check the changes that are not in the db yet
+        int deleted = 0;
+        for (int i = 0; i < numOutputs; ++i) {
+            byte[] value = pendingGet(ByteBuffer.wrap(getTxKey(KeyType.OPENOUT_ALL, hash, i)));
+            if (value == DELETED) {
+                deleted++;
+            } else if (value != null) {
+                hasTrue++;
+                if (instrument)
+                    endMethod("hasUnspentOutputs");
+                return true;
             }
         }
 
-        if(foundInCache == numOutputs) {
+        if (deleted == numOutputs) {
             hasFalse++;
             if (instrument)
                 endMethod("hasUnspentOutputs");
             return false;
         }
 
-        //now check what has been committed
+        // now check the db, skipping outputs that were spent since
         byte[] key = getTxKey(KeyType.OPENOUT_ALL, hash);
-        byte[] subResult = new byte[key.length];
+        boolean found = false;
         DBIterator iterator = db.iterator();
-        for (iterator.seek(key); iterator.hasNext();) {
+        for (iterator.seek(key); iterator.hasNext(); iterator.next()) {
             byte[] result = iterator.peekNext().getKey();
-            System.arraycopy(result, 0, subResult, 0, subResult.length);
-            if (Arrays.equals(key, subResult)) {
-                hasTrue++;
-                try {
-                    iterator.close();
-                } catch (IOException e) {
-                    log.error("Error closing iterator", e);
-                }
-                if (instrument)
-                    endMethod("hasUnspentOutputs");
-                return true;
-            } else {
-                hasFalse++;
-                try {
-                    iterator.close();
-                } catch (IOException e) {
-                    log.error("Error closing iterator", e);
-                }
-                if (instrument)
-                    endMethod("hasUnspentOutputs");
-                return false;
+            if (!startsWith(result, key))
+                break;
+            if (pendingGet(ByteBuffer.wrap(result)) != DELETED) {
+                found = true;
+                break;
             }
         }
         try {
@@ -985,10 +1071,23 @@ public class LevelDBFullPrunedBlockStore implements FullPrunedBlockStore {
         } catch (IOException e) {
             log.error("Error closing iterator", e);
         }
-        hasFalse++;
+        if (found)
+            hasTrue++;
+        else
+            hasFalse++;
         if (instrument)
             endMethod("hasUnspentOutputs");
-        return false;
+        return found;
+    }
+
+    private static boolean startsWith(byte[] key, byte[] prefix) {
+        if (key.length < prefix.length)
+            return false;
+        for (int i = 0; i < prefix.length; i++) {
+            if (key[i] != prefix[i])
+                return false;
+        }
+        return true;
     }
 
     @Override
@@ -1019,6 +1118,7 @@ public class LevelDBFullPrunedBlockStore implements FullPrunedBlockStore {
         keyBuf.put((byte) KeyType.HEIGHT_UNDOABLEBLOCKS.ordinal());
         keyBuf.putInt(height);
 
+        List<byte[]> keys = new LinkedList<>();
         for (iterator.seek(keyBuf.array()); iterator.hasNext(); iterator.next()) {
 
             byte[] bytekey = iterator.peekNext().getKey();
@@ -1026,25 +1126,32 @@ public class LevelDBFullPrunedBlockStore implements FullPrunedBlockStore {
             buff.get(); // Just remove byte from buffer.
             int keyHeight = buff.getInt();
 
-            byte[] hashbytes = new byte[32];
-            buff.get(hashbytes, 4, 28);
-
             if (keyHeight > height)
                 break;
 
-            batchDelete(getKey(KeyType.UNDOABLEBLOCKS_ALL, hashbytes));
-            batchDelete(bytekey);
+            keys.add(bytekey);
         }
         try {
             iterator.close();
         } catch (IOException e) {
             log.error("Error closing iterator", e);
         }
+        // Blocks that are not flushed yet are only in the write-back cache.
+        for (Map.Entry<ByteBuffer, byte[]> entry : writeBack.tailMap(ByteBuffer.wrap(keyBuf.array())).entrySet()) {
+            if (!startsWith(entry.getKey().array(), keyBuf.array()))
+                break;
+            if (entry.getValue() != DELETED)
+                keys.add(entry.getKey().array());
+        }
 
+        for (byte[] bytekey : keys) {
+            byte[] hashbytes = new byte[32];
+            System.arraycopy(bytekey, 5, hashbytes, 4, 28);
+            batchDelete(getKey(KeyType.UNDOABLEBLOCKS_ALL, hashbytes));
+            batchDelete(bytekey);
+        }
     }
 
-    WriteBatch batch;
-
     @Override
     public void beginDatabaseBatchWrite() throws BlockStoreException {
         // This is often called twice in row! But they are not nested
@@ -1056,9 +1163,7 @@ public class LevelDBFullPrunedBlockStore implements FullPrunedBlockStore {
         if (instrument)
             beginMethod("beginDatabaseBatchWrite");
 
-        batch = db.createWriteBatch();
         uncommited = new HashMap<>();
-        uncommitedDeletes = new HashSet<>();
         utxoUncommittedCache = new HashMap<>();
         utxoUncommittedDeletedCache = new HashSet<>();
         autoCommit = false;
@@ -1068,12 +1173,14 @@ public class LevelDBFullPrunedBlockStore implements FullPrunedBlockStore {
 
     @Override
     public void commitDatabaseBatchWrite() throws BlockStoreException {
-        uncommited = null;
-        uncommitedDeletes = null;
         if (instrument)
             beginMethod("commitDatabaseBatchWrite");
 
-        db.write(batch);
+        // The block goes to the write-back cache, which is written to the db
+        // as a whole.
+        for (Map.Entry<ByteBuffer, byte[]> entry : uncommited.entrySet())
+            writeBackPut(entry.getKey(), entry.getValue());
+        uncommited = null;
         // order of these is not important as we only allow entry to be in one
         // or the other.
         // must update cache with uncommitted adds/deletes.
@@ -1088,14 +1195,7 @@ public class LevelDBFullPrunedBlockStore implements FullPrunedBlockStore {
         utxoUncommittedDeletedCache = null;
 
         autoCommit = true;
-
-        try {
-            batch.close();
-            batch = null;
-        } catch (IOException e) {
-            log.error("Error in db commit.", e);
-            throw new BlockStoreException("could not close batch.");
-        }
+        maybeFlush();
 
         if (instrument)
             endMethod("commitDatabaseBatchWrite");
@@ -1112,19 +1212,10 @@ public class LevelDBFullPrunedBlockStore implements FullPrunedBlockStore {
 
     @Override
     public void abortDatabaseBatchWrite() throws BlockStoreException {
-        try {
-            uncommited = null;
-            uncommitedDeletes = null;
-            utxoUncommittedCache = null;
-            utxoUncommittedDeletedCache = null;
-            autoCommit = true;
-            if (batch != null) {
-                batch.close();
-                batch = null;
-            }
-        } catch (IOException e) {
-            throw new BlockStoreException("could not close batch in abort.", e);
-        }
+        uncommited = null;
+        utxoUncommittedCache = null;
+        utxoUncommittedDeletedCache = null;
+        autoCommit = true;
     }
 
     public void resetStore() {
@@ -1133,7 +1224,8 @@ public class LevelDBFullPrunedBlockStore implements FullPrunedBlockStore {
         try {
             db.close();
             uncommited = null;
-            uncommitedDeletes = null;
+            writeBack.clear();
+            writeBackBytes = 0;
             autoCommit = true;
             bloom = new BloomFilter();
             utxoCache = new LRUCache(openOutCache, 0.75f);
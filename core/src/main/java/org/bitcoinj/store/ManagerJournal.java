@@ -0,0 +1,214 @@
+/*
+ * Copyright 2022 Dash Core Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.store;
+
+import org.bitcoinj.core.Message;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.Utils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * <p>An append-only log of the changes made to a manager since its {@link FlatDB} snapshot was written. The journal
+ * lives next to the snapshot in a file with the extension {@code .journal} and starts with the checksum of the
+ * snapshot it extends, so a journal that is left over from an older snapshot is never replayed.</p>
+ *
+ * <p>Each record is stored as {@code [uint32 length][byte type][payload][4 byte checksum]}, where the checksum is the
+ * start of the double SHA-256 of the type and payload, as in the header of a network message. Replay stops at the first
+ * record that is incomplete or fails its checksum and cuts it off, which discards a record torn by a crash.</p>
+ */
+public class ManagerJournal implements Closeable {
+    private static final Logger log = LoggerFactory.getLogger(ManagerJournal.class);
+
+    public static final String EXTENSION = ".journal";
+
+    private static final long MAGIC = 0x6c6e726aL; // "jrnl"
+    private static final int HEADER_SIZE = 4 + 32;
+    private static final int RECORD_OVERHEAD = 4 + 1 + 4;
+
+    /** Receives the records of a journal, in the order they were appended. */
+    public interface RecordHandler {
+        void onRecord(int type, byte[] payload, int offset, int length);
+    }
+
+    private final File file;
+    private RandomAccessFile raf;
+
+    private ManagerJournal(File file, RandomAccessFile raf) {
+        this.file = file;
+        this.raf = raf;
+    }
+
+    /** Returns the journal file that belongs to the given snapshot file. */
+    public static File getFile(File snapshotFile) {
+        return new File(snapshotFile.getAbsolutePath() + EXTENSION);
+    }
+
+    /** Creates an empty journal for the snapshot with the given checksum, replacing an existing file. */
+    public static ManagerJournal create(File file, Sha256Hash snapshotChecksum) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.setLength(0);
+        raf.write(header(snapshotChecksum));
+        return new ManagerJournal(file, raf);
+    }
+
+    /**
+     * Opens an existing journal and passes its records to {@code handler}. If the handler throws, the failed record
+     * and everything after it are cut off like a corrupted record.
+     *
+     * @return the journal, ready for appending, or null if there is no journal for the snapshot with the given checksum
+     */
+    @Nullable
+    public static ManagerJournal open(File file, Sha256Hash snapshotChecksum, RecordHandler handler) throws IOException {
+        if (!file.exists())
+            return null;
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            byte[] data = new byte[(int) raf.length()];
+            raf.readFully(data);
+            if (data.length < HEADER_SIZE || !Arrays.equals(header(snapshotChecksum), Arrays.copyOf(data, HEADER_SIZE))) {
+                log.info("journal {} does not belong to the current snapshot", file);
+                raf.close();
+                return null;
+            }
+
+            int cursor = HEADER_SIZE;
+            int count = 0;
+            while (cursor < data.length) {
+                int end = recordEnd(data, cursor);
+                if (end < 0) {
+                    log.warn("journal {} has a damaged record at {}, ignoring the rest", file, cursor);
+                    break;
+                }
+                int length = end - cursor - RECORD_OVERHEAD;
+                try {
+                    handler.onRecord(data[cursor + 4] & 0xff, data, cursor + 5, length);
+                } catch (RuntimeException x) {
+                    log.warn("journal {} has a record at {} that could not be applied, ignoring the rest", file, cursor, x);
+                    break;
+                }
+                cursor = end;
+                count++;
+            }
+            if (cursor < data.length)
+                raf.setLength(cursor);
+            raf.seek(cursor);
+            log.info("replayed {} records ({} bytes) from {}", count, cursor, file);
+            return new ManagerJournal(file, raf);
+        } catch (IOException | RuntimeException x) {
+            raf.close();
+            throw x;
+        }
+    }
+
+    /** Returns the end of the record starting at {@code cursor}, or -1 if it is incomplete or fails its checksum. */
+    private static int recordEnd(byte[] data, int cursor) {
+        if (data.length - cursor < RECORD_OVERHEAD)
+            return -1;
+        long length = Utils.readUint32(data, cursor);
+        if (length > Message.MAX_SIZE || length > data.length - cursor - RECORD_OVERHEAD)
+            return -1;
+        int checksumOffset = cursor + 5 + (int) length;
+        byte[] hash = Sha256Hash.hashTwice(data, cursor + 4, 1 + (int) length);
+        for (int i = 0; i < 4; i++) {
+            if (hash[i] != data[checksumOffset + i])
+                return -1;
+        }
+        return checksumOffset + 4;
+    }
+
+    private static byte[] header(Sha256Hash snapshotChecksum) {
+        byte[] header = new byte[HEADER_SIZE];
+        Utils.uint32ToByteArrayLE(MAGIC, header, 0);
+        System.arraycopy(snapshotChecksum.getBytes(), 0, header, 4, 32);
+        return header;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /** Appends a record. The record is handed to the operating system before this returns but is not synced. */
+    public synchronized void append(int type, byte[] payload) throws IOException {
+        checkArgument(type >= 0 && type <= 0xff, "type out of range: %s", type);
+        if (raf == null)
+            throw new IOException("journal " + file + " is closed");
+        byte[] record = new byte[payload.length + RECORD_OVERHEAD];
+        Utils.uint32ToByteArrayLE(payload.length, record, 0);
+        record[4] = (byte) type;
+        System.arraycopy(payload, 0, record, 5, payload.length);
+        byte[] hash = Sha256Hash.hashTwice(record, 4, 1 + payload.length);
+        System.arraycopy(hash, 0, record, 5 + payload.length, 4);
+        raf.write(record);
+    }
+
+    /** Returns the size of the journal in bytes, which is also the position the next record is appended at. */
+    public synchronized long size() throws IOException {
+        if (raf == null)
+            throw new IOException("journal " + file + " is closed");
+        return raf.length();
+    }
+
+    /**
+     * Makes this the journal of a new snapshot. The records appended from position {@code mark} on are kept, because
+     * they may have been appended while the snapshot was written and be missing from it.
+     */
+    public synchronized void compact(Sha256Hash snapshotChecksum, long mark) throws IOException {
+        if (raf == null)
+            throw new IOException("journal " + file + " is closed");
+        long end = raf.length();
+        byte[] tail = new byte[(int) Math.max(0, end - Math.max(mark, HEADER_SIZE))];
+        raf.seek(end - tail.length);
+        raf.readFully(tail);
+        raf.close();
+        raf = null;
+
+        File temp = new File(file.getAbsolutePath() + ".tmp");
+        FileOutputStream stream = new FileOutputStream(temp);
+        try {
+            stream.write(header(snapshotChecksum));
+            stream.write(tail);
+        } finally {
+            stream.close();
+        }
+        if (Utils.isWindows() && file.exists() && !file.delete())
+            throw new IOException("Failed to delete " + file + " for replacement");
+        if (!temp.renameTo(file))
+            throw new IOException("Failed to rename " + temp + " to " + file);
+        raf = new RandomAccessFile(file, "rw");
+        raf.seek(raf.length());
+        log.info("compacted {}, kept {} bytes of records", file, tail.length);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (raf != null) {
+            raf.close();
+            raf = null;
+        }
+    }
+}
@@ -79,6 +79,24 @@ public class SPVBlockStore implements BlockStore {
     protected FileLock fileLock = null;
     protected RandomAccessFile randomAccessFile = null;
     private int fileLength;
+    private final int capacity;
+    // Optional index from header hash to ring slot, so that cache misses don't have to scan the whole ring.
+    @Nullable private final HashIndex hashIndex;
+    // Record positions and hashes of the best chain, indexed by height modulo the capacity. Entries are valid for
+    // heights in [heightIndexLow, heightIndexTop], which never spans more than the capacity.
+    private final int[] heightPositions;
+    private final Sha256Hash[] heightHashes;
+    private int heightIndexLow = 0;
+    private int heightIndexTop = -1;
+    // Record positions of the most recently written headers. A re-org walks back along headers that were just put and
+    // are not in the height index yet, so this finds them without scanning the ring when there is no hash index.
+    @SuppressWarnings("serial")
+    private final LinkedHashMap<Sha256Hash, Integer> recentPositions = new LinkedHashMap<Sha256Hash, Integer>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Sha256Hash, Integer> entry) {
+            return size() > 2050;  // The same as the block cache.
+        }
+    };
 
     /**
      * Creates and initializes an SPV block store that can hold {@link #DEFAULT_CAPACITY} block headers. Will create the
@@ -99,9 +117,28 @@ public class SPVBlockStore implements BlockStore {
      * @throws BlockStoreException if something goes wrong
      */
     public SPVBlockStore(NetworkParameters params, File file, int capacity, boolean grow) throws BlockStoreException {
+        this(params, file, capacity, grow, false);
+    }
+
+    /**
+     * Creates and initializes an SPV block store that can hold a given amount of blocks. Will create the given file if
+     * it's missing. This operation will block on disk.
+     * @param file file to use for the block store
+     * @param capacity custom capacity in number of block headers
+     * @param grow whether or not to migrate an existing block store of different capacity
+     * @param useHashIndex whether to keep a hash index of the ring, making {@link #get(Sha256Hash)} constant time
+     *                     regardless of capacity at the cost of 8 bytes of heap per stored header
+     * @throws BlockStoreException if something goes wrong
+     */
+    public SPVBlockStore(NetworkParameters params, File file, int capacity, boolean grow, boolean useHashIndex)
+            throws BlockStoreException {
         checkNotNull(file);
         this.params = checkNotNull(params);
         checkArgument(capacity > 0);
+        this.capacity = capacity;
+        this.hashIndex = useHashIndex ? new HashIndex(capacity) : null;
+        this.heightPositions = new int[capacity];
+        this.heightHashes = new Sha256Hash[capacity];
         try {
             boolean exists = file.exists();
             // Set up the backing file.
@@ -145,6 +182,7 @@ public class SPVBlockStore implements BlockStore {
                 buffer.get(header);
                 if (!new String(header, StandardCharsets.US_ASCII).equals(HEADER_MAGIC))
                     throw new BlockStoreException("Header bytes do not equal " + HEADER_MAGIC);
+                rebuildIndexes();
             } else {
                 initNewStore(params);
             }
@@ -192,12 +230,22 @@ public class SPVBlockStore implements BlockStore {
                 // Wrapped around.
                 cursor = FILE_PROLOGUE_BYTES;
             }
-            buffer.position(cursor);
             Sha256Hash hash = block.getHeader().getHash();
+            if (hashIndex != null) {
+                // The record we are about to overwrite (if any) must no longer be found through the index.
+                hashIndex.remove(buffer.getInt(cursor + 28), cursor);
+            }
+            buffer.position(cursor);
             notFoundCache.remove(hash);
             buffer.put(hash.getBytes());
             block.serializeCompact(buffer);
             setRingCursor(buffer, buffer.position());
+            if (hashIndex != null)
+                hashIndex.put(buffer, hash.getBytes(), hash.hashCode(), cursor);
+            recentPositions.put(hash, cursor);
+            int height = block.getHeight();
+            if (height >= heightIndexLow && height <= heightIndexTop && hash.equals(heightHashes[height % capacity]))
+                heightPositions[height % capacity] = cursor;
             blockCache.put(hash, block);
         } finally { lock.unlock(); }
     }
@@ -216,36 +264,61 @@ public class SPVBlockStore implements BlockStore {
             if (notFoundCache.get(hash) != null)
                 return null;
 
-            // Starting from the current tip of the ring work backwards until we have either found the block or
-            // wrapped around.
-            int cursor = getRingCursor(buffer);
-            final int startingPoint = cursor;
-            final byte[] targetHashBytes = hash.getBytes();
-            byte[] scratch = new byte[32];
-            do {
-                cursor -= RECORD_SIZE;
-                if (cursor < FILE_PROLOGUE_BYTES) {
-                    // We hit the start, so wrap around.
-                    cursor = fileLength - RECORD_SIZE;
-                }
-                // Cursor is now at the start of the next record to check, so read the hash and compare it.
-                buffer.position(cursor);
-                buffer.get(scratch);
-                if (Arrays.equals(scratch, targetHashBytes)) {
-                    // Found the target.
-                    StoredBlock storedBlock = StoredBlock.deserializeCompact(params, buffer);
-                    blockCache.put(hash, storedBlock);
-                    return storedBlock;
-                }
-            } while (cursor != startingPoint);
-            // Not found.
-            notFoundCache.put(hash, NOT_FOUND_MARKER);
-            return null;
+            int position = findRecord(buffer, hash);
+            if (position < 0) {
+                notFoundCache.put(hash, NOT_FOUND_MARKER);
+                return null;
+            }
+            buffer.position(position + 32);
+            StoredBlock storedBlock = StoredBlock.deserializeCompact(params, buffer);
+            blockCache.put(hash, storedBlock);
+            return storedBlock;
         } catch (ProtocolException e) {
             throw new RuntimeException(e);  // Cannot happen.
         } finally { lock.unlock(); }
     }
 
+    /** Returns the position of the newest record with the given hash, or -1 if it is not in the ring. */
+    private int findRecord(ByteBuffer buffer, Sha256Hash hash) {
+        final byte[] targetHashBytes = hash.getBytes();
+        if (hashIndex != null)
+            return hashIndex.find(buffer, targetHashBytes, hash.hashCode());
+        Integer recentPosition = recentPositions.get(hash);
+        if (recentPosition != null && recordHasHash(buffer, recentPosition, targetHashBytes))
+            return recentPosition;
+
+        // Starting from the current tip of the ring work backwards until we have either found the block or
+        // wrapped around.
+        int cursor = getRingCursor(buffer);
+        if (cursor == fileLength) {
+            // The last record was just written, the next one goes at the start. Without this the loop never ends.
+            cursor = FILE_PROLOGUE_BYTES;
+        }
+        final int startingPoint = cursor;
+        byte[] scratch = new byte[32];
+        do {
+            cursor -= RECORD_SIZE;
+            if (cursor < FILE_PROLOGUE_BYTES) {
+                // We hit the start, so wrap around.
+                cursor = fileLength - RECORD_SIZE;
+            }
+            // Cursor is now at the start of the next record to check, so read the hash and compare it.
+            buffer.position(cursor);
+            buffer.get(scratch);
+            if (Arrays.equals(scratch, targetHashBytes))
+                return cursor;
+        } while (cursor != startingPoint);
+        return -1;
+    }
+
+    // The record may have been overwritten since its position was remembered.
+    private static boolean recordHasHash(ByteBuffer buffer, int position, byte[] hashBytes) {
+        byte[] scratch = new byte[32];
+        buffer.position(position);
+        buffer.get(scratch);
+        return Arrays.equals(scratch, hashBytes);
+    }
+
     protected StoredBlock lastChainHead = null;
 
     @Override
@@ -280,9 +353,46 @@ public class SPVBlockStore implements BlockStore {
             byte[] headHash = chainHead.getHeader().getHash().getBytes();
             buffer.position(8);
             buffer.put(headHash);
+            updateHeightIndex(buffer, chainHead);
         } finally { lock.unlock(); }
     }
 
+    /**
+     * Points the height index at the chain ending in the given head. Entries are rewritten from the head back to the
+     * point where the new chain joins the indexed one, so extending the chain costs a single entry and a re-org costs
+     * its depth.
+     */
+    private void updateHeightIndex(ByteBuffer buffer, StoredBlock chainHead) {
+        final int top = chainHead.getHeight();
+        int height = top;
+        Sha256Hash hash = chainHead.getHeader().getHash();
+        boolean joined = false;
+        for (int walked = 0; walked < capacity && height >= 0; walked++) {
+            int slot = height % capacity;
+            if (height >= heightIndexLow && height <= heightIndexTop && hash.equals(heightHashes[slot])) {
+                joined = true;
+                break;
+            }
+            int position = findRecord(buffer, hash);
+            if (position < 0)
+                break;
+            heightPositions[slot] = position;
+            heightHashes[slot] = hash;
+            hash = readPrevHash(buffer, position);
+            height--;
+        }
+        heightIndexTop = top;
+        heightIndexLow = Math.max(joined ? heightIndexLow : height + 1, top - capacity + 1);
+    }
+
+    private static Sha256Hash readPrevHash(ByteBuffer buffer, int position) {
+        byte[] prevHash = new byte[32];
+        // Skip the record hash, chain work, height and the version field of the header.
+        buffer.position(position + 32 + StoredBlock.CHAIN_WORK_BYTES + 4 + 4);
+        buffer.get(prevHash);
+        return Sha256Hash.wrapReversed(prevHash);
+    }
+
     @Override
     public void close() throws BlockStoreException {
         try {
@@ -327,11 +437,149 @@ public class SPVBlockStore implements BlockStore {
         buffer.putInt(4, newCursor);
     }
 
+    /**
+     * Populates the in-memory indexes from the ring in a single pass. Records are visited oldest first so that newer
+     * duplicates win, then the best chain is followed back from the stored chain head to fill in the height index.
+     */
+    private void rebuildIndexes() {
+        lock.lock();
+        try {
+            final int records = (fileLength - FILE_PROLOGUE_BYTES) / RECORD_SIZE;
+            Map<Sha256Hash, Integer> positions = new HashMap<>();
+            int cursor = getRingCursor(buffer);
+            for (int i = 0; i < records; i++) {
+                if (cursor >= fileLength)
+                    cursor = FILE_PROLOGUE_BYTES;
+                byte[] hashBytes = new byte[32];
+                buffer.position(cursor);
+                buffer.get(hashBytes);
+                if (!Arrays.equals(hashBytes, Sha256Hash.ZERO_HASH.getBytes())) {
+                    Sha256Hash hash = Sha256Hash.wrap(hashBytes);
+                    positions.put(hash, cursor);
+                    if (hashIndex != null)
+                        hashIndex.put(buffer, hashBytes, hash.hashCode(), cursor);
+                }
+                cursor += RECORD_SIZE;
+            }
+
+            byte[] headHash = new byte[32];
+            buffer.position(8);
+            buffer.get(headHash);
+            Sha256Hash hash = Sha256Hash.wrap(headHash);
+            Integer position = positions.get(hash);
+            for (int walked = 0; position != null && walked < capacity; walked++) {
+                int height = buffer.getInt(position + 32 + StoredBlock.CHAIN_WORK_BYTES);
+                if (walked == 0)
+                    heightIndexTop = height;
+                heightIndexLow = height;
+                heightPositions[height % capacity] = position;
+                heightHashes[height % capacity] = hash;
+                if (height == 0)
+                    break;
+                hash = readPrevHash(buffer, position);
+                position = positions.get(hash);
+            }
+        } finally { lock.unlock(); }
+    }
+
+    /**
+     * An open addressing hash table (linear probing) from header hash to the position of its record in the ring. Only
+     * the position and the last four bytes of the hash are kept on the heap, a candidate is confirmed by comparing the
+     * full hash stored in the record itself. Positions are stored off by one so that zero can mean an empty bucket.
+     */
+    private static class HashIndex {
+        private final int[] keys;
+        private final int[] positions;
+        private final int mask;
+        private final byte[] scratch = new byte[32];
+
+        HashIndex(int capacity) {
+            // Keep the load factor at or below one half.
+            int size = Integer.highestOneBit(capacity * 2 - 1) << 1;
+            keys = new int[size];
+            positions = new int[size];
+            mask = size - 1;
+        }
+
+        private boolean matches(ByteBuffer buffer, int bucket, byte[] hashBytes) {
+            buffer.position(positions[bucket] - 1);
+            buffer.get(scratch);
+            return Arrays.equals(scratch, hashBytes);
+        }
+
+        /** Returns the position of the newest record with the given hash, or -1 if there is none. */
+        int find(ByteBuffer buffer, byte[] hashBytes, int key) {
+            for (int bucket = key & mask; positions[bucket] != 0; bucket = (bucket + 1) & mask) {
+                if (keys[bucket] == key && matches(buffer, bucket, hashBytes))
+                    return positions[bucket] - 1;
+            }
+            return -1;
+        }
+
+        /** Points the given hash at the record written at position, replacing an older record of the same hash. */
+        void put(ByteBuffer buffer, byte[] hashBytes, int key, int position) {
+            int bucket = key & mask;
+            while (positions[bucket] != 0) {
+                if (keys[bucket] == key && matches(buffer, bucket, hashBytes))
+                    break;
+                bucket = (bucket + 1) & mask;
+            }
+            keys[bucket] = key;
+            positions[bucket] = position + 1;
+        }
+
+        /** Removes the entry pointing at the record at position, if there is one. */
+        void remove(int key, int position) {
+            int bucket = key & mask;
+            while (positions[bucket] != position + 1) {
+                if (positions[bucket] == 0)
+                    return;
+                bucket = (bucket + 1) & mask;
+            }
+            // Shift later entries of the probe sequence back so that lookups don't stop at the hole.
+            int hole = bucket;
+            int next = hole;
+            while (true) {
+                next = (next + 1) & mask;
+                if (positions[next] == 0)
+                    break;
+                int home = keys[next] & mask;
+                boolean reachable = hole <= next ? (hole < home && home <= next) : (hole < home || home <= next);
+                if (reachable)
+                    continue;
+                keys[hole] = keys[next];
+                positions[hole] = positions[next];
+                hole = next;
+            }
+            positions[hole] = 0;
+        }
+    }
+
     @Nullable
     public StoredBlock get(int blockHeight) throws BlockStoreException {
+        final MappedByteBuffer buffer = this.buffer;
+        if (buffer == null) throw new BlockStoreException("Store closed");
 
         lock.lock();
         try {
+            if (blockHeight >= heightIndexLow && blockHeight <= heightIndexTop) {
+                int slot = blockHeight % capacity;
+                Sha256Hash hash = heightHashes[slot];
+                StoredBlock cacheHit = blockCache.get(hash);
+                if (cacheHit != null)
+                    return cacheHit;
+                // The record may have been overwritten since it was indexed, so check it is still the same block.
+                int position = heightPositions[slot];
+                byte[] scratch = new byte[32];
+                buffer.position(position);
+                buffer.get(scratch);
+                if (Arrays.equals(scratch, hash.getBytes())) {
+                    StoredBlock storedBlock = StoredBlock.deserializeCompact(params, buffer);
+                    blockCache.put(hash, storedBlock);
+                    return storedBlock;
+                }
+            }
+
             StoredBlock cursor = getChainHead();
 
             if(cursor.getHeight() < blockHeight)
@@ -346,6 +594,8 @@ public class SPVBlockStore implements BlockStore {
             }
 
             return null;
+        } catch (ProtocolException e) {
+            throw new RuntimeException(e);  // Cannot happen.
         } finally { lock.unlock(); }
     }
 
@@ -18,25 +18,40 @@ package org.bitcoinj.utils;
 
 import static com.google.common.base.Preconditions.checkArgument;
 
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.Uninterruptibles;
 import org.bitcoinj.core.Block;
 import org.bitcoinj.core.NetworkParameters;
 import org.bitcoinj.core.ProtocolException;
 import org.bitcoinj.core.Utils;
 
+import javax.annotation.Nullable;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
 import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
 
 /**
  * <p>This class reads block files stored in the Dash Core format. This is simply a way to concatenate
  * blocks together. Importing block data with this tool can be a lot faster than syncing over the network, if you
  * have the files available.</p>
+ *
+ * <p>The files are memory mapped and the framing of the blocks is scanned ahead of the caller. The blocks are parsed
+ * and hashed on an executor, up to a prefetch depth of blocks at once, and returned in the order of the files, so the
+ * import is not held up by the parser. Blocks that cannot be parsed are skipped.</p>
  * 
  * <p>In order to comply with {@link Iterator}, this class swallows a lot of {@link IOException}s, which may result in a few
  * blocks being missed followed by a huge set of orphan blocks.</p>
@@ -84,26 +99,67 @@ public class BlockFileLoader implements Iterable<Block>, Iterator<Block> {
         return defaultBlocksDir;
     }
 
-    private Iterator<File> fileIt;
+    /** How many blocks are parsed ahead of the caller by default. */
+    public static final int DEFAULT_PREFETCH_DEPTH = 64;
+
+    private static ExecutorService defaultExecutor;
+
+    /** Returns a shared executor with one daemon thread per available processor, which parses the blocks. */
+    public static synchronized ExecutorService getDefaultExecutor() {
+        if (defaultExecutor == null)
+            defaultExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+                    new ContextPropagatingThreadFactory("BlockFileLoader"));
+        return defaultExecutor;
+    }
+
+    private final Iterator<File> fileIt;
+    private final NetworkParameters params;
+    private final Executor executor;
+    private final int prefetchDepth;
+    private final int magic;
+    // the rest of the current file, or null to go on with the next file
+    @Nullable private ByteBuffer buffer = null;
     private File file = null;
-    private FileInputStream currentFileStream = null;
+    private final ArrayDeque<FutureTask<Block>> prefetched = new ArrayDeque<>();
     private Block nextBlock = null;
-    private NetworkParameters params;
 
     public BlockFileLoader(NetworkParameters params, File blocksDir) {
         this(params, getReferenceClientBlockFileList(blocksDir));
     }
 
     public BlockFileLoader(NetworkParameters params, List<File> files) {
-        fileIt = files.iterator();
+        this(params, files, getDefaultExecutor(), DEFAULT_PREFETCH_DEPTH);
+    }
+
+    /**
+     * @param executor parses the blocks
+     * @param prefetchDepth how many blocks may be parsed ahead of the caller, which bounds the memory that is used
+     */
+    public BlockFileLoader(NetworkParameters params, List<File> files, Executor executor, int prefetchDepth) {
+        checkArgument(prefetchDepth > 0, "prefetchDepth must be positive: %s", prefetchDepth);
+        this.fileIt = files.iterator();
         this.params = params;
+        this.executor = executor;
+        this.prefetchDepth = prefetchDepth;
+        // the magic is written in network byte order, while the buffer reads little endian
+        this.magic = Integer.reverseBytes((int) params.getPacketMagic());
     }
     
     @Override
     public boolean hasNext() {
-        if (nextBlock == null)
-            loadNextBlock();
-        return nextBlock != null;
+        while (nextBlock == null) {
+            prefetch();
+            FutureTask<Block> task = prefetched.poll();
+            if (task == null)
+                return false;
+            try {
+                nextBlock = Uninterruptibles.getUninterruptibly(task);
+            } catch (ExecutionException e) {
+                Throwables.throwIfUnchecked(e.getCause());
+                throw new RuntimeException(e.getCause());
+            }
+        }
+        return true;
     }
 
     @Override
@@ -114,75 +170,81 @@ public class BlockFileLoader implements Iterable<Block>, Iterator<Block> {
         nextBlock = null;
         return next;
     }
-    
-    private void loadNextBlock() {
-        while (true) {
-            try {
-                if (!fileIt.hasNext() && (currentFileStream == null || currentFileStream.available() < 1))
-                    break;
-            } catch (IOException e) {
-                currentFileStream = null;
-                if (!fileIt.hasNext())
-                    break;
-            }
-            while (true) {
-                try {
-                    if (currentFileStream != null && currentFileStream.available() > 0)
-                        break;
-                } catch (IOException e1) {
-                    currentFileStream = null;
-                }
-                if (!fileIt.hasNext()) {
-                    nextBlock = null;
-                    currentFileStream = null;
-                    return;
-                }
-                file = fileIt.next();
-                try {
-                    currentFileStream = new FileInputStream(file);
-                } catch (FileNotFoundException e) {
-                    currentFileStream = null;
-                }
-            }
-            try {
-                int nextChar = currentFileStream.read();
-                while (nextChar != -1) {
-                    if (nextChar != ((params.getPacketMagic() >>> 24) & 0xff)) {
-                        nextChar = currentFileStream.read();
-                        continue;
-                    }
-                    nextChar = currentFileStream.read();
-                    if (nextChar != ((params.getPacketMagic() >>> 16) & 0xff))
-                        continue;
-                    nextChar = currentFileStream.read();
-                    if (nextChar != ((params.getPacketMagic() >>> 8) & 0xff))
-                        continue;
-                    nextChar = currentFileStream.read();
-                    if (nextChar == (params.getPacketMagic() & 0xff))
-                        break;
-                }
-                byte[] bytes = new byte[4];
-                currentFileStream.read(bytes, 0, 4);
-                long size = Utils.readUint32BE(Utils.reverseBytes(bytes), 0);
-                // We allow larger than MAX_BLOCK_SIZE because test code uses this as well.
-                if (size > Block.MAX_BLOCK_SIZE*2 || size <= 0)
-                    continue;
-                bytes = new byte[(int) size];
-                currentFileStream.read(bytes, 0, (int) size);
+
+    private void prefetch() {
+        while (prefetched.size() < prefetchDepth) {
+            final byte[] bytes = nextBlockBytes();
+            if (bytes == null)
+                return;
+            final File blockFile = file;
+            FutureTask<Block> task = new FutureTask<>(() -> {
+                Block block;
                 try {
-                    nextBlock = params.getDefaultSerializer().makeBlock(bytes);
+                    block = params.getDefaultSerializer().makeBlock(bytes);
                 } catch (ProtocolException e) {
-                    nextBlock = null;
-                    continue;
+                    return null;
                 } catch (Exception e) {
-                    throw new RuntimeException("unexpected problem with block in " + file, e);
+                    throw new RuntimeException("unexpected problem with block in " + blockFile, e);
                 }
-                break;
-            } catch (IOException e) {
-                currentFileStream = null;
+                // the hash is cached by the block, so the caller does not have to compute it
+                block.getHash();
+                return block;
+            });
+            prefetched.add(task);
+            executor.execute(task);
+        }
+    }
+
+    // Returns the bytes of the next block in the files, or null if there are no more.
+    @Nullable
+    private byte[] nextBlockBytes() {
+        while (true) {
+            if (buffer == null || !buffer.hasRemaining()) {
+                if (!fileIt.hasNext())
+                    return null;
+                file = fileIt.next();
+                buffer = map(file);
                 continue;
             }
+            if (!skipToMagic(buffer) || buffer.remaining() < 4) {
+                buffer = null;
+                continue;
+            }
+            long size = buffer.getInt() & 0xffffffffL;
+            // We allow larger than MAX_BLOCK_SIZE because test code uses this as well.
+            if (size > Block.MAX_BLOCK_SIZE*2 || size <= 0)
+                continue;
+            if (size > buffer.remaining()) {
+                // the file ends in the middle of the block
+                buffer = null;
+                continue;
+            }
+            byte[] bytes = new byte[(int) size];
+            buffer.get(bytes);
+            return bytes;
+        }
+    }
+
+    @Nullable
+    private static ByteBuffer map(File file) {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            // block files are much smaller than the 2 GB that can be mapped at once
+            long size = Math.min(channel.size(), Integer.MAX_VALUE);
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, size).order(ByteOrder.LITTLE_ENDIAN);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    // Moves the buffer past the next magic bytes, returns false if there are none.
+    private boolean skipToMagic(ByteBuffer buffer) {
+        for (int i = buffer.position(); i + 4 <= buffer.limit(); i++) {
+            if (buffer.getInt(i) == magic) {
+                buffer.position(i + 4);
+                return true;
+            }
         }
+        return false;
     }
 
     @Override
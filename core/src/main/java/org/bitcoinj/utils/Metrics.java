@@ -0,0 +1,316 @@
+/*
+ * Copyright 2022 Dash Core Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.utils;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * <p>A registry of counters, gauges and histograms that show what the library spends its time on during sync, for
+ * example how many bytes each peer sent or how long adding a block to the chain took. The values can be read from code,
+ * or written in the Prometheus text format with {@link #writePrometheus(Writer)} for a scraper to collect.</p>
+ *
+ * <p>A metric is identified by its name and its labels, which are given as pairs of label names and values. Asking for
+ * the same name and labels again returns the same instance, so a metric can be looked up where it is used or kept in a
+ * field. Following Prometheus conventions, durations are in seconds and sizes are in bytes. The library records into
+ * the registry returned by {@link #get()}. Instances are safe for use by multiple threads.</p>
+ */
+public class Metrics {
+    /** Buckets for durations, in seconds, from half a millisecond to ten seconds. */
+    public static final double[] DEFAULT_SECONDS_BUCKETS = {
+            0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10
+    };
+
+    private static final Metrics defaultMetrics = new Metrics();
+
+    private final ConcurrentMap<String, Family> families = new ConcurrentHashMap<>();
+
+    /** Returns the registry the library records into. */
+    public static Metrics get() {
+        return defaultMetrics;
+    }
+
+    private enum Type {
+        COUNTER, GAUGE, HISTOGRAM
+    }
+
+    // all metrics with the same name, which differ in their labels
+    private static class Family {
+        final String name;
+        final String help;
+        final Type type;
+        final double[] buckets;
+        final ConcurrentMap<List<String>, Object> children = new ConcurrentHashMap<>();
+
+        Family(String name, String help, Type type, double[] buckets) {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+            this.buckets = buckets;
+        }
+    }
+
+    /** A value that only goes up, like the number of messages received. */
+    public static class Counter {
+        private final LongAdder value = new LongAdder();
+
+        public void inc() {
+            value.increment();
+        }
+
+        public void inc(long amount) {
+            checkArgument(amount >= 0, "counters only go up: %s", amount);
+            value.add(amount);
+        }
+
+        public long get() {
+            return value.sum();
+        }
+    }
+
+    /** A value that goes up and down, like the height of the chain. */
+    public static class Gauge {
+        private final AtomicLong bits = new AtomicLong(Double.doubleToLongBits(0));
+
+        public void set(double value) {
+            bits.set(Double.doubleToLongBits(value));
+        }
+
+        public void add(double amount) {
+            while (true) {
+                long current = bits.get();
+                long next = Double.doubleToLongBits(Double.longBitsToDouble(current) + amount);
+                if (bits.compareAndSet(current, next))
+                    return;
+            }
+        }
+
+        public double get() {
+            return Double.longBitsToDouble(bits.get());
+        }
+    }
+
+    /** Counts observed values, like durations, in buckets, and keeps their number and sum. */
+    public static class Histogram {
+        private final double[] buckets;
+        // the last slot counts the values above the largest bucket
+        private final AtomicLongArray counts;
+        private final DoubleAdder sum = new DoubleAdder();
+
+        private Histogram(double[] buckets) {
+            this.buckets = buckets;
+            this.counts = new AtomicLongArray(buckets.length + 1);
+        }
+
+        public void observe(double value) {
+            int i = Arrays.binarySearch(buckets, value);
+            counts.incrementAndGet(i >= 0 ? i : -i - 1);
+            sum.add(value);
+        }
+
+        /** Observes a duration that was measured with {@link System#nanoTime()}, in seconds. */
+        public void observeNanos(long nanos) {
+            observe(nanos / 1e9);
+        }
+
+        /** Returns the upper bounds of the buckets. */
+        public double[] getBuckets() {
+            return buckets.clone();
+        }
+
+        /**
+         * Returns how many values were at most the upper bound of each bucket. The last element is the number of all
+         * values.
+         */
+        public long[] getCumulativeCounts() {
+            long[] result = new long[counts.length()];
+            long total = 0;
+            for (int i = 0; i < result.length; i++) {
+                total += counts.get(i);
+                result[i] = total;
+            }
+            return result;
+        }
+
+        public long getCount() {
+            long total = 0;
+            for (int i = 0; i < counts.length(); i++)
+                total += counts.get(i);
+            return total;
+        }
+
+        public double getSum() {
+            return sum.sum();
+        }
+    }
+
+    /** Returns the counter with the given name and label pairs, creating it if needed. */
+    public Counter counter(String name, String help, String... labels) {
+        return (Counter) child(name, help, Type.COUNTER, null, labels);
+    }
+
+    /** Returns the gauge with the given name and label pairs, creating it if needed. */
+    public Gauge gauge(String name, String help, String... labels) {
+        return (Gauge) child(name, help, Type.GAUGE, null, labels);
+    }
+
+    /** Returns the histogram of durations with the given name and label pairs, see {@link #DEFAULT_SECONDS_BUCKETS}. */
+    public Histogram histogram(String name, String help, String... labels) {
+        return histogram(name, help, DEFAULT_SECONDS_BUCKETS, labels);
+    }
+
+    /**
+     * Returns the histogram with the given name and label pairs, creating it if needed. The buckets are set when the
+     * first histogram of that name is created.
+     */
+    public Histogram histogram(String name, String help, double[] buckets, String... labels) {
+        return (Histogram) child(name, help, Type.HISTOGRAM, buckets, labels);
+    }
+
+    private Object child(String name, String help, Type type, double[] buckets, String[] labels) {
+        checkArgument(labels.length % 2 == 0, "labels must be name and value pairs: %s", Arrays.toString(labels));
+        Family family = families.get(name);
+        if (family == null) {
+            double[] sortedBuckets = null;
+            if (buckets != null) {
+                sortedBuckets = buckets.clone();
+                Arrays.sort(sortedBuckets);
+            }
+            Family newFamily = new Family(name, help, type, sortedBuckets);
+            family = families.putIfAbsent(name, newFamily);
+            if (family == null)
+                family = newFamily;
+        }
+        checkArgument(family.type == type, "%s is a %s", name, family.type);
+        List<String> key = Arrays.asList(labels);
+        Object child = family.children.get(key);
+        if (child == null) {
+            Object newChild = type == Type.COUNTER ? new Counter() :
+                    type == Type.GAUGE ? new Gauge() : new Histogram(family.buckets);
+            child = family.children.putIfAbsent(key, newChild);
+            if (child == null)
+                child = newChild;
+        }
+        return child;
+    }
+
+    /** Forgets all metrics that have the given label, for example those of a peer that disconnected. */
+    public void removeAll(String labelName, String labelValue) {
+        for (Family family : families.values()) {
+            for (List<String> labels : family.children.keySet()) {
+                for (int i = 0; i < labels.size(); i += 2) {
+                    if (labels.get(i).equals(labelName) && labels.get(i + 1).equals(labelValue)) {
+                        family.children.remove(labels);
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    /** Writes all metrics in the Prometheus text exposition format, ordered by name. */
+    public void writePrometheus(Writer writer) throws IOException {
+        List<String> names = new ArrayList<>(families.keySet());
+        Collections.sort(names);
+        for (String name : names) {
+            Family family = families.get(name);
+            if (family == null || family.children.isEmpty())
+                continue;
+            writer.write("# HELP " + name + " " + escapeHelp(family.help) + "\n");
+            writer.write("# TYPE " + name + " " + family.type.name().toLowerCase() + "\n");
+            for (Map.Entry<List<String>, Object> entry : family.children.entrySet()) {
+                List<String> labels = entry.getKey();
+                Object child = entry.getValue();
+                if (child instanceof Counter) {
+                    writer.write(name + formatLabels(labels, null) + " " + ((Counter) child).get() + "\n");
+                } else if (child instanceof Gauge) {
+                    writer.write(name + formatLabels(labels, null) + " " + formatValue(((Gauge) child).get()) + "\n");
+                } else {
+                    Histogram histogram = (Histogram) child;
+                    long[] cumulative = histogram.getCumulativeCounts();
+                    for (int i = 0; i < cumulative.length; i++) {
+                        String le = i < family.buckets.length ? formatValue(family.buckets[i]) : "+Inf";
+                        writer.write(name + "_bucket" + formatLabels(labels, le) + " " + cumulative[i] + "\n");
+                    }
+                    writer.write(name + "_sum" + formatLabels(labels, null) + " " + formatValue(histogram.getSum()) + "\n");
+                    writer.write(name + "_count" + formatLabels(labels, null) + " " + cumulative[cumulative.length - 1] + "\n");
+                }
+            }
+        }
+        writer.flush();
+    }
+
+    /** Returns all metrics in the Prometheus text exposition format. */
+    public String toPrometheusText() {
+        StringWriter writer = new StringWriter();
+        try {
+            writePrometheus(writer);
+        } catch (IOException e) {
+            throw new RuntimeException(e); // Cannot happen.
+        }
+        return writer.toString();
+    }
+
+    private static String formatLabels(List<String> labels, String le) {
+        if (labels.isEmpty() && le == null)
+            return "";
+        StringBuilder builder = new StringBuilder("{");
+        for (int i = 0; i < labels.size(); i += 2) {
+            if (i > 0)
+                builder.append(',');
+            builder.append(labels.get(i)).append("=\"").append(escapeLabelValue(labels.get(i + 1))).append('"');
+        }
+        if (le != null) {
+            if (!labels.isEmpty())
+                builder.append(',');
+            builder.append("le=\"").append(le).append('"');
+        }
+        return builder.append('}').toString();
+    }
+
+    private static String formatValue(double value) {
+        if (Double.isNaN(value))
+            return "NaN";
+        if (Double.isInfinite(value))
+            return value > 0 ? "+Inf" : "-Inf";
+        if (value == Math.rint(value) && Math.abs(value) < 1e15)
+            return Long.toString((long) value);
+        return Double.toString(value);
+    }
+
+    private static String escapeHelp(String help) {
+        return help.replace("\\", "\\\\").replace("\n", "\\n");
+    }
+
+    private static String escapeLabelValue(String value) {
+        return escapeHelp(value).replace("\"", "\\\"");
+    }
+}
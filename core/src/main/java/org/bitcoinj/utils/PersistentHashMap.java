@@ -0,0 +1,379 @@
+/*
+ * Copyright 2022 Dash Core Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.utils;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * <p>An immutable hash map whose versions share structure. {@link #plus(Object, Object)} and {@link #minus(Object)}
+ * return a new map and leave this one untouched, copying only the nodes on the path to the changed entry. The entries
+ * are kept in a hash array mapped trie of 32 way nodes, so a change costs O(log32 n) time and memory no matter how
+ * many versions of the map are alive.</p>
+ *
+ * <p>The {@link Map} mutators throw {@link UnsupportedOperationException}. Null keys and values are not supported
+ * and the iteration order is unspecified.</p>
+ */
+public final class PersistentHashMap<K, V> extends AbstractMap<K, V> {
+    private static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+    // 7 levels of bitmap nodes cover a 32 bit hash, plus one for collision nodes
+    private static final int MAX_DEPTH = 8;
+
+    private static final PersistentHashMap<Object, Object> EMPTY = new PersistentHashMap<Object, Object>(null, 0);
+
+    private final Node root;
+    private final int size;
+
+    private PersistentHashMap(Node root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <K, V> PersistentHashMap<K, V> empty() {
+        return (PersistentHashMap<K, V>) EMPTY;
+    }
+
+    /** Returns a map with the entries of {@code map}. */
+    public static <K, V> PersistentHashMap<K, V> copyOf(Map<? extends K, ? extends V> map) {
+        PersistentHashMap<K, V> result = empty();
+        for (Map.Entry<? extends K, ? extends V> entry : map.entrySet())
+            result = result.plus(entry.getKey(), entry.getValue());
+        return result;
+    }
+
+    /** Returns a map that maps {@code key} to {@code value} and is otherwise equal to this one. */
+    public PersistentHashMap<K, V> plus(K key, V value) {
+        checkNotNull(key);
+        checkNotNull(value);
+        Leaf leaf = new Leaf(hash(key), key, value);
+        boolean[] added = new boolean[1];
+        Node newRoot = root == null ? BitmapNode.EMPTY.put(leaf, 0, added) : root.put(leaf, 0, added);
+        if (newRoot == root)
+            return this;
+        return new PersistentHashMap<K, V>(newRoot, added[0] ? size + 1 : size);
+    }
+
+    /** Returns a map without {@code key} that is otherwise equal to this one. */
+    public PersistentHashMap<K, V> minus(Object key) {
+        if (root == null || key == null)
+            return this;
+        Node newRoot = root.remove(hash(key), 0, key);
+        if (newRoot == root)
+            return this;
+        return newRoot == null ? PersistentHashMap.<K, V>empty() : new PersistentHashMap<K, V>(newRoot, size - 1);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V get(Object key) {
+        if (root == null || key == null)
+            return null;
+        Leaf leaf = root.find(hash(key), 0, key);
+        return leaf == null ? null : (V) leaf.getValue();
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Set<Map.Entry<K, V>> entrySet() {
+        return new AbstractSet<Map.Entry<K, V>>() {
+            @Override
+            public Iterator<Map.Entry<K, V>> iterator() {
+                return new EntryIterator<K, V>(root);
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    private static int hash(Object key) {
+        int h = key.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    private static int bit(int hash, int shift) {
+        return 1 << ((hash >>> shift) & MASK);
+    }
+
+    @SuppressWarnings("serial")
+    private static final class Leaf extends AbstractMap.SimpleImmutableEntry<Object, Object> {
+        final int hash;
+
+        Leaf(int hash, Object key, Object value) {
+            super(key, value);
+            this.hash = hash;
+        }
+    }
+
+    /** A trie node. {@link #slots} holds {@link Leaf} and {@link Node} objects and is never modified. */
+    private abstract static class Node {
+        final Object[] slots;
+
+        Node(Object[] slots) {
+            this.slots = slots;
+        }
+
+        abstract Leaf find(int hash, int shift, Object key);
+
+        /** Returns this node if nothing changed. Sets {@code added[0]} if the key was not present. */
+        abstract Node put(Leaf leaf, int shift, boolean[] added);
+
+        /** Returns this node if the key was not present and null if the node became empty. */
+        abstract Node remove(int hash, int shift, Object key);
+
+        static Object[] replace(Object[] slots, int index, Object value) {
+            Object[] result = slots.clone();
+            result[index] = value;
+            return result;
+        }
+
+        static Object[] insert(Object[] slots, int index, Object value) {
+            Object[] result = new Object[slots.length + 1];
+            System.arraycopy(slots, 0, result, 0, index);
+            result[index] = value;
+            System.arraycopy(slots, index, result, index + 1, slots.length - index);
+            return result;
+        }
+
+        static Object[] delete(Object[] slots, int index) {
+            Object[] result = new Object[slots.length - 1];
+            System.arraycopy(slots, 0, result, 0, index);
+            System.arraycopy(slots, index + 1, result, index, result.length - index);
+            return result;
+        }
+
+        /** Returns a node holding two leaves whose hashes agree below {@code shift}. */
+        static Node pair(Leaf first, Leaf second, int shift) {
+            if (first.hash == second.hash)
+                return new CollisionNode(first.hash, new Object[] {first, second});
+            boolean[] added = new boolean[1];
+            return BitmapNode.EMPTY.put(first, shift, added).put(second, shift, added);
+        }
+    }
+
+    /** Holds a slot for every 5 bit hash chunk whose bit is set in {@link #bitmap}. */
+    private static final class BitmapNode extends Node {
+        static final BitmapNode EMPTY = new BitmapNode(0, new Object[0]);
+
+        final int bitmap;
+
+        BitmapNode(int bitmap, Object[] slots) {
+            super(slots);
+            this.bitmap = bitmap;
+        }
+
+        private int index(int bit) {
+            return Integer.bitCount(bitmap & (bit - 1));
+        }
+
+        @Override
+        Leaf find(int hash, int shift, Object key) {
+            int bit = bit(hash, shift);
+            if ((bitmap & bit) == 0)
+                return null;
+            Object slot = slots[index(bit)];
+            if (slot instanceof Node)
+                return ((Node) slot).find(hash, shift + BITS, key);
+            Leaf leaf = (Leaf) slot;
+            return leaf.hash == hash && leaf.getKey().equals(key) ? leaf : null;
+        }
+
+        @Override
+        Node put(Leaf leaf, int shift, boolean[] added) {
+            int bit = bit(leaf.hash, shift);
+            int index = index(bit);
+            if ((bitmap & bit) == 0) {
+                added[0] = true;
+                return new BitmapNode(bitmap | bit, insert(slots, index, leaf));
+            }
+            Object slot = slots[index];
+            if (slot instanceof Node) {
+                Node child = (Node) slot;
+                Node newChild = child.put(leaf, shift + BITS, added);
+                return newChild == child ? this : new BitmapNode(bitmap, replace(slots, index, newChild));
+            }
+            Leaf existing = (Leaf) slot;
+            if (existing.hash == leaf.hash && existing.getKey().equals(leaf.getKey())) {
+                if (existing.getValue() == leaf.getValue())
+                    return this;
+                return new BitmapNode(bitmap, replace(slots, index, leaf));
+            }
+            added[0] = true;
+            return new BitmapNode(bitmap, replace(slots, index, pair(existing, leaf, shift + BITS)));
+        }
+
+        @Override
+        Node remove(int hash, int shift, Object key) {
+            int bit = bit(hash, shift);
+            if ((bitmap & bit) == 0)
+                return this;
+            int index = index(bit);
+            Object slot = slots[index];
+            if (slot instanceof Node) {
+                Node child = (Node) slot;
+                Node newChild = child.remove(hash, shift + BITS, key);
+                if (newChild == child)
+                    return this;
+                if (newChild == null)
+                    return without(bit, index);
+                // a child left with a single leaf is pulled up, which keeps the trie as shallow as a fresh one
+                if (newChild.slots.length == 1 && newChild.slots[0] instanceof Leaf)
+                    return new BitmapNode(bitmap, replace(slots, index, newChild.slots[0]));
+                return new BitmapNode(bitmap, replace(slots, index, newChild));
+            }
+            Leaf leaf = (Leaf) slot;
+            if (leaf.hash == hash && leaf.getKey().equals(key))
+                return without(bit, index);
+            return this;
+        }
+
+        private Node without(int bit, int index) {
+            if (slots.length == 1)
+                return null;
+            return new BitmapNode(bitmap & ~bit, delete(slots, index));
+        }
+    }
+
+    /** Holds leaves with identical hashes. */
+    private static final class CollisionNode extends Node {
+        final int hash;
+
+        CollisionNode(int hash, Object[] slots) {
+            super(slots);
+            this.hash = hash;
+        }
+
+        private int indexOf(Object key) {
+            for (int i = 0; i < slots.length; i++) {
+                if (((Leaf) slots[i]).getKey().equals(key))
+                    return i;
+            }
+            return -1;
+        }
+
+        @Override
+        Leaf find(int hash, int shift, Object key) {
+            if (hash != this.hash)
+                return null;
+            int index = indexOf(key);
+            return index < 0 ? null : (Leaf) slots[index];
+        }
+
+        @Override
+        Node put(Leaf leaf, int shift, boolean[] added) {
+            if (leaf.hash != hash) {
+                // the hashes only agree above this level, move this node one level down
+                BitmapNode parent = new BitmapNode(bit(hash, shift), new Object[] {this});
+                return parent.put(leaf, shift, added);
+            }
+            int index = indexOf(leaf.getKey());
+            if (index < 0) {
+                added[0] = true;
+                return new CollisionNode(hash, insert(slots, slots.length, leaf));
+            }
+            if (((Leaf) slots[index]).getValue() == leaf.getValue())
+                return this;
+            return new CollisionNode(hash, replace(slots, index, leaf));
+        }
+
+        @Override
+        Node remove(int hash, int shift, Object key) {
+            if (hash != this.hash)
+                return this;
+            int index = indexOf(key);
+            if (index < 0)
+                return this;
+            if (slots.length == 1)
+                return null;
+            return new CollisionNode(hash, delete(slots, index));
+        }
+    }
+
+    private static final class EntryIterator<K, V> implements Iterator<Map.Entry<K, V>> {
+        private final Object[][] stack = new Object[MAX_DEPTH + 1][];
+        private final int[] positions = new int[MAX_DEPTH + 1];
+        private int depth;
+        private Leaf next;
+
+        EntryIterator(Node root) {
+            if (root != null) {
+                stack[0] = root.slots;
+                advance();
+            } else {
+                depth = -1;
+            }
+        }
+
+        private void advance() {
+            next = null;
+            while (depth >= 0) {
+                Object[] slots = stack[depth];
+                if (positions[depth] == slots.length) {
+                    depth--;
+                    continue;
+                }
+                Object slot = slots[positions[depth]++];
+                if (slot instanceof Leaf) {
+                    next = (Leaf) slot;
+                    return;
+                }
+                depth++;
+                stack[depth] = ((Node) slot).slots;
+                positions[depth] = 0;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Map.Entry<K, V> next() {
+            if (next == null)
+                throw new NoSuchElementException();
+            Leaf result = next;
+            advance();
+            return (Map.Entry<K, V>) (Map.Entry<?, ?>) result;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -157,6 +157,14 @@ public class Threading {
             return factory.newReentrantLock(name);
     }
 
+    /**
+     * Returns a lock like {@link #lock(String)} that records in the given histogram how long it was held, from the
+     * time it was taken until it was released completely.
+     */
+    public static ReentrantLock timedLock(String name, Metrics.Histogram holdTime) {
+        return new TimedReentrantLock(lock(name), holdTime);
+    }
+
     public static void warnOnLockCycles() {
         setPolicy(CycleDetectingLockFactory.Policies.WARN);
     }
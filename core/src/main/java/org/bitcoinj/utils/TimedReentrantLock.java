@@ -0,0 +1,115 @@
+/*
+ * Copyright 2022 Dash Core Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.utils;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A lock that passes everything to another lock, usually a cycle detecting one from {@link Threading#lock(String)},
+ * and records how long the lock was held each time its owner released it completely. See
+ * {@link Threading#timedLock(String, Metrics.Histogram)}. The methods that {@link ReentrantLock} does not let
+ * subclasses override, like {@link #getQueueLength()}, describe this unused lock rather than the one it passes to.
+ */
+@SuppressWarnings("serial")
+class TimedReentrantLock extends ReentrantLock {
+    private final ReentrantLock lock;
+    private final Metrics.Histogram holdTime;
+    // only used by the thread that holds the lock
+    private long lockedNanos;
+
+    TimedReentrantLock(ReentrantLock lock, Metrics.Histogram holdTime) {
+        this.lock = lock;
+        this.holdTime = holdTime;
+    }
+
+    private void locked() {
+        if (lock.getHoldCount() == 1)
+            lockedNanos = System.nanoTime();
+    }
+
+    @Override
+    public void lock() {
+        lock.lock();
+        locked();
+    }
+
+    @Override
+    public void lockInterruptibly() throws InterruptedException {
+        lock.lockInterruptibly();
+        locked();
+    }
+
+    @Override
+    public boolean tryLock() {
+        if (!lock.tryLock())
+            return false;
+        locked();
+        return true;
+    }
+
+    @Override
+    public boolean tryLock(long timeout, TimeUnit unit) throws InterruptedException {
+        if (!lock.tryLock(timeout, unit))
+            return false;
+        locked();
+        return true;
+    }
+
+    @Override
+    public void unlock() {
+        if (lock.getHoldCount() == 1)
+            holdTime.observeNanos(System.nanoTime() - lockedNanos);
+        lock.unlock();
+    }
+
+    @Override
+    public Condition newCondition() {
+        return lock.newCondition();
+    }
+
+    @Override
+    public int getHoldCount() {
+        return lock.getHoldCount();
+    }
+
+    @Override
+    public boolean isHeldByCurrentThread() {
+        return lock.isHeldByCurrentThread();
+    }
+
+    @Override
+    public boolean isLocked() {
+        return lock.isLocked();
+    }
+
+    @Override
+    public boolean hasWaiters(Condition condition) {
+        return lock.hasWaiters(condition);
+    }
+
+    @Override
+    public int getWaitQueueLength(Condition condition) {
+        return lock.getWaitQueueLength(condition);
+    }
+
+    @Override
+    public String toString() {
+        return lock.toString();
+    }
+}
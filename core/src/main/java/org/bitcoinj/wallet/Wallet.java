@@ -133,7 +133,8 @@ public class Wallet extends BaseTaggableObject
 
     // Ordering: lock > keyChainGroupLock. KeyChainGroup is protected separately to allow fast querying of current receive address
     // even if the wallet itself is busy e.g. saving or processing a big reorg. Useful for reducing UI latency.
-    protected final ReentrantLock lock = Threading.lock("wallet");
+    protected final ReentrantLock lock = Threading.timedLock("wallet", Metrics.get().histogram("dashj_wallet_lock_hold_seconds",
+            "Time the wallet lock was held"));
     protected final ReentrantLock keyChainGroupLock = Threading.lock("wallet-keychaingroup");
 
     // The various pools below give quick access to wallet-relevant transactions by the state they're in:
@@ -163,6 +164,10 @@ public class Wallet extends BaseTaggableObject
     // All transactions together.
     protected final Map<Sha256Hash, Transaction> transactions;
 
+    // The transactions in the wallet that spend each outpoint, more than one if they double spend each other. Kept in
+    // sync with transactions, so that double spends and dependent transactions can be found without a scan.
+    private final SetMultimap<TransactionOutPoint, Transaction> spendingTransactions = HashMultimap.create();
+
     // All the TransactionOutput objects that we could spend (ignoring whether we have the private key or not).
     // Used to speed up various calculations.
     protected final HashSet<TransactionOutput> myUnspents = Sets.newHashSet();
@@ -218,6 +223,8 @@ public class Wallet extends BaseTaggableObject
     // in receive() via Transaction.setBlockAppearance(). As the BlockChain always calls notifyNewBestBlock even if
     // it sent transactions to the wallet, without this we'd double count.
     private HashSet<Sha256Hash> ignoreNextNewBlock;
+    // Counts the blocks notifyNewBestBlock was called for. The depths of the BUILDING transactions are derived from it.
+    private TransactionConfidence.DepthTracker depthTracker;
     // Whether or not to ignore pending transactions that are considered risky by the configured risk analyzer.
     private boolean acceptRiskyTransactions;
     // Object that performs risk analysis of pending transactions. We might reject transactions that seem like
@@ -495,9 +502,12 @@ public class Wallet extends BaseTaggableObject
 
     private void createTransientState() {
         ignoreNextNewBlock = new HashSet<>();
+        depthTracker = new TransactionConfidence.DepthTracker();
         txConfidenceListener = new TransactionConfidence.Listener() {
             @Override
             public void onConfidenceChanged(TransactionConfidence confidence, TransactionConfidence.Listener.ChangeReason reason) {
+                // Coin selection depends on the confidence type, depth and InstantSend locks.
+                invalidateBalances();
                 // This will run on the user code thread so we shouldn't do anything too complicated here.
                 // We only want to queue a wallet changed event and auto-save if the number of peers announcing
                 // the transaction has changed, as that confidence change is made by the networking code which
@@ -831,12 +841,16 @@ public class Wallet extends BaseTaggableObject
      * @return Whether the key was removed or not.
      */
     public boolean removeKey(ECKey key) {
+        boolean removed;
         keyChainGroupLock.lock();
         try {
-            return keyChainGroup.removeImportedKey(key);
+            removed = keyChainGroup.removeImportedKey(key);
         } finally {
             keyChainGroupLock.unlock();
         }
+        if (removed)
+            invalidateBalances();
+        return removed;
     }
 
     /**
@@ -905,6 +919,7 @@ public class Wallet extends BaseTaggableObject
         } finally {
             keyChainGroupLock.unlock();
         }
+        invalidateBalances();
         saveNow();
         return result;
     }
@@ -929,13 +944,16 @@ public class Wallet extends BaseTaggableObject
 
     /** Takes a list of keys and an AES key, then encrypts and imports them in one step using the current keycrypter. */
     public int importKeysAndEncrypt(final List<ECKey> keys, KeyParameter aesKey) {
+        int result;
         keyChainGroupLock.lock();
         try {
             checkNoDeterministicKeys(keys);
-            return keyChainGroup.importKeysAndEncrypt(keys, aesKey);
+            result = keyChainGroup.importKeysAndEncrypt(keys, aesKey);
         } finally {
             keyChainGroupLock.unlock();
         }
+        invalidateBalances();
+        return result;
     }
 
     /**
@@ -2088,24 +2106,15 @@ public class Wallet extends BaseTaggableObject
     private Set<Transaction> findDoubleSpendsAgainst(Transaction tx, Map<Sha256Hash, Transaction> candidates) {
         checkState(lock.isHeldByCurrentThread());
         if (tx.isCoinBase()) return Sets.newHashSet();
-        // Compile a set of outpoints that are spent by tx.
-        HashSet<TransactionOutPoint> outpoints = new HashSet<>();
-        for (TransactionInput input : tx.getInputs()) {
-            outpoints.add(input.getOutpoint());
-        }
-        // Now for each pending transaction, see if it shares any outpoints with this tx.
+        // Look up the wallet transactions that spend the same outpoints as tx. This relies on the fact that
+        // TransactionOutPoint equality is defined at the protocol not object level - outpoints from two different
+        // inputs that point to the same output compare the same.
         Set<Transaction> doubleSpendTxns = Sets.newHashSet();
-        for (Transaction p : candidates.values()) {
-            if (p.equals(tx))
-                continue;
-            for (TransactionInput input : p.getInputs()) {
-                // This relies on the fact that TransactionOutPoint equality is defined at the protocol not object
-                // level - outpoints from two different inputs that point to the same output compare the same.
-                TransactionOutPoint outpoint = input.getOutpoint();
-                if (outpoints.contains(outpoint)) {
-                    // It does, it's a double spend against the candidates, which makes it relevant.
+        for (TransactionInput input : tx.getInputs()) {
+            for (Transaction p : spendingTransactions.get(input.getOutpoint())) {
+                // It does, it's a double spend against the candidates, which makes it relevant.
+                if (!p.equals(tx) && candidates.containsKey(p.getTxId()))
                     doubleSpendTxns.add(p);
-                }
             }
         }
         return doubleSpendTxns;
@@ -2113,29 +2122,43 @@ public class Wallet extends BaseTaggableObject
 
     /**
      * Adds to txSet all the txns in txPool spending outputs of txns in txSet,
-     * and all txns spending the outputs of those txns, recursively.
+     * and all txns spending the outputs of those txns, recursively. If txPool is null all txns of this wallet
+     * are considered, txns that are not in this wallet are never added.
      */
-    void addTransactionsDependingOn(Set<Transaction> txSet, Set<Transaction> txPool) {
+    void addTransactionsDependingOn(Set<Transaction> txSet, @Nullable Set<Transaction> txPool) {
         Map<Sha256Hash, Transaction> txQueue = new LinkedHashMap<>();
         for (Transaction tx : txSet) {
             txQueue.put(tx.getTxId(), tx);
         }
         while(!txQueue.isEmpty()) {
             Transaction tx = txQueue.remove(txQueue.keySet().iterator().next());
-            for (Transaction anotherTx : txPool) {
-                if (anotherTx.equals(tx)) continue;
-                for (TransactionInput input : anotherTx.getInputs()) {
-                    if (input.getOutpoint().getHash().equals(tx.getTxId())) {
-                        if (txQueue.get(anotherTx.getTxId()) == null) {
-                            txQueue.put(anotherTx.getTxId(), anotherTx);
-                            txSet.add(anotherTx);
-                        }
+            for (int index = 0; index < tx.getOutputs().size(); index++) {
+                TransactionOutPoint outpoint = new TransactionOutPoint(params, index, tx.getTxId());
+                for (Transaction anotherTx : spendingTransactions.get(outpoint)) {
+                    if (anotherTx.equals(tx) || (txPool != null && !txPool.contains(anotherTx))) continue;
+                    if (txQueue.get(anotherTx.getTxId()) == null) {
+                        txQueue.put(anotherTx.getTxId(), anotherTx);
+                        txSet.add(anotherTx);
                     }
                 }
             }
         }
     }
 
+    /** Adds the outpoints spent by tx to {@link #spendingTransactions}. */
+    private void indexSpends(Transaction tx) {
+        if (tx.isCoinBase())
+            return;
+        for (TransactionInput input : tx.getInputs())
+            spendingTransactions.put(input.getOutpoint(), tx);
+    }
+
+    /** Removes the outpoints spent by tx from {@link #spendingTransactions}. */
+    private void unindexSpends(Transaction tx) {
+        for (TransactionInput input : tx.getInputs())
+            spendingTransactions.remove(input.getOutpoint(), tx);
+    }
+
     /**
      * Called by the {@link BlockChain} when we receive a new block that sends coins to one of our addresses or
      * spends coins from one of our addresses (note that a single transaction can do both).<p>
@@ -2249,6 +2272,9 @@ public class Wallet extends BaseTaggableObject
             // confidence object about the block and sets its depth appropriately.
             tx.setBlockAppearance(block, bestChain, relativityOffset);
             if (bestChain) {
+                // The block is announced by notifyNewBestBlock next, the tx stays one block deep until then.
+                trackDepth(tx, depthTracker.getHeight() + 1);
+
                 // Don't notify this tx of work done in notifyNewBestBlock which will be called immediately after
                 // this method has been called by BlockChain for all relevant transactions. Otherwise we'd double
                 // count.
@@ -2258,7 +2284,7 @@ public class Wallet extends BaseTaggableObject
                 // change its confidence to PENDING (Unless they are also spending other txns IN_CONFLICT).
                 // Consider dependency chains.
                 Set<Transaction> currentTxDependencies = Sets.newHashSet(tx);
-                addTransactionsDependingOn(currentTxDependencies, getTransactions(true));
+                addTransactionsDependingOn(currentTxDependencies, null);
                 currentTxDependencies.remove(tx);
                 List<Transaction> currentTxDependenciesSorted = sortTxnsByDependency(currentTxDependencies);
                 for (Transaction txDependency : currentTxDependenciesSorted) {
@@ -2282,6 +2308,7 @@ public class Wallet extends BaseTaggableObject
             maybeQueueOnWalletChanged();
         }
 
+        invalidateBalances();
         // Inform anyone interested that we have received or sent coins but only if:
         //  - This is not due to a re-org.
         //  - The coins appeared on the best chain.
@@ -2394,30 +2421,35 @@ public class Wallet extends BaseTaggableObject
             setLastBlockSeenHash(newBlockHash);
             setLastBlockSeenHeight(block.getHeight());
             setLastBlockSeenTimeSecs(block.getHeader().getTimeSeconds());
-            // Notify all the BUILDING transactions of the new block.
-            // This is so that they can update their depth.
-            Set<Transaction> transactions = getTransactions(true);
-            for (Transaction tx : transactions) {
-                if (ignoreNextNewBlock.contains(tx.getTxId())) {
-                    // tx was already processed in receive() due to it appearing in this block, so we don't want to
-                    // increment the tx confidence depth twice, it'd result in miscounting.
-                    ignoreNextNewBlock.remove(tx.getTxId());
-                } else {
-                    TransactionConfidence confidence = tx.getConfidence();
-                    if (confidence.getConfidenceType() == ConfidenceType.BUILDING) {
-                        // Erase the set of seen peers once the tx is so deep that it seems unlikely to ever go
-                        // pending again. We could clear this data the moment a tx is seen in the block chain, but
-                        // in cases where the chain re-orgs, this would mean that wallets would perceive a newly
-                        // pending tx has zero confidence at all, which would not be right: we expect it to be
-                        // included once again. We could have a separate was-in-chain-and-now-isn't confidence type
-                        // but this way is backwards compatible with existing software, and the new state probably
-                        // wouldn't mean anything different to just remembering peers anyway.
-                        if (confidence.incrementDepthInBlocks() > context.getEventHorizon())
-                            confidence.clearBroadcastBy();
-                        confidenceChanged.put(tx, TransactionConfidence.Listener.ChangeReason.DEPTH);
-                    }
+            // Depths change, which matters for coin selection and coinbase maturity.
+            invalidateBalances();
+            // The depth of every BUILDING transaction follows the tracker. Only the transactions that somebody may
+            // still care about are told about the new block, so the work here does not grow with the history.
+            depthTracker.advance();
+            for (TransactionConfidence confidence : depthTracker.getWatched()) {
+                Transaction tx = transactions.get(confidence.getTransactionHash());
+                if (tx == null || confidence.getConfidenceType() != ConfidenceType.BUILDING ||
+                        confidence.getDepthTracker() != depthTracker) {
+                    depthTracker.unwatch(confidence);
+                    continue;
                 }
-            }
+                int depth = confidence.getDepthInBlocks();
+                // Erase the set of seen peers once the tx is so deep that it seems unlikely to ever go
+                // pending again. We could clear this data the moment a tx is seen in the block chain, but
+                // in cases where the chain re-orgs, this would mean that wallets would perceive a newly
+                // pending tx has zero confidence at all, which would not be right: we expect it to be
+                // included once again. We could have a separate was-in-chain-and-now-isn't confidence type
+                // but this way is backwards compatible with existing software, and the new state probably
+                // wouldn't mean anything different to just remembering peers anyway.
+                if (depth > context.getEventHorizon())
+                    confidence.clearBroadcastBy();
+                // tx was already processed in receive() due to it appearing in this block, so it was told already.
+                if (!ignoreNextNewBlock.contains(tx.getTxId()))
+                    confidenceChanged.put(tx, TransactionConfidence.Listener.ChangeReason.DEPTH);
+                if (!isDepthWatched(tx, depth))
+                    depthTracker.unwatch(confidence);
+            }
+            ignoreNextNewBlock.clear();
 
             informConfidenceListenersIfNotReorganizing();
             maybeQueueOnWalletChanged();
@@ -2528,6 +2560,7 @@ public class Wallet extends BaseTaggableObject
      */
     private void updateForSpends(Transaction tx, boolean fromChain) throws VerificationException {
         checkState(lock.isHeldByCurrentThread());
+        invalidateBalances();
         if (fromChain)
             checkState(!pending.containsKey(tx.getTxId()));
         for (TransactionInput input : tx.getInputs()) {
@@ -2611,6 +2644,7 @@ public class Wallet extends BaseTaggableObject
 
     // Updates the wallet when a double spend occurs. overridingTx can be null for the case of coinbases
     private void killTxns(Set<Transaction> txnsToKill, @Nullable Transaction overridingTx) {
+        invalidateBalances();
         LinkedList<Transaction> work = new LinkedList<>(txnsToKill);
         while (!work.isEmpty()) {
             final Transaction tx = work.poll();
@@ -2671,6 +2705,7 @@ public class Wallet extends BaseTaggableObject
      */
     private void maybeMovePool(Transaction tx, String context) {
         checkState(lock.isHeldByCurrentThread());
+        invalidateBalances();
         if (tx.isEveryOwnedOutputSpent(this)) {
             // There's nothing left I can spend in this transaction.
             if (unspent.remove(tx.getTxId()) != null) {
@@ -2745,7 +2780,7 @@ public class Wallet extends BaseTaggableObject
                 log.info("->pending (IN_CONFLICT): {}", tx.getTxId());
                 addWalletTransaction(Pool.PENDING, tx);
                 doubleSpendPendingTxns.add(tx);
-                addTransactionsDependingOn(doubleSpendPendingTxns, getTransactions(true));
+                addTransactionsDependingOn(doubleSpendPendingTxns, null);
                 for (Transaction doubleSpendTx : doubleSpendPendingTxns) {
                     doubleSpendTx.getConfidence().setConfidenceType(ConfidenceType.IN_CONFLICT);
                     confidenceChanged.put(doubleSpendTx, TransactionConfidence.Listener.ChangeReason.TYPE);
@@ -3187,7 +3222,13 @@ public class Wallet extends BaseTaggableObject
      */
     private void addWalletTransaction(Pool pool, Transaction tx) {
         checkState(lock.isHeldByCurrentThread());
-        transactions.put(tx.getTxId(), tx);
+        invalidateBalances();
+        Transaction previous = transactions.put(tx.getTxId(), tx);
+        if (previous != tx) {
+            if (previous != null)
+                unindexSpends(previous);
+            indexSpends(tx);
+        }
         switch (pool) {
         case UNSPENT:
             checkState(unspent.put(tx.getTxId(), tx) == null);
@@ -3210,6 +3251,9 @@ public class Wallet extends BaseTaggableObject
                     myUnspents.add(output);
             }
         }
+        TransactionConfidence confidence = tx.getConfidence();
+        if (confidence.getConfidenceType() == ConfidenceType.BUILDING && confidence.getDepthTracker() != depthTracker)
+            trackDepth(tx, depthTracker.getHeight());
         // This is safe even if the listener has been added before, as TransactionConfidence ignores duplicate
         // registration requests. That makes the code in the wallet simpler.
         tx.getConfidence().addEventListener(Threading.SAME_THREAD, txConfidenceListener);
@@ -3327,11 +3371,13 @@ public class Wallet extends BaseTaggableObject
     }
 
     private void clearTransactions() {
+        invalidateBalances();
         unspent.clear();
         spent.clear();
         pending.clear();
         dead.clear();
         transactions.clear();
+        spendingTransactions.clear();
         myUnspents.clear();
     }
 
@@ -3391,6 +3437,8 @@ public class Wallet extends BaseTaggableObject
 
                         i.remove();
                         transactions.remove(tx.getTxId());
+                        unindexSpends(tx);
+                        invalidateBalances();
                         dirty = true;
                         log.info("Removed transaction {} from pending pool during cleanup.", tx.getTxId());
                     } else {
@@ -3839,25 +3887,53 @@ public class Wallet extends BaseTaggableObject
      * Returns the balance of this wallet as calculated by the provided balanceType.
      */
     public Coin getBalance(BalanceType balanceType) {
+        // answered without the wallet lock if nothing changed since the balance was last calculated
+        CachedBalance cached = cachedBalances.get(balanceType);
+        if (cached != null && cached.version == balanceVersion.get() && vUTXOProvider == null)
+            return cached.value;
         lock.lock();
         try {
+            int version = balanceVersion.get();
+            Coin balance;
             if (balanceType == BalanceType.AVAILABLE || balanceType == BalanceType.AVAILABLE_SPENDABLE) {
                 List<TransactionOutput> candidates = calculateAllSpendCandidates(true, balanceType == BalanceType.AVAILABLE_SPENDABLE);
                 CoinSelection selection = coinSelector.select(NetworkParameters.MAX_MONEY, candidates);
-                return selection.valueGathered;
+                balance = selection.valueGathered;
             } else if (balanceType == BalanceType.ESTIMATED || balanceType == BalanceType.ESTIMATED_SPENDABLE) {
                 List<TransactionOutput> all = calculateAllSpendCandidates(false, balanceType == BalanceType.ESTIMATED_SPENDABLE);
                 Coin value = Coin.ZERO;
                 for (TransactionOutput out : all) value = value.add(out.getValue());
-                return value;
+                balance = value;
             } else {
                 throw new AssertionError("Unknown balance type");  // Unreachable.
             }
+            // the outputs of a UTXO provider can change without the wallet knowing
+            if (vUTXOProvider == null)
+                cachedBalances.put(balanceType, new CachedBalance(version, balance));
+            return balance;
         } finally {
             lock.unlock();
         }
     }
 
+    private static class CachedBalance {
+        final int version;
+        final Coin value;
+
+        CachedBalance(int version, Coin value) {
+            this.version = version;
+            this.value = value;
+        }
+    }
+
+    /**
+     * Marks the cached balances as stale. Must be called on every change that can affect a balance: the pools,
+     * {@link #myUnspents}, the confidence of a transaction, the keys or the coin selector.
+     */
+    private void invalidateBalances() {
+        balanceVersion.incrementAndGet();
+    }
+
     /**
      * Returns the balance that would be considered spendable by the given coin selector, including watched outputs
      * (i.e. balance includes outputs we don't have the private keys for). Just asks it to select as many coins as
@@ -3882,6 +3958,10 @@ public class Wallet extends BaseTaggableObject
     }
     @GuardedBy("lock") private List<BalanceFutureRequest> balanceFutureRequests = Lists.newLinkedList();
 
+    // The balances returned by getBalance(BalanceType), valid while their version equals balanceVersion
+    private final AtomicInteger balanceVersion = new AtomicInteger();
+    private final Map<BalanceType, CachedBalance> cachedBalances = new ConcurrentHashMap<>();
+
     /**
      * <p>Returns a future that will complete when the balance of the given type has becom equal or larger to the given
      * value. If the wallet already has a large enough balance the future is returned in a pre-completed state. Note
@@ -4615,6 +4695,7 @@ public class Wallet extends BaseTaggableObject
         lock.lock();
         try {
             this.coinSelector = checkNotNull(coinSelector);
+            invalidateBalances();
         } finally {
             lock.unlock();
         }
@@ -4656,6 +4737,7 @@ public class Wallet extends BaseTaggableObject
         try {
             checkArgument(provider == null || provider.getParams().equals(params));
             this.vUTXOProvider = provider;
+            invalidateBalances();
         } finally {
             lock.unlock();
         }
@@ -4762,6 +4844,7 @@ public class Wallet extends BaseTaggableObject
             checkState(confidenceChanged.size() == 0);
             checkState(!insideReorg);
             insideReorg = true;
+            invalidateBalances();
             checkState(onWalletChangedSuppressions == 0);
             onWalletChangedSuppressions++;
 
@@ -4873,6 +4956,7 @@ public class Wallet extends BaseTaggableObject
                 notifyNewBestBlock(block);
             }
             isConsistentOrThrow();
+            invalidateBalances();
             final Coin balance = getBalance();
             log.info("post-reorg balance is {}", balance.toFriendlyString());
             // Inform event listeners that a re-org took place.
@@ -4893,13 +4977,37 @@ public class Wallet extends BaseTaggableObject
      */
     private void subtractDepth(int depthToSubtract, Collection<Transaction> transactions) {
         for (Transaction tx : transactions) {
-            if (tx.getConfidence().getConfidenceType() == ConfidenceType.BUILDING) {
-                tx.getConfidence().setDepthInBlocks(tx.getConfidence().getDepthInBlocks() - depthToSubtract);
+            TransactionConfidence confidence = tx.getConfidence();
+            if (confidence.getConfidenceType() == ConfidenceType.BUILDING) {
+                int depth = confidence.getDepthInBlocks() - depthToSubtract;
+                confidence.setDepthInBlocks(depth);
+                if (confidence.getDepthTracker() == depthTracker && isDepthWatched(tx, depth))
+                    depthTracker.watch(confidence);
                 confidenceChanged.put(tx, TransactionConfidence.Listener.ChangeReason.DEPTH);
             }
         }
     }
 
+    /**
+     * Lets the depth of a BUILDING transaction follow the blocks announced to the wallet, starting from the given
+     * height of the depth tracker.
+     */
+    private void trackDepth(Transaction tx, int height) {
+        TransactionConfidence confidence = tx.getConfidence();
+        confidence.trackDepth(depthTracker, height);
+        if (isDepthWatched(tx, confidence.getDepthInBlocks()))
+            depthTracker.watch(confidence);
+    }
+
+    /**
+     * Returns whether a transaction at the given depth is still told about new blocks: until it is buried below the
+     * event horizon, a coinbase matures, or every depth future of the transaction has completed.
+     */
+    private boolean isDepthWatched(Transaction tx, int depth) {
+        return depth <= context.getEventHorizon() || depth < tx.getConfidence().getAwaitedDepth() ||
+                (tx.isCoinBase() && depth < params.getSpendableCoinbaseDepth());
+    }
+
     //endregion
 
     /******************************************************************************************************************/
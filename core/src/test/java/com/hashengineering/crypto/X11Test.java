@@ -1,5 +1,6 @@
 package com.hashengineering.crypto;
 
+import fr.cryptohash.Digest;
 import org.bitcoinj.core.Utils;
 import org.bouncycastle.util.Arrays;
 import org.junit.Before;
@@ -37,6 +38,31 @@ public class X11Test {
         assertArrayEquals(blockHashBE, Arrays.reverse(X11.x11(blockData, 0, blockData.length)));
     }
 
+    @Test
+    public void engineMatchesFreshDigests() {
+        byte [] blockData = Utils.HEX.decode("020000002cc0081be5039a54b686d24d5d8747ee9770d9973ec1ace02e5c0500000000008d7139724b11c52995db4370284c998b9114154b120ad3486f1a360a1d4253d310d40e55b8f70a1be8e32300");
+
+        // Reference: a fresh set of digests chained together, as X11.x11 used to do
+        Digest [] algorithms = X11.initAlgorithms();
+        byte [] hash512 = blockData;
+        for (Digest algorithm : algorithms) {
+            algorithm.update(hash512);
+            hash512 = algorithm.digest();
+        }
+        byte [] expected = Arrays.copyOf(hash512, 32);
+
+        // Hash the same bytes from the middle of a larger array, twice on the same engine
+        byte [] padded = new byte[blockData.length + 7];
+        System.arraycopy(blockData, 0, padded, 3, blockData.length);
+        byte [] out = new byte[40];
+        X11Engine engine = X11Engine.get();
+        for (int i = 0; i < 2; ++i) {
+            engine.digest(padded, 3, blockData.length, out, 5);
+            assertArrayEquals(expected, Arrays.copyOfRange(out, 5, 37));
+        }
+        assertArrayEquals(expected, X11.x11(blockData, 0, blockData.length));
+    }
+
     @Test
     public void x11ThreadTest() {
         final byte [] message = "Hello World!".getBytes();
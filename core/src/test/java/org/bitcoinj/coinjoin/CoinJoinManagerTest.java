@@ -0,0 +1,209 @@
+/*
+ * Copyright 2022 Dash Core Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bitcoinj.coinjoin;
+
+import org.bitcoinj.core.Context;
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.core.KeyId;
+import org.bitcoinj.core.MasternodeAddress;
+import org.bitcoinj.core.MasternodeSignature;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.TransactionOutPoint;
+import org.bitcoinj.core.Utils;
+import org.bitcoinj.crypto.BLSLazyPublicKey;
+import org.bitcoinj.crypto.BLSPublicKey;
+import org.bitcoinj.crypto.BLSSecretKey;
+import org.bitcoinj.evolution.SimplifiedMasternodeList;
+import org.bitcoinj.evolution.SimplifiedMasternodeListEntry;
+import org.bitcoinj.evolution.SimplifiedMasternodeListManager;
+import org.bitcoinj.params.UnitTestParams;
+import org.bitcoinj.utils.Metrics;
+import org.bitcoinj.utils.Threading;
+import org.dashj.bls.BLS;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class CoinJoinManagerTest {
+    private static final NetworkParameters UNITTEST = UnitTestParams.get();
+    private static final int DENOMINATION = 2;
+
+    private final Map<TransactionOutPoint, BLSSecretKey> operatorKeys = new HashMap<>();
+    private Context context;
+    private CoinJoinManager manager;
+
+    static {
+        BLS.Init();
+    }
+
+    @Before
+    public void setUp() {
+        Utils.setMockClock();
+        context = new Context(UNITTEST);
+        for (int i = 0; i < 3; i++) {
+            operatorKeys.put(outpoint(i), BLSSecretKey.fromSeed(Sha256Hash.of(new byte[] {(byte) i}).getBytes()));
+        }
+        manager = new CoinJoinManager(context, Threading.SAME_THREAD) {
+            @Override
+            protected BLSPublicKey getOperatorKey(TransactionOutPoint masternodeOutpoint) {
+                BLSSecretKey key = operatorKeys.get(masternodeOutpoint);
+                return key != null ? key.GetPublicKey() : null;
+            }
+        };
+    }
+
+    @After
+    public void tearDown() {
+        Utils.resetMocking();
+    }
+
+    // managers need a class name of their own
+    private static class FixedListManager extends SimplifiedMasternodeListManager {
+        private final SimplifiedMasternodeList mnList;
+
+        FixedListManager(Context context, SimplifiedMasternodeList mnList) {
+            super(context);
+            this.mnList = mnList;
+        }
+
+        @Override
+        public SimplifiedMasternodeList getMasternodeList() {
+            return mnList;
+        }
+    }
+
+    private static TransactionOutPoint outpoint(int masternode) {
+        return new TransactionOutPoint(UNITTEST, 0, Sha256Hash.of(new byte[] {(byte) masternode, 1}));
+    }
+
+    private CoinJoinQueue queue(int masternode, long time, boolean ready, int signer) {
+        CoinJoinQueue unsigned = new CoinJoinQueue(UNITTEST, DENOMINATION, outpoint(masternode), time, ready, null);
+        BLSSecretKey key = operatorKeys.get(outpoint(signer));
+        MasternodeSignature signature = new MasternodeSignature(key.Sign(unsigned.getSignatureHash()).bitcoinSerialize());
+        return new CoinJoinQueue(UNITTEST, DENOMINATION, outpoint(masternode), time, ready, signature);
+    }
+
+    @Test
+    public void queuesAreVerifiedAndExpire() {
+        long now = Utils.currentTimeSeconds();
+        manager.processQueue(null, queue(0, now, false, 0));
+        manager.processQueue(null, queue(1, now + 1, false, 1));
+        // signed by another masternode
+        manager.processQueue(null, queue(2, now, false, 0));
+        // created too long ago
+        manager.processQueue(null, queue(2, now - CoinJoinManager.QUEUE_TIMEOUT_SECONDS - 1, false, 2));
+
+        List<CoinJoinQueue> queues = manager.getQueues(DENOMINATION);
+        assertEquals(2, queues.size());
+        assertEquals(outpoint(0), queues.get(0).getMasternodeOutpoint());
+        assertEquals(outpoint(0), manager.getQueue(DENOMINATION).getMasternodeOutpoint());
+        assertNull(manager.getQueue(DENOMINATION + 1));
+
+        Utils.rollMockClock(CoinJoinManager.QUEUE_TIMEOUT_SECONDS + 1);
+        assertEquals(outpoint(1), manager.getQueue(DENOMINATION).getMasternodeOutpoint());
+        assertEquals(1, manager.getQueueCount());
+        Utils.rollMockClock(1);
+        assertNull(manager.getQueue(DENOMINATION));
+        assertEquals(0, manager.getQueueCount());
+    }
+
+    @Test
+    public void newerQueuesReplaceOlderOnes() {
+        long now = Utils.currentTimeSeconds();
+        CoinJoinQueue first = queue(0, now, false, 0);
+        manager.processQueue(null, first);
+        manager.processQueue(null, queue(1, now, false, 1));
+        CoinJoinQueue second = queue(0, now + 5, false, 0);
+        manager.processQueue(null, second);
+        // the same message again is ignored
+        manager.processQueue(null, first);
+
+        List<CoinJoinQueue> queues = manager.getQueues(DENOMINATION);
+        assertEquals(2, queues.size());
+        assertEquals(outpoint(1), queues.get(0).getMasternodeOutpoint());
+        assertSame(second, queues.get(1));
+
+        // a ready queue closes the queue of the masternode
+        manager.processQueue(null, queue(1, now + 6, true, 1));
+        assertSame(second, manager.getQueue(DENOMINATION));
+        assertEquals(1, manager.getQueueCount());
+    }
+
+    @Test
+    public void broadcastTxs() {
+        Transaction tx = new Transaction(UNITTEST);
+        tx.addOutput(Transaction.MIN_NONDUST_OUTPUT, new ECKey());
+        long now = Utils.currentTimeSeconds();
+        CoinJoinBroadcastTx unsigned = new CoinJoinBroadcastTx(UNITTEST, tx, outpoint(0), null, now);
+        byte[] signature = operatorKeys.get(outpoint(0)).Sign(unsigned.getSignatureHash()).bitcoinSerialize();
+        CoinJoinBroadcastTx broadcastTx = new CoinJoinBroadcastTx(UNITTEST, tx, outpoint(0), new MasternodeSignature(signature), now);
+        CoinJoinBroadcastTx badTx = new CoinJoinBroadcastTx(UNITTEST, tx, outpoint(1), new MasternodeSignature(signature), now);
+
+        manager.processBroadcastTx(null, badTx);
+        assertFalse(manager.hasBroadcastTx(tx.getTxId()));
+        manager.processBroadcastTx(null, broadcastTx);
+        assertTrue(manager.hasBroadcastTx(tx.getTxId()));
+        assertSame(broadcastTx, manager.getBroadcastTx(tx.getTxId()));
+    }
+
+    @Test
+    public void badCopyDoesNotHideTheGenuineMessage() {
+        long now = Utils.currentTimeSeconds();
+        // the same queue, signed by another masternode
+        manager.processQueue(null, queue(0, now, false, 1));
+        assertEquals(0, manager.getQueueCount());
+        CoinJoinQueue genuine = queue(0, now, false, 0);
+        manager.processQueue(null, genuine);
+        assertSame(genuine, manager.getQueue(DENOMINATION));
+    }
+
+    @Test
+    public void operatorKeysAreLookedUpByRegistrationTransaction() {
+        final SimplifiedMasternodeListEntry masternode = new SimplifiedMasternodeListEntry(UNITTEST,
+                outpoint(0).getHash(), Sha256Hash.ZERO_HASH, new MasternodeAddress("127.0.0.1", 9999),
+                new KeyId(new byte[20]), new BLSLazyPublicKey(operatorKeys.get(outpoint(0)).GetPublicKey()), true);
+        SimplifiedMasternodeList mnList = new SimplifiedMasternodeList(UNITTEST) {
+            @Override
+            public SimplifiedMasternodeListEntry getMN(Sha256Hash proTxHash) {
+                return proTxHash.equals(masternode.getProTxHash()) ? masternode : null;
+            }
+        };
+        CoinJoinManager lookupManager = new CoinJoinManager(context, Threading.SAME_THREAD);
+        long now = Utils.currentTimeSeconds();
+        // without a masternode list no masternode is known
+        lookupManager.processQueue(null, queue(0, now, false, 0));
+        assertEquals(0, lookupManager.getQueueCount());
+
+        context.masternodeListManager = new FixedListManager(context, mnList);
+        lookupManager.processQueue(null, queue(0, now + 1, false, 0));
+        // masternode 1 has an external collateral, so it is not found by the hash of its collateral
+        Metrics.Counter unknownMasternodes = Metrics.get().counter("dashj_coinjoin_unknown_masternodes_total", "");
+        long unknownBefore = unknownMasternodes.get();
+        lookupManager.processQueue(null, queue(1, now, false, 1));
+        assertEquals(unknownBefore + 1, unknownMasternodes.get());
+        List<CoinJoinQueue> queues = lookupManager.getQueues(DENOMINATION);
+        assertEquals(1, queues.size());
+        assertEquals(outpoint(0), queues.get(0).getMasternodeOutpoint());
+    }
+}
@@ -21,6 +21,8 @@ import org.bitcoinj.params.MainNetParams;
 import org.junit.Test;
 
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.net.InetAddress;
 import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
@@ -254,4 +256,46 @@ public class BitcoinSerializerTest {
         ByteArrayOutputStream bos = new ByteArrayOutputStream(ADDRESS_MESSAGE_BYTES.length);
         serializer.serialize(unknownMessage, bos);
     }
+
+    /** A message with a single byte, for registering a custom message type. */
+    static class CustomMessage extends Message {
+        byte value;
+
+        CustomMessage(NetworkParameters params, byte value) {
+            super(params);
+            this.value = value;
+        }
+
+        CustomMessage(NetworkParameters params, byte[] payload) {
+            super(params, payload, 0);
+        }
+
+        @Override
+        protected void parse() throws ProtocolException {
+            value = readByte();
+            length = cursor - offset;
+        }
+
+        @Override
+        protected void bitcoinSerializeToStream(OutputStream stream) throws IOException {
+            stream.write(value);
+        }
+    }
+
+    @Test
+    public void testRegisterMessage() throws Exception {
+        MessageSerializer serializer = MAINNET.getDefaultSerializer();
+        BitcoinSerializer.registerMessage("custom", CustomMessage.class,
+                (s, payload, length, hash) -> new CustomMessage(s.getParameters(), payload));
+        try {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            serializer.serialize(new CustomMessage(MAINNET, (byte) 42), bos);
+            Message message = serializer.deserialize(ByteBuffer.wrap(bos.toByteArray()));
+            assertTrue(message instanceof CustomMessage);
+            assertEquals(42, ((CustomMessage) message).value);
+        } finally {
+            // the registry is shared by all tests in this JVM
+            BitcoinSerializer.unregisterMessage("custom", CustomMessage.class);
+        }
+    }
 }
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2022 Dash Core Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.core;
+
+import org.bitcoinj.params.UnitTestParams;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BlockHeaderVerifierTest {
+    private static final NetworkParameters UNITTEST = UnitTestParams.get();
+
+    private BlockHeaderVerifier verifier;
+    private List<Block> headers;
+
+    @Before
+    public void setUp() throws Exception {
+        Utils.setMockClock();
+        verifier = new BlockHeaderVerifier(4);
+        headers = new ArrayList<>();
+        Block prev = UNITTEST.getGenesisBlock();
+        for (int i = 0; i < 300; i++) {
+            prev = prev.createNextBlock(null).cloneAsHeader();
+            headers.add(prev);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        verifier.shutdown();
+        Utils.resetMocking();
+    }
+
+    @Test
+    public void validHeaders() throws Exception {
+        verifier.verify(headers);
+        verifier.verify(headers.subList(0, 10));
+        verifier.verify(new ArrayList<Block>());
+    }
+
+    @Test
+    public void reportsFirstInvalidHeader() throws Exception {
+        // Far in the future, so the timestamp check fails. Solved again, so that it is the only check that fails.
+        long future = Utils.currentTimeSeconds() + 24 * 60 * 60;
+        headers.get(250).setTime(future + 250);
+        headers.get(250).solve();
+        headers.get(123).setTime(future + 123);
+        headers.get(123).solve();
+        try {
+            verifier.verify(headers);
+            fail();
+        } catch (VerificationException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("(" + (future + 123) + ")"));
+        }
+    }
+
+    @Test
+    public void hashesMatchParsedHeaders() throws Exception {
+        HeadersMessage message = new HeadersMessage(UNITTEST, headers);
+        HeadersMessage parsed = new HeadersMessage(UNITTEST, message.bitcoinSerialize());
+        verifier.verify(parsed.getBlockHeaders());
+        for (int i = 0; i < headers.size(); i++)
+            assertEquals(headers.get(i).getHash(), parsed.getBlockHeaders().get(i).getHash());
+    }
+}
@@ -0,0 +1,246 @@
+/*
+ * Copyright 2022 Dash Core Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.core;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import org.bitcoinj.params.UnitTestParams;
+import org.bitcoinj.store.MemoryBlockStore;
+import org.bitcoinj.utils.Threading;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class HeadersDownloadSchedulerTest {
+    private static final NetworkParameters UNITTEST = UnitTestParams.get();
+
+    private BlockChain headerChain;
+    // the headers of the remote chain, starting with the genesis block
+    private final List<StoredBlock> remoteChain = new ArrayList<>();
+    private List<StoredBlock> checkpoints;
+
+    @Before
+    public void setUp() throws Exception {
+        Utils.setMockClock();
+        new Context(UNITTEST);
+        headerChain = new BlockChain(UNITTEST, new MemoryBlockStore(UNITTEST));
+        Address address = Address.fromKey(UNITTEST, new ECKey());
+        StoredBlock block = headerChain.getChainHead();
+        remoteChain.add(block);
+        // stay below the first difficulty adjustment, where every block has the maximum target
+        for (int i = 0; i < 24; i++) {
+            Block next = block.getHeader().createNextBlock(address);
+            next.setDifficultyTarget(Utils.encodeCompactBits(UNITTEST.getMaxTarget()));
+            next.solve();
+            block = block.build(next.cloneAsHeader());
+            remoteChain.add(block);
+        }
+        checkpoints = Arrays.asList(remoteChain.get(8), remoteChain.get(16), remoteChain.get(24));
+    }
+
+    @After
+    public void tearDown() {
+        Utils.resetMocking();
+    }
+
+    /** Returns the headers of the remote chain after the first hash of the locator, up to the stop hash. */
+    private List<Block> headersAfter(BlockLocator locator, Sha256Hash stopHash) {
+        List<Block> headers = new ArrayList<>();
+        boolean found = false;
+        for (StoredBlock block : remoteChain) {
+            if (found)
+                headers.add(block.getHeader());
+            if (block.getHeader().getHash().equals(stopHash))
+                break;
+            if (block.getHeader().getHash().equals(locator.getHashes().get(0)))
+                found = true;
+        }
+        return headers;
+    }
+
+    /** A peer that keeps the last getheaders request for the test to answer. */
+    private class FakePeer extends Peer {
+        SettableFuture<HeadersMessage> reply;
+        BlockLocator locator;
+        Sha256Hash stopHash;
+
+        FakePeer(int port) {
+            super(UNITTEST, new VersionMessage(UNITTEST, 24), new PeerAddress(UNITTEST, InetAddress.getLoopbackAddress(), port), null);
+        }
+
+        @Override
+        public ListenableFuture<HeadersMessage> getHeaders(BlockLocator locator, Sha256Hash stopHash) {
+            this.locator = locator;
+            this.stopHash = stopHash;
+            this.reply = SettableFuture.create();
+            return reply;
+        }
+
+        @Override
+        public long getBestHeight() {
+            return 24;
+        }
+
+        @Override
+        public String toString() {
+            return "[fake peer " + getAddress().getPort() + "]";
+        }
+
+        /** Answers the last request with the headers the remote chain has after the locator. */
+        void answer() throws Exception {
+            reply.set(new HeadersMessage(UNITTEST, headersAfter(locator, stopHash)));
+        }
+
+        int requestedHeight() {
+            for (StoredBlock block : remoteChain)
+                if (block.getHeader().getHash().equals(stopHash))
+                    return block.getHeight();
+            return -1;
+        }
+    }
+
+    /** A peer whose getheaders replies go through the message handling of {@link Peer}. */
+    private class RoutingPeer extends Peer {
+        final List<GetHeadersMessage> requests = new ArrayList<>();
+
+        RoutingPeer(int port) {
+            // the block chain is not behind the header chain, so headers that answer no request are ignored
+            super(UNITTEST, new VersionMessage(UNITTEST, 24), new PeerAddress(UNITTEST, InetAddress.getLoopbackAddress(), port),
+                    headerChain, headerChain, 0, Integer.MAX_VALUE);
+        }
+
+        @Override
+        public ListenableFuture<?> sendMessage(Message message) {
+            requests.add((GetHeadersMessage) message);
+            return Futures.immediateFuture(null);
+        }
+
+        @Override
+        public long getBestHeight() {
+            return 24;
+        }
+
+        /** Answers the request with the given index. */
+        void answer(int request) throws Exception {
+            GetHeadersMessage message = requests.get(request);
+            processHeaders(new HeadersMessage(UNITTEST, headersAfter(message.getLocator(), message.getStopHash())));
+        }
+
+        @Override
+        public String toString() {
+            return "[routing peer " + getAddress().getPort() + "]";
+        }
+    }
+
+    @Test
+    public void rangesAreAddedInOrder() throws Exception {
+        HeadersDownloadScheduler scheduler = new HeadersDownloadScheduler(headerChain, checkpoints, Threading.SAME_THREAD, null);
+        assertEquals(3, scheduler.getRangeCount());
+        FakePeer peer1 = new FakePeer(1), peer2 = new FakePeer(2);
+        scheduler.addPeer(peer1);
+        scheduler.addPeer(peer2);
+        assertEquals(8, peer1.requestedHeight());
+        assertEquals(16, peer2.requestedHeight());
+
+        // the second range waits for the first
+        peer2.answer();
+        assertEquals(0, headerChain.getBestChainHeight());
+        assertEquals(24, peer2.requestedHeight());
+        peer1.answer();
+        assertEquals(16, headerChain.getBestChainHeight());
+
+        peer2.answer();
+        assertTrue(scheduler.getFuture().isDone());
+        assertEquals(24, scheduler.getFuture().get().getHeight());
+        assertEquals(remoteChain.get(24).getHeader().getHash(), headerChain.getChainHead().getHeader().getHash());
+    }
+
+    @Test
+    public void stalledAndBadRangesAreReassigned() throws Exception {
+        HeadersDownloadScheduler scheduler = new HeadersDownloadScheduler(headerChain, checkpoints.subList(0, 2),
+                Threading.SAME_THREAD, null);
+        FakePeer peer1 = new FakePeer(1), peer2 = new FakePeer(2);
+        scheduler.addPeer(peer1);
+        scheduler.addPeer(peer2);
+
+        // peer2 sends headers of another chain, so the range goes back to the pool
+        peer2.reply.set(new HeadersMessage(UNITTEST, remoteChain.get(1).getHeader()));
+        assertFalse(scheduler.getFuture().isDone());
+
+        // peer1 does not answer, so its range goes to peer2, and peer1 gets the range peer2 failed
+        Utils.rollMockClock(HeadersDownloadScheduler.STALL_TIMEOUT_SECONDS + 1);
+        scheduler.checkStalls();
+        assertEquals(8, peer2.requestedHeight());
+        peer2.answer();
+        assertEquals(8, headerChain.getBestChainHeight());
+        assertEquals(16, peer1.requestedHeight());
+        peer1.answer();
+        assertEquals(16, scheduler.getFuture().get().getHeight());
+    }
+
+    @Test
+    public void failsWhenNoPeerCanProvideARange() throws Exception {
+        HeadersDownloadScheduler scheduler = new HeadersDownloadScheduler(headerChain, checkpoints, Threading.SAME_THREAD, null);
+        FakePeer peer = new FakePeer(1);
+        scheduler.addPeer(peer);
+        peer.reply.set(new HeadersMessage(UNITTEST));
+        assertTrue(scheduler.getFuture().isDone());
+        try {
+            scheduler.getFuture().get();
+            fail();
+        } catch (Exception e) {
+            assertTrue(e.getCause() instanceof VerificationException);
+        }
+    }
+
+    @Test
+    public void lateRepliesDoNotAnswerTheNextRequest() throws Exception {
+        HeadersDownloadScheduler scheduler = new HeadersDownloadScheduler(headerChain,
+                Arrays.asList(remoteChain.get(6), remoteChain.get(12), remoteChain.get(18), remoteChain.get(24)),
+                Threading.SAME_THREAD, null);
+        RoutingPeer peer1 = new RoutingPeer(1), peer2 = new RoutingPeer(2);
+        scheduler.addPeer(peer1);
+        scheduler.addPeer(peer2);
+        Utils.rollMockClock(HeadersDownloadScheduler.STALL_TIMEOUT_SECONDS / 2 + 1);
+        peer2.answer(0);
+        assertEquals(2, peer2.requests.size());
+
+        // peer1 stalls on the first range and gets the last one instead
+        Utils.rollMockClock(HeadersDownloadScheduler.STALL_TIMEOUT_SECONDS / 2 + 1);
+        scheduler.checkStalls();
+        assertEquals(2, peer1.requests.size());
+        peer1.answer(1);
+        // the reply to the first request comes after all, but is ignored
+        peer1.answer(0);
+        assertEquals(0, headerChain.getBestChainHeight());
+
+        peer2.answer(1);
+        assertEquals(3, peer2.requests.size());
+        peer2.answer(2);
+        assertTrue(scheduler.getFuture().isDone());
+        assertEquals(24, scheduler.getFuture().get().getHeight());
+        assertEquals(remoteChain.get(24).getHeader().getHash(), headerChain.getChainHead().getHeader().getHash());
+    }
+}
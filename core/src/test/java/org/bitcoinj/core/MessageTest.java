@@ -20,6 +20,10 @@ package org.bitcoinj.core;
 import org.bitcoinj.params.UnitTestParams;
 import org.junit.Test;
 
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+
 public class MessageTest {
     private static final NetworkParameters UNITTEST = UnitTestParams.get();
 
@@ -60,4 +64,47 @@ public class MessageTest {
             readByteArray();
         }
     }
+
+    @Test
+    public void readsWithoutCopies() throws Exception {
+        Sha256Hash hash = Sha256Hash.of(new byte[] {1});
+        byte[] payload = new byte[1 + 32 + 3];
+        payload[0] = 3;
+        System.arraycopy(hash.getReversedBytes(), 0, payload, 1, 32);
+        payload[33] = 10;
+        payload[34] = 11;
+        payload[35] = 12;
+        ViewMessage message = new ViewMessage(UNITTEST, payload);
+        assertEquals(3, message.viewLength);
+        assertEquals(hash, message.hash);
+        assertEquals(ByteBuffer.wrap(new byte[] {10, 11, 12}), message.view);
+        assertEquals(payload.length, message.getMessageSize());
+    }
+
+    @Test(expected = ProtocolException.class)
+    public void readViewPastEnd() throws Exception {
+        byte[] payload = new byte[34];
+        payload[0] = 2;
+        new ViewMessage(UNITTEST, payload);
+    }
+
+    // a byte with the length of the view, a hash and the view
+    static class ViewMessage extends Message {
+        int viewLength;
+        Sha256Hash hash;
+        ByteBuffer view;
+
+        public ViewMessage(NetworkParameters params, byte[] payload) {
+            super(params, payload, 0, params.getProtocolVersionNum(NetworkParameters.ProtocolVersion.CURRENT),
+                    params.getDefaultSerializer(), UNKNOWN_LENGTH);
+        }
+
+        @Override
+        protected void parse() throws ProtocolException {
+            viewLength = readByte();
+            hash = readHash();
+            view = readView(viewLength);
+            length = cursor - offset;
+        }
+    }
 }
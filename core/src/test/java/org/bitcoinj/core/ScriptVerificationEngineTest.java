@@ -0,0 +1,147 @@
+/*
+ * Copyright 2022 Dash Core Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.core;
+
+import org.bitcoinj.crypto.TransactionSignature;
+import org.bitcoinj.params.UnitTestParams;
+import org.bitcoinj.script.Script;
+import org.bitcoinj.script.ScriptBuilder;
+import org.bitcoinj.utils.Metrics;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class ScriptVerificationEngineTest {
+    private static final NetworkParameters UNITTEST = UnitTestParams.get();
+    private static final Set<Script.VerifyFlag> FLAGS = EnumSet.of(Script.VerifyFlag.P2SH);
+
+    private ScriptVerificationEngine engine;
+    private ECKey key;
+    private Script scriptPubKey;
+
+    @Before
+    public void setUp() {
+        new Context(UNITTEST);
+        engine = new ScriptVerificationEngine(2);
+        key = new ECKey();
+        scriptPubKey = ScriptBuilder.createP2PKHOutputScript(key);
+    }
+
+    @After
+    public void tearDown() {
+        engine.shutdown();
+    }
+
+    /** Returns a transaction with the given number of inputs that spend outputs to {@link #scriptPubKey}. */
+    private Transaction spend(int inputs, ECKey signingKey) {
+        Transaction tx = new Transaction(UNITTEST);
+        tx.addOutput(Coin.COIN, new ECKey());
+        for (int i = 0; i < inputs; i++)
+            tx.addInput(new TransactionInput(UNITTEST, tx, new byte[0],
+                    new TransactionOutPoint(UNITTEST, i, Sha256Hash.of(new byte[] {(byte) inputs}))));
+        // sign once all inputs are there, as adding an input changes the signature hash of the others
+        for (int i = 0; i < inputs; i++) {
+            TransactionSignature signature = tx.calculateSignature(i, signingKey, scriptPubKey, Transaction.SigHash.ALL, false);
+            tx.getInput(i).setScriptSig(ScriptBuilder.createInputScript(signature, signingKey));
+        }
+        return tx;
+    }
+
+    private List<Script> prevOutScripts(Transaction tx) {
+        List<Script> scripts = new ArrayList<>();
+        for (int i = 0; i < tx.getInputs().size(); i++)
+            scripts.add(scriptPubKey);
+        return scripts;
+    }
+
+    @Test
+    public void verifiesBatch() throws Exception {
+        Metrics.Histogram batchTime = Metrics.get().histogram("dashj_script_verification_batch_seconds", "");
+        long batchesBefore = batchTime.getCount();
+        ScriptVerificationEngine.Batch batch = engine.newBatch();
+        for (int i = 1; i <= 20; i++) {
+            Transaction tx = spend(i % 5 + 1, key);
+            batch.add(tx, prevOutScripts(tx), FLAGS);
+        }
+        batch.verify();
+        assertEquals(1, engine.getBatchCount());
+        assertEquals(0, engine.getQueueDepth());
+        assertEquals(batchesBefore + 1, batchTime.getCount());
+        assertEquals(0, Metrics.get().gauge("dashj_script_verification_queue_depth", "").get(), 0);
+    }
+
+    @Test
+    public void failureIsReported() {
+        ScriptVerificationEngine.Batch batch = engine.newBatch();
+        Transaction good = spend(20, key);
+        batch.add(good, prevOutScripts(good), FLAGS);
+        Transaction bad = spend(3, new ECKey());
+        batch.add(bad, prevOutScripts(bad), FLAGS);
+        try {
+            batch.verify();
+            fail();
+        } catch (VerificationException e) {
+            // expected
+        }
+        assertEquals(0, engine.getBatchCount());
+
+        // the engine keeps working for the next block
+        ScriptVerificationEngine.Batch next = engine.newBatch();
+        next.add(good, prevOutScripts(good), FLAGS);
+        next.verify();
+        assertEquals(1, engine.getBatchCount());
+    }
+
+    @Test
+    public void errorIsReported() {
+        final Script scriptSig = new Script(new byte[0]) {
+            @Override
+            public void correctlySpends(Transaction txContainingThis, long scriptSigIndex, Script scriptPubKey,
+                                        Set<VerifyFlag> verifyFlags) {
+                throw new StackOverflowError();
+            }
+        };
+        Transaction bad = new Transaction(UNITTEST);
+        bad.addOutput(Coin.COIN, new ECKey());
+        bad.addInput(new TransactionInput(UNITTEST, bad, new byte[0],
+                new TransactionOutPoint(UNITTEST, 0, Sha256Hash.ZERO_HASH)) {
+            @Override
+            public Script getScriptSig() {
+                return scriptSig;
+            }
+        });
+
+        ScriptVerificationEngine.Batch batch = engine.newBatch();
+        batch.add(bad, prevOutScripts(bad), FLAGS);
+        Transaction good = spend(20, key);
+        batch.add(good, prevOutScripts(good), FLAGS);
+        try {
+            batch.verify();
+            fail();
+        } catch (VerificationException e) {
+            assertTrue(e.getCause() instanceof StackOverflowError);
+        }
+        assertEquals(0, engine.getBatchCount());
+    }
+}
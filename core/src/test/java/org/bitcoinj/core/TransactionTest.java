@@ -540,4 +540,68 @@ public class TransactionTest {
         }
         assertTrue("The coinJoinTx should not match after sorting", mismatch);
     }
+
+    /** Computes a signature hash like Dash Core does, by serializing a simplified copy of the transaction. */
+    private static Sha256Hash simplifiedCopySigHash(Transaction tx, int inputIndex, byte[] script, byte sigHashType) {
+        Transaction copy = new Transaction(tx.getParams(), tx.bitcoinSerialize());
+        for (TransactionInput input : copy.getInputs())
+            input.clearScriptBytes();
+        copy.getInput(inputIndex).setScriptBytes(script);
+        int baseType = sigHashType & 0x1f;
+        if (baseType == Transaction.SigHash.NONE.value || baseType == Transaction.SigHash.SINGLE.value) {
+            if (baseType == Transaction.SigHash.SINGLE.value) {
+                if (inputIndex >= copy.getOutputs().size())
+                    return Sha256Hash.wrap("0100000000000000000000000000000000000000000000000000000000000000");
+                TransactionOutput signed = copy.getOutput(inputIndex);
+                copy.clearOutputs();
+                for (int i = 0; i < inputIndex; i++)
+                    copy.addOutput(new TransactionOutput(tx.getParams(), copy, Coin.NEGATIVE_SATOSHI, new byte[0]));
+                copy.addOutput(new TransactionOutput(tx.getParams(), copy, signed.getValue(), signed.getScriptBytes()));
+            } else {
+                copy.clearOutputs();
+            }
+            for (int i = 0; i < copy.getInputs().size(); i++)
+                if (i != inputIndex)
+                    copy.getInput(i).setSequenceNumber(0);
+        }
+        if ((sigHashType & Transaction.SigHash.ANYONECANPAY.value) != 0) {
+            TransactionInput input = copy.getInput(inputIndex);
+            copy.clearInputs();
+            copy.addInput(input);
+        }
+        byte[] serialized = copy.bitcoinSerialize();
+        byte[] hashType = new byte[4];
+        Utils.uint32ToByteArrayLE(0x000000ff & sigHashType, hashType, 0);
+        return Sha256Hash.twiceOf(serialized, hashType);
+    }
+
+    @Test
+    public void hashForSignatureMatchesSimplifiedCopy() {
+        Random random = new Random(1);
+        Transaction tx = new Transaction(UNITTEST);
+        for (int i = 0; i < 5; i++) {
+            byte[] hash = new byte[32];
+            random.nextBytes(hash);
+            TransactionInput input = tx.addInput(Sha256Hash.wrap(hash), random.nextInt(10),
+                    new ScriptBuilder().data(new byte[random.nextInt(100)]).build());
+            input.setSequenceNumber(random.nextInt(100));
+        }
+        for (int i = 0; i < 4; i++)
+            tx.addOutput(Coin.valueOf(random.nextInt(100000)), new ECKey());
+        byte[] script = ScriptBuilder.createP2PKHOutputScript(new ECKey()).getProgram();
+
+        for (int round = 0; round < 2; round++) {
+            for (int baseType = 0; baseType <= 4; baseType++) {
+                for (int anyoneCanPay = 0; anyoneCanPay <= 0x80; anyoneCanPay += 0x80) {
+                    byte sigHashType = (byte) (baseType | anyoneCanPay);
+                    for (int i = 0; i < tx.getInputs().size(); i++)
+                        assertEquals(simplifiedCopySigHash(tx, i, script, sigHashType),
+                                tx.hashForSignature(i, script, sigHashType));
+                }
+            }
+            // the outputs that were serialized for the signature hash must not be reused after a change
+            tx.getOutput(1).setValue(Coin.COIN);
+            tx.shuffleOutputs();
+        }
+    }
 }
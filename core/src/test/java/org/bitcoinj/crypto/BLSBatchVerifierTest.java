@@ -0,0 +1,160 @@
+package org.bitcoinj.crypto;
+
+import org.bitcoinj.core.Context;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.params.MainNetParams;
+import org.dashj.bls.BLS;
+import org.junit.AfterClass;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BLSBatchVerifierTest {
+
+    private static NetworkParameters PARAMS = MainNetParams.get();
+    private static final ExecutorService executor = Executors.newFixedThreadPool(3);
+
+    static {
+        Context context = new Context(PARAMS);
+        BLS.Init();
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        executor.shutdownNow();
+    }
+
+    private static BLSSecretKey key(int source) {
+        return BLSSecretKey.fromSeed(Sha256Hash.of(new byte[] {(byte) source}).getBytes());
+    }
+
+    /** Pushes 4 messages for each of 10 sources, message 2 of source 3 and message 1 of source 7 are signed badly. */
+    private static void pushMessages(BLSBatchVerifier<Integer, Sha256Hash> verifier, boolean withBadMessages) {
+        for (int source = 0; source < 10; source++) {
+            BLSSecretKey sk = key(source);
+            for (int i = 0; i < 4; i++) {
+                Sha256Hash msgId = Sha256Hash.of(new byte[] {(byte) source, (byte) i});
+                // sources 0 and 1 sign the same hashes, which are aggregated by hash
+                Sha256Hash msgHash = Sha256Hash.of(new byte[] {(byte) Math.min(source, 1), (byte) i, 1});
+                boolean bad = withBadMessages && ((source == 3 && i == 2) || (source == 7 && i == 1));
+                BLSSignature sig = bad ? key(source + 100).Sign(msgHash) : sk.Sign(msgHash);
+                verifier.pushMessage(source, msgId, msgHash, sig, sk.GetPublicKey());
+            }
+        }
+    }
+
+    private static void checkBadMessages(BLSBatchVerifier<Integer, Sha256Hash> verifier) {
+        assertEquals(10, verifier.getUniqueSourceCount());
+        assertEquals(2, verifier.getBadSources().size());
+        assertTrue(verifier.getBadSources().contains(3));
+        assertTrue(verifier.getBadSources().contains(7));
+        assertEquals(2, verifier.getBadMessages().size());
+        assertTrue(verifier.getBadMessages().contains(Sha256Hash.of(new byte[] {3, 2})));
+        assertTrue(verifier.getBadMessages().contains(Sha256Hash.of(new byte[] {7, 1})));
+    }
+
+    @Test
+    public void validBatch() {
+        for (boolean secure : new boolean[] {false, true}) {
+            BLSBatchVerifier<Integer, Sha256Hash> sequential = new BLSBatchVerifier<>(secure, true);
+            pushMessages(sequential, false);
+            sequential.verify();
+            assertTrue(sequential.getBadSources().isEmpty());
+            assertTrue(sequential.getBadMessages().isEmpty());
+
+            BLSBatchVerifier<Integer, Sha256Hash> parallel = new BLSBatchVerifier<>(secure, true, 0, executor, 3);
+            pushMessages(parallel, false);
+            parallel.verify();
+            assertTrue(parallel.getBadSources().isEmpty());
+            assertTrue(parallel.getBadMessages().isEmpty());
+        }
+    }
+
+    @Test
+    public void badMessages() {
+        for (boolean secure : new boolean[] {false, true}) {
+            BLSBatchVerifier<Integer, Sha256Hash> sequential = new BLSBatchVerifier<>(secure, true);
+            pushMessages(sequential, true);
+            sequential.verify();
+            checkBadMessages(sequential);
+
+            BLSBatchVerifier<Integer, Sha256Hash> parallel = new BLSBatchVerifier<>(secure, true, 0, executor, 3);
+            pushMessages(parallel, true);
+            parallel.verify();
+            checkBadMessages(parallel);
+        }
+    }
+
+    @Test
+    public void badSourcesWithoutMessageFallback() {
+        BLSBatchVerifier<Integer, Sha256Hash> verifier = new BLSBatchVerifier<>(false, false, 0, executor, 4);
+        pushMessages(verifier, true);
+        verifier.verify();
+        assertEquals(2, verifier.getBadSources().size());
+        assertTrue(verifier.getBadMessages().isEmpty());
+    }
+
+    @Test
+    public void pushedSignaturesAreNotModified() {
+        BLSBatchVerifier<Integer, Sha256Hash> verifier = new BLSBatchVerifier<>(false, true);
+        BLSSecretKey sk = key(1);
+        Sha256Hash hash1 = Sha256Hash.of(new byte[] {1});
+        Sha256Hash hash2 = Sha256Hash.of(new byte[] {2});
+        BLSSignature sig1 = sk.Sign(hash1);
+        BLSSignature sig2 = sk.Sign(hash2);
+        verifier.pushMessage(1, hash1, hash1, sig1, sk.GetPublicKey());
+        verifier.pushMessage(1, hash2, hash2, sig2, sk.GetPublicKey());
+        verifier.verify();
+        assertTrue(verifier.getBadSources().isEmpty());
+        assertTrue(sig1.verifyInsecure(sk.GetPublicKey(), hash1));
+        assertTrue(sig2.verifyInsecure(sk.GetPublicKey(), hash2));
+    }
+
+    @Test
+    public void singleSourceIsSpreadOverTheExecutor() {
+        final AtomicInteger tasks = new AtomicInteger();
+        ThreadPoolExecutor counting = new ThreadPoolExecutor(3, 3, 0, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>()) {
+            @Override
+            protected void beforeExecute(Thread t, Runnable r) {
+                tasks.incrementAndGet();
+            }
+        };
+        try {
+            BLSSecretKey sk = key(1);
+            BLSBatchVerifier<Integer, Sha256Hash> verifier = new BLSBatchVerifier<>(false, true, 0, counting, 3);
+            for (int i = 0; i < 12; i++) {
+                Sha256Hash hash = Sha256Hash.of(new byte[] {(byte) i});
+                verifier.pushMessage(1, hash, hash, sk.Sign(hash), sk.GetPublicKey());
+            }
+            verifier.verify();
+            assertTrue(verifier.getBadSources().isEmpty());
+            // one sub-batch per worker, although all messages come from the same source
+            assertEquals(3, tasks.get());
+
+            BLSBatchVerifier<Integer, Sha256Hash> bad = new BLSBatchVerifier<>(false, true, 0, counting, 3);
+            Sha256Hash badHash = null;
+            for (int i = 0; i < 12; i++) {
+                Sha256Hash hash = Sha256Hash.of(new byte[] {(byte) i});
+                BLSSignature sig = i == 5 ? key(2).Sign(hash) : sk.Sign(hash);
+                if (i == 5)
+                    badHash = hash;
+                bad.pushMessage(1, hash, hash, sig, sk.GetPublicKey());
+            }
+            bad.verify();
+            assertEquals(Collections.singleton(1), bad.getBadSources());
+            assertEquals(Collections.singleton(badHash), bad.getBadMessages());
+        } finally {
+            counting.shutdownNow();
+        }
+    }
+}
@@ -12,7 +12,9 @@ import java.math.BigInteger;
 import java.util.Random;
 
 import static com.google.common.base.Preconditions.checkState;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 
 public class BLSLazyPublicKeyTest {
 
@@ -58,4 +60,23 @@ public class BLSLazyPublicKeyTest {
         assertEquals(lazyPublicKeyFromBytes.toString(), lazyPublicKeyFromObject.toString());
 
     }
+
+    @Test
+    public void copiesShareTheDecodedKey() {
+        byte [] seed = getRandomSeed(32);
+        byte [] publicKeyBytes = PrivateKey.FromSeed(seed, seed.length).GetPublicKey().Serialize();
+
+        BLSLazyPublicKey lazyPublicKey = new BLSLazyPublicKey(PARAMS, publicKeyBytes, 0);
+        BLSLazyPublicKey copy = new BLSLazyPublicKey(lazyPublicKey);
+        BLSPublicKey publicKey = lazyPublicKey.getPublicKey();
+        assertSame(publicKey, lazyPublicKey.getPublicKey());
+        // the copy was made before decoding, so it decodes on its own but serializes the same
+        assertArrayEquals(publicKeyBytes, copy.bitcoinSerialize());
+
+        // a copy made after decoding shares the key
+        BLSLazyPublicKey decodedCopy = new BLSLazyPublicKey(lazyPublicKey);
+        checkState(decodedCopy.isPublicKeyInitialized());
+        assertSame(publicKey, decodedCopy.getPublicKey());
+        assertArrayEquals(publicKeyBytes, decodedCopy.bitcoinSerialize());
+    }
 }
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2022 Dash Core Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.evolution;
+
+import org.bitcoinj.core.Context;
+import org.bitcoinj.core.KeyId;
+import org.bitcoinj.core.MasternodeAddress;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.Utils;
+import org.bitcoinj.crypto.BLSLazyPublicKey;
+import org.bitcoinj.params.UnitTestParams;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class IncrementalMerkleTreeTest {
+
+    /** The level by level construction that the lists used before the tree was kept. */
+    private static Sha256Hash naiveRoot(List<Sha256Hash> hashes) {
+        if (hashes.isEmpty())
+            return Sha256Hash.ZERO_HASH;
+        List<Sha256Hash> level = hashes;
+        while (level.size() > 1) {
+            List<Sha256Hash> parents = new ArrayList<>();
+            for (int left = 0; left < level.size(); left += 2) {
+                int right = Math.min(left + 1, level.size() - 1);
+                byte[] leftBytes = level.get(left).getReversedBytes();
+                byte[] rightBytes = level.get(right).getReversedBytes();
+                parents.add(Sha256Hash.wrapReversed(Sha256Hash.hashTwice(leftBytes, 0, 32, rightBytes, 0, 32)));
+            }
+            level = parents;
+        }
+        return level.get(0);
+    }
+
+    private static Sha256Hash randomHash(Random random) {
+        byte[] bytes = new byte[32];
+        random.nextBytes(bytes);
+        return Sha256Hash.wrap(bytes);
+    }
+
+    @Test
+    public void knownRoot() {
+        ArrayList<Sha256Hash> hashes = new ArrayList<>();
+        hashes.add(Sha256Hash.wrap("373b549f6380d8f7b04d7b04d7c58a749c5cbe3bf41536785ba819879c4870f1"));
+        assertEquals(hashes.get(0), IncrementalMerkleTree.build(hashes, null).getRoot());
+        assertEquals(Sha256Hash.ZERO_HASH, IncrementalMerkleTree.build(new ArrayList<Sha256Hash>(), null).getRoot());
+    }
+
+    @Test
+    public void updatesMatchFullRebuild() {
+        Random random = new Random(3);
+        ArrayList<Sha256Hash> leaves = new ArrayList<>();
+        for (int i = 0; i < 37; i++)
+            leaves.add(randomHash(random));
+
+        IncrementalMerkleTree tree = IncrementalMerkleTree.build(leaves, null);
+        assertEquals(naiveRoot(leaves), tree.getRoot());
+        for (int round = 0; round < 200; round++) {
+            int op = random.nextInt(3);
+            if (op == 0 || leaves.size() < 2)
+                leaves.add(random.nextInt(leaves.size() + 1), randomHash(random));
+            else if (op == 1)
+                leaves.remove(random.nextInt(leaves.size()));
+            else
+                leaves.set(random.nextInt(leaves.size()), randomHash(random));
+            tree = IncrementalMerkleTree.build(leaves, tree);
+            assertEquals(leaves.size(), tree.size());
+            assertEquals(naiveRoot(leaves), tree.getRoot());
+        }
+    }
+
+    @Test
+    public void listRootFollowsChanges() {
+        new Context(UnitTestParams.get());
+        SimplifiedMasternodeList list = new SimplifiedMasternodeList(UnitTestParams.get());
+        ArrayList<SimplifiedMasternodeListEntry> entries = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            SimplifiedMasternodeListEntry smle = new SimplifiedMasternodeListEntry(UnitTestParams.get());
+            smle.proRegTxHash = Sha256Hash.of(new byte[] {(byte) i});
+            smle.confirmedHash = Sha256Hash.of(new byte[] {(byte) i, 1});
+            smle.service = new MasternodeAddress(new InetSocketAddress("127.0.0.1", 9999));
+            smle.keyIdVoting = new KeyId(new byte[20]);
+            smle.pubKeyOperator = new BLSLazyPublicKey(UnitTestParams.get(), new byte[48], 0);
+            smle.isValid = i % 3 != 0;
+            smle.updateConfirmedHashWithProRegTxHash();
+            entries.add(smle);
+            list.addMN(smle);
+        }
+        assertEquals(expectedRoot(list), list.calculateMerkleRoot());
+
+        // a copy starts from the tree of its source and only rebuilds what changed
+        SimplifiedMasternodeList next = new SimplifiedMasternodeList(list);
+        next.removeMN(entries.get(4).proRegTxHash);
+        next.removeMN(entries.get(11).proRegTxHash);
+        assertEquals(expectedRoot(next), next.calculateMerkleRoot());
+        assertEquals(expectedRoot(list), list.calculateMerkleRoot());
+    }
+
+    private static Sha256Hash expectedRoot(SimplifiedMasternodeList list) {
+        ArrayList<Sha256Hash> proTxHashes = new ArrayList<>(list.mnMap.keySet());
+        Collections.sort(proTxHashes);
+        ArrayList<Sha256Hash> hashes = new ArrayList<>();
+        for (Sha256Hash proTxHash : proTxHashes)
+            hashes.add(list.getMN(proTxHash).getHash());
+        return naiveRoot(hashes);
+    }
+
+    @Test
+    public void unchangedLeavesKeepRoot() {
+        Random random = new Random(5);
+        ArrayList<Sha256Hash> leaves = new ArrayList<>();
+        for (int i = 0; i < 16; i++)
+            leaves.add(randomHash(random));
+        IncrementalMerkleTree tree = IncrementalMerkleTree.build(leaves, null);
+        ArrayList<Sha256Hash> copies = new ArrayList<>();
+        for (Sha256Hash leaf : leaves)
+            copies.add(Sha256Hash.wrap(Utils.HEX.decode(leaf.toString())));
+        assertEquals(tree.getRoot(), IncrementalMerkleTree.build(copies, tree).getRoot());
+    }
+}
@@ -0,0 +1,94 @@
+package org.bitcoinj.evolution;
+
+import org.bitcoinj.core.Context;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.params.UnitTestParams;
+import org.bitcoinj.utils.Pair;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+
+public class SimplifiedMasternodeListTest {
+    private static final NetworkParameters PARAMS = UnitTestParams.get();
+
+    private ArrayList<SimplifiedMasternodeListEntry> entries;
+
+    @Before
+    public void setUp() {
+        new Context(PARAMS);
+        entries = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            SimplifiedMasternodeListEntry smle = new SimplifiedMasternodeListEntry(PARAMS);
+            smle.proRegTxHash = Sha256Hash.of(new byte[] {(byte) i, 1});
+            // a few entries are unconfirmed or invalid and must never be selected
+            smle.confirmedHash = i % 17 == 0 ? Sha256Hash.ZERO_HASH : Sha256Hash.of(new byte[] {(byte) i, 2});
+            smle.isValid = i % 23 != 0;
+            smle.updateConfirmedHashWithProRegTxHash();
+            entries.add(smle);
+        }
+    }
+
+    private static ArrayList<Masternode> fullSort(SimplifiedMasternodeList list, int maxSize, Sha256Hash modifier) {
+        ArrayList<Pair<Sha256Hash, Masternode>> scores = list.calculateScores(modifier);
+        Collections.sort(scores, Collections.reverseOrder(new SimplifiedMasternodeList.CompareScoreMN<Pair<Sha256Hash, Masternode>>()));
+        ArrayList<Masternode> result = new ArrayList<>();
+        for (int i = 0; i < Math.min(maxSize, scores.size()); i++)
+            result.add(scores.get(i).getSecond());
+        return result;
+    }
+
+    @Test
+    public void calculateQuorumMatchesFullSort() {
+        SimplifiedMasternodeList scratch = new SimplifiedMasternodeList(PARAMS, entries);
+        SimplifiedMasternodeList atBlock = new SimplifiedMasternodeList(PARAMS, entries);
+        atBlock.setHeight(100);
+        for (int modifier = 0; modifier < 3; modifier++) {
+            Sha256Hash hash = Sha256Hash.of(new byte[] {(byte) modifier});
+            for (int maxSize : new int[] {0, 1, 10, 50, 170, 1000}) {
+                ArrayList<Masternode> expected = fullSort(scratch, maxSize, hash);
+                assertEquals(expected, scratch.calculateQuorum(maxSize, hash));
+                // the second call is answered from the score cache
+                assertEquals(expected, atBlock.calculateQuorum(maxSize, hash));
+                assertEquals(expected, atBlock.calculateQuorum(maxSize, hash));
+            }
+        }
+    }
+
+    @Test
+    public void calculateQuorumReusesScoresOfAnotherList() {
+        SimplifiedMasternodeList allMns = new SimplifiedMasternodeList(PARAMS, entries);
+        allMns.setHeight(100);
+        Sha256Hash modifier = Sha256Hash.of(new byte[] {7});
+
+        // a subset of allMns is read off the cached order
+        SimplifiedMasternodeList subset = new SimplifiedMasternodeList(PARAMS);
+        for (int i = 0; i < entries.size(); i += 3)
+            subset.addMN(entries.get(i));
+        assertEquals(fullSort(subset, 1000, modifier), subset.calculateQuorum(1000, modifier, allMns));
+        assertEquals(fullSort(subset, 10, modifier), subset.calculateQuorum(10, modifier, allMns));
+
+        // entries that are missing from allMns or were confirmed differently are scored again
+        SimplifiedMasternodeList mixed = new SimplifiedMasternodeList(PARAMS);
+        for (int i = 0; i < entries.size(); i += 2)
+            mixed.addMN(entries.get(i));
+        SimplifiedMasternodeListEntry changed = new SimplifiedMasternodeListEntry(PARAMS);
+        changed.proRegTxHash = entries.get(4).proRegTxHash;
+        changed.confirmedHash = Sha256Hash.of(new byte[] {4, 3});
+        changed.isValid = true;
+        changed.updateConfirmedHashWithProRegTxHash();
+        mixed.addMN(changed);
+        SimplifiedMasternodeListEntry added = new SimplifiedMasternodeListEntry(PARAMS);
+        added.proRegTxHash = Sha256Hash.of(new byte[] {1, 2, 3});
+        added.confirmedHash = Sha256Hash.of(new byte[] {3, 2, 1});
+        added.isValid = true;
+        added.updateConfirmedHashWithProRegTxHash();
+        mixed.addMN(added);
+        assertEquals(fullSort(mixed, 1000, modifier), mixed.calculateQuorum(1000, modifier, allMns));
+        assertEquals(fullSort(mixed, 25, modifier), mixed.calculateQuorum(25, modifier, allMns));
+    }
+}
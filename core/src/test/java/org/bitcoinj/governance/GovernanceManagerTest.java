@@ -0,0 +1,251 @@
+/*
+ * Copyright 2022 Dash Core Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.governance;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import org.bitcoinj.core.Context;
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.core.InventoryItem;
+import org.bitcoinj.core.KeyId;
+import org.bitcoinj.core.MasternodeSync;
+import org.bitcoinj.core.Message;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Peer;
+import org.bitcoinj.core.PeerAddress;
+import org.bitcoinj.core.PublicKey;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.TransactionOutPoint;
+import org.bitcoinj.core.Utils;
+import org.bitcoinj.core.VersionMessage;
+import org.bitcoinj.evolution.SimplifiedMasternodeList;
+import org.bitcoinj.evolution.SimplifiedMasternodeListEntry;
+import org.bitcoinj.evolution.SimplifiedMasternodeListManager;
+import org.bitcoinj.params.UnitTestParams;
+import org.bitcoinj.utils.Metrics;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.bitcoinj.governance.GovernanceVote.VoteOutcome.VOTE_OUTCOME_YES;
+import static org.bitcoinj.governance.GovernanceVote.VoteSignal.VOTE_SIGNAL_FUNDING;
+import static org.junit.Assert.*;
+
+public class GovernanceManagerTest {
+    private static final NetworkParameters UNITTEST = UnitTestParams.get();
+
+    private Context context;
+    private GovernanceManager manager;
+    private Peer peer;
+    private final List<Message> sentMessages = new CopyOnWriteArrayList<>();
+
+    @Before
+    public void setUp() {
+        Utils.setMockClock();
+        context = new Context(UNITTEST);
+        context.initDash(true, true);
+        setSyncFlags(EnumSet.noneOf(MasternodeSync.SYNC_FLAGS.class));
+        manager = context.governanceManager;
+
+        final VersionMessage version = new VersionMessage(UNITTEST, 0);
+        version.clientVersion = GovernanceManager.GOVERNANCE_FILTER_PROTO_VERSION;
+        peer = new Peer(UNITTEST, version, new PeerAddress(UNITTEST, InetAddress.getLoopbackAddress()), null) {
+            @Override
+            public VersionMessage getVersionMessage() {
+                return version;
+            }
+
+            @Override
+            public ListenableFuture<?> sendMessage(Message message) {
+                sentMessages.add(message);
+                return Futures.immediateFuture(null);
+            }
+        };
+    }
+
+    @After
+    public void tearDown() {
+        manager.close();
+        Utils.resetMocking();
+    }
+
+    private void setSyncFlags(EnumSet<MasternodeSync.SYNC_FLAGS> syncFlags) {
+        context.masternodeSync = new MasternodeSync(context, syncFlags) {
+            @Override
+            public boolean isBlockchainSynced() {
+                return true;
+            }
+        };
+    }
+
+    // managers need a class name of their own
+    private static class FixedListManager extends SimplifiedMasternodeListManager {
+        private final SimplifiedMasternodeList mnList;
+
+        FixedListManager(Context context, SimplifiedMasternodeList mnList) {
+            super(context);
+            this.mnList = mnList;
+        }
+
+        @Override
+        public SimplifiedMasternodeList getListAtChainTip() {
+            return mnList;
+        }
+    }
+
+    // votes are only accepted after they were announced and requested
+    private GovernanceVote requestedVote(TransactionOutPoint masternodeOutpoint, Sha256Hash parentHash) {
+        GovernanceVote vote = new GovernanceVote(UNITTEST, masternodeOutpoint, parentHash, VOTE_SIGNAL_FUNDING, VOTE_OUTCOME_YES);
+        assertTrue(manager.confirmInventoryRequest(new InventoryItem(InventoryItem.Type.GovernanceObjectVote, vote.getHash())));
+        return vote;
+    }
+
+    // the parent of the vote is unknown, so processing the vote requests it from the peer
+    private boolean parentRequested(Sha256Hash parentHash) {
+        for (Message message : sentMessages) {
+            if (message instanceof GovernanceSyncMessage && ((GovernanceSyncMessage) message).prop.equals(parentHash))
+                return true;
+        }
+        return false;
+    }
+
+    @Test
+    public void votesAreProcessedOnTheIngestExecutor() {
+        final List<Runnable> tasks = new ArrayList<>();
+        manager.setIngestExecutor(tasks::add);
+        Sha256Hash parentHash = Sha256Hash.of(new byte[] {1});
+
+        manager.processGovernanceObjectVote(peer, requestedVote(GovernanceObjectTest.outpoint(1), parentHash));
+        // an unrequested vote is dropped on the network thread
+        manager.processGovernanceObjectVote(peer, new GovernanceVote(UNITTEST, GovernanceObjectTest.outpoint(2),
+                parentHash, VOTE_SIGNAL_FUNDING, VOTE_OUTCOME_YES));
+        assertEquals(1, tasks.size());
+        assertTrue(sentMessages.isEmpty());
+
+        tasks.get(0).run();
+        assertTrue(parentRequested(parentHash));
+
+        // without an executor the vote is processed on the thread that received it
+        manager.setIngestExecutor(null);
+        Sha256Hash otherParentHash = Sha256Hash.of(new byte[] {2});
+        manager.processGovernanceObjectVote(peer, requestedVote(GovernanceObjectTest.outpoint(1), otherParentHash));
+        assertEquals(1, tasks.size());
+        assertTrue(parentRequested(otherParentHash));
+    }
+
+    @Test
+    @SuppressWarnings("deprecation")
+    public void votingSignaturesAreVerifiedOnTheIngestExecutor() throws Exception {
+        setSyncFlags(EnumSet.of(MasternodeSync.SYNC_FLAGS.SYNC_MASTERNODE_LIST));
+        final ECKey votingKey = new ECKey();
+        final TransactionOutPoint masternodeOutpoint = GovernanceObjectTest.outpoint(1);
+        final SimplifiedMasternodeListEntry masternode = new SimplifiedMasternodeListEntry(UNITTEST) {
+            @Override
+            public KeyId getKeyIdVoting() {
+                return new KeyId(votingKey.getPubKeyHash());
+            }
+        };
+        final List<String> lookupThreads = new CopyOnWriteArrayList<>();
+        // the collateral is the first output of the registration transaction
+        final SimplifiedMasternodeList mnList = new SimplifiedMasternodeList(UNITTEST) {
+            @Override
+            public SimplifiedMasternodeListEntry getMN(Sha256Hash proTxHash) {
+                lookupThreads.add(Thread.currentThread().getName());
+                return proTxHash.equals(masternodeOutpoint.getHash()) ? masternode : null;
+            }
+        };
+        context.masternodeListManager = new FixedListManager(context, mnList);
+
+        ExecutorService executor = Executors.newSingleThreadExecutor(r -> new Thread(r, "ingest"));
+        manager.setIngestExecutor(executor);
+        Sha256Hash parentHash = Sha256Hash.of(new byte[] {1});
+        GovernanceVote vote = requestedVote(masternodeOutpoint, parentHash);
+        assertTrue(vote.sign(votingKey, new PublicKey(votingKey.getPubKey())));
+        manager.processGovernanceObjectVote(peer, vote);
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+
+        // the masternode was looked up and the signature checked before the vote reached the manager
+        assertFalse(lookupThreads.isEmpty());
+        for (String thread : lookupThreads)
+            assertEquals("ingest", thread);
+        assertTrue(parentRequested(parentHash));
+        assertTrue(vote.isValid(true));
+    }
+
+    @Test
+    public void votesOfMasternodesWithAnExternalCollateralAreNotVerified() {
+        setSyncFlags(EnumSet.of(MasternodeSync.SYNC_FLAGS.SYNC_MASTERNODE_LIST));
+        context.masternodeListManager = new FixedListManager(context, new SimplifiedMasternodeList(UNITTEST));
+        manager.setIngestExecutor(null);
+        Sha256Hash parentHash = Sha256Hash.of(new byte[] {1});
+        GovernanceVote vote = requestedVote(GovernanceObjectTest.outpoint(1), parentHash);
+
+        manager.processGovernanceObjectVote(peer, vote);
+        assertFalse(vote.isValid(true));
+    }
+
+    @Test
+    public void failedVotesAreRejected() {
+        setSyncFlags(EnumSet.of(MasternodeSync.SYNC_FLAGS.SYNC_MASTERNODE_LIST));
+        context.masternodeListManager = new FixedListManager(context, new SimplifiedMasternodeList(UNITTEST) {
+            @Override
+            public SimplifiedMasternodeListEntry getMN(Sha256Hash proTxHash) {
+                throw new IllegalStateException();
+            }
+        });
+        final List<Runnable> tasks = new ArrayList<>();
+        manager.setIngestExecutor(tasks::add);
+        Metrics.Counter rejected = Metrics.get().counter("dashj_governance_votes_rejected_total", "");
+        long rejectedBefore = rejected.get();
+        Sha256Hash parentHash = Sha256Hash.of(new byte[] {1});
+
+        manager.processGovernanceObjectVote(peer, requestedVote(GovernanceObjectTest.outpoint(1), parentHash));
+        tasks.get(0).run();
+        assertEquals(rejectedBefore + 1, rejected.get());
+        assertFalse(parentRequested(parentHash));
+    }
+
+    @Test
+    public void votesAreProcessedInlineAfterClose() {
+        // the first vote creates the default pool
+        manager.processGovernanceObjectVote(peer, requestedVote(GovernanceObjectTest.outpoint(1), Sha256Hash.of(new byte[] {1})));
+        manager.close();
+        Sha256Hash parentHash = Sha256Hash.of(new byte[] {2});
+        manager.processGovernanceObjectVote(peer, requestedVote(GovernanceObjectTest.outpoint(1), parentHash));
+        // after close the pool is not created again, the vote is processed on this thread
+        assertTrue(parentRequested(parentHash));
+
+        // as are the votes that an executor rejects
+        manager.setIngestExecutor(task -> {
+            throw new RejectedExecutionException();
+        });
+        Sha256Hash otherParentHash = Sha256Hash.of(new byte[] {3});
+        manager.processGovernanceObjectVote(peer, requestedVote(GovernanceObjectTest.outpoint(1), otherParentHash));
+        assertTrue(parentRequested(otherParentHash));
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2022 Dash Core Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.governance;
+
+import org.bitcoinj.core.Context;
+import org.bitcoinj.core.MasternodeSignature;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.TransactionOutPoint;
+import org.bitcoinj.core.Utils;
+import org.bitcoinj.params.UnitTestParams;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.bitcoinj.governance.GovernanceVote.VoteOutcome.VOTE_OUTCOME_NO;
+import static org.bitcoinj.governance.GovernanceVote.VoteOutcome.VOTE_OUTCOME_YES;
+import static org.bitcoinj.governance.GovernanceVote.VoteSignal.VOTE_SIGNAL_FUNDING;
+import static org.junit.Assert.assertEquals;
+
+public class GovernanceObjectTest {
+    private static final NetworkParameters UNITTEST = UnitTestParams.get();
+
+    @Before
+    public void setUp() {
+        Utils.setMockClock();
+        new Context(UNITTEST);
+    }
+
+    @After
+    public void tearDown() {
+        Utils.resetMocking();
+    }
+
+    /** Returns an unsigned proposal of the masternode with the given collateral. */
+    static GovernanceObject proposal(TransactionOutPoint masternodeOutpoint) throws IOException {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        stream.write(Sha256Hash.ZERO_HASH.getReversedBytes());
+        Utils.uint32ToByteStreamLE(1, stream);
+        Utils.int64ToByteStreamLE(Utils.currentTimeSeconds(), stream);
+        stream.write(Sha256Hash.of(new byte[] {1}).getReversedBytes());
+        Utils.bytesToByteStream("{}".getBytes("UTF-8"), stream);
+        Utils.uint32ToByteStreamLE(GovernanceObject.GOVERNANCE_OBJECT_PROPOSAL, stream);
+        masternodeOutpoint.bitcoinSerialize(stream);
+        new MasternodeSignature(new byte[0]).bitcoinSerialize(stream);
+        return new GovernanceObject(UNITTEST, stream.toByteArray());
+    }
+
+    static TransactionOutPoint outpoint(int masternode) {
+        return new TransactionOutPoint(UNITTEST, 0, Sha256Hash.of(new byte[] {(byte) masternode}));
+    }
+
+    @Test
+    public void restoredVotesKeepTheirOutcome() throws IOException {
+        GovernanceObject proposal = proposal(outpoint(0));
+        proposal.restoreVote(new GovernanceVote(UNITTEST, outpoint(1), proposal.getHash(), VOTE_SIGNAL_FUNDING, VOTE_OUTCOME_YES));
+        proposal.restoreVote(new GovernanceVote(UNITTEST, outpoint(2), proposal.getHash(), VOTE_SIGNAL_FUNDING, VOTE_OUTCOME_NO));
+        proposal.restoreVote(new GovernanceVote(UNITTEST, outpoint(3), proposal.getHash(), VOTE_SIGNAL_FUNDING, VOTE_OUTCOME_YES));
+        assertEquals(2, proposal.getYesCount(VOTE_SIGNAL_FUNDING));
+        assertEquals(1, proposal.getNoCount(VOTE_SIGNAL_FUNDING));
+
+        // a later vote of the same masternode replaces its earlier one
+        Utils.rollMockClock(60);
+        GovernanceVote changed = new GovernanceVote(UNITTEST, outpoint(2), proposal.getHash(), VOTE_SIGNAL_FUNDING, VOTE_OUTCOME_YES);
+        Utils.rollMockClock(-120);
+        GovernanceVote older = new GovernanceVote(UNITTEST, outpoint(3), proposal.getHash(), VOTE_SIGNAL_FUNDING, VOTE_OUTCOME_NO);
+        proposal.restoreVote(changed);
+        proposal.restoreVote(older);
+        assertEquals(3, proposal.getYesCount(VOTE_SIGNAL_FUNDING));
+        assertEquals(0, proposal.getNoCount(VOTE_SIGNAL_FUNDING));
+        assertEquals(3, proposal.getAbsoluteYesCount(VOTE_SIGNAL_FUNDING));
+    }
+}
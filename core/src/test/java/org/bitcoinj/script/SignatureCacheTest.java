@@ -0,0 +1,61 @@
+/*
+ * Copyright 2022 Dash Core Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.script;
+
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.core.Sha256Hash;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SignatureCacheTest {
+
+    @Test
+    public void remembersOnlyValidSignatures() {
+        SignatureCache cache = new SignatureCache(10);
+        ECKey key = new ECKey();
+        Sha256Hash hash = Sha256Hash.of(new byte[] {1});
+        ECKey.ECDSASignature signature = key.sign(hash);
+        byte[] signatureBytes = signature.encodeToDER();
+
+        assertTrue(cache.verify(hash, signature, signatureBytes, key.getPubKey()));
+        assertEquals(1, cache.size());
+        assertTrue(cache.verify(hash, signature, signatureBytes, key.getPubKey()));
+        assertEquals(1, cache.size());
+
+        // the same signature for another hash or key is checked and fails
+        Sha256Hash otherHash = Sha256Hash.of(new byte[] {2});
+        assertFalse(cache.verify(otherHash, signature, signatureBytes, key.getPubKey()));
+        assertFalse(cache.verify(hash, signature, signatureBytes, new ECKey().getPubKey()));
+        assertEquals(1, cache.size());
+
+        cache.clear();
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void oldGenerationIsDropped() {
+        SignatureCache cache = new SignatureCache(4);
+        ECKey key = new ECKey();
+        for (int i = 0; i < 10; i++) {
+            Sha256Hash hash = Sha256Hash.of(new byte[] {(byte) i});
+            ECKey.ECDSASignature signature = key.sign(hash);
+            assertTrue(cache.verify(hash, signature, signature.encodeToDER(), key.getPubKey()));
+            assertTrue(cache.size() <= 4);
+        }
+    }
+}
@@ -25,8 +25,11 @@ import org.bitcoinj.params.*;
 import org.junit.*;
 
 import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 
 public class LevelDBBlockStoreTest {
     private static NetworkParameters UNITTEST;
@@ -71,4 +74,40 @@ public class LevelDBBlockStoreTest {
             store.destroy();
         }
     }
+
+    @Test
+    public void heightIndex_reorg() throws Exception {
+        File f = File.createTempFile("leveldbblockstore", null);
+        f.delete();
+
+        Context context = new Context(UNITTEST);
+        LevelDBBlockStore store = new LevelDBBlockStore(context, f);
+        try {
+            store.reset();
+            Address to = Address.fromBase58(UNITTEST, "yXXWsFYKL2TouBVHcLeXnhg2GRzntvs5oy");
+            List<StoredBlock> main = new ArrayList<>();
+            main.add(store.getChainHead());
+            for (int i = 0; i < 5; i++) {
+                StoredBlock prev = main.get(main.size() - 1);
+                StoredBlock next = prev.build(prev.getHeader().createNextBlock(to).cloneAsHeader());
+                store.put(next);
+                store.setChainHead(next);
+                main.add(next);
+            }
+            for (int height = 0; height < main.size(); height++)
+                assertEquals(main.get(height), store.get(height));
+
+            // Re-org onto a shorter fork branching off at height 2, higher heights must disappear.
+            StoredBlock forkBlock = main.get(2).build(main.get(2).getHeader().createNextBlock(to).cloneAsHeader());
+            store.put(forkBlock);
+            store.setChainHead(forkBlock);
+            assertEquals(main.get(2), store.get(2));
+            assertEquals(forkBlock, store.get(3));
+            assertNull(store.get(4));
+            assertNull(store.get(5));
+        } finally {
+            store.close();
+            store.destroy();
+        }
+    }
 }
\ No newline at end of file
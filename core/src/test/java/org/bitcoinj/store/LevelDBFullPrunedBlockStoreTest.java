@@ -0,0 +1,124 @@
+/*
+ * Copyright 2022 Dash Core Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.store;
+
+import org.bitcoinj.core.Address;
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.Context;
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.UTXO;
+import org.bitcoinj.core.Utils;
+import org.bitcoinj.params.UnitTestParams;
+import org.bitcoinj.script.ScriptBuilder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class LevelDBFullPrunedBlockStoreTest {
+    private static final NetworkParameters UNITTEST = UnitTestParams.get();
+
+    private File dir;
+    private LevelDBFullPrunedBlockStore store;
+    private ECKey key;
+    private UTXO utxo;
+
+    @Before
+    public void setUp() throws Exception {
+        Utils.resetMocking();
+        new Context(UNITTEST);
+        dir = File.createTempFile("leveldbfullprunedblockstore", null);
+        dir.delete();
+        store = new LevelDBFullPrunedBlockStore(UNITTEST, dir.getAbsolutePath(), 10);
+        key = new ECKey();
+        utxo = new UTXO(Sha256Hash.of(new byte[] {1}), 0, Coin.COIN, 1, false,
+                ScriptBuilder.createP2PKHOutputScript(key), Address.fromKey(UNITTEST, key).toString());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        store.close();
+        for (File f : dir.listFiles())
+            f.delete();
+        dir.delete();
+    }
+
+    private void reopen() throws Exception {
+        store.close();
+        store = new LevelDBFullPrunedBlockStore(UNITTEST, dir.getAbsolutePath(), 10);
+    }
+
+    private void assertUnspent(boolean unspent) throws Exception {
+        assertEquals(unspent, store.getTransactionOutput(utxo.getHash(), utxo.getIndex()) != null);
+        assertEquals(unspent, store.hasUnspentOutputs(utxo.getHash(), 1));
+        assertEquals(unspent ? 1 : 0, store.getOpenTransactionOutputs(Collections.singletonList(key)).size());
+    }
+
+    @Test
+    public void writeBack() throws Exception {
+        store.setWriteBackCache(1048576, Long.MAX_VALUE);
+        store.beginDatabaseBatchWrite();
+        store.addUnspentTransactionOutput(utxo);
+        store.commitDatabaseBatchWrite();
+        // the block is only in the cache, but visible
+        assertFalse(store.writeBack.isEmpty());
+        assertUnspent(true);
+
+        store.flush();
+        assertTrue(store.writeBack.isEmpty());
+        assertUnspent(true);
+
+        // a spend that is not flushed hides the output in the db
+        store.beginDatabaseBatchWrite();
+        store.removeUnspentTransactionOutput(utxo);
+        store.commitDatabaseBatchWrite();
+        assertFalse(store.writeBack.isEmpty());
+        assertUnspent(false);
+
+        // closing writes the cache
+        reopen();
+        assertUnspent(false);
+    }
+
+    @Test
+    public void writeThrough() throws Exception {
+        store.setWriteBackCache(0, Long.MAX_VALUE);
+        store.beginDatabaseBatchWrite();
+        store.addUnspentTransactionOutput(utxo);
+        store.commitDatabaseBatchWrite();
+        assertTrue(store.writeBack.isEmpty());
+        assertUnspent(true);
+    }
+
+    @Test
+    public void abortedBlockIsDropped() throws Exception {
+        store.beginDatabaseBatchWrite();
+        store.addUnspentTransactionOutput(utxo);
+        assertNotNull(store.getTransactionOutput(utxo.getHash(), utxo.getIndex()));
+        assertTrue(store.hasUnspentOutputs(utxo.getHash(), 1));
+        store.abortDatabaseBatchWrite();
+        assertUnspent(false);
+        reopen();
+        assertUnspent(false);
+    }
+}
@@ -0,0 +1,230 @@
+/*
+ * Copyright 2022 Dash Core Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.store;
+
+import org.bitcoinj.core.AbstractManager;
+import org.bitcoinj.core.Context;
+import org.bitcoinj.core.ProtocolException;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.Utils;
+import org.bitcoinj.core.VarInt;
+import org.bitcoinj.params.UnitTestParams;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ManagerJournalTest {
+    private File snapshotFile;
+    private File journalFile;
+    private Context context;
+
+    /** A manager holding a list of numbers, which journals each number that is added. */
+    public static class NumberManager extends AbstractManager {
+        final ArrayList<Long> numbers = new ArrayList<>();
+
+        public NumberManager(Context context) {
+            super(context);
+        }
+
+        void add(long number) {
+            numbers.add(number);
+            unCache();
+            byte[] record = new byte[8];
+            Utils.int64ToByteArrayLE(number, record, 0);
+            if (!appendToJournal(1, record))
+                saveNow();
+        }
+
+        @Override
+        protected ManagerJournal.RecordHandler getJournalRecordHandler() {
+            return this::applyJournalRecord;
+        }
+
+        private void applyJournalRecord(int type, byte[] payload, int offset, int length) {
+            numbers.add(Utils.readInt64(payload, offset));
+        }
+
+        @Override
+        protected void parse() throws ProtocolException {
+            numbers.clear();
+            int size = (int) readVarInt();
+            for (int i = 0; i < size; i++)
+                numbers.add(readInt64());
+            length = cursor - offset;
+        }
+
+        @Override
+        protected void bitcoinSerializeToStream(OutputStream stream) throws IOException {
+            stream.write(new VarInt(numbers.size()).encode());
+            for (long number : numbers)
+                Utils.int64ToByteStreamLE(number, stream);
+        }
+
+        @Override
+        public int calculateMessageSizeInBytes() {
+            return 9 + 8 * numbers.size();
+        }
+
+        @Override
+        public void checkAndRemove() {
+        }
+
+        @Override
+        public void clear() {
+            numbers.clear();
+        }
+
+        @Override
+        public AbstractManager createEmpty() {
+            return new NumberManager(context);
+        }
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        context = new Context(UnitTestParams.get());
+        snapshotFile = File.createTempFile("manager", ".dat");
+        snapshotFile.deleteOnExit();
+        journalFile = ManagerJournal.getFile(snapshotFile);
+        journalFile.deleteOnExit();
+    }
+
+    @After
+    public void tearDown() {
+        journalFile.delete();
+        snapshotFile.delete();
+    }
+
+    private static List<byte[]> replay(File file, Sha256Hash checksum) throws IOException {
+        final List<byte[]> records = new ArrayList<>();
+        ManagerJournal journal = ManagerJournal.open(file, checksum, new ManagerJournal.RecordHandler() {
+            @Override
+            public void onRecord(int type, byte[] payload, int offset, int length) {
+                byte[] record = new byte[length + 1];
+                record[0] = (byte) type;
+                System.arraycopy(payload, offset, record, 1, length);
+                records.add(record);
+            }
+        });
+        if (journal == null)
+            return null;
+        journal.close();
+        return records;
+    }
+
+    @Test
+    public void appendAndReplay() throws IOException {
+        Sha256Hash checksum = Sha256Hash.of(new byte[] {1});
+        ManagerJournal journal = ManagerJournal.create(journalFile, checksum);
+        journal.append(1, new byte[] {10, 11});
+        journal.append(2, new byte[0]);
+        journal.close();
+
+        List<byte[]> records = replay(journalFile, checksum);
+        assertEquals(2, records.size());
+        assertArrayEquals(new byte[] {1, 10, 11}, records.get(0));
+        assertArrayEquals(new byte[] {2}, records.get(1));
+
+        // a journal of another snapshot is not replayed
+        assertNull(replay(journalFile, Sha256Hash.of(new byte[] {2})));
+    }
+
+    @Test
+    public void tornRecordIsCutOff() throws IOException {
+        Sha256Hash checksum = Sha256Hash.of(new byte[] {1});
+        ManagerJournal journal = ManagerJournal.create(journalFile, checksum);
+        journal.append(1, new byte[] {10});
+        long goodSize = journal.size();
+        journal.append(1, new byte[] {20, 21, 22});
+        journal.close();
+
+        RandomAccessFile raf = new RandomAccessFile(journalFile, "rw");
+        raf.setLength(raf.length() - 2);
+        raf.close();
+
+        journal = ManagerJournal.open(journalFile, checksum, new ManagerJournal.RecordHandler() {
+            @Override
+            public void onRecord(int type, byte[] payload, int offset, int length) {
+            }
+        });
+        assertEquals(goodSize, journal.size());
+        journal.append(3, new byte[] {30});
+        journal.close();
+
+        List<byte[]> records = replay(journalFile, checksum);
+        assertEquals(2, records.size());
+        assertArrayEquals(new byte[] {3, 30}, records.get(1));
+    }
+
+    @Test
+    public void compactKeepsRecordsAfterMark() throws IOException {
+        ManagerJournal journal = ManagerJournal.create(journalFile, Sha256Hash.of(new byte[] {1}));
+        journal.append(1, new byte[] {10});
+        long mark = journal.size();
+        journal.append(2, new byte[] {20});
+        Sha256Hash newChecksum = Sha256Hash.of(new byte[] {2});
+        journal.compact(newChecksum, mark);
+        journal.append(3, new byte[] {30});
+        journal.close();
+
+        List<byte[]> records = replay(journalFile, newChecksum);
+        assertEquals(2, records.size());
+        assertArrayEquals(new byte[] {2, 20}, records.get(0));
+        assertArrayEquals(new byte[] {3, 30}, records.get(1));
+    }
+
+    @Test
+    public void managerReplaysJournal() throws IOException {
+        NumberManager manager = new NumberManager(context);
+        manager.setJournalMode(true);
+        manager.numbers.addAll(Arrays.asList(1L, 2L));
+        manager.saveToFile(snapshotFile);
+        long snapshotSize = snapshotFile.length();
+
+        // changes only go to the journal
+        manager.add(3);
+        manager.add(4);
+        assertEquals(snapshotSize, snapshotFile.length());
+        assertTrue(journalFile.exists());
+
+        NumberManager loaded = new NumberManager(context);
+        assertTrue(new FlatDB<NumberManager>(context, snapshotFile.getAbsolutePath(), true).load(loaded));
+        assertEquals(Arrays.asList(1L, 2L, 3L, 4L), loaded.numbers);
+        loaded.setJournalMode(true);
+        loaded.add(5);
+        loaded.close();
+
+        // a full save compacts the journal
+        loaded.saveToFile(snapshotFile);
+        FlatDB<NumberManager> flatDB = new FlatDB<>(context, snapshotFile.getAbsolutePath(), true);
+        NumberManager reloaded = new NumberManager(context);
+        assertTrue(flatDB.load(reloaded));
+        reloaded.close();
+        assertEquals(Arrays.asList(1L, 2L, 3L, 4L, 5L), reloaded.numbers);
+        assertEquals(0, replay(journalFile, flatDB.getChecksum()).size());
+    }
+}
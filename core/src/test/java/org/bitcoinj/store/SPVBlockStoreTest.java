@@ -18,11 +18,14 @@
 package org.bitcoinj.store;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import java.io.File;
 import java.math.BigInteger;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 import org.bitcoinj.core.Address;
@@ -134,6 +137,87 @@ public class SPVBlockStoreTest {
         store = new SPVBlockStore(UNITTEST, blockStoreFile, 10, true);
     }
 
+    @Test
+    public void hashIndex_wrapAroundAndReopen() throws Exception {
+        Address to = Address.fromKey(UNITTEST, new ECKey());
+        SPVBlockStore store = new SPVBlockStore(UNITTEST, blockStoreFile, 10, false, true);
+        List<StoredBlock> blocks = new ArrayList<>();
+        StoredBlock cursor = store.getChainHead();
+        blocks.add(cursor);
+        for (int i = 0; i < 25; i++) {
+            cursor = cursor.build(cursor.getHeader().createNextBlock(to).cloneAsHeader());
+            store.put(cursor);
+            blocks.add(cursor);
+        }
+        store.setChainHead(cursor);
+        // Re-putting a block that is still in the ring must not disturb the index.
+        store.put(blocks.get(20));
+        store.close();
+
+        for (boolean useHashIndex : new boolean[] { true, false }) {
+            store = new SPVBlockStore(UNITTEST, blockStoreFile, 10, false, useHashIndex);
+            for (int i = 0; i < blocks.size(); i++) {
+                StoredBlock expected = i >= blocks.size() - 9 || i == 20 ? blocks.get(i) : null;
+                assertEquals("height " + i, expected, store.get(blocks.get(i).getHeader().getHash()));
+            }
+            assertEquals(cursor, store.getChainHead());
+            store.close();
+        }
+    }
+
+    @Test
+    public void heightIndex_reorgAndReopen() throws Exception {
+        Address to = Address.fromKey(UNITTEST, new ECKey());
+        SPVBlockStore store = new SPVBlockStore(UNITTEST, blockStoreFile, 10, false);
+        StoredBlock genesis = store.getChainHead();
+        List<StoredBlock> main = new ArrayList<>();
+        main.add(genesis);
+        for (int i = 0; i < 5; i++) {
+            StoredBlock prev = main.get(main.size() - 1);
+            StoredBlock next = prev.build(prev.getHeader().createNextBlock(to).cloneAsHeader());
+            store.put(next);
+            store.setChainHead(next);
+            main.add(next);
+        }
+        for (int height = 0; height < main.size(); height++)
+            assertEquals(main.get(height), store.get(height));
+
+        // Re-org onto a longer fork that branches off at height 2.
+        List<StoredBlock> fork = new ArrayList<>(main.subList(0, 3));
+        for (int i = 0; i < 4; i++) {
+            StoredBlock prev = fork.get(fork.size() - 1);
+            StoredBlock next = prev.build(prev.getHeader().createNextBlock(to).cloneAsHeader());
+            store.put(next);
+            fork.add(next);
+        }
+        store.setChainHead(fork.get(fork.size() - 1));
+        for (int height = 0; height < fork.size(); height++)
+            assertEquals(fork.get(height), store.get(height));
+        assertNull(store.get(fork.size()));
+        store.close();
+
+        // The ring now holds the last 10 of the 10 records written, so everything is still reachable after reopening.
+        store = new SPVBlockStore(UNITTEST, blockStoreFile, 10, false);
+        for (int height = 0; height < fork.size(); height++)
+            assertEquals(fork.get(height), store.get(height));
+
+        // Extending past the capacity replaces every record in the ring.
+        List<StoredBlock> extension = new ArrayList<>();
+        StoredBlock cursor = fork.get(fork.size() - 1);
+        for (int i = 0; i < 10; i++) {
+            cursor = cursor.build(cursor.getHeader().createNextBlock(to).cloneAsHeader());
+            store.put(cursor);
+            store.setChainHead(cursor);
+            extension.add(cursor);
+        }
+        store.close();
+        store = new SPVBlockStore(UNITTEST, blockStoreFile, 10, false);
+        for (StoredBlock block : extension)
+            assertEquals(block, store.get(block.getHeight()));
+        assertNull(store.get(fork.size() - 1));
+        store.close();
+    }
+
     @Test
     @Ignore
     public void performanceTest() throws BlockStoreException {
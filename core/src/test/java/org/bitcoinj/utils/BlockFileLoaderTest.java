@@ -0,0 +1,110 @@
+/*
+ * Copyright 2022 Dash Core Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.utils;
+
+import org.bitcoinj.core.Address;
+import org.bitcoinj.core.Block;
+import org.bitcoinj.core.Context;
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Utils;
+import org.bitcoinj.params.UnitTestParams;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class BlockFileLoaderTest {
+    private static final NetworkParameters UNITTEST = UnitTestParams.get();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final List<Block> blocks = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        new Context(UNITTEST);
+        Address address = Address.fromKey(UNITTEST, new ECKey());
+        Block block = UNITTEST.getGenesisBlock();
+        for (int i = 0; i < 10; i++) {
+            block = block.createNextBlock(address);
+            blocks.add(block);
+        }
+    }
+
+    private static void writeBlock(OutputStream stream, byte[] bytes, int length) throws IOException {
+        Utils.uint32ToByteStreamBE(UNITTEST.getPacketMagic(), stream);
+        Utils.uint32ToByteStreamLE(length, stream);
+        stream.write(bytes, 0, Math.min(length, bytes.length));
+    }
+
+    private File writeFile(String name, List<Block> blocks, boolean truncateLast) throws IOException {
+        File file = folder.newFile(name);
+        try (OutputStream stream = new FileOutputStream(file)) {
+            for (int i = 0; i < blocks.size(); i++) {
+                byte[] bytes = blocks.get(i).bitcoinSerialize();
+                boolean truncate = truncateLast && i == blocks.size() - 1;
+                // garbage and padding between the blocks is skipped
+                stream.write(new byte[] {1, 2, 3});
+                writeBlock(stream, bytes, truncate ? bytes.length + 100 : bytes.length);
+                stream.write(new byte[i]);
+            }
+        }
+        return file;
+    }
+
+    private List<Block> load(BlockFileLoader loader) {
+        List<Block> loaded = new ArrayList<>();
+        for (Block block : loader)
+            loaded.add(block);
+        return loaded;
+    }
+
+    @Test
+    public void blocksAreReturnedInFileOrder() throws Exception {
+        List<File> files = Arrays.asList(writeFile("blk00000.dat", blocks.subList(0, 6), false),
+                writeFile("blk00001.dat", blocks.subList(6, 10), true));
+        List<Block> expected = blocks.subList(0, 9);
+
+        for (int prefetchDepth : new int[] {1, 3, 100}) {
+            List<Block> loaded = load(new BlockFileLoader(UNITTEST, files, BlockFileLoader.getDefaultExecutor(), prefetchDepth));
+            assertEquals(expected, loaded);
+        }
+        assertEquals(expected, load(new BlockFileLoader(UNITTEST, files, Threading.SAME_THREAD, 1)));
+        assertEquals(expected, load(new BlockFileLoader(UNITTEST, folder.getRoot())));
+    }
+
+    @Test
+    public void missingAndEmptyFilesAreSkipped() throws Exception {
+        List<File> files = Arrays.asList(new File(folder.getRoot(), "missing.dat"), folder.newFile("empty.dat"),
+                writeFile("blocks.dat", blocks.subList(0, 2), false));
+        BlockFileLoader loader = new BlockFileLoader(UNITTEST, files);
+        assertEquals(blocks.subList(0, 2), load(loader));
+        assertFalse(loader.hasNext());
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2022 Dash Core Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.utils;
+
+import org.junit.Test;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+import static org.junit.Assert.*;
+
+public class MetricsTest {
+
+    @Test
+    public void metricsAreKeyedByNameAndLabels() {
+        Metrics metrics = new Metrics();
+        Metrics.Counter tx = metrics.counter("messages_total", "Messages", "command", "tx");
+        tx.inc();
+        tx.inc(2);
+        assertSame(tx, metrics.counter("messages_total", "Messages", "command", "tx"));
+        assertEquals(3, metrics.counter("messages_total", "Messages", "command", "tx").get());
+        assertEquals(0, metrics.counter("messages_total", "Messages", "command", "inv").get());
+
+        Metrics.Gauge height = metrics.gauge("height", "Height");
+        height.set(10);
+        height.add(-2.5);
+        assertEquals(7.5, height.get(), 0);
+
+        try {
+            metrics.gauge("messages_total", "Messages");
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void histogram() {
+        Metrics metrics = new Metrics();
+        Metrics.Histogram histogram = metrics.histogram("time_seconds", "Time", new double[] {0.1, 1});
+        histogram.observe(0.05);
+        histogram.observe(0.1);
+        histogram.observe(0.5);
+        histogram.observe(3);
+        assertArrayEquals(new long[] {2, 3, 4}, histogram.getCumulativeCounts());
+        assertEquals(4, histogram.getCount());
+        assertEquals(3.65, histogram.getSum(), 1e-9);
+        histogram.observeNanos(2000000);
+        assertEquals(3, histogram.getCumulativeCounts()[0]);
+    }
+
+    @Test
+    public void prometheusText() {
+        Metrics metrics = new Metrics();
+        metrics.counter("b_total", "B \"quoted\"\nhelp", "peer", "[::1]:\"9999\"").inc(5);
+        metrics.histogram("a_seconds", "A", new double[] {0.5}).observe(0.25);
+        String expected = "# HELP a_seconds A\n" +
+                "# TYPE a_seconds histogram\n" +
+                "a_seconds_bucket{le=\"0.5\"} 1\n" +
+                "a_seconds_bucket{le=\"+Inf\"} 1\n" +
+                "a_seconds_sum 0.25\n" +
+                "a_seconds_count 1\n" +
+                "# HELP b_total B \"quoted\"\\nhelp\n" +
+                "# TYPE b_total counter\n" +
+                "b_total{peer=\"[::1]:\\\"9999\\\"\"} 5\n";
+        assertEquals(expected, metrics.toPrometheusText());
+
+        metrics.removeAll("peer", "[::1]:\"9999\"");
+        assertFalse(metrics.toPrometheusText().contains("b_total"));
+    }
+
+    @Test
+    public void timedLock() {
+        Metrics.Histogram holdTime = new Metrics().histogram("hold_seconds", "Hold time");
+        ReentrantLock lock = Threading.timedLock("test", holdTime);
+        lock.lock();
+        lock.lock();
+        assertTrue(lock.isHeldByCurrentThread());
+        assertEquals(2, lock.getHoldCount());
+        lock.unlock();
+        assertEquals(0, holdTime.getCount());
+        lock.unlock();
+        assertFalse(lock.isLocked());
+        assertEquals(1, holdTime.getCount());
+        assertTrue(lock.tryLock());
+        lock.unlock();
+        assertEquals(2, holdTime.getCount());
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2022 Dash Core Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.utils;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class PersistentHashMapTest {
+
+    /** A key with few distinct hash codes, so that full hash collisions are common. */
+    private static class WeakKey {
+        final int id;
+
+        WeakKey(int id) {
+            this.id = id;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof WeakKey && ((WeakKey) o).id == id;
+        }
+
+        @Override
+        public int hashCode() {
+            return id % 7 == 0 ? 42 : (id % 13) << 27;
+        }
+    }
+
+    private static <K, V> void assertSameContents(Map<K, V> expected, PersistentHashMap<K, V> actual) {
+        assertEquals(expected.size(), actual.size());
+        assertEquals(expected, actual);
+        int count = 0;
+        for (Map.Entry<K, V> entry : actual.entrySet()) {
+            assertEquals(expected.get(entry.getKey()), entry.getValue());
+            count++;
+        }
+        assertEquals(expected.size(), count);
+    }
+
+    @Test
+    public void randomOperationsMatchHashMap() {
+        Random random = new Random(1);
+        HashMap<Integer, Integer> expected = new HashMap<>();
+        PersistentHashMap<Integer, Integer> map = PersistentHashMap.empty();
+        for (int i = 0; i < 20000; i++) {
+            int key = random.nextInt(3000);
+            if (random.nextInt(3) == 0) {
+                expected.remove(key);
+                map = map.minus(key);
+            } else {
+                expected.put(key, i);
+                map = map.plus(key, i);
+            }
+        }
+        assertSameContents(expected, map);
+        assertEquals(expected, PersistentHashMap.copyOf(expected));
+    }
+
+    @Test
+    public void collisions() {
+        HashMap<WeakKey, Integer> expected = new HashMap<>();
+        PersistentHashMap<WeakKey, Integer> map = PersistentHashMap.empty();
+        for (int i = 0; i < 500; i++) {
+            expected.put(new WeakKey(i), i);
+            map = map.plus(new WeakKey(i), i);
+        }
+        assertSameContents(expected, map);
+        for (int i = 0; i < 500; i += 2) {
+            expected.remove(new WeakKey(i));
+            map = map.minus(new WeakKey(i));
+        }
+        assertSameContents(expected, map);
+        assertNull(map.get(new WeakKey(0)));
+        assertEquals(Integer.valueOf(7), map.get(new WeakKey(7)));
+    }
+
+    @Test
+    public void versionsAreIndependent() {
+        PersistentHashMap<Integer, String> first = PersistentHashMap.empty();
+        for (int i = 0; i < 100; i++)
+            first = first.plus(i, "a" + i);
+        PersistentHashMap<Integer, String> second = first.plus(5, "b").minus(6).plus(100, "c");
+
+        assertEquals(100, first.size());
+        assertEquals("a5", first.get(5));
+        assertEquals("a6", first.get(6));
+        assertFalse(first.containsKey(100));
+
+        assertEquals(100, second.size());
+        assertEquals("b", second.get(5));
+        assertFalse(second.containsKey(6));
+        assertEquals("c", second.get(100));
+
+        assertSame(second, second.minus(1000));
+        assertSame(second, second.plus(100, second.get(100)));
+        assertTrue(second.minus(5).minus(100).plus(6, "a6").plus(5, "a5").equals(first));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void mutatorsThrow() {
+        PersistentHashMap.<Integer, Integer>empty().plus(1, 1).put(2, 2);
+    }
+}
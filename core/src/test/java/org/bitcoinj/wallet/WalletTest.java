@@ -23,6 +23,7 @@ import org.bitcoinj.core.Address;
 import org.bitcoinj.core.Block;
 import org.bitcoinj.core.BlockChain;
 import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.Context;
 import org.bitcoinj.core.ECKey;
 import org.bitcoinj.core.InsufficientMoneyException;
 import org.bitcoinj.core.PeerAddress;
@@ -294,6 +295,22 @@ public class WalletTest extends TestWithWallet {
         assertEquals(valueOf(0, 50), wallet.getBalance(Wallet.BalanceType.ESTIMATED));
     }
 
+    @Test
+    public void cleanupForgetsSpentOutpoints() throws Exception {
+        Transaction t = cleanupCommon(OTHER_ADDRESS);
+
+        // Spending the same outputs as the incoming pending makes a transaction relevant, even though it isn't ours
+        Transaction doubleSpend = new Transaction(UNITTEST);
+        for (TransactionInput input : t.getInputs())
+            doubleSpend.addInput(new TransactionInput(UNITTEST, doubleSpend, new byte[] {}, input.getOutpoint()));
+        doubleSpend.addOutput(valueOf(0, 10), OTHER_ADDRESS);
+        assertTrue(wallet.isTransactionRelevant(doubleSpend));
+
+        wallet.setRiskAnalyzer(new TestRiskAnalysis.Analyzer(t));
+        wallet.cleanup();
+        assertFalse(wallet.isTransactionRelevant(doubleSpend));
+    }
+
     @Test
     public void cleanupFailsDueToSpend() throws Exception {
         Transaction t = cleanupCommon(OTHER_ADDRESS);
@@ -588,6 +605,47 @@ public class WalletTest extends TestWithWallet {
         assertEquals(Coin.COIN.plus(Coin.COIN), wallet.getBalance(BalanceType.ESTIMATED));
     }
 
+    @Test
+    public void cachedBalanceFollowsChanges() throws Exception {
+        // A pending receive is only available once unconfirmed coins may be spent.
+        sendMoneyToWallet(null, COIN);
+        assertEquals(ZERO, wallet.getBalance(BalanceType.AVAILABLE));
+        assertEquals(COIN, wallet.getBalance(BalanceType.ESTIMATED));
+        wallet.allowSpendingUnconfirmedTransactions();
+        assertEquals(COIN, wallet.getBalance(BalanceType.AVAILABLE));
+
+        // Committing a spend changes the balance straight away.
+        Transaction spend = wallet.createSend(OTHER_ADDRESS, valueOf(0, 10));
+        wallet.commitTx(spend);
+        assertEquals(valueOf(0, 90), wallet.getBalance(BalanceType.ESTIMATED));
+
+        // So does forgetting all transactions.
+        wallet.clearTransactions(0);
+        assertEquals(ZERO, wallet.getBalance(BalanceType.ESTIMATED));
+    }
+
+    @Test
+    public void cachedSpendableBalanceFollowsKeys() throws Exception {
+        // Removing an imported key makes its coins unspendable.
+        ECKey imported = new ECKey();
+        wallet.importKey(imported);
+        sendMoneyToWallet(null, COIN, Address.fromKey(UNITTEST, imported));
+        assertEquals(COIN, wallet.getBalance(BalanceType.ESTIMATED_SPENDABLE));
+        assertTrue(wallet.removeKey(imported));
+        assertEquals(ZERO, wallet.getBalance(BalanceType.ESTIMATED_SPENDABLE));
+        assertEquals(COIN, wallet.getBalance(BalanceType.ESTIMATED));
+
+        // Importing the key of a watched address makes its coins spendable.
+        Wallet encryptedWallet = new Wallet(UNITTEST);
+        encryptedWallet.encrypt(PASSWORD1);
+        ECKey watched = new ECKey();
+        encryptedWallet.addWatchedAddress(Address.fromKey(UNITTEST, watched));
+        sendMoneyToWallet(encryptedWallet, null, COIN, Address.fromKey(UNITTEST, watched));
+        assertEquals(ZERO, encryptedWallet.getBalance(BalanceType.ESTIMATED_SPENDABLE));
+        assertEquals(1, encryptedWallet.importKeysAndEncrypt(Collections.singletonList(watched), PASSWORD1));
+        assertEquals(COIN, encryptedWallet.getBalance(BalanceType.ESTIMATED_SPENDABLE));
+    }
+
     // Intuitively you'd expect to be able to create a transaction with identical inputs and outputs and get an
     // identical result to Dash Core. However the signatures are not deterministic - signing the same data
     // with the same key twice gives two different outputs. So we cannot prove bit-for-bit compatibility in this test
@@ -664,6 +722,36 @@ public class WalletTest extends TestWithWallet {
         assertEquals(3, confTxns.size());
     }
 
+    @Test
+    public void depthFollowsBlocksWithoutNotifyingDeepTransactions() throws Exception {
+        Transaction tx = sendMoneyToWallet(AbstractBlockChain.NewBlockType.BEST_CHAIN, COIN);
+        TransactionConfidence confidence = tx.getConfidence();
+        assertEquals(1, confidence.getDepthInBlocks());
+        final AtomicInteger depthChanges = new AtomicInteger();
+        confidence.addEventListener(Threading.SAME_THREAD, new TransactionConfidence.Listener() {
+            @Override
+            public void onConfidenceChanged(TransactionConfidence confidence, ChangeReason reason) {
+                if (reason == ChangeReason.DEPTH)
+                    depthChanges.incrementAndGet();
+            }
+        });
+
+        // Blocks are announced until the transaction is buried below the event horizon.
+        int horizon = Context.get().getEventHorizon();
+        for (int i = 0; i < horizon + 5; i++)
+            wallet.notifyNewBestBlock(createFakeBlock(blockStore, Block.BLOCK_HEIGHT_GENESIS).storedBlock);
+        assertEquals(horizon + 6, confidence.getDepthInBlocks());
+        assertEquals(horizon, depthChanges.get());
+
+        // A depth future asks for more.
+        ListenableFuture<TransactionConfidence> future = confidence.getDepthFuture(horizon + 8, Threading.SAME_THREAD);
+        wallet.notifyNewBestBlock(createFakeBlock(blockStore, Block.BLOCK_HEIGHT_GENESIS).storedBlock);
+        assertFalse(future.isDone());
+        wallet.notifyNewBestBlock(createFakeBlock(blockStore, Block.BLOCK_HEIGHT_GENESIS).storedBlock);
+        assertTrue(future.isDone());
+        assertEquals(horizon + 2, depthChanges.get());
+    }
+
     @Test
     public void balances() throws Exception {
         Coin nanos = COIN;